@@ -4,6 +4,7 @@ import com.datascience.gal.AbstractDawidSkene;
 import com.datascience.gal.BatchDawidSkene;
 import com.datascience.gal.Category;
 import com.datascience.gal.IncrementalDawidSkene;
+import com.datascience.gal.OnlineDawidSkene;
 import com.datascience.galc.ContinuousProject;
 
 import java.util.Collection;
@@ -47,6 +48,19 @@ public class JobFactory {
 				return new IncrementalDawidSkene(id, categories);
 			}
 		});
+
+		DS_FACTORY.put("online", new Creator() {
+
+			@Override
+			public AbstractDawidSkene create(String id) {
+				return new OnlineDawidSkene(id);
+			}
+
+			@Override
+			public AbstractDawidSkene create(String id, Collection<Category> categories) {
+				return new OnlineDawidSkene(id, categories);
+			}
+		});
 	};
 	
 	protected Creator getCreator(String type){
@@ -0,0 +1,90 @@
+package com.datascience.core.storages;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.apache.log4j.Logger;
+
+import com.datascience.gal.EstimationCheckpoint;
+import com.datascience.service.ISerializer;
+import com.google.common.io.Files;
+
+/**
+ * Keeps every checkpoint in its own file in a directory. A checkpoint is
+ * written to a temporary file first and then renamed, so a crash while
+ * saving leaves the previous one in place.
+ */
+public class FileCheckpointStorage implements ICheckpointStorage {
+
+	private static Logger logger = Logger.getLogger(FileCheckpointStorage.class);
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String SUFFIX = ".checkpoint";
+
+	private final File directory;
+	private final ISerializer serializer;
+
+	public FileCheckpointStorage(String directory, ISerializer serializer) throws IOException {
+		this.directory = new File(directory);
+		if (!this.directory.isDirectory() && !this.directory.mkdirs())
+			throw new IOException("Can't create checkpoints directory: " + directory);
+		this.serializer = serializer;
+	}
+
+	private File getFile(String jobId) throws UnsupportedEncodingException {
+		// job ids can contain any characters
+		return new File(directory, URLEncoder.encode(jobId, "UTF-8") + SUFFIX);
+	}
+
+	@Override
+	public EstimationCheckpoint get(String jobId) throws IOException {
+		File file = getFile(jobId);
+		if (!file.isFile())
+			return null;
+		return serializer.parse(Files.toString(file, CHARSET), EstimationCheckpoint.class);
+	}
+
+	@Override
+	public void save(String jobId, EstimationCheckpoint checkpoint) throws IOException {
+		File file = getFile(jobId);
+		File tmp = new File(directory, file.getName() + ".tmp");
+		Files.write(serializer.serialize(checkpoint), tmp, CHARSET);
+		if (!tmp.renameTo(file)) {
+			// renameTo does not replace existing files on some platforms
+			if (!file.delete() || !tmp.renameTo(file))
+				throw new IOException("Can't write checkpoint: " + file);
+		}
+		logger.info("Checkpoint of " + jobId + " at iteration " + checkpoint.getIteration());
+	}
+
+	@Override
+	public void remove(String jobId) throws IOException {
+		File file = getFile(jobId);
+		if (file.exists() && !file.delete())
+			throw new IOException("Can't remove checkpoint: " + file);
+	}
+
+	@Override
+	public Collection<String> getJobIds() throws IOException {
+		Collection<String> result = new ArrayList<String>();
+		File[] files = directory.listFiles();
+		if (files == null)
+			throw new IOException("Can't list checkpoints directory: " + directory);
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(SUFFIX))
+				result.add(URLDecoder.decode(name.substring(0, name.length() - SUFFIX.length()), "UTF-8"));
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "FileCheckpoints(" + directory + ")";
+	}
+}
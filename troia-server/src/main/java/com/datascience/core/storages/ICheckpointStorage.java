@@ -0,0 +1,18 @@
+package com.datascience.core.storages;
+
+import java.util.Collection;
+
+import com.datascience.gal.EstimationCheckpoint;
+
+/**
+ * Checkpoints of the computations in progress, by job id. A checkpoint is
+ * removed when its computation ends, so the ones found on startup belong
+ * to computations interrupted by a restart.
+ */
+public interface ICheckpointStorage {
+
+	EstimationCheckpoint get(String jobId) throws Exception;
+	void save(String jobId, EstimationCheckpoint checkpoint) throws Exception;
+	void remove(String jobId) throws Exception;
+	Collection<String> getJobIds() throws Exception;
+}
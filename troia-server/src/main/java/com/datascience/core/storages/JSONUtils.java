@@ -11,6 +11,7 @@ package com.datascience.core.storages;
 
 import java.lang.reflect.Type;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -21,6 +22,7 @@ import com.datascience.core.base.ContValue;
 import com.datascience.core.base.Data;
 import com.datascience.core.storages.DataJSON.ShallowAssign;
 import com.datascience.core.storages.DataJSON.ShallowGoldObject;
+import com.datascience.gal.AbstractDawidSkene;
 import com.datascience.gal.AssignedLabel;
 import com.datascience.gal.Category;
 import com.datascience.gal.CategoryPair;
@@ -29,9 +31,14 @@ import com.datascience.gal.CorrectLabel;
 import com.datascience.gal.Datum;
 import com.datascience.gal.DawidSkene;
 import com.datascience.gal.DawidSkeneDeserializer;
+import com.datascience.gal.DawidSkeneSerializer;
+import com.datascience.gal.DenseConfusionMatrix;
+import com.datascience.gal.IdMap;
+import com.datascience.gal.LabelStore;
 import com.datascience.gal.MatrixValue;
 import com.datascience.gal.MisclassificationCost;
 import com.datascience.gal.MultinomialConfusionMatrix;
+import com.datascience.gal.SparseConfusionMatrix;
 import com.datascience.gal.Worker;
 import com.datascience.galc.WorkerContResults;
 import com.datascience.galc.serialization.GenericWorkerDeserializer;
@@ -96,6 +103,10 @@ public class JSONUtils {
 	} .getType();
 	public static final Type confusionMatrixType = new TypeToken<MultinomialConfusionMatrix>() {
 	} .getType();
+	public static final Type denseConfusionMatrixType = new TypeToken<DenseConfusionMatrix>() {
+	} .getType();
+	public static final Type sparseConfusionMatrixType = new TypeToken<SparseConfusionMatrix>() {
+	} .getType();
 	public static final Type stringIntegerMapType = new TypeToken<Map<String, Integer>>() {
 	} .getType();
 	public static final Type stringCategoryMapType = new TypeToken<Map<String, Category>>() {
@@ -104,6 +115,10 @@ public class JSONUtils {
 	} .getType();
 	public static final Type strinWorkerMapType = new TypeToken<Map<String, com.datascience.gal.Worker>>() {
 	} .getType();
+	public static final Type datumCollectionType = new TypeToken<Collection<Datum>>() {
+	} .getType();
+	public static final Type workerCollectionType = new TypeToken<Collection<com.datascience.gal.Worker>>() {
+	} .getType();
 	public static final Type stringStringMapType = new TypeToken<Map<String, String>>() {
 	} .getType();
 	public static final Type booleanType = new TypeToken<Boolean>() {
@@ -112,6 +127,12 @@ public class JSONUtils {
 	} .getType();
 	public static final Type stringStringDoubleMapType = new TypeToken<Map<String, Map<String, Double>>>() {
 	} .getType();
+	public static final Type doubleListType = new TypeToken<List<Double>>() {
+	} .getType();
+	public static final Type integerListType = new TypeToken<List<Integer>>() {
+	} .getType();
+	public static final Type stringListType = new TypeToken<List<String>>() {
+	} .getType();
 
 	public JSONUtils() {
 		GsonBuilder builder = getFilledDefaultGsonBuilder();
@@ -130,6 +151,21 @@ public class JSONUtils {
 	}
 
 	public static GsonBuilder getFilledDefaultGsonBuilder() {
+		GsonBuilder builder = getModelGsonBuilder();
+		// within projects the objects and workers leave their names and
+		// labels to the label store and are written by its ids
+		GsonBuilder projectBuilder = getModelGsonBuilder();
+		projectBuilder.registerTypeHierarchyAdapter(IdMap.class, IdMap.serializer);
+		projectBuilder.registerTypeAdapter(datumType, Datum.projectSerializer);
+		projectBuilder.registerTypeAdapter(workerType, com.datascience.gal.Worker.projectSerializer);
+		projectBuilder.registerTypeAdapter(denseConfusionMatrixType, DenseConfusionMatrix.projectSerializer);
+		projectBuilder.registerTypeAdapter(sparseConfusionMatrixType, SparseConfusionMatrix.projectSerializer);
+		builder.registerTypeHierarchyAdapter(AbstractDawidSkene.class,
+				new DawidSkeneSerializer(projectBuilder.create()));
+		return builder;
+	}
+
+	private static GsonBuilder getModelGsonBuilder() {
 		GsonBuilder builder = getDefaultGsonBuilder();
 		builder.registerTypeAdapter(assignedLabelType,AssignedLabel.deserializer);
 		builder.registerTypeAdapter(correctLabelType, CorrectLabel.deserializer);
@@ -140,8 +176,14 @@ public class JSONUtils {
 		builder.registerTypeAdapter(datumType, Datum.serializer);
 		builder.registerTypeAdapter(confusionMatrixType, MultinomialConfusionMatrix.deserializer);
 		builder.registerTypeAdapter(confusionMatrixType, MultinomialConfusionMatrix.serializer);
+		builder.registerTypeAdapter(denseConfusionMatrixType, DenseConfusionMatrix.deserializer);
+		builder.registerTypeAdapter(denseConfusionMatrixType, DenseConfusionMatrix.serializer);
+		builder.registerTypeAdapter(sparseConfusionMatrixType, SparseConfusionMatrix.deserializer);
+		builder.registerTypeAdapter(sparseConfusionMatrixType, SparseConfusionMatrix.serializer);
 		builder.registerTypeAdapter(workerType, com.datascience.gal.Worker.deserializer);
 		builder.registerTypeAdapter(dawidSkeneType, DawidSkeneDeserializer.deserializer);
+		builder.registerTypeAdapter(LabelStore.class, LabelStore.serializer);
+		builder.registerTypeAdapter(LabelStore.class, LabelStore.deserializer);
 
 		builder.registerTypeAdapter(workerGenericType, new GenericWorkerDeserializer());
 		builder.registerTypeAdapter(workerGenericType, new GenericWorkerSerializer());
@@ -46,6 +46,13 @@ public class CommandStatus<T> {
 	}
 	
 	public static<T> CommandStatus<T> notReadyCommandStatus(){
-		return new CommandStatus<T>(CommandStatusType.NOT_READY, null, null, 0.);
+		return notReadyCommandStatus(null);
+	}
+
+	/**
+	 * @param progress reported by a running command
+	 */
+	public static<T> CommandStatus<T> notReadyCommandStatus(T progress){
+		return new CommandStatus<T>(CommandStatusType.NOT_READY, progress, null, 0.);
 	}
 }
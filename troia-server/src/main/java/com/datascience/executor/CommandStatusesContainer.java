@@ -1,5 +1,8 @@
 package com.datascience.executor;
 
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import com.datascience.service.IRandomUniqIDGenerator;
@@ -14,6 +17,8 @@ public class CommandStatusesContainer {
 	
 	Cache<String, CommandStatus> commandsResults;
 	IRandomUniqIDGenerator idGenerator;
+	// cancellable commands that did not finish yet
+	Map<String, ProjectCommand<?>> cancellableCommands;
 	
 	public CommandStatusesContainer(IRandomUniqIDGenerator idGenerator){
 		commandsResults = CacheBuilder.newBuilder()
@@ -21,6 +26,7 @@ public class CommandStatusesContainer {
 			.expireAfterWrite(1, TimeUnit.DAYS)
 			.build();
 		this.idGenerator = idGenerator;
+		cancellableCommands = new ConcurrentHashMap<String, ProjectCommand<?>>();
 	}
 	
 	public String getNextResultId(){
@@ -35,6 +41,27 @@ public class CommandStatusesContainer {
 		return commandsResults.getIfPresent(id);
 	}
 	
+	public void registerCommand(String id, ProjectCommand<?> command){
+		if (command.isCancellable()) {
+			cancellableCommands.put(id, command);
+		}
+	}
+
+	public void unregisterCommand(String id){
+		cancellableCommands.remove(id);
+	}
+
+	public void cancelCommand(String id){
+		ProjectCommand<?> command = cancellableCommands.get(id);
+		if (command == null) {
+			if (getCommandResult(id) == null) {
+				throw new NoSuchElementException("No status with id: " + id);
+			}
+			throw new IllegalArgumentException("Command " + id + " can't be cancelled or has finished");
+		}
+		command.cancel();
+	}
+
 	public String initNewStatus(){
 		String id = getNextResultId();
 		addCommandStatus(id, CommandStatus.notReadyCommandStatus());
@@ -10,10 +10,60 @@ public abstract class ProjectCommand<T> {
 	final boolean modifies;
 	private T result;
 	private Exception exception;
+	private volatile boolean cancelled;
+	private ProgressListener progressListener;
+	private String statusId;
+
+	public interface ProgressListener {
+		void progress(Object progress);
+	}
 	
 	public ProjectCommand(boolean modifies){
 		this.modifies = modifies;
 	}
+
+	/**
+	 * Cancellable commands check {@link #isCancelled()} while they run and
+	 * stop in a consistent state.
+	 */
+	public boolean isCancellable(){
+		return false;
+	}
+
+	public void cancel(){
+		if (!isCancellable()) {
+			throw new IllegalArgumentException("Command can't be cancelled");
+		}
+		cancelled = true;
+	}
+
+	protected boolean isCancelled(){
+		return cancelled;
+	}
+
+	public void setProgressListener(ProgressListener listener){
+		progressListener = listener;
+	}
+
+	/**
+	 * @param id of the status that publishes the progress and the result
+	 */
+	public void setStatusId(String id){
+		statusId = id;
+	}
+
+	/**
+	 * @return id of the command's status, null if it has none
+	 */
+	public String getStatusId(){
+		return statusId;
+	}
+
+	protected void reportProgress(Object progress){
+		if (progressListener != null) {
+			progressListener.progress(progress);
+		}
+	}
 	
 	public T getResult(){
 		return result;
@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -22,19 +23,31 @@ import com.datascience.gal.decision.DecisionEngine;
 import com.datascience.gal.decision.ILabelProbabilityDistributionCalculator;
 import com.datascience.gal.decision.LabelProbabilityDistributionCalculators;
 import com.datascience.gal.decision.ObjectLabelDecisionAlgorithms;
-import com.datascience.utils.Utils;
 import com.google.common.math.DoubleMath;
 
 public abstract class AbstractDawidSkene implements DawidSkene {
 
-	protected Map<String, Datum> objects;
-	protected Map<String, Datum> objectsWithNoLabels;
-	protected Map<String, Worker> workers;
+	// labels of the objects and workers below, with their names
+	protected LabelStore labelStore = new LabelStore();
+	// by the ids of the label store
+	protected IdMap<Datum> objects;
+	protected IdMap<Datum> objectsWithNoLabels;
+	protected IdMap<Worker> workers;
 	protected Map<String, Category> categories;
 	protected Map<String, CorrectLabel> evaluationData;
 
 	protected boolean fixedPriors;
 
+	protected EstimationSettings estimationSettings = new EstimationSettings();
+
+	// observes estimate(), set only while a command runs it
+	private transient EstimationMonitor estimationMonitor;
+	// settings of the running estimate() when they are not the job's ones
+	private transient EstimationSettings runSettings;
+
+	// log-likelihood after each iteration of the last estimate() run
+	protected List<Double> logLikelihoods = new ArrayList<Double>();
+
 	protected final String id;
 
 	protected DecisionEngine mvDecisionEnginge;
@@ -49,9 +62,9 @@ public abstract class AbstractDawidSkene implements DawidSkene {
 	protected AbstractDawidSkene(String id) {
 		this.id = id;
 		this.evaluationData = new HashMap<String,CorrectLabel>();
-		this.objects = new HashMap<String, Datum>();
-		this.workers = new HashMap<String, Worker>();
-		this.objectsWithNoLabels = new HashMap<String, Datum>();
+		this.objects = new IdMap<Datum>(labelStore.getObjectNames());
+		this.workers = new IdMap<Worker>(labelStore.getWorkerNames());
+		this.objectsWithNoLabels = new IdMap<Datum>(labelStore.getObjectNames());
 		this.computed = false;
 		mvDecisionEnginge = new DecisionEngine(
 			new LabelProbabilityDistributionCalculators.DS(), null,
@@ -71,6 +84,8 @@ public abstract class AbstractDawidSkene implements DawidSkene {
 		}
 		for (Category c : categories) {
 			this.categories.put(c.getName(), c);
+			// labels then share the category's name
+			labelStore.categoryId(c.getName());
 			if (c.hasPrior()) {
 				priorCnt += 1;
 				priorSum += c.getPrior();
@@ -98,6 +113,35 @@ public abstract class AbstractDawidSkene implements DawidSkene {
 		invalidateComputed();
 	}
 
+	/**
+	 * Attaches deserialized objects and workers to the job's store and keeps
+	 * them by its ids. Older projects keep the labels in the objects, they
+	 * are moved to the store.
+	 *
+	 * @param store null for older projects
+	 */
+	protected void attachLabels(LabelStore store, Collection<Datum> objects,
+			Collection<Datum> objectsWithNoLabels, Collection<Worker> workers) {
+		if (store != null)
+			labelStore = store;
+		this.objects = attachObjects(objects);
+		this.objectsWithNoLabels = attachObjects(objectsWithNoLabels);
+		this.workers = new IdMap<Worker>(labelStore.getWorkerNames());
+		for (Worker w : workers) {
+			w.attach(labelStore);
+			this.workers.put(w.getStoreId(), w);
+		}
+	}
+
+	private IdMap<Datum> attachObjects(Collection<Datum> datums) {
+		IdMap<Datum> attached = new IdMap<Datum>(labelStore.getObjectNames());
+		for (Datum d : datums) {
+			d.attach(labelStore);
+			attached.put(d.storeId, d);
+		}
+		return attached;
+	}
+
 	protected void invalidateComputed() {
 		this.computed = false;
 	}
@@ -118,21 +162,24 @@ public abstract class AbstractDawidSkene implements DawidSkene {
 
 	protected Double getLogLikelihood() {
 		double result = 0;
+		int[] offsets = labelStore.getObjectOffsets();
+		int[] objectLabels = labelStore.getObjectLabels();
 		for (Datum d : objects.values()) {
-			for (AssignedLabel al: d.getAssignedLabels()) {
-				String workerName = al.getWorkerName();
-				String assignedLabel = al.getCategoryName();
-				Map<String, Double> estimatedCorrectLabel =
-					d.getCategoryProbability();
-				for (String from: estimatedCorrectLabel.keySet()) {
-					Worker w = workers.get(workerName);
-					Double categoryProbability = estimatedCorrectLabel.get(from);
-					Double labelingProbability = getErrorRateForWorker(w, from,
-												 assignedLabel);
-					if (categoryProbability == 0.0 || Double.isNaN(labelingProbability) || labelingProbability ==0.0 ) 
-						continue; 
+			for (int i = offsets[d.storeId]; i < offsets[d.storeId + 1]; i++) {
+				int label = objectLabels[i];
+				Worker w = workers.get(labelStore.getWorker(label));
+				double[] logErrorRates = w.getLogErrorRates(this, labelStore.getCategory(label));
+				double[] estimatedCorrectLabel = d.categoryProbabilities;
+				for (int c = 0; c < estimatedCorrectLabel.length; c++) {
+					double categoryProbability = estimatedCorrectLabel[c];
+					if (Double.isNaN(categoryProbability))
+						continue;
+					double logLabelingProbability = logErrorRates[c];
+					if (categoryProbability == 0.0 || Double.isNaN(logLabelingProbability)
+							|| logLabelingProbability == Double.NEGATIVE_INFINITY)
+						continue;
 					else
-						result += Math.log(categoryProbability) + Math.log(labelingProbability);
+						result += Math.log(categoryProbability) + logLabelingProbability;
 				}
 			}
 		}
@@ -169,6 +216,23 @@ public abstract class AbstractDawidSkene implements DawidSkene {
 		return id;
 	}
 
+	public EstimationSettings getEstimationSettings() {
+		return estimationSettings;
+	}
+
+	public void setEstimationSettings(EstimationSettings estimationSettings) {
+		estimationSettings.validate();
+		this.estimationSettings = estimationSettings;
+	}
+
+	/**
+	 * @return settings of the running estimation, the job's ones unless it
+	 *         was started with its own
+	 */
+	protected EstimationSettings getRunSettings() {
+		return runSettings != null ? runSettings : estimationSettings;
+	}
+
 //	@Override
 //	public void setFixedPriors(Map<String, Double> priors) {
 //
@@ -285,70 +349,71 @@ public abstract class AbstractDawidSkene implements DawidSkene {
 
 		// Let's check first if we have any workers who have labeled this item,
 		// except for the worker that we ignore
-		Set<AssignedLabel> labels = new HashSet<AssignedLabel>(
-			d.getAssignedLabels());
-		if (labels.isEmpty())
+		int[] offsets = labelStore.getObjectOffsets();
+		int[] objectLabels = labelStore.getObjectLabels();
+		int first = offsets[d.storeId];
+		int end = offsets[d.storeId + 1];
+		if (first == end)
+			return null;
+		int ignored = workerToIgnore == null ? SymbolTable.NONE
+				: labelStore.getWorkerNames().getId(workerToIgnore);
+		if (ignored != SymbolTable.NONE && end - first == 1
+				&& labelStore.getWorker(objectLabels[first]) == ignored)
+			// if only the ignored labeler has labeled
 			return null;
-		if (workerToIgnore != null && labels.size() == 1) {
-			for (AssignedLabel al : labels) {
-				if (al.getWorkerName().equals(workerToIgnore))
-					// if only the ignored labeler has labeled
-					return null;
-			}
-		}
 
 		// If it is not gold, then we proceed to estimate the class
 		// probabilities using the method of Dawid and Skene and we proceed as
 		// usual with the M-phase of the EM-algorithm of Dawid&Skene
 
-		// Estimate denominator for Eq 2.5 of Dawid&Skene, which is the same
-		// across all categories
-		double denominator = 0.0;
-
-		// To compute the denominator, we also compute the nominators across
-		// all categories, so it saves us time to save the nominators as we
-		// compute them
-		Map<String, Double> categoryNominators = new HashMap<String, Double>();
-
+		// Eq 2.5 of Dawid&Skene is evaluated in log space: the product of
+		// many error rates underflows to 0 for objects with a lot of labels,
+		// while the sum of their logs does not. A zero factor makes the whole
+		// nominator zero, so it is kept as -infinity.
+		// The workers and their log error rates are looked up once per
+		// label, the loop over the categories only adds up table entries.
+		List<double[]> evidence = new ArrayList<double[]>(end - first);
+		for (int i = first; i < end; i++) {
+			int label = objectLabels[i];
+			// If we are trying to estimate the category probability
+			// distribution to estimate the quality of a given worker,
+			// then we need to ignore the labels submitted by this worker.
+			if (labelStore.getWorker(label) == ignored)
+				continue;
+
+			Worker w = workers.get(labelStore.getWorker(label));
+			evidence.add(w.getLogErrorRates(this, labelStore.getCategory(label)));
+		}
+
+		String[] categoryNames = new String[categories.size()];
+		double[] logNominators = new double[categories.size()];
+		double max = Double.NEGATIVE_INFINITY;
+		int c = 0;
 		for (Category category : categories.values()) {
-
-			// We estimate now Equation 2.5 of Dawid & Skene
-			double categoryNominator = prior(category.getName());
-
-			// We go through all the labels assigned to the d object
-			for (AssignedLabel al : d.getAssignedLabels()) {
-				Worker w = workers.get(al.getWorkerName());
-
-				// If we are trying to estimate the category probability
-				// distribution
-				// to estimate the quality of a given worker, then we need to
-				// ignore
-				// the labels submitted by this worker.
-				if (workerToIgnore != null
-						&& w.getName().equals(workerToIgnore))
-					continue;
-
-				String assigned_category = al.getCategoryName();
-				double evidence_for_category = getErrorRateForWorker(w,
-					category.getName(), assigned_category);
-				if (Double.isNaN(evidence_for_category))
-					continue;
-				categoryNominator *= evidence_for_category;
+			double logNominator = Math.log(prior(category.getName()));
+			int from = labelStore.categoryId(category.getName());
+			for (double[] logErrorRates : evidence) {
+				if (!Double.isNaN(logErrorRates[from]))
+					logNominator += logErrorRates[from];
 			}
 
-			categoryNominators.put(category.getName(), categoryNominator);
-			denominator += categoryNominator;
+			categoryNames[c] = category.getName();
+			logNominators[c] = logNominator;
+			max = Math.max(max, logNominator);
+			c++;
 		}
 
-		for (String category : categories.keySet()) {
-			double nominator = categoryNominators.get(category);
-			if (denominator == 0.0) {
-				// result.put(category, 0.0);
-				return null;
-			} else {
-				double probability = Utils.round(nominator / denominator, 5);
-				result.put(category, probability);
-			}
+		// all nominators are zero
+		if (max == Double.NEGATIVE_INFINITY)
+			return null;
+
+		double denominator = 0.0;
+		for (c = 0; c < logNominators.length; c++) {
+			logNominators[c] = Math.exp(logNominators[c] - max);
+			denominator += logNominators[c];
+		}
+		for (c = 0; c < logNominators.length; c++) {
+			result.put(categoryNames[c], logNominators[c] / denominator);
 		}
 
 		return result;
@@ -420,35 +485,29 @@ public abstract class AbstractDawidSkene implements DawidSkene {
 		// If we already have the object, then just add the label
 		// in the set of labels for the object.
 		// If it is the first time we see the object, then create
-		// the appropriate entry in the objects hashmap
-		Datum d;
-		if (objects.containsKey(objectName)) {
-			d = objects.get(objectName);
-		} else {
-			Set<Category> datumCategories = new HashSet<Category>(
-				categories.values());
-			d = new Datum(objectName, datumCategories);
-		}
-		if (objectsWithNoLabels.containsKey(objectName)) {
-			objectsWithNoLabels.remove(objectName);
+		// the appropriate entry in the objects map
+		int object = labelStore.objectId(objectName);
+		if (!objects.containsId(object)) {
+			Datum d = objectsWithNoLabels.remove(object);
+			if (d == null) {
+				Set<Category> datumCategories = new HashSet<Category>(
+					categories.values());
+				d = new Datum(objectName, datumCategories, labelStore);
+			}
+			objects.put(object, d);
 		}
-		d.addAssignedLabel(al);
-		objects.put(objectName, d);
 
 		// If we already have the worker, then just add the label
 		// in the set of labels assigned by the worker.
-		// If it is the first time we see the object, then create
-		// the appropriate entry in the objects hashmap
-		Worker w;
-		if (workers.containsKey(workerName)) {
-			w = workers.get(workerName);
-		} else {
+		// If it is the first time we see the worker, then create
+		// the appropriate entry in the workers map
+		int worker = labelStore.workerId(workerName);
+		if (!workers.containsId(worker)) {
 			Set<Category> workerCategories = new HashSet<Category>(
 				categories.values());
-			w = new Worker(workerName, workerCategories);
+			workers.put(worker, new Worker(workerName, workerCategories, labelStore));
 		}
-		w.addAssignedLabel(al);
-		workers.put(workerName, w);
+		labelStore.add(al);
 		invalidateComputed();
 	}
 
@@ -465,21 +524,20 @@ public abstract class AbstractDawidSkene implements DawidSkene {
 		String objectName = cl.getObjectName();
 		String correctCategory = cl.getCorrectCategory();
 
-		Datum d;
 		this.validateCategory(correctCategory);
-		if (this.objects.containsKey(objectName)) {
-			d = this.objects.get(objectName);
-		} else {
-			Set<Category> categories = new HashSet<Category>(
-				this.categories.values());
-			d = new Datum(objectName, categories);
-		}
-		if (objectsWithNoLabels.containsKey(objectName)) {
-			objectsWithNoLabels.remove(objectName);
+		int object = labelStore.objectId(objectName);
+		Datum d = objects.get(object);
+		if (d == null) {
+			d = objectsWithNoLabels.remove(object);
+			if (d == null) {
+				Set<Category> categories = new HashSet<Category>(
+					this.categories.values());
+				d = new Datum(objectName, categories, labelStore);
+			}
+			objects.put(object, d);
 		}
 		d.setGold(true);
 		d.setCorrectCategory(correctCategory);
-		this.objects.put(objectName, d);
 		invalidateComputed();
 	}
 	
@@ -487,8 +545,9 @@ public abstract class AbstractDawidSkene implements DawidSkene {
 	public void addObjects(Collection<String> objs){
 		Set<Category> categories = new HashSet<Category>(this.categories.values());
 		for (String obj : objs){
-			if (!this.objects.containsKey(obj) && !this.objectsWithNoLabels.containsKey(obj)) {
-				this.objectsWithNoLabels.put(obj, new Datum(obj, categories));
+			int object = labelStore.objectId(obj);
+			if (!this.objects.containsId(object) && !this.objectsWithNoLabels.containsId(object)) {
+				this.objectsWithNoLabels.put(object, new Datum(obj, categories, labelStore));
 			}
 		}
 		invalidateComputed();
@@ -684,29 +743,105 @@ public abstract class AbstractDawidSkene implements DawidSkene {
 	// One pass of the incremental algorithm.
 	protected abstract void estimateInner();
 
+	/**
+	 * Log-likelihood checked by the stop condition after each call to
+	 * {@link #estimateInner()}. By default it is recomputed from scratch.
+	 */
+	protected double getIterationLogLikelihood() {
+		return getLogLikelihood();
+	}
+
+	/**
+	 * @return log-likelihood after each iteration of the last
+	 *         {@link #estimate(int, double)} run
+	 */
+	public List<Double> getLogLikelihoods() {
+		return new ArrayList<Double>(logLikelihoods);
+	}
+
+	/**
+	 * Called once before the first call to {@link #estimateInner()} of an
+	 * {@link #estimate(int, double)} run.
+	 */
+	protected void prepareEstimation() {
+	}
+
+	/**
+	 * Called once after the last call to {@link #estimateInner()} of an
+	 * {@link #estimate(int, double)} run.
+	 *
+	 * @param completed false when an iteration failed, the job must then
+	 *        keep the estimates it had before the run
+	 */
+	protected void finishEstimation(boolean completed) {
+	}
+
+	/**
+	 * @param monitor notified after each iteration of the following
+	 *        {@link #estimate(int, double)} runs, null to remove it
+	 */
+	public void setEstimationMonitor(EstimationMonitor monitor) {
+		estimationMonitor = monitor;
+	}
+
 	@Override
 	public void estimate(int maxIterations) {
 		estimate(maxIterations, DEFAULT_EPSILON);
 	}
 
+	/**
+	 * Runs {@link #estimate(int, double)} with the given settings. The job's
+	 * settings are left unchanged.
+	 */
+	public void estimate(int maxIterations, double epsilon, EstimationSettings settings) {
+		settings.validate();
+		runSettings = settings;
+		try {
+			estimate(maxIterations, epsilon);
+		} finally {
+			runSettings = null;
+		}
+	}
+
 	@Override
 	public void estimate(int maxIterations, double epsilon) {
 		double prevLogLikelihood = Double.POSITIVE_INFINITY;
 		double currLogLikelihood = 0d;
 		int iteration = 0;
-		for (;iteration < maxIterations && Math.abs(currLogLikelihood -
-				prevLogLikelihood) > epsilon; iteration++) {
-			prevLogLikelihood = currLogLikelihood;
-			estimateInner();
-			currLogLikelihood = getLogLikelihood();
+		boolean stopped = false;
+		boolean completed = false;
+		logLikelihoods = new ArrayList<Double>();
+		prepareEstimation();
+		try {
+			for (;iteration < maxIterations && Math.abs(currLogLikelihood -
+					prevLogLikelihood) > epsilon && !stopped; iteration++) {
+				prevLogLikelihood = currLogLikelihood;
+				estimateInner();
+				currLogLikelihood = getIterationLogLikelihood();
+				logLikelihoods.add(currLogLikelihood);
+				if (estimationMonitor != null)
+					stopped = !estimationMonitor.iterationDone(iteration + 1, maxIterations,
+							currLogLikelihood, iteration == 0 ? Double.NaN
+									: currLogLikelihood - prevLogLikelihood);
+			}
+			completed = true;
+		} finally {
+			finishEstimation(completed);
 		}
 		double diffLogLikelihood = Math.abs(currLogLikelihood - prevLogLikelihood);
+		// stopping after the last iteration is not a cancel
+		boolean cancelled = stopped && iteration < maxIterations && diffLogLikelihood > epsilon;
 		logger.info("Estimated: performed " + iteration  + " / " +
 					maxIterations + " with log-likelihood difference " +
-					diffLogLikelihood);
-		markComputed();
+					diffLogLikelihood + (cancelled ? ", stopped by the monitor" : ""));
+		// the estimates of a cancelled run are kept but not final
+		if (cancelled)
+			invalidateComputed();
+		else
+			markComputed();
 	}
 	
 
-	protected static Logger logger = null; // will be initialized in subclasses
+	// replaced by the older subclasses, the others log here
+	protected static Logger logger = Logger.getLogger(AbstractDawidSkene.class);
 }
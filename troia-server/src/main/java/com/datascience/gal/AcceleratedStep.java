@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+/**
+ * SQUAREM acceleration of a full batch step, see
+ * {@link DenseEMEngine#setAcceleration(boolean)}. The parameters are the
+ * matrices followed by the priors, projected back onto distributions row by
+ * row.
+ */
+class AcceleratedStep implements EMStep {
+
+	// extrapolated probabilities that would be negative are set to this
+	// (unless the plain iteration gives an exact zero)
+	private static final double MIN_EXTRAPOLATED = 1e-10;
+	// the extrapolation uses the parameters every STEPS_PER_POINT plain
+	// iterations
+	private static final int STEPS_PER_POINT = 2;
+
+	private final DenseEMEngine engine;
+	private final EMStep plain;
+	private int phase;
+	// parameters at the start, middle and end of the current cycle
+	private double[] cycleStart;
+	private double[] cycleMiddle;
+	private double[] cycleEnd;
+	private double[] scratch;
+	private final double[] rowBuffer;
+	// how far the last plain iteration of the cycle moved the parameters
+	private double plainResidual;
+	private int rejectedExtrapolations;
+
+	AcceleratedStep(DenseEMEngine engine, EMStep plain) {
+		this.engine = engine;
+		this.plain = plain;
+		// a sparse row keeps up to K cells and the unseen one
+		rowBuffer = new double[engine.categoriesCount + 1];
+	}
+
+	/**
+	 * @see DenseEMEngine#getRejectedExtrapolations()
+	 */
+	int getRejectedExtrapolations() {
+		return rejectedExtrapolations;
+	}
+
+	@Override
+	public boolean hasAllPosteriors() {
+		return plain.hasAllPosteriors();
+	}
+
+	@Override
+	public void iterate() {
+		if (phase < 2 * STEPS_PER_POINT) {
+			if (phase == 0)
+				cycleStart = saveParameters(cycleStart);
+			else if (phase == STEPS_PER_POINT)
+				cycleMiddle = saveParameters(cycleMiddle);
+			else if (phase == 2 * STEPS_PER_POINT - 1)
+				scratch = saveParameters(scratch);
+			plain.iterate();
+			if (phase == 2 * STEPS_PER_POINT - 1)
+				plainResidual = distanceFromParameters(scratch);
+			phase++;
+			return;
+		}
+		phase = 0;
+		cycleEnd = saveParameters(cycleEnd);
+		if (!extrapolate()) {
+			plain.iterate();
+			return;
+		}
+		scratch = saveParameters(scratch);
+		plain.iterate();
+		// not a likelihood check: the leave-one-out M-step is not an exact
+		// EM step and the log-likelihood may decrease on the way to the
+		// fixed point even without extrapolation
+		if (!(distanceFromParameters(scratch) <= plainResidual)) {
+			rejectedExtrapolations++;
+			restoreParameters(cycleEnd);
+			plain.iterate();
+		}
+	}
+
+	private double[] saveParameters(double[] buffer) {
+		double[] matrices = engine.matrices.values;
+		int K = engine.categoriesCount;
+		if (buffer == null)
+			buffer = new double[matrices.length + K];
+		System.arraycopy(matrices, 0, buffer, 0, matrices.length);
+		System.arraycopy(engine.priors, 0, buffer, matrices.length, K);
+		return buffer;
+	}
+
+	private void restoreParameters(double[] buffer) {
+		double[] matrices = engine.matrices.values;
+		System.arraycopy(buffer, 0, matrices, 0, matrices.length);
+		System.arraycopy(buffer, matrices.length, engine.priors, 0, engine.categoriesCount);
+		engine.parametersReplaced();
+	}
+
+	/**
+	 * Euclidean distance of the current parameters from the saved ones,
+	 * undefined rates are skipped.
+	 */
+	private double distanceFromParameters(double[] buffer) {
+		double[] matrices = engine.matrices.values;
+		double result = 0.;
+		for (int i = 0; i < buffer.length; i++) {
+			double current = i < matrices.length ? matrices[i] : engine.priors[i - matrices.length];
+			double difference = current - buffer[i];
+			if (!Double.isNaN(difference))
+				result += difference * difference;
+		}
+		return Math.sqrt(result);
+	}
+
+	/**
+	 * Sets the parameters to the SQUAREM (S3 step length) extrapolation of
+	 * the cycle's start, middle and end, projected back onto distributions.
+	 *
+	 * @return false when the step would just give the end of the cycle
+	 */
+	private boolean extrapolate() {
+		int parameters = cycleEnd.length;
+		double rr = 0.;
+		double vv = 0.;
+		for (int i = 0; i < parameters; i++) {
+			double r = cycleMiddle[i] - cycleStart[i];
+			double v = cycleEnd[i] - 2. * cycleMiddle[i] + cycleStart[i];
+			if (Double.isNaN(r) || Double.isNaN(v))
+				continue;
+			rr += r * r;
+			vv += v * v;
+		}
+		if (vv == 0.)
+			return false;
+		double alpha = -Math.sqrt(rr / vv);
+		// alpha == -1 gives the end of the cycle
+		if (alpha >= -1.)
+			return false;
+
+		EMMatrices matrices = engine.matrices;
+		double[] values = matrices.values;
+		int rows = matrices.getRowsCount();
+		for (int row = 0; row <= rows; row++) {
+			boolean isPriors = row == rows;
+			if (isPriors && engine.fixedPriors)
+				break;
+			int start = isPriors ? values.length : matrices.getRowStart(row);
+			int end = isPriors ? parameters : matrices.getRowStart(row + 1);
+			double rowSum = 0.;
+			for (int i = start; i < end; i++) {
+				double r = cycleMiddle[i] - cycleStart[i];
+				double v = cycleEnd[i] - 2. * cycleMiddle[i] + cycleStart[i];
+				double value = cycleStart[i] - 2. * alpha * r + alpha * alpha * v;
+				// undefined rates stay as the plain iterations left them
+				if (Double.isNaN(value)) {
+					value = cycleEnd[i];
+				} else if (value <= 0.) {
+					value = cycleEnd[i] == 0. ? 0. : MIN_EXTRAPOLATED;
+				}
+				rowBuffer[i - start] = value;
+				rowSum += isPriors ? value : value * matrices.getMultiplicity(i);
+			}
+			double[] target = isPriors ? engine.priors : values;
+			int offset = isPriors ? 0 : start;
+			for (int i = 0; i < end - start; i++) {
+				target[offset + i] = rowBuffer[i] / rowSum;
+			}
+		}
+		engine.parametersReplaced();
+		return true;
+	}
+}
@@ -10,13 +10,24 @@
 package com.datascience.gal;
 
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
 import com.datascience.core.storages.JSONUtils;
+import com.datascience.gal.distributed.DistributedRun;
+import com.datascience.gal.distributed.EMCoordinator;
+import com.datascience.gal.distributed.ShardServers;
+import com.datascience.utils.ParallelRunner;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
@@ -27,6 +38,29 @@ public class BatchDawidSkene extends AbstractDawidSkene {
 
 	public static final BatchDawidSkeneDeserializer deserializer = new BatchDawidSkeneDeserializer();
 
+	// a warm started compute falls back to a full one when the changed
+	// objects are more than this fraction of all objects
+	private static final double MAX_WARM_START_FRACTION = 0.25;
+	// fixed so that computing the same job twice gives the same result
+	private static final long MINI_BATCH_SEED = 1;
+
+	// only set while estimate() is running, the second one when it runs on
+	// shard servers
+	private transient DenseEMEngine engine;
+	private transient DistributedRun distributedRun;
+	private transient double distributedLogLikelihood;
+	// see setShardServers()
+	private transient ShardServers shardServers;
+
+	private ChangeTracker changes = new ChangeTracker();
+
+	// number of objects computed by each iteration of the last estimation
+	private List<Integer> activeObjects = new ArrayList<Integer>();
+
+	// matrices shared by the long-tail workers of each cluster, see
+	// updateWorkerClusters()
+	private List<ConfusionMatrix> workerClusters = new ArrayList<ConfusionMatrix>();
+
 	public BatchDawidSkene(String id) {
 		super(id);
 		super.logger = this.logger;
@@ -37,15 +71,32 @@ public class BatchDawidSkene extends AbstractDawidSkene {
 		super.logger = this.logger;
 	}
 	
-	private BatchDawidSkene(String id, Map<String, Datum> objects, Map<String, Datum> objectsWithNoLabels,
-			Map<String, Worker> workers, Map<String, Category> categories,
-			boolean fixedPriors) {
+	private BatchDawidSkene(String id, Collection<Datum> objects, Collection<Datum> objectsWithNoLabels,
+			Collection<Worker> workers, LabelStore labelStore, Map<String, Category> categories,
+			boolean fixedPriors, EstimationSettings estimationSettings,
+			List<Double> logLikelihoods, ChangeTracker changes, List<Integer> activeObjects,
+			List<ConfusionMatrix> workerClusters) {
 		this(id);
-		this.objects = objects;
-		this.objectsWithNoLabels = objectsWithNoLabels;
-		this.workers = workers;
 		this.categories = categories;
 		this.fixedPriors = fixedPriors;
+		if (estimationSettings != null)
+			setEstimationSettings(estimationSettings);
+		if (logLikelihoods != null)
+			this.logLikelihoods = logLikelihoods;
+		if (changes != null)
+			this.changes = changes;
+		if (activeObjects != null)
+			this.activeObjects = activeObjects;
+		attachLabels(labelStore, objects, objectsWithNoLabels, workers);
+		if (workerClusters != null) {
+			for (ConfusionMatrix cm : workerClusters)
+				this.workerClusters.add(Worker.attachMatrix(cm, this.labelStore));
+		}
+		for (Worker w : this.workers.values()) {
+			int cluster = w.getCluster();
+			if (cluster != Worker.NO_CLUSTER)
+				w.setMatrix(this.workerClusters.get(cluster), cluster);
+		}
 	}
 	
 	@Override
@@ -90,73 +141,536 @@ public class BatchDawidSkene extends AbstractDawidSkene {
 		return out;
 	}
 
-	private void updateObjectClassProbabilities() {
+	/**
+	 * A clustered worker that reaches the number of labels of a personal
+	 * matrix gets one, starting from its cluster's matrix.
+	 */
+	@Override
+	public void addAssignedLabel(AssignedLabel al) {
+		boolean newWorker = !workers.containsKey(al.getWorkerName());
+		super.addAssignedLabel(al);
+		changes.objectChanged(al.getObjectName());
+		changes.workerChanged(al.getWorkerName(), newWorker);
+		Worker w = workers.get(al.getWorkerName());
+		if (w.getCluster() != Worker.NO_CLUSTER
+				&& getWorkerLabelsCount(w) >= getEstimationSettings().getPersonalMatrixLabels())
+			leaveCluster(w);
+	}
+
+	private int getWorkerLabelsCount(Worker w) {
+		return labelStore.getWorkerLabelsCount(w.getStoreId());
+	}
+
+	/**
+	 * @return the matrices of the worker clusters, indexed by
+	 *         {@link Worker#getCluster()}
+	 */
+	public List<ConfusionMatrix> getWorkerClusters() {
+		return Collections.unmodifiableList(workerClusters);
+	}
+
+	private void leaveCluster(Worker w) {
+		w.setMatrix(Worker.copyMatrix(w.cm), Worker.NO_CLUSTER);
+	}
 
-		for (String objectName : this.objects.keySet()) {
-			this.updateObjectClassProbabilities(objectName);
+	/**
+	 * Makes the workers with fewer than
+	 * {@link EstimationSettings#getPersonalMatrixLabels()} labels share the
+	 * matrices of {@link EstimationSettings#getWorkerClusters()} clusters,
+	 * so that only a matrix per cluster is kept and estimated for them.
+	 * The first time the workers are put into equal parts by the accuracy
+	 * of their matrices (the mean of the diagonal), each cluster starting
+	 * from the matrix of its median worker. Later estimations keep the
+	 * clusters the workers moved to, put new long-tail workers in the
+	 * middle cluster and give the workers that reached the number of
+	 * labels their own matrix. Changing the number of clusters makes them
+	 * again and 0 gives every worker its own matrix.
+	 */
+	private void updateWorkerClusters(EstimationSettings settings) {
+		int count = settings.getWorkerClusters();
+		if (count != workerClusters.size()) {
+			for (Worker w : workers.values()) {
+				if (w.getCluster() != Worker.NO_CLUSTER)
+					leaveCluster(w);
+			}
+			workerClusters.clear();
+		}
+		if (count == 0)
+			return;
+		List<Worker> longTail = new ArrayList<Worker>();
+		for (Worker w : workers.values()) {
+			if (getWorkerLabelsCount(w) >= settings.getPersonalMatrixLabels()) {
+				if (w.getCluster() != Worker.NO_CLUSTER)
+					leaveCluster(w);
+			} else if (w.getCluster() == Worker.NO_CLUSTER) {
+				longTail.add(w);
+			}
+		}
+		if (longTail.isEmpty())
+			return;
+		if (!workerClusters.isEmpty()) {
+			int middle = workerClusters.size() / 2;
+			for (Worker w : longTail)
+				w.setMatrix(workerClusters.get(middle), middle);
+			return;
+		}
+
+		final String[] categoryNames = categories.keySet().toArray(new String[categories.size()]);
+		Collections.sort(longTail, new Comparator<Worker>() {
+			@Override
+			public int compare(Worker a, Worker b) {
+				int result = Double.compare(getAccuracy(a.cm, categoryNames),
+						getAccuracy(b.cm, categoryNames));
+				return result != 0 ? result : a.getName().compareTo(b.getName());
+			}
+		});
+		count = Math.min(count, longTail.size());
+		int start = 0;
+		for (int c = 0; c < count; c++) {
+			// equal parts of the workers ordered by accuracy
+			int end = (int) ((long) (c + 1) * longTail.size() / count);
+			ConfusionMatrix cm = Worker.copyMatrix(longTail.get((start + end) / 2).cm);
+			workerClusters.add(cm);
+			for (int i = start; i < end; i++)
+				longTail.get(i).setMatrix(cm, c);
+			start = end;
 		}
 	}
 
-	private void updateObjectClassProbabilities(String objectName) {
+	/**
+	 * @return mean of the defined diagonal, 0 when no row is defined
+	 */
+	private static double getAccuracy(ConfusionMatrix cm, String[] categoryNames) {
+		double sum = 0.;
+		int defined = 0;
+		for (String c : categoryNames) {
+			double value = cm.getErrorRateBatch(c, c);
+			if (!Double.isNaN(value)) {
+				sum += value;
+				defined++;
+			}
+		}
+		return defined == 0 ? 0. : sum / defined;
+	}
+
+	@Override
+	public void addCorrectLabel(CorrectLabel cl) {
+		super.addCorrectLabel(cl);
+		changes.objectChanged(cl.getObjectName());
+	}
+
+	/**
+	 * Makes the following estimations run on shard servers, which keep the
+	 * labels and the posteriors during the estimation. They run full batch
+	 * EM without clusters, acceleration or freezing.
+	 *
+	 * @param shardServers null to estimate in this process
+	 */
+	public void setShardServers(ShardServers shardServers) {
+		this.shardServers = shardServers;
+	}
+
+	/**
+	 * @return number of labels given to the job by workers
+	 */
+	public int getNumberOfAssignedLabels() {
+		return labelStore.size();
+	}
 
+	@Override
+	public void estimate(int maxIterations, double epsilon) {
+		if (shardServers == null && getRunSettings().isWarmStart() && !changes.isEverythingChanged()
+				&& estimateChanges(maxIterations, epsilon)) {
+			changes.clear();
+			markComputed();
+			return;
+		}
+		super.estimate(maxIterations, epsilon);
+		changes.clear();
+	}
+
+	/**
+	 * Warm started estimation. Starting from the current estimates, only the
+	 * changed objects and the workers that labeled them are iterated; the
+	 * other workers' matrices and the priors stay fixed meanwhile.
+	 * <code>epsilon</code> is applied to the largest change of an error rate
+	 * between iterations. At the end the objects labeled by the re-estimated
+	 * workers get their posteriors updated and the priors are recomputed.
+	 *
+	 * @return false, leaving the partial estimates as the starting point,
+	 *         when the whole job has to be estimated again: too many objects
+	 *         changed, a changed object was labeled by a clustered worker
+	 *         (whose matrix is estimated from the whole cluster) or a
+	 *         previously estimated worker's error rate moved by more than
+	 *         the warm start threshold
+	 */
+	private boolean estimateChanges(int maxIterations, double epsilon) {
+		Set<String> objectNames = new HashSet<String>();
+		Set<String> workerNames = new HashSet<String>(changes.getWorkers());
+		for (String objectName : changes.getObjects()) {
+			Datum d = objects.get(objectName);
+			if (d == null)
+				continue;
+			objectNames.add(objectName);
+			for (AssignedLabel al : d.getAssignedLabels()) {
+				workerNames.add(al.getWorkerName());
+			}
+		}
+		if (objectNames.size() > MAX_WARM_START_FRACTION * objects.size()) {
+			logger.info("Warm start: " + objectNames.size() + " of " + objects.size()
+					+ " objects changed, estimating all of them");
+			return false;
+		}
+		for (String workerName : workerNames) {
+			if (workers.get(workerName).getCluster() != Worker.NO_CLUSTER) {
+				logger.info("Warm start: " + workerName + " is clustered, estimating all objects");
+				return false;
+			}
+		}
+
+		String[] categoryNames = categories.keySet().toArray(new String[categories.size()]);
+		Map<String, double[]> initialErrorRates = new HashMap<String, double[]>();
+		for (String workerName : workerNames) {
+			if (!changes.isNewWorker(workerName))
+				initialErrorRates.put(workerName,
+						getErrorRates(workers.get(workerName), categoryNames));
+		}
+
+		double threshold = getRunSettings().getWarmStartThreshold();
+		double change = Double.POSITIVE_INFINITY;
+		int iteration = 0;
+		for (; iteration < maxIterations && change > epsilon; iteration++) {
+			for (String objectName : objectNames) {
+				updateObjectClassProbabilities(objectName);
+			}
+			change = 0.;
+			for (String workerName : workerNames) {
+				Worker w = workers.get(workerName);
+				double[] previous = getErrorRates(w, categoryNames);
+				rebuildWorkerConfusionMatrix(w);
+				double[] current = getErrorRates(w, categoryNames);
+				change = Math.max(change, maxDifference(previous, current));
+				double[] initial = initialErrorRates.get(workerName);
+				if (initial != null && maxDifference(initial, current) > threshold) {
+					logger.info("Warm start: error rates of " + workerName
+							+ " moved by more than " + threshold + ", estimating all objects");
+					return false;
+				}
+			}
+		}
+
+		Set<String> refreshed = new HashSet<String>();
+		for (String workerName : workerNames) {
+			for (AssignedLabel al : workers.get(workerName).getAssignedLabels()) {
+				String objectName = al.getObjectName();
+				if (!objectNames.contains(objectName) && refreshed.add(objectName))
+					updateObjectClassProbabilities(objectName);
+			}
+		}
+		updatePriors();
+		logLikelihoods = new ArrayList<Double>();
+		activeObjects = new ArrayList<Integer>();
+		logger.info("Warm start: performed " + iteration + " / " + maxIterations
+				+ " iterations over " + objectNames.size() + " objects and "
+				+ workerNames.size() + " workers, updated " + refreshed.size()
+				+ " other objects");
+		return true;
+	}
+
+	private void updateObjectClassProbabilities(String objectName) {
 		Datum d = objects.get(objectName);
 		Map<String, Double> probabilities = getObjectClassProbabilities(objectName, null);
 		if (probabilities == null)
 			return;
-		for (String category : probabilities.keySet()) {
-			double probability = probabilities.get(category);
-			d.setCategoryProbability(category, probability);
+		for (Map.Entry<String, Double> e : probabilities.entrySet()) {
+			d.setCategoryProbability(e.getKey(), e.getValue());
+		}
+	}
+
+	private void rebuildWorkerConfusionMatrix(Worker w) {
+		w.empty();
+		// We treat the classification of each object based on the votes of
+		// all the other workers as the "correct" one
+		for (AssignedLabel al : w.getAssignedLabels()) {
+			Map<String, Double> probabilities = getObjectClassProbabilities(
+					al.getObjectName(), w.getName());
+			if (probabilities == null)
+				continue; // No other worker labeled the object
+			for (Map.Entry<String, Double> e : probabilities.entrySet()) {
+				w.addError(e.getKey(), al.getCategoryName(), e.getValue());
+			}
 		}
+		w.normalize(ConfusionMatrixNormalizationType.UNIFORM);
+	}
+
+	private double[] getErrorRates(Worker w, String[] categoryNames) {
+		return getErrorRates(w.cm, categoryNames);
 	}
 
-	private void rebuildWorkerConfusionMatrices() {
+	private static double[] getErrorRates(ConfusionMatrix cm, String[] categoryNames) {
+		int K = categoryNames.length;
+		double[] result = new double[K * K];
+		for (int from = 0; from < K; from++) {
+			for (int to = 0; to < K; to++) {
+				result[from * K + to] = cm.getErrorRateBatch(categoryNames[from],
+						categoryNames[to]);
+			}
+		}
+		return result;
+	}
 
-		for (String workerName : this.workers.keySet()) {
-			rebuildWorkerConfusionMatrix(workerName);
+	private static void setErrorRates(ConfusionMatrix cm, List<String> categoryNames,
+			double[] rates) {
+		int K = categoryNames.size();
+		cm.empty();
+		for (int from = 0; from < K; from++) {
+			cm.incrementRowDenominator(categoryNames.get(from), 1.);
+			for (int to = 0; to < K; to++) {
+				cm.setErrorRate(categoryNames.get(from), categoryNames.get(to),
+						rates[from * K + to]);
+			}
 		}
 	}
 
 	/**
-	 * @param lid
+	 * An error rate that became (un)defined counts as the largest possible
+	 * change.
 	 */
-	private void rebuildWorkerConfusionMatrix(String workerName) {
+	private static double maxDifference(double[] a, double[] b) {
+		double result = 0.;
+		for (int i = 0; i < a.length; i++) {
+			if (Double.isNaN(a[i]) || Double.isNaN(b[i])) {
+				if (Double.isNaN(a[i]) != Double.isNaN(b[i]))
+					result = 1.;
+			} else {
+				result = Math.max(result, Math.abs(a[i] - b[i]));
+			}
+		}
+		return result;
+	}
 
-		Worker w = this.workers.get(workerName);
-		w.empty();
+	@Override
+	protected void prepareEstimation() {
+		EstimationSettings settings = getRunSettings();
+		if (shardServers != null) {
+			prepareDistributedEstimation(settings);
+			return;
+		}
+		updateWorkerClusters(settings);
+		engine = new DenseEMEngine(this, workerClusters);
+		int threads = settings.getThreads();
+		if (threads > 1)
+			engine.setRunner(createRunner(threads));
+		engine.setShards(settings.getShards());
+		engine.setMiniBatch(settings.getMiniBatchFraction(), MINI_BATCH_SEED);
+		engine.setAcceleration(settings.isAcceleration());
+		engine.setFreezing(settings.getFreezeTolerance());
+		activeObjects = new ArrayList<Integer>();
+	}
 
-		// Scan all objects and change the confusion matrix for each worker
-		// using the class probability for each object
-		for (AssignedLabel al : w.getAssignedLabels()) {
+	ParallelRunner createRunner(int threads) {
+		return new ParallelRunner(threads);
+	}
 
-			// Get the name of the object and the category it
-			// is classified from this worker.
-			String objectName = al.getObjectName();
-			String destination = al.getCategoryName();
-			// We get the classification of the object
-			// based on the votes of all the other workers
-			// We treat this classification as the "correct" one
-			Map<String, Double> probabilities = this.getObjectClassProbabilities(objectName, workerName);
-			if (probabilities == null)
-				continue; // No other worker labeled the object
+	private void prepareDistributedEstimation(EstimationSettings settings) {
+		if (settings.getWorkerClusters() > 0 || settings.getMiniBatchFraction() < 1.
+				|| settings.isAcceleration() || settings.getFreezeTolerance() > 0.)
+			throw new IllegalArgumentException(
+					"Estimations on shard servers run full batch EM without clusters, acceleration or freezing");
+		updateWorkerClusters(settings);
+		Collection<Category> jobCategories = new ArrayList<Category>();
+		for (Category c : categories.values()) {
+			jobCategories.add(fixedPriors ? c : new Category(c.getName()));
+		}
+		distributedRun = new DistributedRun(shardServers, jobCategories, getCategoryPriors(), this);
+		activeObjects = new ArrayList<Integer>();
+	}
+
+	@Override
+	protected void estimateInner() {
+		if (distributedRun != null) {
+			distributedLogLikelihood = distributedRun.iterate();
+			activeObjects.add(objects.size());
+			return;
+		}
+		engine.iterate();
+		activeObjects.add(engine.getActiveObjects());
+	}
+
+	/**
+	 * @return number of objects whose posteriors were computed in each
+	 *         iteration of the last estimation (those in the batch for
+	 *         mini-batch EM), empty after a warm started one
+	 */
+	public List<Integer> getActiveObjects() {
+		return new ArrayList<Integer>(activeObjects);
+	}
+
+	/**
+	 * Takes a checkpoint of the worker and cluster matrices and priors.
+	 * While {@link #estimate(int, double)} runs (e.g. from an
+	 * {@link EstimationMonitor}) these are the ones of the last completed
+	 * iteration, which are not written to the workers before the end.
+	 */
+	public EstimationCheckpoint createCheckpoint(int iteration, int maxIterations) {
+		String[] categoryNames;
+		Map<String, Double> priors = new HashMap<String, Double>();
+		Map<String, double[]> errorRates = new HashMap<String, double[]>();
+		List<double[]> clusterErrorRates = new ArrayList<double[]>();
+		Map<String, Integer> clusterOf = new HashMap<String, Integer>();
+		if (engine != null) {
+			int K = engine.categoriesCount;
+			categoryNames = engine.getCategoryNames();
+			for (int c = 0; c < K; c++) {
+				priors.put(categoryNames[c], engine.priors[c]);
+			}
+			for (int w = 0; w < engine.workers.length; w++) {
+				int cluster = engine.getWorkerCluster(w);
+				if (cluster == Worker.NO_CLUSTER)
+					errorRates.put(engine.workers[w].getName(), engine.getWorkerMatrix(w));
+				else
+					clusterOf.put(engine.workers[w].getName(), cluster);
+			}
+			for (int c = 0; c < workerClusters.size(); c++) {
+				clusterErrorRates.add(engine.getClusterMatrix(c));
+			}
+		} else if (distributedRun != null) {
+			categoryNames = distributedRun.getCategoryNames().toArray(new String[categories.size()]);
+			priors.putAll(distributedRun.getCategoryPriors());
+			for (Worker w : workers.values()) {
+				errorRates.put(w.getName(), distributedRun.getErrorRates(w.getName()));
+			}
+		} else {
+			categoryNames = categories.keySet().toArray(new String[categories.size()]);
+			priors.putAll(getCategoryPriors());
+			for (Worker w : workers.values()) {
+				if (w.getCluster() == Worker.NO_CLUSTER)
+					errorRates.put(w.getName(), getErrorRates(w, categoryNames));
+				else
+					clusterOf.put(w.getName(), w.getCluster());
+			}
+			for (ConfusionMatrix cm : workerClusters) {
+				clusterErrorRates.add(getErrorRates(cm, categoryNames));
+			}
+		}
+		EstimationCheckpoint checkpoint = new EstimationCheckpoint(iteration, maxIterations,
+				categoryNames, priors, errorRates);
+		checkpoint.setWorkerClusters(clusterErrorRates, clusterOf);
+		return checkpoint;
+	}
 
-			for (String source : probabilities.keySet()) {
-				double error = probabilities.get(source);
-				w.addError(source, destination, error);
+	/**
+	 * Sets the worker and cluster matrices, the workers' clusters and
+	 * (unless they are fixed) the priors to the checkpointed ones, so that
+	 * the next estimation continues from them. Workers that are not in the
+	 * checkpoint keep their matrices.
+	 */
+	public void restoreCheckpoint(EstimationCheckpoint checkpoint) {
+		List<String> categoryNames = checkpoint.getCategories();
+		int K = categoryNames.size();
+		if (K != categories.size() || !categories.keySet().containsAll(categoryNames))
+			throw new IllegalArgumentException("Checkpoint categories do not match the job");
+		List<double[]> clusterErrorRates = checkpoint.getClusterErrorRates();
+		if (!clusterErrorRates.isEmpty() || !workerClusters.isEmpty()) {
+			for (Worker w : workers.values()) {
+				if (w.getCluster() != Worker.NO_CLUSTER)
+					leaveCluster(w);
+			}
+			workerClusters.clear();
+			for (double[] rates : clusterErrorRates) {
+				ConfusionMatrix cm = Worker.createMatrix(categories.values(), labelStore);
+				setErrorRates(cm, categoryNames, rates);
+				workerClusters.add(cm);
+			}
+			for (Map.Entry<String, Integer> e : checkpoint.getClusterOf().entrySet()) {
+				Worker w = workers.get(e.getKey());
+				if (w != null)
+					w.setMatrix(workerClusters.get(e.getValue()), e.getValue());
 			}
 		}
-//        System.out.println("before: "
-//                + ((MultinomialConfusionMatrix) w.cm).rowDenominator);
-		w.normalize(ConfusionMatrixNormalizationType.UNIFORM);
-////        System.out.println("after: "
-//                + ((MultinomialConfusionMatrix) w.cm).rowDenominator);
+		for (Map.Entry<String, double[]> e : checkpoint.getErrorRates().entrySet()) {
+			Worker w = workers.get(e.getKey());
+			if (w == null || w.getCluster() != Worker.NO_CLUSTER)
+				continue;
+			setErrorRates(w.cm, categoryNames, e.getValue());
+			w.invalidateLogErrorRates();
+		}
+		if (!fixedPriors) {
+			for (Map.Entry<String, Double> e : checkpoint.getPriors().entrySet()) {
+				categories.get(e.getKey()).setPrior(e.getValue());
+			}
+		}
+		// the restored part has to be estimated together with the rest
+		changes.everythingChanged();
+		invalidateComputed();
+	}
 
+	/**
+	 * The engine computes the log-likelihood during the E-step, so the stop
+	 * condition does not need another pass over the labels. The value is
+	 * the one of the iteration's posteriors with the matrices they were
+	 * estimated from. Mini-batch EM uses the likelihood of the held out
+	 * labels instead.
+	 */
+	@Override
+	protected double getIterationLogLikelihood() {
+		if (distributedRun != null)
+			return distributedLogLikelihood;
+		if (getRunSettings().getMiniBatchFraction() < 1.)
+			return engine.getHeldOutLogLikelihood();
+		return engine.getEStepLogLikelihood();
 	}
 
+	/**
+	 * Copies the estimates of a completed or cancelled run to the objects
+	 * and the workers. A failed iteration may have updated only part of
+	 * them, so after a failure nothing is copied.
+	 */
 	@Override
-	protected void estimateInner() {
-		updateObjectClassProbabilities();
-		updatePriors();
-		rebuildWorkerConfusionMatrices();
+	protected void finishEstimation(boolean completed) {
+		if (distributedRun != null) {
+			try {
+				if (completed && distributedRun.getIterations() > 0)
+					writeBackDistributed();
+			} finally {
+				distributedRun.close();
+				distributedRun = null;
+			}
+			return;
+		}
+		try {
+			if (completed)
+				engine.writeBack(this);
+		} finally {
+			engine.shutdown();
+			engine = null;
+		}
+	}
+
+	/**
+	 * Copies the priors, the worker matrices and the posteriors of the
+	 * objects from the shard servers, like {@link DenseEMEngine#writeBack}.
+	 */
+	private void writeBackDistributed() {
+		List<String> categoryNames = distributedRun.getCategoryNames();
+		if (!fixedPriors) {
+			for (Map.Entry<String, Double> e : distributedRun.getCategoryPriors().entrySet()) {
+				categories.get(e.getKey()).setPrior(e.getValue());
+			}
+		}
+		for (Worker w : workers.values()) {
+			setErrorRates(w.cm, categoryNames, distributedRun.getErrorRates(w.getName()));
+			w.invalidateLogErrorRates();
+		}
+		distributedRun.readObjectProbabilities(new EMCoordinator.ObjectProbabilitiesHandler() {
+			@Override
+			public void handle(String objectName, Map<String, Double> probabilities) {
+				Datum d = objects.get(objectName);
+				for (Map.Entry<String, Double> e : probabilities.entrySet()) {
+					d.setCategoryProbability(e.getKey(), e.getValue());
+				}
+			}
+		});
 	}
 
 	public static class BatchDawidSkeneDeserializer implements
@@ -171,15 +685,32 @@ public class BatchDawidSkene extends AbstractDawidSkene {
 			Map<String, Category> categories = context.deserialize(
 					jobject.get("categories"), JSONUtils.stringCategoryMapType);
 			boolean fixedPriors = jobject.get("fixedPriors").getAsBoolean();
-			Map<String, Datum> objects = context.deserialize(
-					jobject.get("objects"), JSONUtils.stringDatumMapType);
-			Map<String, Datum> objectsWithNoLabels = context.deserialize(
-					jobject.get("objectsWithNoLabels"), JSONUtils.stringDatumMapType);
-			Map<String, Worker> workers = context.deserialize(
-					jobject.get("workers"), JSONUtils.strinWorkerMapType);
-
-			return new BatchDawidSkene(id, objects, objectsWithNoLabels, workers, categories,
-									   fixedPriors);
+			Collection<Datum> objects = IdMap.deserializeValues(jobject.get("objects"),
+					context, JSONUtils.datumCollectionType, JSONUtils.stringDatumMapType);
+			Collection<Datum> objectsWithNoLabels = IdMap.deserializeValues(
+					jobject.get("objectsWithNoLabels"), context,
+					JSONUtils.datumCollectionType, JSONUtils.stringDatumMapType);
+			Collection<Worker> workers = IdMap.deserializeValues(jobject.get("workers"),
+					context, JSONUtils.workerCollectionType, JSONUtils.strinWorkerMapType);
+			LabelStore labelStore = context.deserialize(
+					jobject.get("labelStore"), LabelStore.class);
+			EstimationSettings estimationSettings = context.deserialize(
+					jobject.get("estimationSettings"), EstimationSettings.class);
+			List<Double> logLikelihoods = context.deserialize(
+					jobject.get("logLikelihoods"), JSONUtils.doubleListType);
+			ChangeTracker changes = context.deserialize(
+					jobject.get("changes"), ChangeTracker.class);
+			List<Integer> activeObjects = context.deserialize(
+					jobject.get("activeObjects"), JSONUtils.integerListType);
+			List<ConfusionMatrix> workerClusters = new ArrayList<ConfusionMatrix>();
+			if (jobject.has("workerClusters")) {
+				for (JsonElement cm : (JsonArray) jobject.get("workerClusters"))
+					workerClusters.add(Worker.deserializeMatrix((JsonObject) cm, context));
+			}
+
+			return new BatchDawidSkene(id, objects, objectsWithNoLabels, workers, labelStore, categories,
+									   fixedPriors, estimationSettings, logLikelihoods, changes,
+									   activeObjects, workerClusters);
 		}
 
 	}
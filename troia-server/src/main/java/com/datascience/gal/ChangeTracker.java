@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Objects and workers that got new labels since the last estimation. A
+ * warm started estimation uses them to iterate only over the part of the
+ * job that was affected. Stored together with the project.
+ */
+public class ChangeTracker {
+
+	// set for new projects and for changes that affect every object
+	private boolean everything = true;
+	private Set<String> objects = new HashSet<String>();
+	private Set<String> workers = new HashSet<String>();
+	// workers that did not exist during the last estimation
+	private Set<String> newWorkers = new HashSet<String>();
+
+	public void objectChanged(String objectName) {
+		if (!everything)
+			objects.add(objectName);
+	}
+
+	public void workerChanged(String workerName, boolean isNew) {
+		if (everything)
+			return;
+		workers.add(workerName);
+		if (isNew)
+			newWorkers.add(workerName);
+	}
+
+	public void everythingChanged() {
+		everything = true;
+		objects.clear();
+		workers.clear();
+		newWorkers.clear();
+	}
+
+	/**
+	 * Called after an estimation that took all the changes into account.
+	 */
+	public void clear() {
+		everything = false;
+		objects.clear();
+		workers.clear();
+		newWorkers.clear();
+	}
+
+	public boolean isEverythingChanged() {
+		return everything;
+	}
+
+	public boolean isEmpty() {
+		return !everything && objects.isEmpty() && workers.isEmpty();
+	}
+
+	public Set<String> getObjects() {
+		return Collections.unmodifiableSet(objects);
+	}
+
+	public Set<String> getWorkers() {
+		return Collections.unmodifiableSet(workers);
+	}
+
+	public boolean isNewWorker(String workerName) {
+		return newWorkers.contains(workerName);
+	}
+}
@@ -11,9 +11,9 @@ package com.datascience.gal;
 
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -32,24 +32,27 @@ import com.google.gson.JsonSerializer;
 public class Datum {
 	public static final DatumDeserializer deserializer = new DatumDeserializer();
 	public static final DatumSerializer serializer = new DatumSerializer();
+	// the project's label store serializes the labels and the names
+	public static final ProjectDatumSerializer projectSerializer = new ProjectDatumSerializer();
 	String name;
 
 	// Defines if we have the correct category for this object
-	// and if it is gold, the correctCategory holds the name of the correct
-	// category
+	// and if it is gold, the correctCategory holds the id of the correct
+	// category in the label store
 	boolean isGold;
-	String correctCategory;
+	int correctCategory = SymbolTable.NONE;
 
 	// The probability estimates for the object belonging to different
-	// categories
-	Map<String, Double> categoryProbability;
+	// categories, indexed by the category ids of the label store; NaN for
+	// categories without an estimate, null if nothing was estimated yet
+	double[] categoryProbabilities;
+	// NaN until computed again after a change of the estimates
+	private double entropy = Double.NaN;
 
-	// The labels that have been assigned to this object, together with the
-	// workers who
-	// assigned these labels. Serves mainly as a speedup, and intended to be
-	// used in
-	// environments with persistence and caching (especially memcache)
-	Set<AssignedLabel> labels;
+	// The labels that have been assigned to this object are kept by the
+	// job's label store, an object that is not part of a job has its own
+	LabelStore labelStore;
+	int storeId;
 
 	/**
 	 * @return the isGold
@@ -64,12 +67,22 @@ public class Datum {
 	 */
 	public void setGold(boolean isGold) {
 		this.isGold = isGold;
+		entropy = Double.NaN;
 	}
 
 	/**
 	 * @return the goldCategory
 	 */
 	public String getCorrectCategory() {
+		return correctCategory == SymbolTable.NONE ? null
+				: labelStore.getCategoryName(correctCategory);
+	}
+
+	/**
+	 * @return id of the correct category in the label store,
+	 *         {@link SymbolTable#NONE} if it is not known
+	 */
+	public int getCorrectCategoryId() {
 		return correctCategory;
 	}
 
@@ -78,81 +91,197 @@ public class Datum {
 	 *            the goldCategory to set
 	 */
 	public void setCorrectCategory(String correctCategory) {
-		this.correctCategory = correctCategory;
-
+		this.correctCategory = correctCategory == null ? SymbolTable.NONE
+				: labelStore.categoryId(correctCategory);
+		entropy = Double.NaN;
 	}
 
 	public Double getCategoryProbability(String c) {
 		if (this.isGold) {
-			if (c.equals(this.correctCategory)) {
+			if (c.equals(getCorrectCategory())) {
 				return 1.0;
 			} else {
 				return 0.0;
 			}
 		}
-		return categoryProbability.get(c);
+		int category = labelStore.getCategoryNames().getId(c);
+		if (category == SymbolTable.NONE)
+			return null;
+		double p = getCategoryProbability(category);
+		return Double.isNaN(p) ? null : p;
 	}
 
-	public void setCategoryProbability(String c, double prob) {
-		categoryProbability.put(c, prob);
+	/**
+	 * @param category
+	 *            id of the category in the label store
+	 * @return the estimate, NaN if there is none
+	 */
+	public double getCategoryProbability(int category) {
+		if (isGold)
+			return category == correctCategory ? 1. : 0.;
+		if (categoryProbabilities == null || category >= categoryProbabilities.length)
+			return Double.NaN;
+		return categoryProbabilities[category];
 	}
 
-	public double getEntropy() {
-		double[] p = new double[this.categoryProbability.size()];
+	public void setCategoryProbability(String c, double prob) {
+		setCategoryProbability(labelStore.categoryId(c), prob);
+	}
 
-		int i = 0;
-		for (String c : this.categoryProbability.keySet()) {
-			p[i] = getCategoryProbability(c);
-			i++;
+	/**
+	 * @param category
+	 *            id of the category in the label store
+	 */
+	public void setCategoryProbability(int category, double prob) {
+		int size = labelStore.getCategoriesCount();
+		if (categoryProbabilities == null) {
+			categoryProbabilities = new double[size];
+			Arrays.fill(categoryProbabilities, Double.NaN);
+		} else if (categoryProbabilities.length < size) {
+			int length = categoryProbabilities.length;
+			categoryProbabilities = Arrays.copyOf(categoryProbabilities, size);
+			Arrays.fill(categoryProbabilities, length, size, Double.NaN);
 		}
+		categoryProbabilities[category] = prob;
+		entropy = Double.NaN;
+	}
 
-		return Utils.entropy(p);
+	/**
+	 * Replaces all the estimates, null leaves the object without any.
+	 */
+	void setCategoryProbabilities(Map<String, Double> probabilities) {
+		categoryProbabilities = null;
+		entropy = Double.NaN;
+		if (probabilities == null)
+			return;
+		categoryProbabilities = new double[labelStore.getCategoriesCount()];
+		Arrays.fill(categoryProbabilities, Double.NaN);
+		for (Entry<String, Double> e : probabilities.entrySet())
+			setCategoryProbability(e.getKey(), e.getValue());
+	}
+
+	/**
+	 * Computed once after each change of the estimates, the entropy of
+	 * every object is checked by each call for the objects' evaluation.
+	 */
+	public double getEntropy() {
+		if (Double.isNaN(entropy))
+			entropy = isGold || categoryProbabilities == null ? 0.
+					: Utils.entropy(categoryProbabilities);
+		return entropy;
 	}
 
 	private Datum(String name, Map<String, Double> categoryProbabilities,
 				  boolean isGold, Collection<AssignedLabel> labels,
 				  String correctCategory) {
 		this(name, categoryProbabilities, isGold, labels);
-		this.correctCategory = correctCategory;
+		setCorrectCategory(correctCategory);
 	}
 
 	private Datum(String name, Map<String, Double> categoryProbabilities,
 				  boolean isGold, Collection<AssignedLabel> labels) {
 		this.name = name;
-		this.categoryProbability = categoryProbabilities;
 		this.isGold = isGold;
-		this.labels = new HashSet<AssignedLabel>(labels);
+		this.labelStore = new LabelStore();
+		this.storeId = labelStore.objectId(name);
+		for (AssignedLabel al : labels)
+			addAssignedLabel(al);
+		setCategoryProbabilities(categoryProbabilities);
 	}
 
 	public Datum(String name, Set<Category> categories) {
+		this(name, categories, new LabelStore());
+	}
+
+	Datum(String name, Set<Category> categories, LabelStore labelStore) {
 		this.name = name;
 		this.isGold = false;
-		this.correctCategory = null;
-		this.labels = new HashSet<AssignedLabel>();
+		this.labelStore = labelStore;
+		this.storeId = labelStore.objectId(name);
 
 		// We initialize the probabilities vector to be uniform across
 		// categories
-		this.categoryProbability = new HashMap<String, Double>();
 		for (Category c : categories) {
-			this.categoryProbability.put(c.getName(), 1.0 / categories.size());
+			labelStore.categoryId(c.getName());
+		}
+		this.categoryProbabilities = new double[labelStore.getCategoriesCount()];
+		Arrays.fill(categoryProbabilities, Double.NaN);
+		for (Category c : categories) {
+			this.categoryProbabilities[labelStore.categoryId(c.getName())] = 1.0 / categories.size();
 		}
 	}
 
 	public void addAssignedLabel(AssignedLabel al) {
 		if (al.getObjectName().equals(name)) {
-			this.labels.add(al);
+			labelStore.add(al);
 		}
 	}
 
+	/**
+	 * @return live read only view of the labels
+	 */
 	public Collection<AssignedLabel> getAssignedLabels() {
-		return this.labels;
+		return labelStore.getLabelsOfObject(storeId);
+	}
+
+	/**
+	 * Object read from a project: its ids are the ones of the project's
+	 * label store, which is given to {@link #attach(LabelStore)}.
+	 */
+	private Datum(int storeId, boolean isGold, int correctCategory,
+				  double[] categoryProbabilities) {
+		this.storeId = storeId;
+		this.isGold = isGold;
+		this.correctCategory = correctCategory;
+		this.categoryProbabilities = categoryProbabilities;
+	}
+
+	/**
+	 * Moves the labels to the job's store, if they are not there already,
+	 * and makes the object use the store's names and ids.
+	 */
+	void attach(LabelStore store) {
+		if (store == labelStore)
+			return;
+		if (labelStore == null) {
+			labelStore = store;
+			name = store.getObjectName(storeId);
+			return;
+		}
+		for (AssignedLabel al : getAssignedLabels())
+			store.add(al);
+		LabelStore previous = labelStore;
+		labelStore = store;
+		storeId = store.objectId(name);
+		// names read with the object are replaced by the store's instances
+		name = store.getObjectName(storeId);
+		SymbolTable categoryNames = store.getCategoryNames();
+		if (correctCategory != SymbolTable.NONE)
+			correctCategory = categoryNames.intern(previous.getCategoryName(correctCategory));
+		if (categoryProbabilities == null)
+			return;
+		// the ids of the object's own store are not the ones of the job
+		double[] probabilities = categoryProbabilities;
+		categoryProbabilities = null;
+		for (int c = 0; c < probabilities.length; c++) {
+			if (!Double.isNaN(probabilities[c]))
+				setCategoryProbability(categoryNames.intern(previous.getCategoryName(c)), probabilities[c]);
+		}
 	}
 
 	/**
-	 * @return the categoryProbability
+	 * @return copy of the estimates by category name, null if nothing was
+	 *         estimated yet
 	 */
 	public Map<String, Double> getCategoryProbability() {
-		return categoryProbability;
+		if (categoryProbabilities == null)
+			return null;
+		HashMap<String, Double> probabilities = new HashMap<String, Double>();
+		for (int c = 0; c < categoryProbabilities.length; c++) {
+			if (!Double.isNaN(categoryProbabilities[c]))
+				probabilities.put(labelStore.getCategoryName(c), categoryProbabilities[c]);
+		}
+		return probabilities;
 	}
 
 	/*
@@ -200,6 +329,8 @@ public class Datum {
 		public Datum deserialize(JsonElement json, Type type,
 								 JsonDeserializationContext context) throws JsonParseException {
 			JsonObject jobject = (JsonObject) json;
+			if (jobject.has("id"))
+				return deserializeProjectDatum(jobject, context);
 			Collection<CategoryValue> catProb = context.deserialize(
 											 jobject.get("categoryProbability"),
 											 JSONUtils.categoryValuesCollectionType);
@@ -208,7 +339,11 @@ public class Datum {
 				catMap.put(cp.categoryName, cp.value);
 			}
 			boolean isGold = jobject.get("isGold").getAsBoolean();
-			Collection<AssignedLabel> labels = context.deserialize(jobject.get("labels"), JSONUtils.assignedLabelSetType);
+			// objects of projects come without labels
+			Collection<AssignedLabel> labels = jobject.has("labels")
+					? context.<Collection<AssignedLabel>>deserialize(jobject.get("labels"),
+							JSONUtils.assignedLabelSetType)
+					: new ArrayList<AssignedLabel>();
 			String name = jobject.get("name").getAsString();
 
 			if (jobject.has("correctCategory")) {
@@ -218,8 +353,40 @@ public class Datum {
 				return new Datum(name, catMap, isGold, labels);
 			}
 		}
+
+		private Datum deserializeProjectDatum(JsonObject jobject,
+				JsonDeserializationContext context) {
+			double[] categoryProbabilities = jobject.has("categoryProbability")
+					? context.<double[]>deserialize(jobject.get("categoryProbability"), double[].class)
+					: null;
+			return new Datum(jobject.get("id").getAsInt(),
+					jobject.get("isGold").getAsBoolean(),
+					jobject.has("correctCategory") ? jobject.get("correctCategory").getAsInt()
+							: SymbolTable.NONE,
+					categoryProbabilities);
+		}
 	}
 	
+	/**
+	 * Writes an object of a project by the ids of its label store, which
+	 * keeps the names and the labels.
+	 */
+	public static class ProjectDatumSerializer implements JsonSerializer<Datum> {
+
+		@Override
+		public JsonElement serialize(Datum datum, Type type,
+				JsonSerializationContext context) {
+			JsonObject ret = new JsonObject();
+			ret.addProperty("id", datum.storeId);
+			ret.addProperty("isGold", datum.isGold);
+			if (datum.correctCategory != SymbolTable.NONE)
+				ret.addProperty("correctCategory", datum.correctCategory);
+			if (datum.categoryProbabilities != null)
+				ret.add("categoryProbability", context.serialize(datum.categoryProbabilities));
+			return ret;
+		}
+	}
+
 	public static class DatumSerializer implements JsonSerializer<Datum> {
 
 		@Override
@@ -230,12 +397,15 @@ public class Datum {
 			if (arg0.isGold())
 				ret.addProperty("correctCategory", arg0.getCorrectCategory());
 			ret.addProperty("name", arg0.getName());
-			Collection<CategoryValue> cp = new ArrayList<CategoryValue>(arg0.categoryProbability.size());
-			for (Entry<String, Double> e : arg0.categoryProbability.entrySet()){
-				cp.add(new CategoryValue(e.getKey(), e.getValue()));
+			Collection<CategoryValue> cp = new ArrayList<CategoryValue>();
+			Map<String, Double> probabilities = arg0.getCategoryProbability();
+			if (probabilities != null) {
+				for (Entry<String, Double> e : probabilities.entrySet()){
+					cp.add(new CategoryValue(e.getKey(), e.getValue()));
+				}
 			}
 			ret.add("categoryProbability", arg2.serialize(cp));
-			ret.add("labels", arg2.serialize(arg0.labels));
+			ret.add("labels", arg2.serialize(arg0.getAssignedLabels(), JSONUtils.assignedLabelSetType));
 			return ret;
 		}
 	}
@@ -13,6 +13,7 @@ import java.lang.reflect.Type;
 
 import com.datascience.gal.BatchDawidSkene.BatchDawidSkeneDeserializer;
 import com.datascience.gal.IncrementalDawidSkene.IncrementalDawidSkeneDeserializer;
+import com.datascience.gal.OnlineDawidSkene.OnlineDawidSkeneDeserializer;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
@@ -29,6 +30,7 @@ public class DawidSkeneDeserializer implements JsonDeserializer<DawidSkene> {
 	public static final DawidSkeneDeserializer deserializer = new DawidSkeneDeserializer();
 	private static final IncrementalDawidSkeneDeserializer incrementalDeserializer = new IncrementalDawidSkeneDeserializer();
 	private static final BatchDawidSkeneDeserializer batchDeserializer = new BatchDawidSkeneDeserializer();
+	private static final OnlineDawidSkeneDeserializer onlineDeserializer = new OnlineDawidSkeneDeserializer();
 
 	@Override
 	public DawidSkene deserialize(JsonElement json, Type type,
@@ -36,6 +38,8 @@ public class DawidSkeneDeserializer implements JsonDeserializer<DawidSkene> {
 		JsonObject jobject = (JsonObject) json;
 		if (jobject.has("dsmethod"))
 			return incrementalDeserializer.deserialize(json, type, context);
+		else if (jobject.has("stepExponent"))
+			return onlineDeserializer.deserialize(json, type, context);
 		else
 			return batchDeserializer.deserialize(json, type, context);
 	}
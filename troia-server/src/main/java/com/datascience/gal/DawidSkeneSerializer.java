@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.lang.reflect.Type;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+/**
+ * Writes all the fields of a project, with a Gson that serializes its
+ * objects without labels: they are in the project's label store, which
+ * writes every worker, object and category name once and refers to them
+ * by id.
+ */
+public class DawidSkeneSerializer implements JsonSerializer<AbstractDawidSkene> {
+
+	private final Gson gson;
+
+	/**
+	 * @param gson must not use this serializer
+	 */
+	public DawidSkeneSerializer(Gson gson) {
+		this.gson = gson;
+	}
+
+	@Override
+	public JsonElement serialize(AbstractDawidSkene ds, Type type,
+			JsonSerializationContext context) {
+		return gson.toJsonTree(ds);
+	}
+}
@@ -0,0 +1,394 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.datascience.core.storages.JSONUtils;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+/**
+ * Confusion matrix kept in a K x K array indexed by the ordinals of the
+ * categories, row "from" of the matrix is at [from * K, from * K + K).
+ * Behaves as {@link MultinomialConfusionMatrix} and is written in the same
+ * JSON format, so a worker serialized with either one can be read as the
+ * other. Zero entries are left out of the JSON, as the map based matrix
+ * does not keep them after {@link #empty()}.
+ *
+ * The category names are usually the job's {@link LabelStore#getCategoryNames()},
+ * shared by all the workers; projects then write the matrix by the ids of
+ * that table with {@link #projectSerializer}.
+ */
+public class DenseConfusionMatrix implements ConfusionMatrix {
+
+	public static final ConfusionMatrixDeserializer deserializer = new ConfusionMatrixDeserializer();
+	public static final ConfusionMatrixSerializer serializer = new ConfusionMatrixSerializer();
+	public static final ProjectConfusionMatrixSerializer projectSerializer = new ProjectConfusionMatrixSerializer();
+
+	// null for a matrix read from a project until it gets the job's table
+	// with withCategories()
+	private final SymbolTable categories;
+	private double[] matrix;
+	private double[] rowDenominator;
+
+	private DenseConfusionMatrix(SymbolTable categories, int K) {
+		this.categories = categories;
+		matrix = new double[K * K];
+		rowDenominator = new double[K];
+	}
+
+	public DenseConfusionMatrix(Collection<Category> categories) {
+		this(categories, new SymbolTable());
+	}
+
+	/**
+	 * @param names
+	 *            table the category ordinals are taken from, the categories
+	 *            are added to it
+	 */
+	public DenseConfusionMatrix(Collection<Category> categories, SymbolTable names) {
+		this(symbols(categories, names), names.size());
+
+		// We now initialize the confusion matrix
+		// and we set it to 0.9 in the diagonal and 0.0 elsewhere
+		int K = rowDenominator.length;
+		for (int from = 0; from < K; from++) {
+			for (int to = 0; to < K; to++) {
+				double value = from == to ? .9 : 0.1 / (double) (K - 1);
+				matrix[from * K + to] = value;
+				rowDenominator[from] += value;
+			}
+		}
+		normalize();
+	}
+
+	private static SymbolTable symbols(Collection<Category> categories, SymbolTable names) {
+		for (Category c : categories)
+			names.intern(c.getName());
+		return names;
+	}
+
+	DenseConfusionMatrix copy() {
+		DenseConfusionMatrix ret = new DenseConfusionMatrix(categories, 0);
+		ret.matrix = matrix.clone();
+		ret.rowDenominator = rowDenominator.clone();
+		return ret;
+	}
+
+	/**
+	 * @return the same matrix with the ordinals of the given table, a matrix
+	 *         read from a project takes the table as it is
+	 */
+	DenseConfusionMatrix withCategories(SymbolTable names) {
+		if (names == categories)
+			return this;
+		int K = rowDenominator.length;
+		if (categories == null) {
+			if (names.size() < K)
+				throw new IllegalArgumentException("Matrix of " + K + " categories given "
+						+ names.size() + " names");
+			DenseConfusionMatrix ret = new DenseConfusionMatrix(names, 0);
+			ret.matrix = matrix;
+			ret.rowDenominator = rowDenominator;
+			return ret;
+		}
+		int[] ids = new int[K];
+		for (int c = 0; c < K; c++)
+			ids[c] = names.intern(categories.getName(c));
+		int size = names.size();
+		DenseConfusionMatrix ret = new DenseConfusionMatrix(names, size);
+		for (int from = 0; from < K; from++) {
+			ret.rowDenominator[ids[from]] = rowDenominator[from];
+			for (int to = 0; to < K; to++)
+				ret.matrix[ids[from] * size + ids[to]] = matrix[from * K + to];
+		}
+		return ret;
+	}
+
+	/**
+	 * @return ordinal of the category, a category the matrix does not have
+	 *         yet is added with zero errors
+	 */
+	private int index(String category) {
+		int c = categories.intern(category);
+		int K = rowDenominator.length;
+		if (c < K)
+			return c;
+		int size = categories.size();
+		double[] grown = new double[size * size];
+		for (int from = 0; from < K; from++)
+			System.arraycopy(matrix, from * K, grown, from * size, K);
+		matrix = grown;
+		rowDenominator = Arrays.copyOf(rowDenominator, size);
+		return c;
+	}
+
+	/**
+	 * @return ordinal of the category in this matrix, {@link SymbolTable#NONE}
+	 *         if the matrix has no such category
+	 */
+	public int getCategoryIndex(String category) {
+		int c = categories.getId(category);
+		return c < rowDenominator.length ? c : SymbolTable.NONE;
+	}
+
+	@Override
+	public void incrementRowDenominator(String from, double value) {
+		rowDenominator[index(from)] += value;
+	}
+
+	@Override
+	public void decrementRowDenominator(String from, double value) {
+		int c = index(from);
+		rowDenominator[c] = Math.max(0., rowDenominator[c] - value);
+	}
+
+	@Override
+	public void empty() {
+		Arrays.fill(matrix, 0.);
+		Arrays.fill(rowDenominator, 0.);
+	}
+
+	@Override
+	public void normalize() {
+		int K = rowDenominator.length;
+		for (int from = 0; from < K; from++) {
+			double marginal = rowDenominator[from];
+			// a worker that has not seen an object of the "from" category
+			// has no error rates for it
+			for (int i = from * K; i < from * K + K; i++)
+				matrix[i] = marginal == 0. ? Double.NaN : matrix[i] / marginal;
+			rowDenominator[from] = 1.;
+		}
+	}
+
+	@Override
+	public void normalizeLaplacean() {
+		int K = rowDenominator.length;
+		for (int from = 0; from < K; from++) {
+			double marginal = rowDenominator[from];
+			for (int i = from * K; i < from * K + K; i++)
+				matrix[i] = (matrix[i] + 1) / (marginal + K);
+			rowDenominator[from] = 1.;
+		}
+	}
+
+	@Override
+	public void addError(String from, String to, Double error) {
+		int f = index(from);
+		addError(f, index(to), error);
+	}
+
+	/**
+	 * {@link #addError(String, String, Double)} for ordinals of the
+	 * categories.
+	 */
+	public void addError(int from, int to, double error) {
+		rowDenominator[from] += error;
+		matrix[from * rowDenominator.length + to] += error;
+	}
+
+	@Override
+	public void removeError(String from, String to, Double error) {
+		int f = index(from);
+		int t = index(to);
+		int i = f * rowDenominator.length + t;
+		rowDenominator[f] = Math.max(0., rowDenominator[f] - error);
+		matrix[i] = Math.max(0, matrix[i] - error);
+	}
+
+	@Override
+	public double getErrorRateBatch(String from, String to) {
+		int f = getCategoryIndex(from);
+		int t = getCategoryIndex(to);
+		if (f == SymbolTable.NONE || t == SymbolTable.NONE)
+			return 0;
+		return getErrorRateBatch(f, t);
+	}
+
+	/**
+	 * {@link #getErrorRateBatch(String, String)} for ordinals of the
+	 * categories.
+	 */
+	public double getErrorRateBatch(int from, int to) {
+		return matrix[from * rowDenominator.length + to];
+	}
+
+	@Override
+	public double getNormalizedErrorRate(String from, String to) {
+		return getErrorRateBatch(from, to) / getRowDenominator(from);
+	}
+
+	@Override
+	public double getLaplaceNormalizedErrorRate(String from, String to) {
+		return (1. + getErrorRateBatch(from, to))
+			   / (getRowDenominator(from) + rowDenominator.length);
+	}
+
+	private double getRowDenominator(String from) {
+		int f = getCategoryIndex(from);
+		return f == SymbolTable.NONE ? 0. : rowDenominator[f];
+	}
+
+	@Override
+	public double getIncrementalErrorRate(String from, String to) {
+		return getNormalizedErrorRate(from, to);
+	}
+
+	@Override
+	public void setErrorRate(String from, String to, Double cost) {
+		int f = index(from);
+		int t = index(to);
+		matrix[f * rowDenominator.length + t] = cost;
+	}
+
+	/**
+	 * Equal to a matrix with the same categories and values, whatever the
+	 * order of its categories.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof DenseConfusionMatrix))
+			return false;
+		DenseConfusionMatrix other = (DenseConfusionMatrix) obj;
+		if (!getCategories().equals(other.getCategories()))
+			return false;
+		int K = rowDenominator.length;
+		for (int from = 0; from < K; from++) {
+			int f = other.categories.getId(categories.getName(from));
+			if (Double.compare(rowDenominator[from], other.rowDenominator[f]) != 0)
+				return false;
+			for (int to = 0; to < K; to++) {
+				int t = other.categories.getId(categories.getName(to));
+				if (Double.compare(matrix[from * K + to], other.matrix[f * K + t]) != 0)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return getCategories().hashCode();
+	}
+
+	@Override
+	public Set<String> getCategories() {
+		return new HashSet<String>(categories.getNames().subList(0, rowDenominator.length));
+	}
+
+	public static class ConfusionMatrixDeserializer implements
+		JsonDeserializer<DenseConfusionMatrix> {
+
+		@Override
+		public DenseConfusionMatrix deserialize(JsonElement json,
+				Type type, JsonDeserializationContext context)
+		throws JsonParseException {
+			JsonObject jobject = (JsonObject) json;
+			if (!jobject.has("categories"))
+				return deserializeProjectMatrix(jobject, context);
+			Collection<String> names =
+					context.deserialize(jobject.get("categories"), JSONUtils.stringSetType);
+			Collection<MatrixValue> matrixValues =
+					context.deserialize(jobject.get("matrix"), JSONUtils.matrixValuesCollectionType);
+			Collection<CategoryValue> rowDenominatorValues =
+					context.deserialize(jobject.get("rowDenominator"), JSONUtils.categoryValuesCollectionType);
+
+			SymbolTable categories = new SymbolTable();
+			for (String name : names)
+				categories.intern(name);
+			// values of categories missing from the list are kept as well
+			for (MatrixValue mv : matrixValues) {
+				categories.intern(mv.from);
+				categories.intern(mv.to);
+			}
+			for (CategoryValue cv : rowDenominatorValues)
+				categories.intern(cv.categoryName);
+
+			DenseConfusionMatrix ret = new DenseConfusionMatrix(categories, categories.size());
+			for (MatrixValue mv : matrixValues)
+				ret.setErrorRate(mv.from, mv.to, mv.value);
+			for (CategoryValue cv : rowDenominatorValues)
+				ret.rowDenominator[categories.getId(cv.categoryName)] = cv.value;
+			return ret;
+		}
+
+		private DenseConfusionMatrix deserializeProjectMatrix(JsonObject jobject,
+				JsonDeserializationContext context) {
+			DenseConfusionMatrix ret = new DenseConfusionMatrix(null, 0);
+			ret.rowDenominator = context.deserialize(jobject.get("rowDenominator"), double[].class);
+			ret.matrix = context.deserialize(jobject.get("matrix"), double[].class);
+			int K = ret.rowDenominator.length;
+			if (ret.matrix.length != K * K)
+				throw new JsonParseException("Matrix of " + ret.matrix.length
+						+ " values for " + K + " categories");
+			return ret;
+		}
+	}
+
+	public static class ConfusionMatrixSerializer implements JsonSerializer<DenseConfusionMatrix> {
+
+		@Override
+		public JsonElement serialize(DenseConfusionMatrix arg0,
+				Type arg1, JsonSerializationContext arg2) {
+			JsonObject ret = new JsonObject();
+			List<String> names = arg0.categories.getNames();
+			int K = arg0.rowDenominator.length;
+
+			Collection<CategoryValue> cp = new ArrayList<CategoryValue>(K);
+			for (int c = 0; c < K; c++) {
+				if (arg0.rowDenominator[c] != 0.)
+					cp.add(new CategoryValue(names.get(c), arg0.rowDenominator[c]));
+			}
+			ret.add("rowDenominator", arg2.serialize(cp));
+
+			Collection<MatrixValue> mv = new ArrayList<MatrixValue>(K * K);
+			for (int from = 0; from < K; from++) {
+				for (int to = 0; to < K; to++) {
+					if (arg0.matrix[from * K + to] != 0.)
+						mv.add(new MatrixValue(names.get(from), names.get(to), arg0.matrix[from * K + to]));
+				}
+			}
+			ret.add("matrix", arg2.serialize(mv));
+
+			ret.add("categories", arg2.serialize(arg0.getCategories()));
+			return ret;
+		}
+	}
+
+	/**
+	 * Writes the arrays by the ids of the job's category table, which the
+	 * project's label store keeps.
+	 */
+	public static class ProjectConfusionMatrixSerializer implements
+		JsonSerializer<DenseConfusionMatrix> {
+
+		@Override
+		public JsonElement serialize(DenseConfusionMatrix matrix, Type type,
+				JsonSerializationContext context) {
+			JsonObject ret = new JsonObject();
+			ret.add("rowDenominator", context.serialize(matrix.rowDenominator));
+			ret.add("matrix", context.serialize(matrix.matrix));
+			return ret;
+		}
+	}
+}
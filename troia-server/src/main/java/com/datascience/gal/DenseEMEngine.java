@@ -0,0 +1,1144 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.datascience.utils.ParallelRunner;
+
+/**
+ * Primitive EM core used by {@link BatchDawidSkene}. Category, worker and
+ * object names are interned to dense ints once, when the engine is built.
+ * Iterations then run over flat arrays: posteriors are kept for the
+ * candidate categories ("slots") of each object and the confusion matrices
+ * by {@link EMMatrices}. Every category is a candidate of every object and
+ * a matrix is a row-major <code>K * K</code> block, unless the job has many
+ * categories: objects then have only the categories of their labels (and
+ * the correct one) as candidates and a matrix keeps only the cells its
+ * labels were seen with, see {@link SparseEMMatrices}. Results are copied
+ * back to the {@link Datum} and {@link Worker} objects by
+ * {@link #writeBack()}.
+ *
+ * The M-step reads only the previous iteration's matrices, so the result of
+ * an iteration does not depend on the order in which workers are visited.
+ *
+ * Posteriors are computed in log space and are not rounded, so objects with
+ * many labels do not underflow to an undefined distribution.
+ *
+ * Workers with few labels may share the matrix of a cluster of workers
+ * (see {@link Worker#getCluster()}): the engine then keeps a matrix per
+ * worker with a matrix of its own followed by one per cluster, indexed by
+ * <code>matrixOf[w]</code>, and {@link WorkerClusters} moves the clustered
+ * workers between the clusters.
+ *
+ * The engine keeps the label index, the posteriors and the leave-one-out
+ * cache; the optional strategies are collaborators: the matrices are kept
+ * by {@link EMMatrices}, an iteration is run by an {@link EMStep} and
+ * clustering and freezing are done by {@link WorkerClusters} and
+ * {@link ObjectFreezer}.
+ */
+public class DenseEMEngine {
+
+	// workers have very different numbers of labels so we cut them into
+	// more chunks than threads to even out the load
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	final int categoriesCount;
+	final String[] categoryNames;
+	final Map<String, Integer> categoryIndex;
+	// category ids in the project's label store, which index the objects'
+	// estimates
+	final int[] storeCategories;
+
+	final Datum[] datums;
+	final Worker[] workers;
+
+	/** correct category of a gold object or -1 */
+	final int[] goldCategory;
+
+	// candidate categories of object o are slotCategory[s] for s in
+	// [slotStart[o], slotStart[o + 1]); the arrays of the posteriors and of
+	// the leave-one-out cache are indexed by slot
+	final int[] slotStart;
+	final int[] slotCategory;
+	// objects with at least one candidate, whose posteriors make the priors
+	private final int estimatedObjects;
+
+	// labels sorted by object; labels of object o are in
+	// [objectLabelsStart[o], objectLabelsStart[o + 1])
+	final int[] objectLabelsStart;
+	final int[] labelObject;
+	final int[] labelWorker;
+	final int[] labelCategory;
+
+	// indexes into the label arrays grouped by worker
+	final int[] workerLabelsStart;
+	final int[] workerLabels;
+
+	// matrix block of each worker and of each label, and the labels grouped
+	// by matrix; the same as the worker ones unless workers are clustered
+	final int[] matrixOf;
+	// matrices of the clusters follow the personal ones
+	final int personalMatricesCount;
+	private final List<ConfusionMatrix> clusterMatrices;
+	int[] labelMatrix;
+	int[] matrixLabelsStart;
+	int[] matrixLabels;
+	// slots of the object of label l start at labelSlotsStart[l] in the
+	// arrays kept per label and slot
+	private final int[] labelSlotsStart;
+
+	final boolean fixedPriors;
+	final double[] priors;
+	final double[] posteriors;
+	// replaced when the workers are clustered or move between clusters
+	EMMatrices matrices;
+
+	// Leave-one-out cache. For each object and candidate it holds the sum of
+	// logs of the non zero error rates of all the object's labels and the
+	// number of zero ones. The posterior without worker w is then obtained
+	// by taking w's single factor out instead of recomputing the whole sum.
+	// The E-step fills it as a by-product, as it reads the same matrices the
+	// following M-step does.
+	final double[] logEvidence;
+	final int[] zeroFactors;
+	final double[] logPriors;
+	private boolean evidenceCached;
+
+	private final double[] objectBuffer;
+	private final int[] countBuffer;
+	private int iterations;
+	private double logLikelihood = Double.NaN;
+	private int activeObjects;
+
+	private ParallelRunner runner;
+
+	// settings of the step, which is created by the first iteration
+	private double batchFraction = 1.;
+	private long batchSeed;
+	private boolean acceleration;
+	private int shards = 1;
+	private EMStep step;
+
+	private WorkerClusters clusters;
+	private ObjectFreezer freezer;
+
+	public DenseEMEngine(AbstractDawidSkene ds) {
+		this(ds, Collections.<ConfusionMatrix>emptyList());
+	}
+
+	/**
+	 * @param clusters matrices of the clusters the job's workers refer to
+	 *            with {@link Worker#getCluster()}, they get the estimates
+	 *            of the clusters in {@link #writeBack(AbstractDawidSkene)}
+	 */
+	public DenseEMEngine(AbstractDawidSkene ds, List<ConfusionMatrix> clusters) {
+		Map<String, Category> categories = ds.categories;
+		categoriesCount = categories.size();
+		categoryNames = new String[categoriesCount];
+		categoryIndex = new HashMap<String, Integer>();
+		int i = 0;
+		for (String name : categories.keySet()) {
+			categoryNames[i] = name;
+			categoryIndex.put(name, i);
+			i++;
+		}
+
+		// the labels are read from the job's store, its ids of the workers
+		// and categories are mapped to the engine's ones
+		LabelStore store = ds.labelStore;
+		storeCategories = new int[categoriesCount];
+		for (int c = 0; c < categoriesCount; c++) {
+			storeCategories[c] = store.categoryId(categoryNames[c]);
+		}
+		int[] categoryOf = new int[store.getCategoriesCount()];
+		for (int c = 0; c < categoriesCount; c++) {
+			categoryOf[storeCategories[c]] = c;
+		}
+
+		workers = new Worker[ds.workers.size()];
+		int[] workerOf = new int[store.getWorkersCount()];
+		i = 0;
+		for (Worker w : ds.workers.values()) {
+			workers[i] = w;
+			workerOf[w.getStoreId()] = i;
+			i++;
+		}
+
+		datums = new Datum[ds.objects.size()];
+		int[] storeObjects = new int[datums.length];
+		goldCategory = new int[datums.length];
+		objectLabelsStart = new int[datums.length + 1];
+		int labelsCount = 0;
+		i = 0;
+		for (Datum d : ds.objects.values()) {
+			datums[i] = d;
+			storeObjects[i] = d.storeId;
+			goldCategory[i] = d.isGold() ? categoryIndex.get(d.getCorrectCategory()) : -1;
+			objectLabelsStart[i] = labelsCount;
+			labelsCount += store.getObjectLabelsCount(storeObjects[i]);
+			i++;
+		}
+		objectLabelsStart[datums.length] = labelsCount;
+
+		labelObject = new int[labelsCount];
+		labelWorker = new int[labelsCount];
+		labelCategory = new int[labelsCount];
+		int[] workerLabelsCount = new int[workers.length];
+		int[] objectOffsets = store.getObjectOffsets();
+		int[] objectLabels = store.getObjectLabels();
+		int l = 0;
+		for (int o = 0; o < datums.length; o++) {
+			for (int j = objectOffsets[storeObjects[o]]; j < objectOffsets[storeObjects[o] + 1]; j++) {
+				int label = objectLabels[j];
+				labelObject[l] = o;
+				labelWorker[l] = workerOf[store.getWorker(label)];
+				labelCategory[l] = categoryOf[store.getCategory(label)];
+				workerLabelsCount[labelWorker[l]]++;
+				l++;
+			}
+		}
+		workerLabelsStart = new int[workers.length + 1];
+		for (int w = 0; w < workers.length; w++) {
+			workerLabelsStart[w + 1] = workerLabelsStart[w] + workerLabelsCount[w];
+		}
+		workerLabels = new int[labelsCount];
+		int[] fill = new int[workers.length];
+		for (l = 0; l < labelsCount; l++) {
+			int w = labelWorker[l];
+			workerLabels[workerLabelsStart[w] + fill[w]++] = l;
+		}
+
+		fixedPriors = ds.fixedPriors;
+		priors = new double[categoriesCount];
+		for (int c = 0; c < categoriesCount; c++) {
+			priors[c] = ds.prior(categoryNames[c]);
+		}
+
+		int K = categoriesCount;
+		boolean sparse = EMMatrices.isSparse(K);
+		slotStart = new int[datums.length + 1];
+		int[] candidates = new int[sparse ? labelsCount + datums.length : datums.length * K];
+		int slots = 0;
+		int objectsWithSlots = 0;
+		for (int o = 0; o < datums.length; o++) {
+			slotStart[o] = slots;
+			if (!sparse) {
+				for (int c = 0; c < K; c++) {
+					candidates[slots++] = c;
+				}
+			} else {
+				for (l = objectLabelsStart[o]; l < objectLabelsStart[o + 1]; l++) {
+					candidates[slots++] = labelCategory[l];
+				}
+				if (goldCategory[o] >= 0)
+					candidates[slots++] = goldCategory[o];
+				Arrays.sort(candidates, slotStart[o], slots);
+				int distinct = slotStart[o];
+				for (int s = slotStart[o]; s < slots; s++) {
+					if (s == slotStart[o] || candidates[s] != candidates[distinct - 1])
+						candidates[distinct++] = candidates[s];
+				}
+				slots = distinct;
+			}
+			if (slots > slotStart[o])
+				objectsWithSlots++;
+		}
+		slotStart[datums.length] = slots;
+		slotCategory = sparse ? Arrays.copyOf(candidates, slots) : candidates;
+		estimatedObjects = objectsWithSlots;
+		labelSlotsStart = new int[labelsCount + 1];
+		for (l = 0; l < labelsCount; l++) {
+			labelSlotsStart[l + 1] = labelSlotsStart[l] + getSlotsCount(labelObject[l]);
+		}
+
+		posteriors = new double[slots];
+		for (int o = 0; o < datums.length; o++) {
+			for (int s = slotStart[o]; s < slotStart[o + 1]; s++) {
+				double p = datums[o].getCategoryProbability(storeCategories[slotCategory[s]]);
+				posteriors[s] = Double.isNaN(p) ? 1. / getSlotsCount(o) : p;
+			}
+		}
+
+		clusterMatrices = clusters;
+		matrixOf = new int[workers.length];
+		int personal = 0;
+		for (int w = 0; w < workers.length; w++) {
+			if (workers[w].getCluster() == Worker.NO_CLUSTER)
+				matrixOf[w] = personal++;
+		}
+		personalMatricesCount = personal;
+		labelMatrix = labelWorker;
+		matrixLabelsStart = workerLabelsStart;
+		matrixLabels = workerLabels;
+		if (personal < workers.length) {
+			int[] clustered = new int[workers.length - personal];
+			i = 0;
+			for (int w = 0; w < workers.length; w++) {
+				int cluster = workers[w].getCluster();
+				if (cluster == Worker.NO_CLUSTER)
+					continue;
+				if (cluster < 0 || cluster >= clusters.size())
+					throw new IllegalArgumentException("Worker " + workers[w].getName()
+							+ " is in an unknown cluster " + cluster);
+				matrixOf[w] = personal + cluster;
+				clustered[i++] = w;
+			}
+			groupLabelsByMatrix(personal + clusters.size());
+			this.clusters = new WorkerClusters(this, clustered);
+		}
+
+		// only the personal and the cluster matrices are built
+		matrices = EMMatrices.create(this, personal + clusters.size());
+		for (int w = 0; w < workers.length; w++) {
+			if (matrixOf[w] < personal)
+				matrices.read(matrixOf[w], workers[w].cm);
+		}
+		for (int c = 0; c < clusters.size(); c++) {
+			matrices.read(personal + c, clusters.get(c));
+		}
+
+		logEvidence = new double[slots];
+		zeroFactors = new int[slots];
+		logPriors = new double[K];
+
+		objectBuffer = new double[K];
+		countBuffer = new int[K];
+	}
+
+	int getSlotsCount(int o) {
+		return slotStart[o + 1] - slotStart[o];
+	}
+
+	/**
+	 * @return index of the first slot of label <code>l</code>'s object in
+	 *         arrays kept per label and slot, <code>l</code> may be the
+	 *         number of labels
+	 */
+	int getLabelSlotsStart(int l) {
+		return labelSlotsStart[l];
+	}
+
+	public int getNumberOfIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Log-likelihood computed by the last E-step, from the new posteriors and
+	 * the matrices that step used. It is the value of
+	 * {@link #getLogLikelihood()} right after that E-step, obtained from the
+	 * leave-one-out cache at O(K) per object. NaN before the first E-step.
+	 */
+	public double getEStepLogLikelihood() {
+		return logLikelihood;
+	}
+
+	void setEStepResults(double logLikelihood, int activeObjects) {
+		this.logLikelihood = logLikelihood;
+		this.activeObjects = activeObjects;
+	}
+
+	/**
+	 * With a runner set the E-step is split into object ranges and the M-step
+	 * into worker ranges processed concurrently. Every object and worker is
+	 * still computed by the same code from the same inputs, so the results do
+	 * not depend on the number of threads.
+	 */
+	public void setRunner(ParallelRunner runner) {
+		this.runner = runner;
+	}
+
+	ParallelRunner getRunner() {
+		return runner;
+	}
+
+	public void shutdown() {
+		if (runner != null)
+			runner.shutdown();
+	}
+
+	/**
+	 * Switches {@link #iterate()} to mini-batch EM. Every step computes the
+	 * posteriors of a random <code>fraction</code> of the objects and the
+	 * expected label counts of their labels, scaled to the whole data, and
+	 * moves the workers' counts towards them with a decaying step size
+	 * (the priors are updated the same way). Matrices are the normalized
+	 * counts. A small random set of non gold objects is held out of the
+	 * batches; the log-likelihood of their labels measures convergence.
+	 *
+	 * @param fraction of the objects in a batch, 1 means full batch EM
+	 * @param seed of the batch sampling
+	 */
+	public void setMiniBatch(double fraction, long seed) {
+		batchFraction = fraction;
+		batchSeed = seed;
+		step = null;
+	}
+
+	/**
+	 * Log-likelihood of the held out labels after the last mini-batch step,
+	 * with the classes of the objects marginalized out. NaN before the first
+	 * step.
+	 */
+	public double getHeldOutLogLikelihood() {
+		return step instanceof MiniBatchStep
+				? ((MiniBatchStep) step).getHeldOutLogLikelihood() : Double.NaN;
+	}
+
+	/**
+	 * Switches on SQUAREM acceleration of full batch EM. A cycle runs four
+	 * plain iterations and then jumps from its start point along the
+	 * direction in which the parameters moved, with a step length computed
+	 * from how fast that direction changed. Two iterations per point make
+	 * the components that oscillate between iterations decay instead of
+	 * hiding the slow, monotone ones. The jump is followed by a plain
+	 * iteration from the extrapolated point; if that iteration moves the
+	 * parameters more than the last plain one did, the jump is discarded and
+	 * the iteration is run from the regular parameters instead. Ignored in
+	 * mini-batch mode.
+	 */
+	public void setAcceleration(boolean acceleration) {
+		this.acceleration = acceleration;
+		step = null;
+	}
+
+	/**
+	 * @return how many extrapolations were discarded by the safeguard
+	 */
+	public int getRejectedExtrapolations() {
+		return step instanceof AcceleratedStep
+				? ((AcceleratedStep) step).getRejectedExtrapolations() : 0;
+	}
+
+	/**
+	 * Lets full batch EM skip objects that have converged. An object whose
+	 * posterior moved by less than <code>tolerance</code> (in every
+	 * category) is frozen: the E-step keeps its posterior and log-likelihood
+	 * contribution and the M-step reuses the leave-one-out posteriors of its
+	 * labels from the last time it was computed. It is computed again once
+	 * an error rate of one of its workers, or a prior, moves by more than
+	 * <code>tolerance</code>. Ignored in mini-batch and sharded mode.
+	 *
+	 * @param tolerance 0 switches freezing off
+	 */
+	public void setFreezing(double tolerance) {
+		freezer = tolerance <= 0. ? null : new ObjectFreezer(this, tolerance);
+	}
+
+	private boolean isFreezing() {
+		return freezer != null && batchFraction >= 1. && shards <= 1;
+	}
+
+	/**
+	 * @return number of objects whose posteriors were computed by the last
+	 *         E-step
+	 */
+	public int getActiveObjects() {
+		return activeObjects;
+	}
+
+	int getWorkerLabelsCount(int w) {
+		return workerLabelsStart[w + 1] - workerLabelsStart[w];
+	}
+
+	int getMatrixLabelsCount(int m) {
+		return matrixLabelsStart[m + 1] - matrixLabelsStart[m];
+	}
+
+	/**
+	 * Fills <code>labelMatrix</code> and groups the labels by matrix, the
+	 * labels of a cluster in the order of its workers.
+	 */
+	void groupLabelsByMatrix(int matricesCount) {
+		int labelsCount = labelWorker.length;
+		if (labelMatrix == labelWorker) {
+			labelMatrix = new int[labelsCount];
+			matrixLabels = new int[labelsCount];
+		}
+		matrixLabelsStart = new int[matricesCount + 1];
+		for (int w = 0; w < workers.length; w++) {
+			matrixLabelsStart[matrixOf[w] + 1] += getWorkerLabelsCount(w);
+		}
+		for (int m = 0; m < matricesCount; m++) {
+			matrixLabelsStart[m + 1] += matrixLabelsStart[m];
+		}
+		int[] fill = new int[matricesCount];
+		for (int w = 0; w < workers.length; w++) {
+			int m = matrixOf[w];
+			for (int i = workerLabelsStart[w]; i < workerLabelsStart[w + 1]; i++) {
+				int l = workerLabels[i];
+				labelMatrix[l] = m;
+				matrixLabels[matrixLabelsStart[m] + fill[m]++] = l;
+			}
+		}
+	}
+
+	/**
+	 * The matrix of worker <code>w</code> changed, so its objects have to be
+	 * computed again.
+	 */
+	void unfreezeWorkerObjects(int w) {
+		if (!isFreezing())
+			return;
+		for (int i = workerLabelsStart[w]; i < workerLabelsStart[w + 1]; i++) {
+			freezer.unfreeze(labelObject[workerLabels[i]]);
+		}
+	}
+
+	/**
+	 * @return number of matrices estimated by an iteration: one per worker,
+	 *         or per worker with a personal matrix and per cluster
+	 */
+	public int getMatricesCount() {
+		return matrices.count;
+	}
+
+	/**
+	 * @return copy of the current matrix of worker <code>w</code>, a
+	 *         row-major <code>K * K</code> block; the cells a sparse matrix
+	 *         does not keep get the unseen rate of their row
+	 */
+	public double[] getWorkerMatrix(int w) {
+		return matrices.copy(matrixOf[w]);
+	}
+
+	/**
+	 * @return cluster worker <code>w</code> is currently in or
+	 *         {@link Worker#NO_CLUSTER}
+	 */
+	public int getWorkerCluster(int w) {
+		return matrixOf[w] < personalMatricesCount ? Worker.NO_CLUSTER
+				: matrixOf[w] - personalMatricesCount;
+	}
+
+	/**
+	 * @return copy of the current matrix of cluster <code>c</code>, see
+	 *         {@link #getWorkerMatrix(int)}
+	 */
+	public double[] getClusterMatrix(int c) {
+		return matrices.copy(personalMatricesCount + c);
+	}
+
+	/**
+	 * @return number of clustered workers that moved to another cluster
+	 *         after the last iteration; they move after every full batch
+	 *         iteration without acceleration
+	 */
+	public int getReassignedWorkers() {
+		return clusters == null ? 0 : clusters.getReassignedWorkers();
+	}
+
+	/**
+	 * One EM pass: object posteriors, priors and then worker matrices, or a
+	 * mini-batch step.
+	 */
+	public void iterate() {
+		if (step == null)
+			step = createStep();
+		step.iterate();
+		if (clusters != null && batchFraction >= 1. && !acceleration)
+			clusters.reassign();
+		iterations++;
+	}
+
+	private EMStep createStep() {
+		if (batchFraction < 1.)
+			return new MiniBatchStep(this, batchFraction, batchSeed);
+		EMStep plain = shards > 1 ? new ShardedStep(this, shards) : new FullBatchStep(this);
+		return acceleration ? new AcceleratedStep(this, plain) : plain;
+	}
+
+	/**
+	 * Makes full batch EM run as a map-reduce over <code>shards</code>
+	 * ranges of objects. In the first round every shard computes the
+	 * posteriors of its objects and their sums; the sums are reduced into
+	 * the priors. In the second round every shard accumulates the expected
+	 * label counts of the workers from the leave-one-out posteriors of its
+	 * labels; the counts are reduced and normalized into the new matrices.
+	 * Shards are independent within a round (they run concurrently when a
+	 * runner is set) and partial results are always reduced in shard order,
+	 * so the estimates depend on the number of shards but not on the
+	 * number of threads or the scheduling. Objects are not frozen in this
+	 * mode.
+	 *
+	 * @param shards 1 switches sharding off
+	 */
+	public void setShards(int shards) {
+		if (shards < 1)
+			throw new IllegalArgumentException("Number of shards should be positive");
+		this.shards = shards;
+		step = null;
+	}
+
+	/**
+	 * Map step computing the posteriors of the objects in [from, to) into
+	 * <code>sums</code>: the log-likelihood, the number of computed objects
+	 * and the posterior sum of each category.
+	 */
+	void mapPosteriors(int from, int to, double[] probabilities, int[] validFactors,
+			double[] sums) {
+		Arrays.fill(sums, 0.);
+		updateObjectClassProbabilities(from, to, probabilities, validFactors, false, sums);
+		for (int s = slotStart[from]; s < slotStart[to]; s++) {
+			sums[2 + slotCategory[s]] += posteriors[s];
+		}
+	}
+
+	/**
+	 * Expected label counts of the labels of objects in [from, to), indexed
+	 * like the matrices, computed from the leave-one-out cache.
+	 */
+	void accumulateCounts(int from, int to, double[] probabilities, double[] counts) {
+		Arrays.fill(counts, 0.);
+		for (int l = objectLabelsStart[from]; l < objectLabelsStart[to]; l++) {
+			if (!computeLeaveOneOut(l, probabilities))
+				continue; // No other worker labeled the object
+			for (int j = 0; j < getSlotsCount(labelObject[l]); j++) {
+				counts[matrices.cell(l, j)] += probabilities[j];
+			}
+		}
+	}
+
+	/**
+	 * @return names of the workers in the order used by the matrices
+	 *         (when the workers are not clustered)
+	 */
+	public String[] getWorkerNames() {
+		String[] result = new String[workers.length];
+		for (int w = 0; w < workers.length; w++) {
+			result[w] = workers[w].getName();
+		}
+		return result;
+	}
+
+	/**
+	 * @return names of the categories in the order used by the matrices,
+	 *         priors and posteriors
+	 */
+	public String[] getCategoryNames() {
+		return categoryNames.clone();
+	}
+
+	/**
+	 * First map step of an iteration when this engine holds a single shard
+	 * of a job and a coordinator does the reductions (see
+	 * {@link #setShards(int)}). Sets the worker matrices and the priors to
+	 * the given ones and computes the posteriors of all the objects.
+	 *
+	 * @param matrices row-major <code>K * K</code> blocks, one per worker
+	 * @return the log-likelihood, the number of computed objects and the
+	 *         posterior sum of each category, followed by the number of
+	 *         objects the priors are estimated from
+	 */
+	public double[] mapPosteriors(double[] matrices, double[] priors) {
+		int K = categoriesCount;
+		this.matrices.setDense(matrices);
+		System.arraycopy(priors, 0, this.priors, 0, K);
+		updateLogs();
+		double[] result = new double[K + 3];
+		mapPosteriors(0, datums.length, objectBuffer, countBuffer, result);
+		result[K + 2] = estimatedObjects;
+		setEStepResults(result[0], (int) result[1]);
+		evidenceCached = true;
+		iterations++;
+		return result;
+	}
+
+	/**
+	 * Second map step of a coordinated iteration, run after
+	 * {@link #mapPosteriors(double[], double[])}: sets the priors reduced
+	 * from all the shards and computes the expected label counts of this
+	 * shard's workers.
+	 *
+	 * @return the counts, not normalized, in row-major <code>K * K</code>
+	 *         blocks, one per worker
+	 */
+	public double[] mapLabelCounts(double[] priors) {
+		System.arraycopy(priors, 0, this.priors, 0, categoriesCount);
+		updateLogPriors();
+		double[] counts = new double[matrices.size()];
+		accumulateCounts(0, datums.length, objectBuffer, counts);
+		return matrices.toDense(counts);
+	}
+
+	/**
+	 * @return number of objects with candidate categories, the ones the
+	 *         priors are estimated from
+	 */
+	int getEstimatedObjects() {
+		return estimatedObjects;
+	}
+
+	/**
+	 * The matrices are not the ones the leave-one-out cache was computed
+	 * from anymore.
+	 */
+	void matricesChanged() {
+		evidenceCached = false;
+	}
+
+	/**
+	 * The matrices and priors were set to other values than the ones an
+	 * iteration computed, so no object stays frozen either.
+	 */
+	void parametersReplaced() {
+		evidenceCached = false;
+		if (freezer != null)
+			freezer.unfreezeAll();
+	}
+
+	/**
+	 * E-step: recomputes the posterior of every object (but the frozen ones)
+	 * and, along the way, the leave-one-out cache for the current matrices
+	 * and the log-likelihood.
+	 */
+	public void updateObjectClassProbabilities() {
+		updateLogs();
+		final boolean freezing = isFreezing();
+		if (runner == null) {
+			double[] sums = new double[2];
+			updateObjectClassProbabilities(0, datums.length, objectBuffer, countBuffer,
+					freezing, sums);
+			setEStepResults(sums[0], (int) sums[1]);
+		} else {
+			int[] bounds = ParallelRunner.split(datums.length, runner.getThreads());
+			final double[][] partial = new double[bounds.length - 1][2];
+			runner.run(bounds, new ParallelRunner.ChunkTask() {
+				@Override
+				public void run(int chunk, int from, int to) {
+					updateObjectClassProbabilities(from, to, new double[categoriesCount],
+							new int[categoriesCount], freezing, partial[chunk]);
+				}
+			});
+			// summed in chunk order so that the value does not depend on
+			// which thread finished first
+			double sum = 0.;
+			int active = 0;
+			for (double[] sums : partial) {
+				sum += sums[0];
+				active += (int) sums[1];
+			}
+			setEStepResults(sum, active);
+		}
+		evidenceCached = true;
+	}
+
+	/**
+	 * Adds the contribution of the objects in [from, to) to the
+	 * log-likelihood to <code>sums[0]</code> and the number of them that
+	 * were computed to <code>sums[1]</code>.
+	 */
+	private void updateObjectClassProbabilities(int from, int to, double[] probabilities,
+			int[] validFactors, boolean freezing, double[] sums) {
+		for (int o = from; o < to; o++) {
+			if (freezing && freezer.isFrozen(o)) {
+				sums[0] += freezer.skip(o);
+				continue;
+			}
+			sums[0] += updateObjectClassProbability(o, probabilities, validFactors);
+			if (objectLabelsStart[o] < objectLabelsStart[o + 1])
+				sums[1]++;
+		}
+	}
+
+	/**
+	 * E-step for a single object, expects the logs to be up to date. With
+	 * freezing on, also lets the freezer decide whether the object gets
+	 * frozen.
+	 *
+	 * @return the contribution of the object to the log-likelihood
+	 */
+	double updateObjectClassProbability(int o, double[] probabilities, int[] validFactors) {
+		int start = slotStart[o];
+		int slots = getSlotsCount(o);
+		double change = 0.;
+		double result = 0.;
+		if (objectLabelsStart[o] < objectLabelsStart[o + 1]) {
+			updateEvidence(o, validFactors);
+			if (goldCategory[o] >= 0) {
+				for (int s = start; s < start + slots; s++) {
+					posteriors[s] = slotCategory[s] == goldCategory[o] ? 1. : 0.;
+				}
+			} else {
+				for (int j = 0; j < slots; j++) {
+					int c = slotCategory[start + j];
+					probabilities[j] = zeroFactors[start + j] > 0 || priors[c] == 0.
+							? Double.NEGATIVE_INFINITY
+							: logEvidence[start + j] + logPriors[c];
+				}
+				if (normalizeLogs(probabilities, slots)) {
+					for (int j = 0; j < slots; j++) {
+						change = Math.max(change, Math.abs(probabilities[j] - posteriors[start + j]));
+					}
+					System.arraycopy(probabilities, 0, posteriors, start, slots);
+				}
+			}
+			// every label contributes log(p) + log(e) for each candidate with
+			// non zero p and non zero, defined e
+			for (int j = 0; j < slots; j++) {
+				double p = posteriors[start + j];
+				if (p == 0.)
+					continue;
+				result += validFactors[j] * Math.log(p) + logEvidence[start + j];
+			}
+		}
+		if (isFreezing())
+			freezer.computed(o, result, change);
+		return result;
+	}
+
+	/**
+	 * Log-likelihood of the labels of object <code>o</code> with its class
+	 * marginalized out, expects the logs to be up to date.
+	 */
+	double getMarginalLogLikelihood(int o, double[] buffer, int[] validFactors) {
+		int start = slotStart[o];
+		int slots = getSlotsCount(o);
+		updateEvidence(o, validFactors);
+		double max = Double.NEGATIVE_INFINITY;
+		for (int j = 0; j < slots; j++) {
+			int c = slotCategory[start + j];
+			buffer[j] = zeroFactors[start + j] > 0 || priors[c] == 0.
+					? Double.NEGATIVE_INFINITY
+					: logEvidence[start + j] + logPriors[c];
+			max = Math.max(max, buffer[j]);
+		}
+		double sum = 0.;
+		for (int j = 0; j < slots; j++) {
+			sum += Math.exp(buffer[j] - max);
+		}
+		return max + Math.log(sum);
+	}
+
+	private void updateLogs() {
+		matrices.updateLogs();
+		updateLogPriors();
+	}
+
+	void updateLogPriors() {
+		for (int c = 0; c < categoriesCount; c++) {
+			logPriors[c] = Math.log(priors[c]);
+		}
+	}
+
+	/**
+	 * Turns the first <code>n</code> log nominators into a distribution in
+	 * place (log-sum-exp).
+	 *
+	 * @return false when all the nominators are zero
+	 */
+	private static boolean normalizeLogs(double[] values, int n) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int j = 0; j < n; j++) {
+			max = Math.max(max, values[j]);
+		}
+		if (max == Double.NEGATIVE_INFINITY)
+			return false;
+		double denominator = 0.;
+		for (int j = 0; j < n; j++) {
+			values[j] = Math.exp(values[j] - max);
+			denominator += values[j];
+		}
+		for (int j = 0; j < n; j++) {
+			values[j] /= denominator;
+		}
+		return true;
+	}
+
+	void updatePriors() {
+		if (fixedPriors || estimatedObjects == 0)
+			return;
+		int K = categoriesCount;
+		double[] previous = isFreezing() ? priors.clone() : null;
+		for (int c = 0; c < K; c++) {
+			priors[c] = 0.;
+		}
+		for (int s = 0; s < posteriors.length; s++) {
+			priors[slotCategory[s]] += posteriors[s] / estimatedObjects;
+		}
+		if (previous != null)
+			freezer.priorsUpdated(previous);
+	}
+
+	/**
+	 * M-step. Every worker's matrix is estimated from the posteriors and the
+	 * previous matrices and written only to that worker's block of the next
+	 * matrices, so with a runner set workers are sharded across threads
+	 * (balanced by number of labels) without any shared mutable state apart
+	 * from per chunk scratch buffers. The matrix of a cluster of workers is
+	 * estimated from the labels of all its workers.
+	 */
+	public void rebuildWorkerConfusionMatrices() {
+		if (evidenceCached)
+			updateLogPriors();
+		else
+			updateLeaveOneOutCache();
+		if (runner == null) {
+			for (int m = 0; m < matrices.count; m++) {
+				rebuildWorkerConfusionMatrix(m, objectBuffer);
+			}
+		} else {
+			int[] bounds = ParallelRunner.splitByWeight(matrixLabelsStart,
+					runner.getThreads() * CHUNKS_PER_THREAD);
+			runner.run(bounds, new ParallelRunner.ChunkTask() {
+				@Override
+				public void run(int chunk, int from, int to) {
+					double[] probabilities = new double[categoriesCount];
+					for (int m = from; m < to; m++) {
+						rebuildWorkerConfusionMatrix(m, probabilities);
+					}
+				}
+			});
+		}
+		if (isFreezing())
+			freezer.matricesUpdated();
+		matrices.swap();
+		evidenceCached = false;
+	}
+
+	/**
+	 * Rebuilds the leave-one-out cache for the current matrices and priors.
+	 * Only needed when the M-step is not preceded by an E-step.
+	 */
+	void updateLeaveOneOutCache() {
+		updateLogs();
+		if (runner == null) {
+			updateLeaveOneOutCache(0, datums.length);
+		} else {
+			runner.run(datums.length, new ParallelRunner.ChunkTask() {
+				@Override
+				public void run(int chunk, int from, int to) {
+					updateLeaveOneOutCache(from, to);
+				}
+			});
+		}
+		evidenceCached = true;
+	}
+
+	private void updateLeaveOneOutCache(int from, int to) {
+		int[] validFactors = new int[categoriesCount];
+		for (int o = from; o < to; o++) {
+			updateEvidence(o, validFactors);
+			if (freezer != null)
+				freezer.refreshed(o);
+		}
+	}
+
+	/**
+	 * Fills the leave-one-out cache of object <code>o</code>.
+	 * <code>validFactors</code> gets the number of the non zero, defined
+	 * error rates summed for each candidate.
+	 */
+	private void updateEvidence(int o, int[] validFactors) {
+		EMMatrices matrices = this.matrices;
+		double[] values = matrices.values;
+		double[] logs = matrices.logs;
+		int start = slotStart[o];
+		for (int j = 0; j < getSlotsCount(o); j++) {
+			double sum = 0.;
+			int zeros = 0;
+			int valid = 0;
+			for (int l = objectLabelsStart[o]; l < objectLabelsStart[o + 1]; l++) {
+				int idx = matrices.cell(l, j);
+				double evidence = values[idx];
+				if (Double.isNaN(evidence))
+					continue;
+				if (evidence == 0.) {
+					zeros++;
+				} else {
+					sum += logs[idx];
+					valid++;
+				}
+			}
+			logEvidence[start + j] = sum;
+			zeroFactors[start + j] = zeros;
+			validFactors[j] = valid;
+		}
+	}
+
+	/**
+	 * Posterior of the object of label <code>l</code> ignoring that label's
+	 * worker, computed from the leave-one-out cache. Gives the same result as
+	 * {@link #computeObjectClassProbabilities(int, int, double[])} but in
+	 * O(K) instead of O(K * labels of the object). <code>out</code> is
+	 * indexed by the object's slots.
+	 */
+	boolean computeLeaveOneOut(int l, double[] out) {
+		int o = labelObject[l];
+		int start = slotStart[o];
+		int slots = getSlotsCount(o);
+		if (goldCategory[o] >= 0) {
+			for (int j = 0; j < slots; j++) {
+				out[j] = slotCategory[start + j] == goldCategory[o] ? 1. : 0.;
+			}
+			return true;
+		}
+		// a worker labels an object at most once, so a single label means
+		// that nobody else labeled it
+		if (objectLabelsStart[o + 1] - objectLabelsStart[o] <= 1)
+			return false;
+
+		for (int j = 0; j < slots; j++) {
+			int c = slotCategory[start + j];
+			int zeros = zeroFactors[start + j];
+			double value = logEvidence[start + j];
+			int idx = matrices.cell(l, j);
+			double evidence = matrices.values[idx];
+			if (!Double.isNaN(evidence)) {
+				if (evidence == 0.)
+					zeros--;
+				else
+					value -= matrices.logs[idx];
+			}
+			if (priors[c] == 0.)
+				zeros++;
+			else
+				value += logPriors[c];
+			out[j] = zeros > 0 ? Double.NEGATIVE_INFINITY : value;
+		}
+		return normalizeLogs(out, slots);
+	}
+
+	/**
+	 * Estimates matrix <code>m</code> (of a worker or a cluster) into the
+	 * next matrices, treating the posterior of each labeled object computed
+	 * without the label as the correct class.
+	 */
+	void rebuildWorkerConfusionMatrix(int m, double[] probabilities) {
+		EMMatrices matrices = this.matrices;
+		double[] next = matrices.next;
+		Arrays.fill(next, matrices.getStart(m), matrices.getStart(m + 1), 0.);
+		boolean freezing = isFreezing();
+		for (int i = matrixLabelsStart[m]; i < matrixLabelsStart[m + 1]; i++) {
+			int l = matrixLabels[i];
+			if (!(freezing ? freezer.computeLeaveOneOut(l, probabilities)
+					: computeLeaveOneOut(l, probabilities)))
+				continue; // No other worker labeled the object
+			for (int j = 0; j < getSlotsCount(labelObject[l]); j++) {
+				next[matrices.cell(l, j)] += probabilities[j];
+			}
+		}
+		matrices.normalize(m, next, next);
+	}
+
+	/**
+	 * Dense counterpart of
+	 * {@link AbstractDawidSkene#getObjectClassProbabilities(String, String)}.
+	 *
+	 * @param o object index
+	 * @param workerToIgnore worker index whose label is skipped or -1
+	 * @param out buffer of size K for the result, indexed by the object's
+	 *        slots
+	 * @return false when the distribution is undefined (the map based version
+	 *         returns null in that case)
+	 */
+	boolean computeObjectClassProbabilities(int o, int workerToIgnore, double[] out) {
+		int slots = getSlotsCount(o);
+		if (goldCategory[o] >= 0) {
+			for (int j = 0; j < slots; j++) {
+				out[j] = slotCategory[slotStart[o] + j] == goldCategory[o] ? 1. : 0.;
+			}
+			return true;
+		}
+		int start = objectLabelsStart[o];
+		int end = objectLabelsStart[o + 1];
+		boolean hasLabels = false;
+		for (int l = start; l < end && !hasLabels; l++) {
+			hasLabels = labelWorker[l] != workerToIgnore;
+		}
+		if (!hasLabels)
+			return false;
+
+		for (int j = 0; j < slots; j++) {
+			double nominator = Math.log(priors[slotCategory[slotStart[o] + j]]);
+			for (int l = start; l < end; l++) {
+				if (labelWorker[l] == workerToIgnore)
+					continue;
+				double evidence = matrices.values[matrices.cell(l, j)];
+				if (Double.isNaN(evidence))
+					continue;
+				nominator += Math.log(evidence);
+			}
+			out[j] = nominator;
+		}
+		return normalizeLogs(out, slots);
+	}
+
+	/**
+	 * Same value as {@link AbstractDawidSkene#getLogLikelihood()} computed
+	 * for the current arrays with a full pass over the labels.
+	 */
+	public double getLogLikelihood() {
+		double result = 0.;
+		for (int l = 0; l < labelObject.length; l++) {
+			int o = labelObject[l];
+			for (int j = 0; j < getSlotsCount(o); j++) {
+				double categoryProbability = posteriors[slotStart[o] + j];
+				double labelingProbability = matrices.values[matrices.cell(l, j)];
+				if (categoryProbability == 0. || Double.isNaN(labelingProbability)
+						|| labelingProbability == 0.)
+					continue;
+				result += Math.log(categoryProbability) + Math.log(labelingProbability);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Copies posteriors, priors and (if any iteration was run) worker
+	 * confusion matrices back to the project. The matrix of a cluster is
+	 * written once, to the matrix its workers share, and the workers get
+	 * the clusters they ended in. After mini-batch steps the
+	 * posteriors of all objects are computed first, as only the ones in the
+	 * batches were updated. Objects without candidates keep their estimates
+	 * and the categories that are not candidates of an object get zero.
+	 */
+	public void writeBack(AbstractDawidSkene ds) {
+		int K = categoriesCount;
+		if (step != null && !step.hasAllPosteriors())
+			updateObjectClassProbabilities();
+		for (int o = 0; o < datums.length; o++) {
+			int slots = getSlotsCount(o);
+			if (slots == 0)
+				continue;
+			if (slots < K) {
+				for (int c = 0; c < K; c++) {
+					datums[o].setCategoryProbability(storeCategories[c], 0.);
+				}
+			}
+			for (int s = slotStart[o]; s < slotStart[o + 1]; s++) {
+				datums[o].setCategoryProbability(storeCategories[slotCategory[s]], posteriors[s]);
+			}
+		}
+		if (!fixedPriors) {
+			for (int c = 0; c < K; c++) {
+				ds.categories.get(categoryNames[c]).setPrior(priors[c]);
+			}
+		}
+		if (iterations == 0)
+			return;
+		for (int c = 0; c < clusterMatrices.size(); c++) {
+			matrices.write(personalMatricesCount + c, clusterMatrices.get(c));
+		}
+		for (int w = 0; w < workers.length; w++) {
+			int cluster = getWorkerCluster(w);
+			if (cluster == Worker.NO_CLUSTER) {
+				matrices.write(matrixOf[w], workers[w].cm);
+				workers[w].invalidateLogErrorRates();
+			} else {
+				workers[w].setMatrix(clusterMatrices.get(cluster), cluster);
+			}
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.util.Arrays;
+
+/**
+ * A row-major <code>K * K</code> block per matrix. Every object has all the
+ * categories as candidates, so slot <code>j</code> is category
+ * <code>j</code>. Undefined rows (of categories a worker was not seen with)
+ * are NaN.
+ */
+class DenseEMMatrices extends EMMatrices {
+
+	DenseEMMatrices(DenseEMEngine engine, int count) {
+		super(engine, count);
+		allocate(count * categoriesCount * categoriesCount);
+	}
+
+	int index(int m, int from, int to) {
+		return (m * categoriesCount + from) * categoriesCount + to;
+	}
+
+	@Override
+	int cell(int l, int j) {
+		return index(engine.labelMatrix[l], j, engine.labelCategory[l]);
+	}
+
+	@Override
+	double get(int m, int from, int to) {
+		return values[index(m, from, to)];
+	}
+
+	@Override
+	int getRowsCount() {
+		return count * categoriesCount;
+	}
+
+	@Override
+	int getMatrixRowsStart(int m) {
+		return m * categoriesCount;
+	}
+
+	@Override
+	int getRowStart(int r) {
+		return r * categoriesCount;
+	}
+
+	@Override
+	int getRowFrom(int r) {
+		return r % categoriesCount;
+	}
+
+	@Override
+	int getTo(int i) {
+		return i % categoriesCount;
+	}
+
+	@Override
+	int getMultiplicity(int i) {
+		return 1;
+	}
+
+	/**
+	 * A worker that has not seen any object of the "from" category gets an
+	 * undefined row.
+	 */
+	@Override
+	void normalize(int m, double[] counts, double[] target) {
+		int K = categoriesCount;
+		for (int row = m * K; row < (m + 1) * K; row++) {
+			double rowDenominator = 0.;
+			for (int to = 0; to < K; to++) {
+				rowDenominator += counts[row * K + to];
+			}
+			for (int to = 0; to < K; to++) {
+				target[row * K + to] = rowDenominator == 0. ? Double.NaN
+						: counts[row * K + to] / rowDenominator;
+			}
+		}
+	}
+
+	@Override
+	void read(int m, ConfusionMatrix cm) {
+		String[] names = engine.categoryNames;
+		for (int from = 0; from < categoriesCount; from++) {
+			for (int to = 0; to < categoriesCount; to++) {
+				values[index(m, from, to)] = cm.getErrorRateBatch(names[from], names[to]);
+			}
+		}
+	}
+
+	/**
+	 * Only the non zero rates are set, so that sparse matrices stay sparse;
+	 * undefined rows are left empty and normalizing makes them NaN, as here.
+	 */
+	@Override
+	void write(int m, ConfusionMatrix cm) {
+		String[] names = engine.categoryNames;
+		cm.empty();
+		for (int from = 0; from < categoriesCount; from++) {
+			if (Double.isNaN(get(m, from, 0)))
+				continue;
+			cm.incrementRowDenominator(names[from], 1.);
+			for (int to = 0; to < categoriesCount; to++) {
+				double value = get(m, from, to);
+				if (value != 0.)
+					cm.setErrorRate(names[from], names[to], value);
+			}
+		}
+		cm.normalize();
+	}
+
+	@Override
+	void setDense(double[] dense) {
+		System.arraycopy(dense, 0, values, 0, values.length);
+	}
+
+	@Override
+	double[] toDense(double[] parameters) {
+		return parameters;
+	}
+
+	@Override
+	double[] copy(int m) {
+		int size = categoriesCount * categoriesCount;
+		return Arrays.copyOfRange(values, m * size, (m + 1) * size);
+	}
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+/**
+ * Confusion matrices estimated by {@link DenseEMEngine}, one per worker or
+ * cluster of workers. The rates are kept in a flat array of parameters,
+ * grouped by matrix and, within a matrix, by row ("from" category). The
+ * M-step writes <code>next</code> while the other steps read
+ * <code>values</code>; {@link #swap()} makes the new ones current.
+ *
+ * The engine reads the rate a label's worker gives the label's category
+ * for the object's candidate category in slot <code>j</code> through
+ * {@link #cell(int, int)}, so the steps do not depend on the layout.
+ */
+abstract class EMMatrices {
+
+	/** "to" of the parameter holding the rate of a row's unseen cells */
+	static final int UNSEEN = -1;
+
+	final DenseEMEngine engine;
+	final int categoriesCount;
+	final int count;
+	double[] values;
+	double[] next;
+	// Math.log of values, see updateLogs()
+	double[] logs;
+
+	EMMatrices(DenseEMEngine engine, int count) {
+		this.engine = engine;
+		this.categoriesCount = engine.categoriesCount;
+		this.count = count;
+	}
+
+	void allocate(int size) {
+		values = new double[size];
+		next = new double[size];
+		logs = new double[size];
+	}
+
+	/**
+	 * @return matrices for the engine's current grouping of the labels, dense
+	 *         ones unless the job has many categories
+	 */
+	static EMMatrices create(DenseEMEngine engine, int count) {
+		if (isSparse(engine.categoriesCount))
+			return new SparseEMMatrices(engine, count);
+		return new DenseEMMatrices(engine, count);
+	}
+
+	/**
+	 * @return whether a job with <code>categories</code> categories gets
+	 *         {@link SparseEMMatrices}, whose objects have only their labels'
+	 *         categories as candidates
+	 */
+	static boolean isSparse(int categories) {
+		return categories > Worker.SPARSE_MATRIX_CATEGORIES;
+	}
+
+	int size() {
+		return values.length;
+	}
+
+	/**
+	 * @return index of the parameter holding the rate of the category of
+	 *         label <code>l</code> for the candidate category in slot
+	 *         <code>j</code> of the label's object
+	 */
+	abstract int cell(int l, int j);
+
+	/**
+	 * @return the rate, NaN when the matrix does not define the row
+	 */
+	abstract double get(int m, int from, int to);
+
+	abstract int getRowsCount();
+
+	/**
+	 * @return first row of matrix <code>m</code>, <code>m</code> may be
+	 *         <code>count</code>
+	 */
+	abstract int getMatrixRowsStart(int m);
+
+	/**
+	 * @return first parameter of row <code>r</code>, <code>r</code> may be
+	 *         the number of rows
+	 */
+	abstract int getRowStart(int r);
+
+	abstract int getRowFrom(int r);
+
+	/**
+	 * @return "to" category of parameter <code>i</code> or {@link #UNSEEN}
+	 */
+	abstract int getTo(int i);
+
+	/**
+	 * @return number of cells of the row that parameter <code>i</code>
+	 *         stands for
+	 */
+	abstract int getMultiplicity(int i);
+
+	/**
+	 * Normalizes the rows of matrix <code>m</code> of expected label counts
+	 * (indexed like the parameters) into <code>target</code>.
+	 */
+	abstract void normalize(int m, double[] counts, double[] target);
+
+	/**
+	 * Sets matrix <code>m</code> to the current one of a worker or cluster.
+	 */
+	abstract void read(int m, ConfusionMatrix cm);
+
+	/**
+	 * Replaces the rates of <code>cm</code> with the ones of matrix
+	 * <code>m</code>.
+	 */
+	abstract void write(int m, ConfusionMatrix cm);
+
+	/**
+	 * @param dense row-major <code>K * K</code> blocks, one per matrix
+	 */
+	abstract void setDense(double[] dense);
+
+	/**
+	 * @return the parameters expanded to row-major <code>K * K</code>
+	 *         blocks, one per matrix; cells without a parameter are zero
+	 */
+	abstract double[] toDense(double[] parameters);
+
+	/**
+	 * @return copy of matrix <code>m</code> as a row-major
+	 *         <code>K * K</code> block
+	 */
+	abstract double[] copy(int m);
+
+	/**
+	 * @return matrices for a new grouping of the labels, with the rates of
+	 *         these ones
+	 */
+	EMMatrices regroup() {
+		return this;
+	}
+
+	int getStart(int m) {
+		return getRowStart(getMatrixRowsStart(m));
+	}
+
+	void updateLogs() {
+		for (int i = 0; i < values.length; i++) {
+			logs[i] = Math.log(values[i]);
+		}
+	}
+
+	void swap() {
+		double[] tmp = values;
+		values = next;
+		next = tmp;
+	}
+
+	void normalize(double[] counts, double[] target) {
+		for (int m = 0; m < count; m++) {
+			normalize(m, counts, target);
+		}
+	}
+
+	/**
+	 * Sets the counts of matrix <code>m</code> to its rates as if its labels
+	 * were spread evenly over the rows.
+	 */
+	void fillCounts(int m, int labels, double[] counts) {
+		double rowWeight = labels / (double) categoriesCount;
+		for (int i = getStart(m); i < getStart(m + 1); i++) {
+			counts[i] = getTo(i) == UNSEEN ? 0.
+					: rowWeight * (Double.isNaN(values[i]) ? 1. / categoriesCount : values[i]);
+		}
+	}
+
+	/**
+	 * Mean of the defined diagonal of matrix <code>m</code>, 0 when the
+	 * matrix has no defined row.
+	 */
+	double getAccuracy(int m) {
+		double sum = 0.;
+		int defined = 0;
+		for (int r = getMatrixRowsStart(m); r < getMatrixRowsStart(m + 1); r++) {
+			int from = getRowFrom(r);
+			double value = get(m, from, from);
+			if (!Double.isNaN(value)) {
+				sum += value;
+				defined++;
+			}
+		}
+		return defined == 0 ? 0. : sum / defined;
+	}
+
+	/**
+	 * @return largest change of a rate of matrix <code>m</code> made by the
+	 *         M-step, infinite when a row became defined or undefined
+	 */
+	double getChange(int m) {
+		double change = 0.;
+		for (int i = getStart(m); i < getStart(m + 1); i++) {
+			double difference = Math.abs(next[i] - values[i]);
+			if (Double.isNaN(difference)) {
+				if (Double.isNaN(next[i]) != Double.isNaN(values[i]))
+					return Double.POSITIVE_INFINITY;
+			} else {
+				change = Math.max(change, difference);
+			}
+		}
+		return change;
+	}
+}
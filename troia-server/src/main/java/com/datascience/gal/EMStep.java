@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+/**
+ * How {@link DenseEMEngine#iterate()} updates the posteriors, priors and
+ * matrices: a full batch EM pass ({@link FullBatchStep}), a sharded one
+ * ({@link ShardedStep}), a mini-batch step ({@link MiniBatchStep}) or an
+ * accelerated cycle around one of the full batch ones
+ * ({@link AcceleratedStep}).
+ */
+interface EMStep {
+
+	void iterate();
+
+	/**
+	 * @return whether the posteriors of all the objects are up to date, so
+	 *         that they can be written back as they are
+	 */
+	boolean hasAllPosteriors();
+}
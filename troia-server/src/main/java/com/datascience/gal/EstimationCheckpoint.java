@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Worker and cluster matrices and priors of a batch job in the middle of an
+ * estimation, with the iterations done and requested. A computation
+ * interrupted by a restart resumes from it (see
+ * {@link BatchDawidSkene#restoreCheckpoint(EstimationCheckpoint)}).
+ */
+public class EstimationCheckpoint {
+
+	private int iteration;
+	private int maxIterations;
+	private List<String> categories;
+	private Map<String, Double> priors;
+	// row-major, rows and columns in the order of categories
+	private Map<String, double[]> errorRates;
+	// matrices of the worker clusters, like errorRates, and the cluster of
+	// each clustered worker; null in checkpoints of jobs without clusters
+	private List<double[]> clusterErrorRates;
+	private Map<String, Integer> clusterOf;
+	// status id and settings of the interrupted computation
+	private String commandId;
+	private EstimationSettings settings;
+
+	public EstimationCheckpoint(int iteration, int maxIterations, String[] categories,
+			Map<String, Double> priors, Map<String, double[]> errorRates) {
+		this.iteration = iteration;
+		this.maxIterations = maxIterations;
+		this.categories = Arrays.asList(categories);
+		this.priors = new HashMap<String, Double>(priors);
+		this.errorRates = errorRates;
+	}
+
+	/**
+	 * @return iterations done when the checkpoint was taken
+	 */
+	public int getIteration() {
+		return iteration;
+	}
+
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	public int getRemainingIterations() {
+		return Math.max(0, maxIterations - iteration);
+	}
+
+	public List<String> getCategories() {
+		return Collections.unmodifiableList(categories);
+	}
+
+	public Map<String, Double> getPriors() {
+		return Collections.unmodifiableMap(priors);
+	}
+
+	/**
+	 * @return matrices of the workers with a matrix of their own
+	 */
+	public Map<String, double[]> getErrorRates() {
+		return Collections.unmodifiableMap(errorRates);
+	}
+
+	public List<double[]> getClusterErrorRates() {
+		if (clusterErrorRates == null)
+			return Collections.emptyList();
+		return Collections.unmodifiableList(clusterErrorRates);
+	}
+
+	/**
+	 * @return cluster of each clustered worker, an index into
+	 *         {@link #getClusterErrorRates()}
+	 */
+	public Map<String, Integer> getClusterOf() {
+		if (clusterOf == null)
+			return Collections.emptyMap();
+		return Collections.unmodifiableMap(clusterOf);
+	}
+
+	public void setWorkerClusters(List<double[]> clusterErrorRates, Map<String, Integer> clusterOf) {
+		for (Integer cluster : clusterOf.values()) {
+			if (cluster < 0 || cluster >= clusterErrorRates.size())
+				throw new IllegalArgumentException("Unknown worker cluster " + cluster);
+		}
+		this.clusterErrorRates = new ArrayList<double[]>(clusterErrorRates);
+		this.clusterOf = new HashMap<String, Integer>(clusterOf);
+	}
+
+	/**
+	 * @return id of the status of the interrupted computation, under which
+	 *         its resumed continuation reports, null if unknown
+	 */
+	public String getCommandId() {
+		return commandId;
+	}
+
+	public void setCommandId(String commandId) {
+		this.commandId = commandId;
+	}
+
+	/**
+	 * @return settings the interrupted computation ran with, null if unknown
+	 */
+	public EstimationSettings getSettings() {
+		return settings;
+	}
+
+	public void setSettings(EstimationSettings settings) {
+		this.settings = settings;
+	}
+}
@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+/**
+ * Observes an {@link AbstractDawidSkene#estimate(int, double)} run and can
+ * stop it between iterations.
+ */
+public interface EstimationMonitor {
+
+	/**
+	 * Called after every completed iteration.
+	 *
+	 * @param iteration number of iterations done so far
+	 * @param logLikelihoodChange change since the previous iteration, NaN
+	 *        after the first one
+	 * @return false to stop the estimation; the results are then the ones of
+	 *         this iteration
+	 */
+	boolean iterationDone(int iteration, int maxIterations, double logLikelihood,
+			double logLikelihoodChange);
+}
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import com.google.common.base.Objects;
+
+/**
+ * Per job knobs of the EM computation. Stored together with the project.
+ */
+public class EstimationSettings {
+
+	/**
+	 * Number of threads used by a single compute. With more than one thread
+	 * the E-step runs in parallel over object partitions and the M-step over
+	 * worker partitions.
+	 */
+	private int threads = 1;
+
+	/**
+	 * Number of object shards of a batch compute. With more than one shard
+	 * each iteration is a map-reduce over the shards (processed by the
+	 * threads above), merged in a fixed order.
+	 */
+	private int shards = 1;
+
+	/**
+	 * When set, a compute after adding labels iterates only over the
+	 * changed objects and the workers that labeled them, starting from the
+	 * previous estimates.
+	 */
+	private boolean warmStart = false;
+
+	/**
+	 * Largest change of a previously estimated error rate accepted by a
+	 * warm started compute. Beyond it the whole job is estimated again.
+	 */
+	private double warmStartThreshold = 0.05;
+
+	/**
+	 * Fraction of the objects used by a step of mini-batch EM. 1 runs full
+	 * batch EM, smaller values make iterations cheaper but less accurate.
+	 */
+	private double miniBatchFraction = 1.;
+
+	/**
+	 * When set, full batch EM extrapolates the worker matrices and priors
+	 * from the last iterations (SQUAREM). Usually reaches the same estimates
+	 * in several times fewer iterations.
+	 */
+	private boolean acceleration = false;
+
+	/**
+	 * Objects whose posterior moved by less than this are not recomputed
+	 * until the error rates of their workers move by more than this. 0
+	 * recomputes all objects in every iteration.
+	 */
+	private double freezeTolerance = 0.;
+
+	/**
+	 * Largest number of update rounds of an object after a new label in
+	 * ITERATELOCAL incremental jobs.
+	 */
+	private int maxLocalIterations = 5;
+
+	/**
+	 * ITERATELOCAL stops updating an object once its posterior moves by less
+	 * than this. 0 always runs maxLocalIterations rounds.
+	 */
+	private double localIterationTolerance = 0.;
+
+	/**
+	 * Number of clusters whose confusion matrices are shared by the workers
+	 * with fewer than personalMatrixLabels labels in a batch compute. 0
+	 * gives every worker its own matrix.
+	 */
+	private int workerClusters = 0;
+
+	/**
+	 * Number of labels from which a worker gets its own matrix when workers
+	 * are clustered.
+	 */
+	private int personalMatrixLabels = 10;
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Number of threads should be positive");
+		this.threads = threads;
+	}
+
+	public int getShards() {
+		return shards;
+	}
+
+	public void setShards(int shards) {
+		if (shards < 1)
+			throw new IllegalArgumentException("Number of shards should be positive");
+		this.shards = shards;
+	}
+
+	public boolean isWarmStart() {
+		return warmStart;
+	}
+
+	public void setWarmStart(boolean warmStart) {
+		this.warmStart = warmStart;
+	}
+
+	public double getWarmStartThreshold() {
+		return warmStartThreshold;
+	}
+
+	public void setWarmStartThreshold(double warmStartThreshold) {
+		if (!(warmStartThreshold >= 0.))
+			throw new IllegalArgumentException("Warm start threshold should not be negative");
+		this.warmStartThreshold = warmStartThreshold;
+	}
+
+	public double getMiniBatchFraction() {
+		return miniBatchFraction;
+	}
+
+	public void setMiniBatchFraction(double miniBatchFraction) {
+		if (!(miniBatchFraction > 0. && miniBatchFraction <= 1.))
+			throw new IllegalArgumentException("Mini-batch fraction should be in (0, 1]");
+		this.miniBatchFraction = miniBatchFraction;
+	}
+
+	public boolean isAcceleration() {
+		return acceleration;
+	}
+
+	public void setAcceleration(boolean acceleration) {
+		this.acceleration = acceleration;
+	}
+
+	public double getFreezeTolerance() {
+		return freezeTolerance;
+	}
+
+	public void setFreezeTolerance(double freezeTolerance) {
+		if (!(freezeTolerance >= 0.))
+			throw new IllegalArgumentException("Freeze tolerance should not be negative");
+		this.freezeTolerance = freezeTolerance;
+	}
+
+	public int getMaxLocalIterations() {
+		return maxLocalIterations;
+	}
+
+	public void setMaxLocalIterations(int maxLocalIterations) {
+		if (maxLocalIterations < 1)
+			throw new IllegalArgumentException("Number of local iterations should be positive");
+		this.maxLocalIterations = maxLocalIterations;
+	}
+
+	public double getLocalIterationTolerance() {
+		return localIterationTolerance;
+	}
+
+	public void setLocalIterationTolerance(double localIterationTolerance) {
+		if (!(localIterationTolerance >= 0.))
+			throw new IllegalArgumentException("Local iteration tolerance should not be negative");
+		this.localIterationTolerance = localIterationTolerance;
+	}
+
+	public int getWorkerClusters() {
+		return workerClusters;
+	}
+
+	public void setWorkerClusters(int workerClusters) {
+		if (workerClusters < 0)
+			throw new IllegalArgumentException("Number of worker clusters should not be negative");
+		this.workerClusters = workerClusters;
+	}
+
+	public int getPersonalMatrixLabels() {
+		return personalMatrixLabels;
+	}
+
+	public void setPersonalMatrixLabels(int personalMatrixLabels) {
+		if (personalMatrixLabels < 0)
+			throw new IllegalArgumentException("Number of labels for a personal matrix should not be negative");
+		this.personalMatrixLabels = personalMatrixLabels;
+	}
+
+	public EstimationSettings copy() {
+		EstimationSettings copy = new EstimationSettings();
+		copy.threads = threads;
+		copy.shards = shards;
+		copy.warmStart = warmStart;
+		copy.warmStartThreshold = warmStartThreshold;
+		copy.miniBatchFraction = miniBatchFraction;
+		copy.acceleration = acceleration;
+		copy.freezeTolerance = freezeTolerance;
+		copy.maxLocalIterations = maxLocalIterations;
+		copy.localIterationTolerance = localIterationTolerance;
+		copy.workerClusters = workerClusters;
+		copy.personalMatrixLabels = personalMatrixLabels;
+		return copy;
+	}
+
+	/**
+	 * Settings sent by clients may omit fields and contain arbitrary values
+	 * (they are created by gson without calling setters).
+	 */
+	public void validate() {
+		setThreads(threads);
+		setShards(shards);
+		setWarmStartThreshold(warmStartThreshold);
+		setMiniBatchFraction(miniBatchFraction);
+		setFreezeTolerance(freezeTolerance);
+		setMaxLocalIterations(maxLocalIterations);
+		setLocalIterationTolerance(localIterationTolerance);
+		setWorkerClusters(workerClusters);
+		setPersonalMatrixLabels(personalMatrixLabels);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof EstimationSettings))
+			return false;
+		EstimationSettings other = (EstimationSettings) obj;
+		return threads == other.threads
+				&& shards == other.shards
+				&& warmStart == other.warmStart
+				&& warmStartThreshold == other.warmStartThreshold
+				&& miniBatchFraction == other.miniBatchFraction
+				&& acceleration == other.acceleration
+				&& freezeTolerance == other.freezeTolerance
+				&& maxLocalIterations == other.maxLocalIterations
+				&& localIterationTolerance == other.localIterationTolerance
+				&& workerClusters == other.workerClusters
+				&& personalMatrixLabels == other.personalMatrixLabels;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(threads, shards, warmStart, warmStartThreshold, miniBatchFraction,
+				acceleration, freezeTolerance, maxLocalIterations, localIterationTolerance,
+				workerClusters, personalMatrixLabels);
+	}
+}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.lang.reflect.Type;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+/**
+ * Objects or workers of a job kept in a list indexed by their ids in the
+ * job's {@link SymbolTable}; the model works with the ids. The map view by
+ * name is for the commands: it looks the names up in the table and keeps
+ * no entries of its own. Values are added by id only.
+ */
+public class IdMap<V> extends AbstractMap<String, V> {
+
+	public static final IdMapSerializer serializer = new IdMapSerializer();
+
+	private final SymbolTable names;
+	private final List<V> values = new ArrayList<V>();
+	private int size;
+
+	public IdMap(SymbolTable names) {
+		this.names = names;
+	}
+
+	/**
+	 * @return null if there is no value for the id
+	 */
+	public V get(int id) {
+		return id < values.size() ? values.get(id) : null;
+	}
+
+	/**
+	 * @return the previous value of the id
+	 */
+	public V put(int id, V value) {
+		if (value == null)
+			throw new IllegalArgumentException("Null values are not kept");
+		while (values.size() <= id)
+			values.add(null);
+		V previous = values.set(id, value);
+		if (previous == null)
+			size++;
+		return previous;
+	}
+
+	/**
+	 * @return the removed value, null if there was none
+	 */
+	public V remove(int id) {
+		if (id >= values.size())
+			return null;
+		V previous = values.set(id, null);
+		if (previous != null)
+			size--;
+		return previous;
+	}
+
+	public boolean containsId(int id) {
+		return get(id) != null;
+	}
+
+	private int id(Object name) {
+		return name instanceof String ? names.getId((String) name) : SymbolTable.NONE;
+	}
+
+	@Override
+	public V get(Object name) {
+		int id = id(name);
+		return id == SymbolTable.NONE ? null : get(id);
+	}
+
+	@Override
+	public boolean containsKey(Object name) {
+		return get(name) != null;
+	}
+
+	@Override
+	public V remove(Object name) {
+		int id = id(name);
+		return id == SymbolTable.NONE ? null : remove(id);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		values.clear();
+		size = 0;
+	}
+
+	/**
+	 * Iterates over the ids that have values, in the order of the ids.
+	 */
+	private abstract class IdIterator<T> implements Iterator<T> {
+
+		private int next = advance(0);
+		private int last = SymbolTable.NONE;
+
+		private int advance(int id) {
+			while (id < values.size() && values.get(id) == null)
+				id++;
+			return id;
+		}
+
+		abstract T get(int id);
+
+		@Override
+		public boolean hasNext() {
+			return next < values.size();
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			last = next;
+			next = advance(next + 1);
+			return get(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last == SymbolTable.NONE)
+				throw new IllegalStateException();
+			IdMap.this.remove(last);
+			last = SymbolTable.NONE;
+		}
+	}
+
+	@Override
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				return new IdIterator<V>() {
+					@Override
+					V get(int id) {
+						return values.get(id);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	@Override
+	public Set<Map.Entry<String, V>> entrySet() {
+		return new AbstractSet<Map.Entry<String, V>>() {
+			@Override
+			public Iterator<Map.Entry<String, V>> iterator() {
+				return new IdIterator<Map.Entry<String, V>>() {
+					@Override
+					Map.Entry<String, V> get(int id) {
+						return new SimpleImmutableEntry<String, V>(names.getName(id), values.get(id));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Reads the values written by {@link IdMapSerializer} or, for older
+	 * projects, a map by name.
+	 */
+	public static <V> Collection<V> deserializeValues(JsonElement json,
+			JsonDeserializationContext context, Type collectionType, Type mapType) {
+		if (json.isJsonArray())
+			return context.deserialize(json, collectionType);
+		Map<String, V> map = context.deserialize(json, mapType);
+		return map.values();
+	}
+
+	/**
+	 * Writes the values in the order of their ids, without the names: the
+	 * values are written with their ids in the project's label store.
+	 */
+	public static class IdMapSerializer implements JsonSerializer<IdMap<?>> {
+
+		@Override
+		public JsonElement serialize(IdMap<?> map, Type type,
+				JsonSerializationContext context) {
+			JsonArray ret = new JsonArray();
+			for (Object value : map.values())
+				ret.add(context.serialize(value));
+			return ret;
+		}
+	}
+}
@@ -10,9 +10,12 @@
 package com.datascience.gal;
 
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -30,7 +33,7 @@ import com.google.gson.JsonParseException;
  * when new information becomes available, not waiting for an explicit
  * estimation step
  *
- * TODO: batch updates TODO: override addAssignedLabels and addCorrectLabels
+ * TODO: override addCorrectLabels
  *
  * @author josh
  *
@@ -40,6 +43,9 @@ public class IncrementalDawidSkene extends AbstractDawidSkene {
 
 	private IncrementalDSMethod dsmethod = IncrementalDSMethod.UPDATEWORKERS;
 	private double priorDenominator;
+	// ITERATELOCAL object updates and the rounds they took
+	private long localUpdates;
+	private long localIterations;
 
 	public IncrementalDawidSkene(String id, Collection<Category> categories,
 								 IncrementalDSMethod dsmethod) {
@@ -57,18 +63,23 @@ public class IncrementalDawidSkene extends AbstractDawidSkene {
 		super.logger = this.logger;
 	}
 
-	private IncrementalDawidSkene(String id, Map<String, Datum> objects, Map<String, Datum> objectsWithNoLabels,
-								  Map<String, Worker> workers, Map<String, Category> categories,
+	private IncrementalDawidSkene(String id, Collection<Datum> objects, Collection<Datum> objectsWithNoLabels,
+								  Collection<Worker> workers, LabelStore labelStore, Map<String, Category> categories,
 								  boolean fixedPriors, IncrementalDSMethod dsmethod,
-								  double priorDenominator) {
+								  double priorDenominator, EstimationSettings estimationSettings,
+								  List<Double> logLikelihoods, long localUpdates, long localIterations) {
 		super(id);
-		this.objects = objects;
-		this.objectsWithNoLabels = objectsWithNoLabels;
-		this.workers = workers;
 		this.categories = categories;
 		this.fixedPriors = fixedPriors;
 		this.dsmethod = dsmethod;
 		this.priorDenominator = priorDenominator;
+		if (estimationSettings != null)
+			setEstimationSettings(estimationSettings);
+		if (logLikelihoods != null)
+			this.logLikelihoods = logLikelihoods;
+		this.localUpdates = localUpdates;
+		this.localIterations = localIterations;
+		attachLabels(labelStore, objects, objectsWithNoLabels, workers);
 	}
 
 	@Override
@@ -90,185 +101,259 @@ public class IncrementalDawidSkene extends AbstractDawidSkene {
 
 	@Override
 	public void addAssignedLabel(AssignedLabel al) {
-		Datum d = coreAssignedLabelUpdate(al);
-		switch (dsmethod) {
-			case ITERATELOCAL:
-				for (int i = 0; i < 5; i++) // XXX: magic number
-					updateObjectInformation(d, 0 != i);
-				break;
-			case UPDATEWORKERS:
-			default:
-				updateObjectInformation(d, false);
-				break;
-		}
+		this.validateCategory(al.getCategoryName());
+		Datum d = prepareObjectUpdate(al.getObjectName());
+		coreAssignedLabelUpdate(al);
+		updateObject(d);
 		invalidateComputed();
 	}
 
-	private Datum coreAssignedLabelUpdate(AssignedLabel al) {
-		String workerName = al.getWorkerName();
-		String objectName = al.getObjectName();
-
-		String categoryName = al.getCategoryName();
-		this.validateCategory(categoryName);
-		// If we already have the object, un-update it's prevous contribution to
-		// the prior,
-		// and remove the previous contribution to the workers confusion
-		// matricies
-
-		Datum d;
-		if (objects.containsKey(objectName)) {
-			unupdatePrior(objectName);
-			unupdateWorkers(objectName);
-			d = objects.get(objectName);
-		} else {
+	/**
+	 * Labels are grouped by object: the previous contribution of every
+	 * object is removed once, all its new labels are added and the object
+	 * is updated once, instead of once per label. All categories are
+	 * validated before anything is changed.
+	 */
+	@Override
+	public void addAssignedLabels(Collection<AssignedLabel> als) {
+		Map<String, List<AssignedLabel>> labelsByObject =
+			new LinkedHashMap<String, List<AssignedLabel>>();
+		for (AssignedLabel al : als) {
+			this.validateCategory(al.getCategoryName());
+			List<AssignedLabel> objectLabels = labelsByObject.get(al.getObjectName());
+			if (objectLabels == null) {
+				objectLabels = new ArrayList<AssignedLabel>();
+				labelsByObject.put(al.getObjectName(), objectLabels);
+			}
+			objectLabels.add(al);
+		}
+		for (Map.Entry<String, List<AssignedLabel>> e : labelsByObject.entrySet()) {
+			Datum d = prepareObjectUpdate(e.getKey());
+			for (AssignedLabel al : e.getValue()) {
+				coreAssignedLabelUpdate(al);
+			}
+			updateObject(d);
+		}
+		if (!labelsByObject.isEmpty())
+			invalidateComputed();
+	}
+
+	/**
+	 * If we already have the object, un-update its previous contribution to
+	 * the prior and remove its previous contribution to the workers
+	 * confusion matrices. Otherwise creates it.
+	 */
+	private Datum prepareObjectUpdate(String objectName) {
+		int object = labelStore.objectId(objectName);
+		Datum d = objects.get(object);
+		if (d != null) {
+			removeContribution(objectName);
+			return d;
+		}
+		d = objectsWithNoLabels.remove(object);
+		if (d == null) {
 			Set<Category> datumCategories = new HashSet<Category>(
 				categories.values());
-			d = new Datum(objectName, datumCategories);
-		}
-		if (objectsWithNoLabels.containsKey(objectName)) {
-			objectsWithNoLabels.remove(objectName);
+			d = new Datum(objectName, datumCategories, labelStore);
 		}
-		d.addAssignedLabel(al);
-		objects.put(objectName, d);
+		objects.put(object, d);
+		return d;
+	}
+
+	private void coreAssignedLabelUpdate(AssignedLabel al) {
+		String workerName = al.getWorkerName();
 
 		// If we already have the worker, then just add the label
 		// in the set of labels assigned by the worker.
 		// If it is the first time we see the object, then create
 		// the appropriate entry in the objects hashmap
-		Worker w;
-		if (this.workers.containsKey(workerName)) {
-			w = this.workers.get(workerName);
-		} else {
+		int worker = labelStore.workerId(workerName);
+		if (!workers.containsId(worker)) {
 			Set<Category> categories = new HashSet<Category>(
 				this.categories.values());
-			w = new Worker(workerName, categories);
-		}
-		w.addAssignedLabel(al);
-		workers.put(workerName, w);
-		return d;
-	}
-
-	private void updateObjectInformation(Datum d, boolean unupdate) {
-		String objectName = d.name;
-		if (unupdate) {
-			unupdatePrior(objectName);
-			unupdateWorkers(objectName);
+			workers.put(worker, new Worker(workerName, categories, labelStore));
 		}
-		d.categoryProbability = null;
-		d.categoryProbability = getObjectClassProbabilities(objectName);
-
-		incrementPrior(objectName);
-		updateWorkers(objectName);
+		labelStore.add(al);
 	}
 
-	@Override
-	public void addCorrectLabel(CorrectLabel cl) {
-		Datum d = coreCorrectLabelUpdate(cl);
+	/**
+	 * Adds the contribution of an object prepared by
+	 * {@link #prepareObjectUpdate(String)} back, according to the method.
+	 * ITERATELOCAL repeats the update until the object's posterior settles,
+	 * see {@link EstimationSettings#getLocalIterationTolerance()}.
+	 */
+	private void updateObject(Datum d) {
 		switch (dsmethod) {
 			case ITERATELOCAL:
-				for (int i = 0; i < 5; i++)// XXX: magic number
-					updateObjectInformation(d, 0 != i);
+				int maxIterations = estimationSettings.getMaxLocalIterations();
+				double tolerance = estimationSettings.getLocalIterationTolerance();
+				int i = 0;
+				double change;
+				do {
+					change = updateObjectInformation(d, 0 != i);
+					i++;
+				} while (i < maxIterations && change >= tolerance);
+				localUpdates++;
+				localIterations += i;
 				break;
 			case UPDATEWORKERS:
 			default:
 				updateObjectInformation(d, false);
 				break;
 		}
+	}
+
+	/**
+	 * @return number of ITERATELOCAL object updates and of the update
+	 *         rounds they took in total
+	 */
+	public Map<String, Long> getLocalIterationCounts() {
+		Map<String, Long> out = new LinkedHashMap<String, Long>();
+		out.put("updates", localUpdates);
+		out.put("iterations", localIterations);
+		return out;
+	}
+
+	/**
+	 * @return largest change of the object's class probabilities
+	 */
+	private double updateObjectInformation(Datum d, boolean unupdate) {
+		String objectName = d.name;
+		if (unupdate) {
+			removeContribution(objectName);
+		}
+		double[] previous = d.categoryProbabilities;
+		d.setCategoryProbabilities(null);
+		d.setCategoryProbabilities(getObjectClassProbabilities(objectName));
 
+		addContribution(objectName);
+		return maxChange(previous, d.categoryProbabilities);
+	}
+
+	private static double maxChange(double[] previous, double[] current) {
+		if (previous == null || current == null)
+			return Double.POSITIVE_INFINITY;
+		double result = 0.;
+		for (int c = 0; c < current.length; c++) {
+			if (Double.isNaN(current[c]))
+				continue;
+			if (c >= previous.length || Double.isNaN(previous[c]))
+				return Double.POSITIVE_INFINITY;
+			result = Math.max(result, Math.abs(current[c] - previous[c]));
+		}
+		return result;
+	}
+
+	@Override
+	public void addCorrectLabel(CorrectLabel cl) {
+		Datum d = coreCorrectLabelUpdate(cl);
+		updateObject(d);
 	}
 	
 	private Datum coreCorrectLabelUpdate(CorrectLabel cl) {
 		String objectName = cl.getObjectName();
 		String correctCategory = cl.getCorrectCategory();
 
-		Datum d;
 		this.validateCategory(correctCategory);
-		if (objects.containsKey(objectName)) {
-			unupdatePrior(objectName);
-			unupdateWorkers(objectName);
-			d = objects.get(objectName);
-		} else {
-			Set<Category> categories = new HashSet<Category>(
-				this.categories.values());
-			d = new Datum(objectName, categories);
-		}
-		if (objectsWithNoLabels.containsKey(objectName)) {
-			objectsWithNoLabels.remove(objectName);
-		}
+		Datum d = prepareObjectUpdate(objectName);
 		d.setGold(true);
 		d.setCorrectCategory(correctCategory);
-		objects.put(objectName, d);
 		
 		return d;
 	}
 
-	private void updateWorkers(String objectName) {
-		Datum datum = objects.get(objectName);
-		for (AssignedLabel al : datum.getAssignedLabels()) {
-			String destination = al.getCategoryName();
-			String workerName = al.getWorkerName();
-			updateWorker(objectName, workerName, destination);
-		}
+	/**
+	 * Removes the object's current contribution to the priors and to the
+	 * confusion matrices of its workers.
+	 */
+	private void removeContribution(String objectName) {
+		String[] categoryNames = categoryNames();
+		double[] probabilities = posterior(objectName, categoryNames);
+		unupdatePrior(categoryNames, probabilities);
+		unupdateWorkers(objectName, categoryNames, probabilities);
+	}
 
+	/**
+	 * Adds the object's current contribution to the priors and to the
+	 * confusion matrices of its workers.
+	 */
+	private void addContribution(String objectName) {
+		String[] categoryNames = categoryNames();
+		double[] probabilities = posterior(objectName, categoryNames);
+		incrementPrior(categoryNames, probabilities);
+		updateWorkers(objectName, categoryNames, probabilities);
 	}
 
-	private void updateWorker(String objectName, String workerName,
-							  String destination) {
-		Map<String, Double> probs = getObjectClassProbabilities(objectName);
-		Worker worker = workers.get(workerName);
+	private String[] categoryNames() {
+		return categories.keySet().toArray(new String[categories.size()]);
+	}
 
-		for (String source : probs.keySet())
-			worker.addError(source, destination, probs.get(source));
+	/**
+	 * The object's class probabilities, looked up once and shared by the
+	 * prior and worker adjustments, in the order of
+	 * <code>categoryNames</code>.
+	 */
+	private double[] posterior(String objectName, String[] categoryNames) {
+		double[] probabilities = new double[categoryNames.length];
+		double[] estimated = objects.get(objectName).categoryProbabilities;
+		if (estimated != null) {
+			for (int c = 0; c < categoryNames.length; c++) {
+				probabilities[c] = estimated[labelStore.categoryId(categoryNames[c])];
+			}
+			return probabilities;
+		}
+		Map<String, Double> probs = getObjectClassProbabilities(objectName);
+		for (int c = 0; c < categoryNames.length; c++) {
+			probabilities[c] = probs.get(categoryNames[c]);
+		}
+		return probabilities;
 	}
 
-	private void unupdateWorkers(String objectName) {
+	private void updateWorkers(String objectName, String[] categoryNames,
+							   double[] probabilities) {
 		Datum datum = objects.get(objectName);
 		for (AssignedLabel al : datum.getAssignedLabels()) {
 			String destination = al.getCategoryName();
-			String workerName = al.getWorkerName();
-			unupdateWorker(objectName, workerName, destination);
+			Worker worker = workers.get(al.getWorkerName());
+			for (int c = 0; c < categoryNames.length; c++)
+				worker.addError(categoryNames[c], destination, probabilities[c]);
+			worker.invalidateLogErrorRates();
 		}
 	}
 
-	private void unupdateWorker(String objectName, String workerName,
-								String destination) {
-		Map<String, Double> probs = getObjectClassProbabilities(objectName);
-		Worker worker = workers.get(workerName);
-
-		for (String source : probs.keySet())
-			worker.removeError(source, destination, probs.get(source));
+	private void unupdateWorkers(String objectName, String[] categoryNames,
+								 double[] probabilities) {
+		Datum datum = objects.get(objectName);
+		for (AssignedLabel al : datum.getAssignedLabels()) {
+			String destination = al.getCategoryName();
+			Worker worker = workers.get(al.getWorkerName());
+			for (int c = 0; c < categoryNames.length; c++)
+				worker.removeError(categoryNames[c], destination, probabilities[c]);
+			worker.invalidateLogErrorRates();
+		}
 	}
 
 	/**
 	 * removes information to the priors
-	 *
-	 * @param objectName
 	 */
-	private void unupdatePrior(String objectName) {
+	private void unupdatePrior(String[] categoryNames, double[] probabilities) {
 		priorDenominator--;
-		Map<String, Double> probs = getObjectClassProbabilities(objectName);
-
-		for (String catName : categories.keySet()) {
-			double prior = probs.get(catName);
-			Category category = categories.get(catName);
+		for (int c = 0; c < categoryNames.length; c++) {
+			Category category = categories.get(categoryNames[c]);
 			double oldValue = category.getPrior();
-			category.setPrior(Math.max(0, oldValue - prior));
+			category.setPrior(Math.max(0, oldValue - probabilities[c]));
 		}
 	}
 
 	/**
 	 * increases the prior using the object's probs
-	 *
-	 * @param objectName
 	 */
-	private void incrementPrior(String objectName) {
+	private void incrementPrior(String[] categoryNames, double[] probabilities) {
 		priorDenominator++;
-		Map<String, Double> probs = getObjectClassProbabilities(objectName);
-		for (String catName : categories.keySet()) {
-			double prior = probs.get(catName);
-			Category category = categories.get(catName);
+		for (int c = 0; c < categoryNames.length; c++) {
+			Category category = categories.get(categoryNames[c]);
 			double oldValue = category.getPrior();
-			category.setPrior(oldValue + prior);
+			category.setPrior(oldValue + probabilities[c]);
 		}
 	}
 
@@ -308,8 +393,8 @@ public class IncrementalDawidSkene extends AbstractDawidSkene {
 	public Map<String, Double> getObjectClassProbabilities(String objectName,
 			String workerToIgnore) {
 		Datum datum = objects.get(objectName);
-		if (null != datum.categoryProbability)
-			return datum.categoryProbability;
+		if (null != datum.categoryProbabilities)
+			return datum.getCategoryProbability();
 		else
 			return super
 				   .getObjectClassProbabilities(objectName, workerToIgnore);
@@ -333,17 +418,29 @@ public class IncrementalDawidSkene extends AbstractDawidSkene {
 			Map<String, Category> categories = context.deserialize(
 					jobject.get("categories"), JSONUtils.stringCategoryMapType);
 			boolean fixedPriors = jobject.get("fixedPriors").getAsBoolean();
-			Map<String, Datum> objects = context.deserialize(
-					jobject.get("objects"), JSONUtils.stringDatumMapType);
-			Map<String, Datum> objectsWithNoLabels = context.deserialize(
-					jobject.get("objectsWithNoLabels"), JSONUtils.stringDatumMapType);
-			Map<String, Worker> workers = context.deserialize(
-					jobject.get("workers"), JSONUtils.strinWorkerMapType);
+			Collection<Datum> objects = IdMap.deserializeValues(jobject.get("objects"),
+					context, JSONUtils.datumCollectionType, JSONUtils.stringDatumMapType);
+			Collection<Datum> objectsWithNoLabels = IdMap.deserializeValues(
+					jobject.get("objectsWithNoLabels"), context,
+					JSONUtils.datumCollectionType, JSONUtils.stringDatumMapType);
+			Collection<Worker> workers = IdMap.deserializeValues(jobject.get("workers"),
+					context, JSONUtils.workerCollectionType, JSONUtils.strinWorkerMapType);
+			LabelStore labelStore = context.deserialize(
+					jobject.get("labelStore"), LabelStore.class);
 			IncrementalDSMethod dsmethod = IncrementalDSMethod.valueOf(jobject.get("dsmethod").getAsString());
 			double priorDenominator = jobject.get("priorDenominator").getAsDouble();
-
-			return new IncrementalDawidSkene(id, objects, objectsWithNoLabels, workers, categories,
-											 fixedPriors, dsmethod, priorDenominator);
+			EstimationSettings estimationSettings = context.deserialize(
+					jobject.get("estimationSettings"), EstimationSettings.class);
+			List<Double> logLikelihoods = context.deserialize(
+					jobject.get("logLikelihoods"), JSONUtils.doubleListType);
+			long localUpdates = jobject.has("localUpdates") ?
+					jobject.get("localUpdates").getAsLong() : 0;
+			long localIterations = jobject.has("localIterations") ?
+					jobject.get("localIterations").getAsLong() : 0;
+
+			return new IncrementalDawidSkene(id, objects, objectsWithNoLabels, workers, labelStore, categories,
+											 fixedPriors, dsmethod, priorDenominator, estimationSettings,
+											 logLikelihoods, localUpdates, localIterations);
 		}
 	}
 
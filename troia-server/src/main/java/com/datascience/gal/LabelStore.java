@@ -0,0 +1,444 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.lang.reflect.Type;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.datascience.core.storages.JSONUtils;
+import com.google.common.base.Objects;
+import com.google.common.primitives.Ints;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+/**
+ * Labels of a job kept column-wise: the worker, object and category of a
+ * label are ints at the same position of three arrays, the names are
+ * stored once. {@link Datum} and {@link Worker} labels are views over it.
+ *
+ * Labels of an object (and of a worker) are chained in the order they were
+ * added, so that a growing job can be read without reindexing. Loops over
+ * all the labels should use the CSR-style indexes instead, which are built
+ * on the first use after a change.
+ *
+ * A worker labels an object at most once: as before, adding a label for a
+ * pair that already has one is ignored.
+ */
+public class LabelStore {
+
+	public static final LabelStoreSerializer serializer = new LabelStoreSerializer();
+	public static final LabelStoreDeserializer deserializer = new LabelStoreDeserializer();
+
+	private static final int NONE = -1;
+
+	private final SymbolTable workerNames = new SymbolTable();
+	private final SymbolTable objectNames = new SymbolTable();
+	private final SymbolTable categoryNames = new SymbolTable();
+
+	// the columns, size entries are used
+	private int size;
+	private int[] workers = new int[0];
+	private int[] objects = new int[0];
+	private int[] categories = new int[0];
+	// the next label of the same object / worker, NONE for the last one
+	private int[] nextOfObject = new int[0];
+	private int[] nextOfWorker = new int[0];
+
+	// per object and per worker ids: first and last label and their number
+	private int[] firstOfObject = new int[0];
+	private int[] lastOfObject = new int[0];
+	private int[] countOfObject = new int[0];
+	private int[] firstOfWorker = new int[0];
+	private int[] lastOfWorker = new int[0];
+	private int[] countOfWorker = new int[0];
+
+	// CSR indexes, null when out of date
+	private int[] objectOffsets;
+	private int[] objectLabels;
+	private int[] workerOffsets;
+	private int[] workerLabels;
+
+	/**
+	 * @return the id of the object, given to it if it did not have one
+	 */
+	public int objectId(String name) {
+		int known = objectNames.size();
+		int id = objectNames.intern(name);
+		if (id == known) {
+			firstOfObject = grow(firstOfObject, id);
+			lastOfObject = grow(lastOfObject, id);
+			countOfObject = Ints.ensureCapacity(countOfObject, id + 1, id + 1);
+			objectOffsets = null;
+		}
+		return id;
+	}
+
+	/**
+	 * @return the id of the worker, given to it if it did not have one
+	 */
+	public int workerId(String name) {
+		int known = workerNames.size();
+		int id = workerNames.intern(name);
+		if (id == known) {
+			firstOfWorker = grow(firstOfWorker, id);
+			lastOfWorker = grow(lastOfWorker, id);
+			countOfWorker = Ints.ensureCapacity(countOfWorker, id + 1, id + 1);
+			workerOffsets = null;
+		}
+		return id;
+	}
+
+	public int categoryId(String name) {
+		return categoryNames.intern(name);
+	}
+
+	/**
+	 * Makes room for a new id, which starts without labels.
+	 */
+	private static int[] grow(int[] array, int id) {
+		int[] result = Ints.ensureCapacity(array, id + 1, id + 1);
+		result[id] = NONE;
+		return result;
+	}
+
+	/**
+	 * @return false if the worker has already labeled the object
+	 */
+	public boolean add(AssignedLabel al) {
+		return add(workerId(al.getWorkerName()), objectId(al.getObjectName()),
+				categoryId(al.getCategoryName()));
+	}
+
+	private boolean add(int worker, int object, int category) {
+		if (find(object, worker) != NONE)
+			return false;
+		if (size == workers.length) {
+			int capacity = Math.max(16, size + (size >> 1));
+			workers = Arrays.copyOf(workers, capacity);
+			objects = Arrays.copyOf(objects, capacity);
+			categories = Arrays.copyOf(categories, capacity);
+			nextOfObject = Arrays.copyOf(nextOfObject, capacity);
+			nextOfWorker = Arrays.copyOf(nextOfWorker, capacity);
+		}
+		int label = size++;
+		workers[label] = worker;
+		objects[label] = object;
+		categories[label] = category;
+		nextOfObject[label] = NONE;
+		nextOfWorker[label] = NONE;
+		if (lastOfObject[object] == NONE)
+			firstOfObject[object] = label;
+		else
+			nextOfObject[lastOfObject[object]] = label;
+		lastOfObject[object] = label;
+		countOfObject[object]++;
+		if (lastOfWorker[worker] == NONE)
+			firstOfWorker[worker] = label;
+		else
+			nextOfWorker[lastOfWorker[worker]] = label;
+		lastOfWorker[worker] = label;
+		countOfWorker[worker]++;
+		objectOffsets = null;
+		workerOffsets = null;
+		return true;
+	}
+
+	/**
+	 * @return the label of the worker for the object, NONE if there is none
+	 */
+	private int find(int object, int worker) {
+		// the shorter chain is walked, usually the object's one
+		if (countOfObject[object] <= countOfWorker[worker]) {
+			for (int l = firstOfObject[object]; l != NONE; l = nextOfObject[l])
+				if (workers[l] == worker)
+					return l;
+		} else {
+			for (int l = firstOfWorker[worker]; l != NONE; l = nextOfWorker[l])
+				if (objects[l] == object)
+					return l;
+		}
+		return NONE;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getObjectsCount() {
+		return objectNames.size();
+	}
+
+	public int getWorkersCount() {
+		return workerNames.size();
+	}
+
+	public int getCategoriesCount() {
+		return categoryNames.size();
+	}
+
+	public SymbolTable getObjectNames() {
+		return objectNames;
+	}
+
+	public SymbolTable getWorkerNames() {
+		return workerNames;
+	}
+
+	public SymbolTable getCategoryNames() {
+		return categoryNames;
+	}
+
+	public int getObject(int label) {
+		return objects[label];
+	}
+
+	public int getWorker(int label) {
+		return workers[label];
+	}
+
+	public int getCategory(int label) {
+		return categories[label];
+	}
+
+	public String getObjectName(int object) {
+		return objectNames.getName(object);
+	}
+
+	public String getWorkerName(int worker) {
+		return workerNames.getName(worker);
+	}
+
+	public String getCategoryName(int category) {
+		return categoryNames.getName(category);
+	}
+
+	public int getObjectLabelsCount(int object) {
+		return countOfObject[object];
+	}
+
+	public int getWorkerLabelsCount(int worker) {
+		return countOfWorker[worker];
+	}
+
+	/**
+	 * @return the label as an object, sharing the names with the store
+	 */
+	public AssignedLabel get(int label) {
+		return new AssignedLabel(workerNames.getName(workers[label]),
+				objectNames.getName(objects[label]), categoryNames.getName(categories[label]));
+	}
+
+	/**
+	 * Labels of object o are getObjectLabels()[getObjectOffsets()[o]] up to
+	 * getObjectLabels()[getObjectOffsets()[o + 1] - 1], in the order they
+	 * were added. Both arrays must not be changed.
+	 */
+	public int[] getObjectOffsets() {
+		if (objectOffsets == null) {
+			objectOffsets = new int[getObjectsCount() + 1];
+			objectLabels = index(countOfObject, objects, objectOffsets);
+		}
+		return objectOffsets;
+	}
+
+	public int[] getObjectLabels() {
+		getObjectOffsets();
+		return objectLabels;
+	}
+
+	/**
+	 * Same as {@link #getObjectOffsets()}, by worker.
+	 */
+	public int[] getWorkerOffsets() {
+		if (workerOffsets == null) {
+			workerOffsets = new int[getWorkersCount() + 1];
+			workerLabels = index(countOfWorker, workers, workerOffsets);
+		}
+		return workerOffsets;
+	}
+
+	public int[] getWorkerLabels() {
+		getWorkerOffsets();
+		return workerLabels;
+	}
+
+	private int[] index(int[] counts, int[] column, int[] offsets) {
+		for (int i = 0; i + 1 < offsets.length; i++)
+			offsets[i + 1] = offsets[i] + counts[i];
+		int[] fill = Arrays.copyOf(offsets, offsets.length - 1);
+		int[] result = new int[size];
+		for (int l = 0; l < size; l++)
+			result[fill[column[l]]++] = l;
+		return result;
+	}
+
+	/**
+	 * @return live view of the labels of the object
+	 */
+	public Set<AssignedLabel> getLabelsOfObject(final int object) {
+		return new LabelsView() {
+			@Override
+			public int size() {
+				return countOfObject[object];
+			}
+
+			@Override
+			int first() {
+				return firstOfObject[object];
+			}
+
+			@Override
+			int next(int label) {
+				return nextOfObject[label];
+			}
+
+			@Override
+			boolean matches(AssignedLabel al) {
+				return Objects.equal(getObjectName(object), al.getObjectName());
+			}
+		};
+	}
+
+	/**
+	 * @return live view of the labels of the worker
+	 */
+	public Set<AssignedLabel> getLabelsOfWorker(final int worker) {
+		return new LabelsView() {
+			@Override
+			public int size() {
+				return countOfWorker[worker];
+			}
+
+			@Override
+			int first() {
+				return firstOfWorker[worker];
+			}
+
+			@Override
+			int next(int label) {
+				return nextOfWorker[label];
+			}
+
+			@Override
+			boolean matches(AssignedLabel al) {
+				return Objects.equal(getWorkerName(worker), al.getWorkerName());
+			}
+		};
+	}
+
+	/**
+	 * Read only set of the labels of one chain.
+	 */
+	private abstract class LabelsView extends AbstractSet<AssignedLabel> {
+
+		abstract int first();
+		abstract int next(int label);
+		abstract boolean matches(AssignedLabel al);
+
+		@Override
+		public Iterator<AssignedLabel> iterator() {
+			return new Iterator<AssignedLabel>() {
+				private int label = first();
+
+				@Override
+				public boolean hasNext() {
+					return label != NONE;
+				}
+
+				@Override
+				public AssignedLabel next() {
+					if (label == NONE)
+						throw new NoSuchElementException();
+					AssignedLabel al = get(label);
+					label = LabelsView.this.next(label);
+					return al;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException("Labels can't be removed");
+				}
+			};
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof AssignedLabel))
+				return false;
+			AssignedLabel al = (AssignedLabel) o;
+			if (!matches(al))
+				return false;
+			int object = objectNames.getId(al.getObjectName());
+			int worker = workerNames.getId(al.getWorkerName());
+			return object != SymbolTable.NONE && worker != SymbolTable.NONE
+					&& find(object, worker) != NONE;
+		}
+	}
+
+	/**
+	 * Names are written once, labels as (worker, object, category) id
+	 * triples.
+	 */
+	public static class LabelStoreSerializer implements JsonSerializer<LabelStore> {
+
+		@Override
+		public JsonElement serialize(LabelStore store, Type type,
+				JsonSerializationContext context) {
+			JsonObject ret = new JsonObject();
+			ret.add("workers", context.serialize(store.workerNames.getNames()));
+			ret.add("objects", context.serialize(store.objectNames.getNames()));
+			ret.add("categories", context.serialize(store.categoryNames.getNames()));
+			JsonArray labels = new JsonArray();
+			for (int l = 0; l < store.size; l++) {
+				labels.add(new JsonPrimitive(store.workers[l]));
+				labels.add(new JsonPrimitive(store.objects[l]));
+				labels.add(new JsonPrimitive(store.categories[l]));
+			}
+			ret.add("labels", labels);
+			return ret;
+		}
+	}
+
+	public static class LabelStoreDeserializer implements JsonDeserializer<LabelStore> {
+
+		@Override
+		public LabelStore deserialize(JsonElement json, Type type,
+				JsonDeserializationContext context) throws JsonParseException {
+			JsonObject jobject = (JsonObject) json;
+			LabelStore store = new LabelStore();
+			List<String> workers = context.deserialize(jobject.get("workers"), JSONUtils.stringListType);
+			for (String name : workers)
+				store.workerId(name);
+			List<String> objects = context.deserialize(jobject.get("objects"), JSONUtils.stringListType);
+			for (String name : objects)
+				store.objectId(name);
+			List<String> categories = context.deserialize(jobject.get("categories"), JSONUtils.stringListType);
+			for (String name : categories)
+				store.categoryId(name);
+			JsonArray labels = jobject.getAsJsonArray("labels");
+			for (int i = 0; i + 2 < labels.size(); i += 3)
+				store.add(labels.get(i).getAsInt(), labels.get(i + 1).getAsInt(),
+						labels.get(i + 2).getAsInt());
+			return store;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Mini-batch EM, see {@link DenseEMEngine#setMiniBatch(double, long)}.
+ */
+class MiniBatchStep implements EMStep {
+
+	private static final double HELD_OUT_FRACTION = 0.05;
+	// the n-th step has size (n + 2)^-STEP_EXPONENT, in (0.5, 1] for the
+	// steps to converge
+	private static final double STEP_EXPONENT = 0.7;
+
+	private final DenseEMEngine engine;
+	private final double fraction;
+	private final Random random;
+	private final int[] trainObjects;
+	private final int[] heldOutObjects;
+	// expected label counts of every matrix, estimated for the whole data
+	private final double[] statistics;
+	private final double[] objectBuffer;
+	private final int[] countBuffer;
+	private int steps;
+	private double heldOutLogLikelihood = Double.NaN;
+
+	MiniBatchStep(DenseEMEngine engine, double fraction, long seed) {
+		this.engine = engine;
+		this.fraction = fraction;
+		random = new Random(seed);
+		int objects = engine.datums.length;
+		List<Integer> candidates = new ArrayList<Integer>();
+		for (int o = 0; o < objects; o++) {
+			if (engine.goldCategory[o] < 0 && engine.objectLabelsStart[o] < engine.objectLabelsStart[o + 1])
+				candidates.add(o);
+		}
+		int heldOut = candidates.size() < 2 ? 0
+				: Math.max(1, (int) (HELD_OUT_FRACTION * candidates.size()));
+		heldOutObjects = new int[heldOut];
+		boolean[] isHeldOut = new boolean[objects];
+		for (int i = 0; i < heldOut; i++) {
+			int o = candidates.remove(random.nextInt(candidates.size()));
+			heldOutObjects[i] = o;
+			isHeldOut[o] = true;
+		}
+		trainObjects = new int[objects - heldOut];
+		int i = 0;
+		for (int o = 0; o < objects; o++) {
+			if (!isHeldOut[o])
+				trainObjects[i++] = o;
+		}
+
+		// the current matrices count as the labels of each worker spread
+		// evenly over the categories
+		int K = engine.categoriesCount;
+		EMMatrices matrices = engine.matrices;
+		statistics = new double[matrices.size()];
+		for (int m = 0; m < matrices.count; m++) {
+			matrices.fillCounts(m, engine.getMatrixLabelsCount(m), statistics);
+		}
+		objectBuffer = new double[K];
+		countBuffer = new int[K];
+	}
+
+	/**
+	 * @see DenseEMEngine#getHeldOutLogLikelihood()
+	 */
+	double getHeldOutLogLikelihood() {
+		return heldOutLogLikelihood;
+	}
+
+	@Override
+	public boolean hasAllPosteriors() {
+		// only the objects in the batches were updated
+		return steps == 0;
+	}
+
+	@Override
+	public void iterate() {
+		int K = engine.categoriesCount;
+		if (trainObjects.length == 0)
+			return;
+		EMMatrices matrices = engine.matrices;
+		double[] posteriors = engine.posteriors;
+		double[] priors = engine.priors;
+		matrices.updateLogs();
+		engine.updateLogPriors();
+		int batch = Math.max(1, (int) Math.ceil(fraction * trainObjects.length));
+		batch = Math.min(batch, trainObjects.length);
+		double[] priorSums = new double[K];
+		for (int i = 0; i < batch; i++) {
+			// partial Fisher-Yates shuffle: the batch ends up in front
+			int j = i + random.nextInt(trainObjects.length - i);
+			int o = trainObjects[j];
+			trainObjects[j] = trainObjects[i];
+			trainObjects[i] = o;
+			engine.updateObjectClassProbability(o, objectBuffer, countBuffer);
+			for (int s = engine.slotStart[o]; s < engine.slotStart[o + 1]; s++) {
+				priorSums[engine.slotCategory[s]] += posteriors[s];
+			}
+		}
+		engine.setEStepResults(engine.getEStepLogLikelihood(), batch);
+
+		double[] batchStatistics = matrices.next;
+		Arrays.fill(batchStatistics, 0.);
+		for (int i = 0; i < batch; i++) {
+			int o = trainObjects[i];
+			for (int l = engine.objectLabelsStart[o]; l < engine.objectLabelsStart[o + 1]; l++) {
+				if (!engine.computeLeaveOneOut(l, objectBuffer))
+					continue;
+				for (int j = 0; j < engine.getSlotsCount(o); j++) {
+					batchStatistics[matrices.cell(l, j)] += objectBuffer[j];
+				}
+			}
+		}
+
+		double eta = Math.pow(steps + 2, -STEP_EXPONENT);
+		double scale = trainObjects.length / (double) batch;
+		for (int i = 0; i < statistics.length; i++) {
+			statistics[i] = (1. - eta) * statistics[i] + eta * scale * batchStatistics[i];
+		}
+		matrices.normalize(statistics, matrices.values);
+		if (!engine.fixedPriors) {
+			for (int c = 0; c < K; c++) {
+				priors[c] = (1. - eta) * priors[c] + eta * priorSums[c] / batch;
+			}
+		}
+		engine.matricesChanged();
+		steps++;
+
+		matrices.updateLogs();
+		engine.updateLogPriors();
+		heldOutLogLikelihood = 0.;
+		for (int o : heldOutObjects) {
+			heldOutLogLikelihood += engine.getMarginalLogLikelihood(o, objectBuffer, countBuffer);
+		}
+	}
+}
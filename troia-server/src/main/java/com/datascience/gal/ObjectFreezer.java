@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.util.Arrays;
+
+/**
+ * Per object freezing of full batch EM, see
+ * {@link DenseEMEngine#setFreezing(double)}. Keeps what the engine reuses
+ * for a frozen object: its contribution to the log-likelihood and the
+ * leave-one-out posteriors of its labels.
+ */
+class ObjectFreezer {
+
+	private final DenseEMEngine engine;
+	private final double tolerance;
+	private final boolean[] frozen;
+	// the object was skipped by the last E-step, so its leave-one-out cache
+	// is out of date
+	private final boolean[] stale;
+	// leave-one-out posterior of the object of each label used by the last
+	// M-step, indexed by label and slot, NaN when undefined
+	private final double[] labelPosteriors;
+	private final double[] objectLogLikelihood;
+
+	ObjectFreezer(DenseEMEngine engine, double tolerance) {
+		this.engine = engine;
+		this.tolerance = tolerance;
+		int objects = engine.datums.length;
+		frozen = new boolean[objects];
+		stale = new boolean[objects];
+		labelPosteriors = new double[engine.getLabelSlotsStart(engine.labelObject.length)];
+		objectLogLikelihood = new double[objects];
+	}
+
+	boolean isFrozen(int o) {
+		return frozen[o];
+	}
+
+	/**
+	 * The E-step skips frozen object <code>o</code>.
+	 *
+	 * @return the object's contribution to the log-likelihood
+	 */
+	double skip(int o) {
+		stale[o] = true;
+		return objectLogLikelihood[o];
+	}
+
+	/**
+	 * The E-step computed object <code>o</code>, whose posterior moved by
+	 * <code>change</code>.
+	 */
+	void computed(int o, double logLikelihood, double change) {
+		stale[o] = false;
+		objectLogLikelihood[o] = logLikelihood;
+		frozen[o] = change < tolerance;
+	}
+
+	/**
+	 * The leave-one-out cache of object <code>o</code> was rebuilt.
+	 */
+	void refreshed(int o) {
+		stale[o] = false;
+	}
+
+	void unfreeze(int o) {
+		frozen[o] = false;
+	}
+
+	void unfreezeAll() {
+		Arrays.fill(frozen, false);
+	}
+
+	/**
+	 * Unfreezes everything when a prior moved by more than the tolerance.
+	 */
+	void priorsUpdated(double[] previous) {
+		for (int c = 0; c < previous.length; c++) {
+			if (Math.abs(engine.priors[c] - previous[c]) > tolerance) {
+				unfreezeAll();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Unfreezes the objects labeled by workers with an error rate that the
+	 * M-step moved by more than the tolerance. Called before the new
+	 * matrices become current.
+	 */
+	void matricesUpdated() {
+		EMMatrices matrices = engine.matrices;
+		for (int m = 0; m < matrices.count; m++) {
+			if (matrices.getChange(m) <= tolerance)
+				continue;
+			for (int i = engine.matrixLabelsStart[m]; i < engine.matrixLabelsStart[m + 1]; i++) {
+				frozen[engine.labelObject[engine.matrixLabels[i]]] = false;
+			}
+		}
+	}
+
+	/**
+	 * {@link DenseEMEngine#computeLeaveOneOut(int, double[])} that reads the
+	 * result from <code>labelPosteriors</code> when the object's cache is out
+	 * of date and stores it there otherwise.
+	 */
+	boolean computeLeaveOneOut(int l, double[] out) {
+		int o = engine.labelObject[l];
+		int start = engine.getLabelSlotsStart(l);
+		int slots = engine.getSlotsCount(o);
+		if (stale[o]) {
+			if (Double.isNaN(labelPosteriors[start]))
+				return false;
+			System.arraycopy(labelPosteriors, start, out, 0, slots);
+			return true;
+		}
+		if (!engine.computeLeaveOneOut(l, out)) {
+			labelPosteriors[start] = Double.NaN;
+			return false;
+		}
+		System.arraycopy(out, 0, labelPosteriors, start, slots);
+		return true;
+	}
+}
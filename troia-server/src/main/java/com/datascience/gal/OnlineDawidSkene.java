@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.datascience.core.storages.JSONUtils;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/**
+ * Stepwise (online) EM version of DS. Every worker keeps the sufficient
+ * statistics of its confusion matrix (expected counts of the labels it gave
+ * for objects of each correct category) in its confusion matrix. When a
+ * label arrives the posterior of its object is recomputed and every label
+ * of that object contributes its expected counts to the worker that gave
+ * it, with a step size decaying with the number of updates of that worker:
+ * s = (1 - eta) * s + eta * s(label), eta = (updates + 2)^-stepExponent.
+ * The priors are updated the same way with the object posteriors.
+ *
+ * A label costs O(K^2 * labels of its object) and predictions are always up
+ * to date; {@link #estimate(int)} makes additional passes over all objects.
+ */
+public class OnlineDawidSkene extends AbstractDawidSkene {
+
+	public static final OnlineDawidSkeneDeserializer deserializer = new OnlineDawidSkeneDeserializer();
+
+	public static final double DEFAULT_STEP_EXPONENT = 0.7;
+
+	private double stepExponent = DEFAULT_STEP_EXPONENT;
+	// number of stepwise updates applied to each worker's statistics
+	private Map<String, Integer> workerUpdates = new HashMap<String, Integer>();
+	private int priorUpdates;
+
+	public OnlineDawidSkene(String id) {
+		super(id);
+	}
+
+	public OnlineDawidSkene(String id, Collection<Category> categories) {
+		super(id, categories);
+	}
+
+	/**
+	 * @param stepExponent step sizes decay as updates^-stepExponent, it
+	 *        should be in (0.5, 1] for the statistics to converge
+	 */
+	public OnlineDawidSkene(String id, Collection<Category> categories, double stepExponent) {
+		this(id, categories);
+		if (!(stepExponent > 0.5 && stepExponent <= 1.))
+			throw new IllegalArgumentException("Step exponent should be in (0.5, 1]");
+		this.stepExponent = stepExponent;
+	}
+
+	private OnlineDawidSkene(String id, Collection<Datum> objects, Collection<Datum> objectsWithNoLabels,
+			Collection<Worker> workers, LabelStore labelStore, Map<String, Category> categories,
+			boolean fixedPriors, double stepExponent, Map<String, Integer> workerUpdates,
+			int priorUpdates, EstimationSettings estimationSettings, List<Double> logLikelihoods) {
+		this(id);
+		this.categories = categories;
+		this.fixedPriors = fixedPriors;
+		this.stepExponent = stepExponent;
+		if (workerUpdates != null)
+			this.workerUpdates = workerUpdates;
+		this.priorUpdates = priorUpdates;
+		if (estimationSettings != null)
+			setEstimationSettings(estimationSettings);
+		if (logLikelihoods != null)
+			this.logLikelihoods = logLikelihoods;
+		attachLabels(labelStore, objects, objectsWithNoLabels, workers);
+	}
+
+	public double getStepExponent() {
+		return stepExponent;
+	}
+
+	@Override
+	public Map<String, Double> getCategoryPriors() {
+		Map<String, Double> out = new HashMap<String, Double>(categories.size());
+		for (Category cat : categories.values())
+			out.put(cat.getName(), cat.getPrior());
+		return out;
+	}
+
+	@Override
+	public double prior(String categoryName) {
+		return categories.get(categoryName).getPrior();
+	}
+
+	@Override
+	public double getErrorRateForWorker(Worker worker, String from, String to) {
+		return worker.getErrorRateIncremental(from, to,
+											  ConfusionMatrixNormalizationType.UNIFORM);
+	}
+
+	@Override
+	public Map<String, Double> objectClassProbabilities(String objectName,
+			double entropyThreshold) {
+		Map<String, Double> out = new HashMap<String, Double>();
+
+		if (!objects.containsKey(objectName)) {
+			logger.warn("attempting to get class probabilities for non-existent object");
+		} else {
+			Datum datum = objects.get(objectName);
+			if (datum.getEntropy() >= entropyThreshold) {
+				for (String cat : categories.keySet())
+					out.put(cat, datum.getCategoryProbability(cat));
+			}
+		}
+		return out;
+	}
+
+	@Override
+	public void addAssignedLabel(AssignedLabel al) {
+		super.addAssignedLabel(al);
+		updateObject(objects.get(al.getObjectName()));
+	}
+
+	@Override
+	public void addCorrectLabel(CorrectLabel cl) {
+		super.addCorrectLabel(cl);
+		updateObject(objects.get(cl.getObjectName()));
+	}
+
+	@Override
+	protected void estimateInner() {
+		for (Datum d : objects.values())
+			updateObject(d);
+	}
+
+	/**
+	 * Recomputes the posterior of the object and makes a stepwise update of
+	 * the statistics of all the workers that labeled it and of the priors.
+	 * The log error rates of the object's labels are looked up once; the
+	 * posterior without a given label is obtained by taking its term out.
+	 */
+	private void updateObject(Datum d) {
+		int K = categories.size();
+		String[] categoryNames = categories.keySet().toArray(new String[K]);
+		List<AssignedLabel> labels = new ArrayList<AssignedLabel>(d.getAssignedLabels());
+		double[][] logRates = new double[labels.size()][K];
+		double[] logEvidence = new double[K];
+		int[] zeroFactors = new int[K];
+		int[] storeCategories = new int[K];
+		for (int c = 0; c < K; c++) {
+			storeCategories[c] = labelStore.categoryId(categoryNames[c]);
+		}
+		for (int i = 0; i < labels.size(); i++) {
+			AssignedLabel al = labels.get(i);
+			Worker w = workers.get(al.getWorkerName());
+			double[] column = w.getLogErrorRates(this, labelStore.categoryId(al.getCategoryName()));
+			for (int c = 0; c < K; c++) {
+				logRates[i][c] = column[storeCategories[c]];
+				if (logRates[i][c] == Double.NEGATIVE_INFINITY)
+					zeroFactors[c]++;
+				else if (!Double.isNaN(logRates[i][c]))
+					logEvidence[c] += logRates[i][c];
+			}
+		}
+
+		double[] posterior = new double[K];
+		if (!computePosterior(d, categoryNames, logEvidence, zeroFactors, null, posterior))
+			return;
+		for (int c = 0; c < K; c++) {
+			d.setCategoryProbability(categoryNames[c], posterior[c]);
+		}
+		updatePriors(categoryNames, posterior);
+
+		double[] withoutLabel = new double[K];
+		for (int i = 0; i < labels.size(); i++) {
+			// the batch M-step also treats the posterior computed from the
+			// other workers' labels as the correct class
+			if (!d.isGold() && labels.size() == 1)
+				break;
+			if (!computePosterior(d, categoryNames, logEvidence, zeroFactors, logRates[i], withoutLabel))
+				continue;
+			AssignedLabel al = labels.get(i);
+			updateWorker(workers.get(al.getWorkerName()), categoryNames,
+					al.getCategoryName(), withoutLabel);
+		}
+	}
+
+	/**
+	 * @param excluded log rates of a label to take out of the evidence or null
+	 * @return false when the posterior is undefined
+	 */
+	private boolean computePosterior(Datum d, String[] categoryNames, double[] logEvidence,
+			int[] zeroFactors, double[] excluded, double[] out) {
+		int K = categoryNames.length;
+		if (d.isGold()) {
+			for (int c = 0; c < K; c++) {
+				out[c] = categoryNames[c].equals(d.getCorrectCategory()) ? 1. : 0.;
+			}
+			return true;
+		}
+		double max = Double.NEGATIVE_INFINITY;
+		for (int c = 0; c < K; c++) {
+			int zeros = zeroFactors[c];
+			double value = logEvidence[c];
+			if (excluded != null && !Double.isNaN(excluded[c])) {
+				if (excluded[c] == Double.NEGATIVE_INFINITY)
+					zeros--;
+				else
+					value -= excluded[c];
+			}
+			double prior = prior(categoryNames[c]);
+			out[c] = zeros > 0 || prior == 0. ? Double.NEGATIVE_INFINITY : value + Math.log(prior);
+			max = Math.max(max, out[c]);
+		}
+		if (max == Double.NEGATIVE_INFINITY)
+			return false;
+		double denominator = 0.;
+		for (int c = 0; c < K; c++) {
+			out[c] = Math.exp(out[c] - max);
+			denominator += out[c];
+		}
+		for (int c = 0; c < K; c++) {
+			out[c] /= denominator;
+		}
+		return true;
+	}
+
+	private double stepSize(int updates) {
+		return Math.pow(updates + 2, -stepExponent);
+	}
+
+	private void updateWorker(Worker w, String[] categoryNames, String destination,
+			double[] probabilities) {
+		Integer updates = workerUpdates.get(w.getName());
+		int n = updates == null ? 0 : updates;
+		double eta = stepSize(n);
+		for (int from = 0; from < categoryNames.length; from++) {
+			for (String to : categoryNames) {
+				w.cm.removeError(categoryNames[from], to,
+						eta * w.getErrorRateBatch(categoryNames[from], to));
+			}
+			w.cm.addError(categoryNames[from], destination, eta * probabilities[from]);
+		}
+		w.invalidateLogErrorRates();
+		workerUpdates.put(w.getName(), n + 1);
+	}
+
+	private void updatePriors(String[] categoryNames, double[] posterior) {
+		if (fixedPriors)
+			return;
+		double eta = stepSize(priorUpdates);
+		for (int c = 0; c < categoryNames.length; c++) {
+			Category category = categories.get(categoryNames[c]);
+			category.setPrior((1. - eta) * category.getPrior() + eta * posterior[c]);
+		}
+		priorUpdates++;
+	}
+
+	public static class OnlineDawidSkeneDeserializer implements
+		JsonDeserializer<OnlineDawidSkene> {
+
+		@Override
+		public OnlineDawidSkene deserialize(JsonElement json, Type type,
+				JsonDeserializationContext context) throws JsonParseException {
+			JsonObject jobject = (JsonObject) json;
+
+			String id = jobject.get("id").getAsString();
+			Map<String, Category> categories = context.deserialize(
+					jobject.get("categories"), JSONUtils.stringCategoryMapType);
+			boolean fixedPriors = jobject.get("fixedPriors").getAsBoolean();
+			Collection<Datum> objects = IdMap.deserializeValues(jobject.get("objects"),
+					context, JSONUtils.datumCollectionType, JSONUtils.stringDatumMapType);
+			Collection<Datum> objectsWithNoLabels = IdMap.deserializeValues(
+					jobject.get("objectsWithNoLabels"), context,
+					JSONUtils.datumCollectionType, JSONUtils.stringDatumMapType);
+			Collection<Worker> workers = IdMap.deserializeValues(jobject.get("workers"),
+					context, JSONUtils.workerCollectionType, JSONUtils.strinWorkerMapType);
+			LabelStore labelStore = context.deserialize(
+					jobject.get("labelStore"), LabelStore.class);
+			double stepExponent = jobject.get("stepExponent").getAsDouble();
+			Map<String, Integer> workerUpdates = context.deserialize(
+					jobject.get("workerUpdates"), JSONUtils.stringIntegerMapType);
+			int priorUpdates = jobject.get("priorUpdates").getAsInt();
+			EstimationSettings estimationSettings = context.deserialize(
+					jobject.get("estimationSettings"), EstimationSettings.class);
+			List<Double> logLikelihoods = context.deserialize(
+					jobject.get("logLikelihoods"), JSONUtils.doubleListType);
+
+			return new OnlineDawidSkene(id, objects, objectsWithNoLabels, workers, labelStore, categories,
+					fixedPriors, stepExponent, workerUpdates, priorUpdates,
+					estimationSettings, logLikelihoods);
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(OnlineDawidSkene.class);
+}
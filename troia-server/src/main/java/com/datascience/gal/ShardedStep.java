@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.util.Arrays;
+
+import com.datascience.utils.ParallelRunner;
+
+/**
+ * Full batch EM run as a map-reduce over ranges of objects, see
+ * {@link DenseEMEngine#setShards(int)}. Per shard statistics are kept
+ * between iterations to avoid reallocating them.
+ */
+class ShardedStep implements EMStep {
+
+	private final DenseEMEngine engine;
+	private final int[] bounds;
+	// log-likelihood, number of computed objects and posterior sums
+	private final double[][] shardPosteriorSums;
+	private final double[][] shardCounts;
+
+	ShardedStep(DenseEMEngine engine, int shards) {
+		this.engine = engine;
+		bounds = ParallelRunner.split(engine.datums.length, shards);
+		int count = bounds.length - 1;
+		shardPosteriorSums = new double[count][engine.categoriesCount + 2];
+		shardCounts = new double[count][engine.matrices.size()];
+	}
+
+	@Override
+	public void iterate() {
+		final int K = engine.categoriesCount;
+		EMMatrices matrices = engine.matrices;
+
+		// map: posteriors
+		matrices.updateLogs();
+		engine.updateLogPriors();
+		run(new ParallelRunner.ChunkTask() {
+			@Override
+			public void run(int shard, int from, int to) {
+				engine.mapPosteriors(from, to, new double[K], new int[K], shardPosteriorSums[shard]);
+			}
+		});
+		// reduce: log-likelihood and priors
+		double logLikelihood = 0.;
+		int activeObjects = 0;
+		double[] posteriorSums = new double[K];
+		for (double[] sums : shardPosteriorSums) {
+			logLikelihood += sums[0];
+			activeObjects += (int) sums[1];
+			for (int c = 0; c < K; c++) {
+				posteriorSums[c] += sums[2 + c];
+			}
+		}
+		engine.setEStepResults(logLikelihood, activeObjects);
+		int objects = engine.getEstimatedObjects();
+		if (!engine.fixedPriors && objects > 0) {
+			for (int c = 0; c < K; c++) {
+				engine.priors[c] = posteriorSums[c] / objects;
+			}
+		}
+		engine.updateLogPriors();
+
+		// map: expected label counts
+		run(new ParallelRunner.ChunkTask() {
+			@Override
+			public void run(int shard, int from, int to) {
+				engine.accumulateCounts(from, to, new double[K], shardCounts[shard]);
+			}
+		});
+		// reduce: matrices
+		double[] next = matrices.next;
+		Arrays.fill(next, 0.);
+		for (double[] counts : shardCounts) {
+			for (int i = 0; i < counts.length; i++) {
+				next[i] += counts[i];
+			}
+		}
+		matrices.normalize(next, next);
+		matrices.swap();
+		engine.matricesChanged();
+	}
+
+	private void run(ParallelRunner.ChunkTask task) {
+		ParallelRunner runner = engine.getRunner();
+		if (runner != null) {
+			runner.run(bounds, task);
+		} else {
+			for (int shard = 0; shard + 1 < bounds.length; shard++) {
+				task.run(shard, bounds[shard], bounds[shard + 1]);
+			}
+		}
+	}
+
+	@Override
+	public boolean hasAllPosteriors() {
+		return true;
+	}
+}
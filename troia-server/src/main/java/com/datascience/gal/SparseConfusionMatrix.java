@@ -0,0 +1,538 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.datascience.core.storages.JSONUtils;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+/**
+ * Confusion matrix for jobs with many categories. Only the rows of the
+ * "from" categories the worker was given errors for are kept, each with the
+ * cells it was given and one value for all the other cells of the row. Rows
+ * that were not touched share the values of the initial matrix: 0.9 in the
+ * diagonal and 0.1 spread over the rest of the row, or zero after
+ * {@link #empty()}. Normalizing scales these implicit values with the
+ * explicit ones, so the cost of the matrix follows the (from, to) pairs the
+ * worker was seen with instead of K^2.
+ *
+ * The category names are usually the job's {@link LabelStore#getCategoryNames()},
+ * shared by all the workers; projects then write the rows by the ids of
+ * that table with {@link #projectSerializer}.
+ */
+public class SparseConfusionMatrix implements ConfusionMatrix {
+
+	public static final ConfusionMatrixDeserializer deserializer = new ConfusionMatrixDeserializer();
+	public static final ConfusionMatrixSerializer serializer = new ConfusionMatrixSerializer();
+	public static final ProjectConfusionMatrixSerializer projectSerializer = new ProjectConfusionMatrixSerializer();
+
+	private static class Row {
+
+		double denominator;
+		// value of the cells that are not in the arrays
+		double unseen;
+		int[] to = new int[2];
+		double[] value = new double[2];
+		int size;
+
+		double get(int t) {
+			int i = Arrays.binarySearch(to, 0, size, t);
+			return i < 0 ? unseen : value[i];
+		}
+
+		void set(int t, double v) {
+			int i = Arrays.binarySearch(to, 0, size, t);
+			if (i >= 0) {
+				value[i] = v;
+				return;
+			}
+			i = -i - 1;
+			if (size == to.length) {
+				to = Arrays.copyOf(to, 2 * size);
+				value = Arrays.copyOf(value, 2 * size);
+			}
+			System.arraycopy(to, i, to, i + 1, size - i);
+			System.arraycopy(value, i, value, i + 1, size - i);
+			to[i] = t;
+			value[i] = v;
+			size++;
+		}
+
+		void scale(double marginal) {
+			for (int i = 0; i < size; i++)
+				value[i] = marginal == 0. ? Double.NaN : value[i] / marginal;
+			unseen = marginal == 0. ? Double.NaN : unseen / marginal;
+			denominator = 1.;
+		}
+
+		void smooth(int K) {
+			for (int i = 0; i < size; i++)
+				value[i] = (value[i] + 1) / (denominator + K);
+			unseen = (unseen + 1) / (denominator + K);
+			denominator = 1.;
+		}
+	}
+
+	// null for a matrix read from a project until it gets the job's table
+	// with withCategories()
+	private final SymbolTable categories;
+	// number of categories of the job, used by the initial values and the
+	// Laplace smoothing
+	private final int K;
+
+	// rows that were touched, ordered by rowIds
+	private int[] rowIds = new int[0];
+	private Row[] rows = new Row[0];
+	private int rowsCount;
+
+	// values of the rows that are not kept
+	private double unseenDiagonal;
+	private double unseenOffDiagonal;
+	private double unseenRowDenominator;
+
+	private SparseConfusionMatrix(SymbolTable categories, int K) {
+		this.categories = categories;
+		this.K = K;
+	}
+
+	public SparseConfusionMatrix(Collection<Category> categories) {
+		this(categories, new SymbolTable());
+	}
+
+	/**
+	 * @param names
+	 *            table the category ordinals are taken from, the categories
+	 *            are added to it
+	 */
+	public SparseConfusionMatrix(Collection<Category> categories, SymbolTable names) {
+		this(names, categories.size());
+		for (Category c : categories)
+			names.intern(c.getName());
+
+		// We now initialize the confusion matrix
+		// and we set it to 0.9 in the diagonal and 0.0 elsewhere
+		unseenDiagonal = .9;
+		unseenOffDiagonal = 0.1 / (double) (K - 1);
+		unseenRowDenominator = 1.;
+	}
+
+	/**
+	 * @return the same matrix with the ordinals of the given table, a matrix
+	 *         read from a project takes the table as it is
+	 */
+	SparseConfusionMatrix withCategories(SymbolTable names) {
+		if (names == categories)
+			return this;
+		SparseConfusionMatrix ret = new SparseConfusionMatrix(names, K);
+		ret.unseenDiagonal = unseenDiagonal;
+		ret.unseenOffDiagonal = unseenOffDiagonal;
+		ret.unseenRowDenominator = unseenRowDenominator;
+		if (categories == null) {
+			ret.rowIds = rowIds;
+			ret.rows = rows;
+			ret.rowsCount = rowsCount;
+			return ret;
+		}
+		for (int r = 0; r < rowsCount; r++) {
+			Row row = rows[r];
+			Row copy = ret.row(names.intern(categories.getName(rowIds[r])));
+			copy.denominator = row.denominator;
+			copy.unseen = row.unseen;
+			copy.size = 0;
+			for (int i = 0; i < row.size; i++)
+				copy.set(names.intern(categories.getName(row.to[i])), row.value[i]);
+		}
+		return ret;
+	}
+
+	SparseConfusionMatrix copy() {
+		SparseConfusionMatrix ret = new SparseConfusionMatrix(categories, K);
+		ret.unseenDiagonal = unseenDiagonal;
+		ret.unseenOffDiagonal = unseenOffDiagonal;
+		ret.unseenRowDenominator = unseenRowDenominator;
+		ret.rowIds = Arrays.copyOf(rowIds, rowsCount);
+		ret.rows = new Row[rowsCount];
+		ret.rowsCount = rowsCount;
+		for (int r = 0; r < rowsCount; r++) {
+			Row row = rows[r];
+			Row copy = new Row();
+			copy.denominator = row.denominator;
+			copy.unseen = row.unseen;
+			copy.to = Arrays.copyOf(row.to, Math.max(2, row.size));
+			copy.value = Arrays.copyOf(row.value, Math.max(2, row.size));
+			copy.size = row.size;
+			ret.rows[r] = copy;
+		}
+		return ret;
+	}
+
+	private Row findRow(int from) {
+		int i = Arrays.binarySearch(rowIds, 0, rowsCount, from);
+		return i < 0 ? null : rows[i];
+	}
+
+	/**
+	 * @return the row, created with the values of the rows that are not kept
+	 */
+	private Row row(int from) {
+		int i = Arrays.binarySearch(rowIds, 0, rowsCount, from);
+		if (i >= 0)
+			return rows[i];
+		i = -i - 1;
+		if (rowsCount == rowIds.length) {
+			int length = Math.max(4, 2 * rowsCount);
+			rowIds = Arrays.copyOf(rowIds, length);
+			rows = Arrays.copyOf(rows, length);
+		}
+		System.arraycopy(rowIds, i, rowIds, i + 1, rowsCount - i);
+		System.arraycopy(rows, i, rows, i + 1, rowsCount - i);
+		Row row = new Row();
+		row.denominator = unseenRowDenominator;
+		row.unseen = unseenOffDiagonal;
+		if (Double.compare(unseenDiagonal, unseenOffDiagonal) != 0)
+			row.set(from, unseenDiagonal);
+		rowIds[i] = from;
+		rows[i] = row;
+		rowsCount++;
+		return row;
+	}
+
+	/**
+	 * @return number of cells kept, for checking that the matrix stays
+	 *         sparse
+	 */
+	int getStoredCellsCount() {
+		int count = 0;
+		for (int r = 0; r < rowsCount; r++)
+			count += rows[r].size;
+		return count;
+	}
+
+	/**
+	 * Drops the rows and gives every cell of the rows that are not kept the
+	 * same normalized value.
+	 */
+	void reset(double unseen) {
+		rowsCount = 0;
+		unseenDiagonal = unseen;
+		unseenOffDiagonal = unseen;
+		unseenRowDenominator = 1.;
+	}
+
+	/**
+	 * Sets normalized row <code>from</code> to <code>length</code> cells
+	 * with the values starting at <code>offset</code>; the other cells of
+	 * the row get <code>unseen</code>.
+	 */
+	void setRow(int from, int[] to, double[] values, int offset, int length, double unseen) {
+		Row row = row(from);
+		row.size = 0;
+		row.denominator = 1.;
+		row.unseen = unseen;
+		for (int i = 0; i < length; i++)
+			row.set(to[i], values[offset + i]);
+	}
+
+	@Override
+	public void incrementRowDenominator(String from, double value) {
+		row(categories.intern(from)).denominator += value;
+	}
+
+	@Override
+	public void decrementRowDenominator(String from, double value) {
+		Row row = row(categories.intern(from));
+		row.denominator = Math.max(0., row.denominator - value);
+	}
+
+	/**
+	 * Rows are kept for the next iteration, as a worker is usually given
+	 * errors for the same categories again.
+	 */
+	@Override
+	public void empty() {
+		for (int r = 0; r < rowsCount; r++) {
+			rows[r].size = 0;
+			rows[r].unseen = 0.;
+			rows[r].denominator = 0.;
+		}
+		unseenDiagonal = 0.;
+		unseenOffDiagonal = 0.;
+		unseenRowDenominator = 0.;
+	}
+
+	@Override
+	public void normalize() {
+		for (int r = 0; r < rowsCount; r++)
+			rows[r].scale(rows[r].denominator);
+		double marginal = unseenRowDenominator;
+		unseenDiagonal = marginal == 0. ? Double.NaN : unseenDiagonal / marginal;
+		unseenOffDiagonal = marginal == 0. ? Double.NaN : unseenOffDiagonal / marginal;
+		unseenRowDenominator = 1.;
+	}
+
+	@Override
+	public void normalizeLaplacean() {
+		for (int r = 0; r < rowsCount; r++)
+			rows[r].smooth(K);
+		unseenDiagonal = (unseenDiagonal + 1) / (unseenRowDenominator + K);
+		unseenOffDiagonal = (unseenOffDiagonal + 1) / (unseenRowDenominator + K);
+		unseenRowDenominator = 1.;
+	}
+
+	@Override
+	public void addError(String from, String to, Double error) {
+		Row row = row(categories.intern(from));
+		int t = categories.intern(to);
+		row.set(t, row.get(t) + error);
+		row.denominator += error;
+	}
+
+	@Override
+	public void removeError(String from, String to, Double error) {
+		Row row = row(categories.intern(from));
+		int t = categories.intern(to);
+		row.set(t, Math.max(0, row.get(t) - error));
+		row.denominator = Math.max(0., row.denominator - error);
+	}
+
+	@Override
+	public double getErrorRateBatch(String from, String to) {
+		int f = categories.getId(from);
+		int t = categories.getId(to);
+		if (f == SymbolTable.NONE || t == SymbolTable.NONE)
+			return 0;
+		return getErrorRateBatch(f, t);
+	}
+
+	/**
+	 * {@link #getErrorRateBatch(String, String)} for ordinals of the
+	 * categories.
+	 */
+	public double getErrorRateBatch(int from, int to) {
+		Row row = findRow(from);
+		if (row != null)
+			return row.get(to);
+		return from == to ? unseenDiagonal : unseenOffDiagonal;
+	}
+
+	private double getRowDenominator(String from) {
+		int f = categories.getId(from);
+		if (f == SymbolTable.NONE)
+			return 0.;
+		Row row = findRow(f);
+		return row == null ? unseenRowDenominator : row.denominator;
+	}
+
+	@Override
+	public double getNormalizedErrorRate(String from, String to) {
+		return getErrorRateBatch(from, to) / getRowDenominator(from);
+	}
+
+	@Override
+	public double getLaplaceNormalizedErrorRate(String from, String to) {
+		return (1. + getErrorRateBatch(from, to)) / (getRowDenominator(from) + K);
+	}
+
+	@Override
+	public double getIncrementalErrorRate(String from, String to) {
+		return getNormalizedErrorRate(from, to);
+	}
+
+	@Override
+	public void setErrorRate(String from, String to, Double cost) {
+		Row row = row(categories.intern(from));
+		row.set(categories.intern(to), cost);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SparseConfusionMatrix))
+			return false;
+		SparseConfusionMatrix other = (SparseConfusionMatrix) obj;
+		Set<String> names = getCategories();
+		if (!names.equals(other.getCategories()))
+			return false;
+		for (String from : names) {
+			if (Double.compare(getRowDenominator(from), other.getRowDenominator(from)) != 0)
+				return false;
+			for (String to : names) {
+				if (Double.compare(getErrorRateBatch(from, to), other.getErrorRateBatch(from, to)) != 0)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return getCategories().hashCode();
+	}
+
+	@Override
+	public Set<String> getCategories() {
+		return new HashSet<String>(categories.getNames());
+	}
+
+	public static class ConfusionMatrixDeserializer implements
+		JsonDeserializer<SparseConfusionMatrix> {
+
+		@Override
+		public SparseConfusionMatrix deserialize(JsonElement json,
+				Type type, JsonDeserializationContext context)
+		throws JsonParseException {
+			JsonObject jobject = (JsonObject) json;
+			if (!jobject.has("categories"))
+				return deserializeProjectMatrix(jobject, context);
+			Collection<String> names =
+					context.deserialize(jobject.get("categories"), JSONUtils.stringSetType);
+			SymbolTable categories = new SymbolTable();
+			for (String name : names)
+				categories.intern(name);
+			SparseConfusionMatrix ret = new SparseConfusionMatrix(categories,
+					jobject.get("size").getAsInt());
+			ret.unseenDiagonal = jobject.get("unseenDiagonal").getAsDouble();
+			ret.unseenOffDiagonal = jobject.get("unseenOffDiagonal").getAsDouble();
+			ret.unseenRowDenominator = jobject.get("unseenRowDenominator").getAsDouble();
+
+			Collection<CategoryValue> unseen =
+					context.deserialize(jobject.get("unseen"), JSONUtils.categoryValuesCollectionType);
+			for (CategoryValue cv : unseen) {
+				Row row = ret.row(categories.intern(cv.categoryName));
+				row.size = 0;
+				row.unseen = cv.value;
+			}
+			Collection<CategoryValue> rowDenominatorValues =
+					context.deserialize(jobject.get("rowDenominator"), JSONUtils.categoryValuesCollectionType);
+			for (CategoryValue cv : rowDenominatorValues)
+				ret.row(categories.intern(cv.categoryName)).denominator = cv.value;
+			Collection<MatrixValue> matrixValues =
+					context.deserialize(jobject.get("matrix"), JSONUtils.matrixValuesCollectionType);
+			for (MatrixValue mv : matrixValues)
+				ret.setErrorRate(mv.from, mv.to, mv.value);
+			return ret;
+		}
+
+		private SparseConfusionMatrix deserializeProjectMatrix(JsonObject jobject,
+				JsonDeserializationContext context) {
+			SparseConfusionMatrix ret = new SparseConfusionMatrix(null,
+					jobject.get("size").getAsInt());
+			ret.unseenDiagonal = jobject.get("unseenDiagonal").getAsDouble();
+			ret.unseenOffDiagonal = jobject.get("unseenOffDiagonal").getAsDouble();
+			ret.unseenRowDenominator = jobject.get("unseenRowDenominator").getAsDouble();
+			JsonArray rows = jobject.getAsJsonArray("rows");
+			ret.rowIds = new int[rows.size()];
+			ret.rows = new Row[rows.size()];
+			for (JsonElement element : rows) {
+				JsonObject jrow = element.getAsJsonObject();
+				Row row = new Row();
+				row.denominator = jrow.get("denominator").getAsDouble();
+				row.unseen = jrow.get("unseen").getAsDouble();
+				row.to = context.deserialize(jrow.get("to"), int[].class);
+				row.value = context.deserialize(jrow.get("value"), double[].class);
+				row.size = row.to.length;
+				if (row.value.length != row.size)
+					throw new JsonParseException("Row of " + row.size + " cells with "
+							+ row.value.length + " values");
+				if (row.size == 0) {
+					// set() doubles the arrays
+					row.to = new int[2];
+					row.value = new double[2];
+				}
+				int from = jrow.get("from").getAsInt();
+				if (ret.rowsCount > 0 && ret.rowIds[ret.rowsCount - 1] >= from)
+					throw new JsonParseException("Rows are not ordered by their categories");
+				ret.rowIds[ret.rowsCount] = from;
+				ret.rows[ret.rowsCount] = row;
+				ret.rowsCount++;
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Writes the kept rows in the format of
+	 * {@link MultinomialConfusionMatrix.ConfusionMatrixSerializer}, with the
+	 * implicit values added.
+	 */
+	public static class ConfusionMatrixSerializer implements JsonSerializer<SparseConfusionMatrix> {
+
+		@Override
+		public JsonElement serialize(SparseConfusionMatrix arg0,
+				Type arg1, JsonSerializationContext arg2) {
+			JsonObject ret = new JsonObject();
+			SymbolTable names = arg0.categories;
+
+			Collection<CategoryValue> cp = new ArrayList<CategoryValue>(arg0.rowsCount);
+			Collection<CategoryValue> unseen = new ArrayList<CategoryValue>(arg0.rowsCount);
+			Collection<MatrixValue> mv = new ArrayList<MatrixValue>();
+			for (int r = 0; r < arg0.rowsCount; r++) {
+				String from = names.getName(arg0.rowIds[r]);
+				Row row = arg0.rows[r];
+				cp.add(new CategoryValue(from, row.denominator));
+				unseen.add(new CategoryValue(from, row.unseen));
+				for (int i = 0; i < row.size; i++)
+					mv.add(new MatrixValue(from, names.getName(row.to[i]), row.value[i]));
+			}
+			ret.add("rowDenominator", arg2.serialize(cp));
+			ret.add("matrix", arg2.serialize(mv));
+			ret.add("categories", arg2.serialize(arg0.getCategories()));
+			ret.add("unseen", arg2.serialize(unseen));
+			ret.addProperty("unseenDiagonal", arg0.unseenDiagonal);
+			ret.addProperty("unseenOffDiagonal", arg0.unseenOffDiagonal);
+			ret.addProperty("unseenRowDenominator", arg0.unseenRowDenominator);
+			ret.addProperty("size", arg0.K);
+			return ret;
+		}
+	}
+
+	/**
+	 * Writes the kept rows by the ids of the job's category table, which
+	 * the project's label store keeps.
+	 */
+	public static class ProjectConfusionMatrixSerializer implements
+		JsonSerializer<SparseConfusionMatrix> {
+
+		@Override
+		public JsonElement serialize(SparseConfusionMatrix matrix, Type type,
+				JsonSerializationContext context) {
+			JsonObject ret = new JsonObject();
+			ret.addProperty("size", matrix.K);
+			ret.addProperty("unseenDiagonal", matrix.unseenDiagonal);
+			ret.addProperty("unseenOffDiagonal", matrix.unseenOffDiagonal);
+			ret.addProperty("unseenRowDenominator", matrix.unseenRowDenominator);
+			JsonArray rows = new JsonArray();
+			for (int r = 0; r < matrix.rowsCount; r++) {
+				Row row = matrix.rows[r];
+				JsonObject jrow = new JsonObject();
+				jrow.addProperty("from", matrix.rowIds[r]);
+				jrow.addProperty("denominator", row.denominator);
+				jrow.addProperty("unseen", row.unseen);
+				jrow.add("to", context.serialize(Arrays.copyOf(row.to, row.size)));
+				jrow.add("value", context.serialize(Arrays.copyOf(row.value, row.size)));
+				rows.add(jrow);
+			}
+			ret.add("rows", rows);
+			return ret;
+		}
+	}
+}
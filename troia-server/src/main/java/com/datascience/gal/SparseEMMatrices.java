@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.util.Arrays;
+
+/**
+ * Matrices of jobs with many categories. A matrix keeps the rows of the
+ * categories that are candidates of the objects of its labels and, in a
+ * row, the cells of the categories of its labels and the diagonal, followed
+ * by one parameter holding the rate of every other cell of the row. The
+ * engine's posteriors are restricted to the candidates, so the steps only
+ * read and write these cells and the cost of a matrix follows the (from, to)
+ * pairs its labels were seen with instead of K^2.
+ *
+ * Rows are estimated with {@link #SMOOTHING} pseudo-labels spread evenly
+ * over the row, so every row the matrix keeps is defined and the rate of
+ * the cells no label was seen in is small but not zero.
+ */
+class SparseEMMatrices extends EMMatrices {
+
+	static final double SMOOTHING = 1.;
+
+	// rows of matrix m are [matrixRowStart[m], matrixRowStart[m + 1]), sorted
+	// by "from"; parameters of row r are [rowStart[r], rowStart[r + 1]), the
+	// cells sorted by "to" and the unseen one last
+	private final int[] matrixRowStart;
+	private final int[] rowStart;
+	private final int[] rowFrom;
+	private final int[] paramTo;
+	// parameter of each label and slot of its object, indexed like the
+	// engine's label slots
+	private final int[] labelCells;
+
+	SparseEMMatrices(DenseEMEngine engine, int count) {
+		super(engine, count);
+		int K = categoriesCount;
+		int[] labelObject = engine.labelObject;
+		int[] slotStart = engine.slotStart;
+		int[] slotCategory = engine.slotCategory;
+
+		// distinct (from, to) keys of each matrix, sorted; every label slot
+		// gives the cell of the label and the diagonal
+		long[] keys = new long[2 * engine.getLabelSlotsStart(labelObject.length)];
+		int[] matrixKeysStart = new int[count + 1];
+		int keysCount = 0;
+		int rowsCount = 0;
+		for (int m = 0; m < count; m++) {
+			int start = keysCount;
+			for (int i = engine.matrixLabelsStart[m]; i < engine.matrixLabelsStart[m + 1]; i++) {
+				int l = engine.matrixLabels[i];
+				int o = labelObject[l];
+				for (int s = slotStart[o]; s < slotStart[o + 1]; s++) {
+					keys[keysCount++] = key(slotCategory[s], engine.labelCategory[l]);
+					keys[keysCount++] = key(slotCategory[s], slotCategory[s]);
+				}
+			}
+			Arrays.sort(keys, start, keysCount);
+			int distinct = start;
+			for (int i = start; i < keysCount; i++) {
+				if (i == start || keys[i] != keys[distinct - 1]) {
+					if (distinct == start || keys[i] / K != keys[distinct - 1] / K)
+						rowsCount++;
+					keys[distinct++] = keys[i];
+				}
+			}
+			keysCount = distinct;
+			matrixKeysStart[m + 1] = keysCount;
+		}
+
+		matrixRowStart = new int[count + 1];
+		rowStart = new int[rowsCount + 1];
+		rowFrom = new int[rowsCount];
+		paramTo = new int[keysCount + rowsCount];
+		int r = 0;
+		int i = 0;
+		for (int m = 0; m < count; m++) {
+			matrixRowStart[m] = r;
+			for (int k = matrixKeysStart[m]; k < matrixKeysStart[m + 1]; k++) {
+				int from = (int) (keys[k] / K);
+				if (k == matrixKeysStart[m] || from != rowFrom[r - 1]) {
+					if (r > 0 && k > matrixKeysStart[m])
+						paramTo[i++] = UNSEEN;
+					rowStart[r] = i;
+					rowFrom[r++] = from;
+				}
+				paramTo[i++] = (int) (keys[k] % K);
+			}
+			if (matrixKeysStart[m + 1] > matrixKeysStart[m])
+				paramTo[i++] = UNSEEN;
+		}
+		matrixRowStart[count] = r;
+		rowStart[rowsCount] = i;
+		allocate(i);
+
+		labelCells = new int[engine.getLabelSlotsStart(labelObject.length)];
+		for (int l = 0; l < labelObject.length; l++) {
+			int o = labelObject[l];
+			int m = engine.labelMatrix[l];
+			for (int s = slotStart[o]; s < slotStart[o + 1]; s++) {
+				labelCells[engine.getLabelSlotsStart(l) + s - slotStart[o]] = find(m, slotCategory[s],
+						engine.labelCategory[l]);
+			}
+		}
+	}
+
+	private long key(int from, int to) {
+		return (long) from * categoriesCount + to;
+	}
+
+	private int findRow(int m, int from) {
+		int r = Arrays.binarySearch(rowFrom, matrixRowStart[m], matrixRowStart[m + 1], from);
+		return r < 0 ? -1 : r;
+	}
+
+	/**
+	 * @return the parameter of the cell, the row's unseen one when the row
+	 *         has no parameter of its own for it, -1 for a row the matrix
+	 *         does not keep
+	 */
+	private int find(int m, int from, int to) {
+		int r = findRow(m, from);
+		if (r < 0)
+			return -1;
+		int unseen = rowStart[r + 1] - 1;
+		if (to == UNSEEN)
+			return unseen;
+		int i = Arrays.binarySearch(paramTo, rowStart[r], unseen, to);
+		return i < 0 ? unseen : i;
+	}
+
+	@Override
+	int cell(int l, int j) {
+		return labelCells[engine.getLabelSlotsStart(l) + j];
+	}
+
+	@Override
+	double get(int m, int from, int to) {
+		int i = find(m, from, to);
+		return i < 0 ? Double.NaN : values[i];
+	}
+
+	@Override
+	int getRowsCount() {
+		return rowFrom.length;
+	}
+
+	@Override
+	int getMatrixRowsStart(int m) {
+		return matrixRowStart[m];
+	}
+
+	@Override
+	int getRowStart(int r) {
+		return rowStart[r];
+	}
+
+	@Override
+	int getRowFrom(int r) {
+		return rowFrom[r];
+	}
+
+	@Override
+	int getTo(int i) {
+		return paramTo[i];
+	}
+
+	@Override
+	int getMultiplicity(int i) {
+		if (paramTo[i] != UNSEEN)
+			return 1;
+		int r = Arrays.binarySearch(rowStart, i + 1);
+		return categoriesCount - (i - rowStart[r - 1]);
+	}
+
+	/**
+	 * The counts of the unseen parameters are ignored, their cells got no
+	 * labels.
+	 */
+	@Override
+	void normalize(int m, double[] counts, double[] target) {
+		double alpha = SMOOTHING / categoriesCount;
+		for (int r = matrixRowStart[m]; r < matrixRowStart[m + 1]; r++) {
+			int unseen = rowStart[r + 1] - 1;
+			double rowDenominator = SMOOTHING;
+			for (int i = rowStart[r]; i < unseen; i++) {
+				rowDenominator += counts[i];
+			}
+			for (int i = rowStart[r]; i < unseen; i++) {
+				target[i] = (counts[i] + alpha) / rowDenominator;
+			}
+			target[unseen] = alpha / rowDenominator;
+		}
+	}
+
+	@Override
+	void read(int m, ConfusionMatrix cm) {
+		int[] storeCategories = engine.storeCategories;
+		String[] names = engine.categoryNames;
+		for (int r = matrixRowStart[m]; r < matrixRowStart[m + 1]; r++) {
+			int from = rowFrom[r];
+			int unseen = rowStart[r + 1] - 1;
+			for (int i = rowStart[r]; i < unseen; i++) {
+				values[i] = cm instanceof SparseConfusionMatrix
+						? ((SparseConfusionMatrix) cm).getErrorRateBatch(storeCategories[from],
+							storeCategories[paramTo[i]])
+						: cm.getErrorRateBatch(names[from], names[paramTo[i]]);
+			}
+			values[unseen] = Double.NaN;
+			normalizeRow(r);
+		}
+	}
+
+	/**
+	 * Sparse matrices get only the kept rows and cells; the rows the engine
+	 * did not keep get the rate of a row without labels.
+	 */
+	@Override
+	void write(int m, ConfusionMatrix cm) {
+		String[] names = engine.categoryNames;
+		if (!(cm instanceof SparseConfusionMatrix)) {
+			cm.empty();
+			for (int r = matrixRowStart[m]; r < matrixRowStart[m + 1]; r++) {
+				int from = rowFrom[r];
+				cm.incrementRowDenominator(names[from], 1.);
+				for (int to = 0; to < categoriesCount; to++) {
+					cm.setErrorRate(names[from], names[to], get(m, from, to));
+				}
+			}
+			cm.normalize();
+			return;
+		}
+		SparseConfusionMatrix sparse = (SparseConfusionMatrix) cm;
+		int[] storeCategories = engine.storeCategories;
+		int[] to = new int[categoriesCount];
+		sparse.reset(1. / categoriesCount);
+		for (int r = matrixRowStart[m]; r < matrixRowStart[m + 1]; r++) {
+			int unseen = rowStart[r + 1] - 1;
+			for (int i = rowStart[r]; i < unseen; i++) {
+				to[i - rowStart[r]] = storeCategories[paramTo[i]];
+			}
+			sparse.setRow(storeCategories[rowFrom[r]], to, values, rowStart[r], unseen - rowStart[r],
+					values[unseen]);
+		}
+	}
+
+	@Override
+	void setDense(double[] dense) {
+		int K = categoriesCount;
+		for (int m = 0; m < count; m++) {
+			for (int r = matrixRowStart[m]; r < matrixRowStart[m + 1]; r++) {
+				int unseen = rowStart[r + 1] - 1;
+				for (int i = rowStart[r]; i < unseen; i++) {
+					values[i] = dense[(m * K + rowFrom[r]) * K + paramTo[i]];
+				}
+				values[unseen] = Double.NaN;
+				normalizeRow(r);
+			}
+		}
+	}
+
+	@Override
+	double[] toDense(double[] parameters) {
+		int K = categoriesCount;
+		double[] result = new double[count * K * K];
+		for (int m = 0; m < count; m++) {
+			for (int r = matrixRowStart[m]; r < matrixRowStart[m + 1]; r++) {
+				for (int i = rowStart[r]; i < rowStart[r + 1] - 1; i++) {
+					result[(m * K + rowFrom[r]) * K + paramTo[i]] = parameters[i];
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	double[] copy(int m) {
+		int K = categoriesCount;
+		double[] result = new double[K * K];
+		Arrays.fill(result, Double.NaN);
+		for (int r = matrixRowStart[m]; r < matrixRowStart[m + 1]; r++) {
+			int offset = rowFrom[r] * K;
+			int unseen = rowStart[r + 1] - 1;
+			Arrays.fill(result, offset, offset + K, values[unseen]);
+			for (int i = rowStart[r]; i < unseen; i++) {
+				result[offset + paramTo[i]] = values[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Cells that were not kept take the unseen rate of their row, rows that
+	 * were not kept start uniform.
+	 */
+	@Override
+	EMMatrices regroup() {
+		SparseEMMatrices result = new SparseEMMatrices(engine, count);
+		for (int m = 0; m < count; m++) {
+			for (int r = result.matrixRowStart[m]; r < result.matrixRowStart[m + 1]; r++) {
+				for (int i = result.rowStart[r]; i < result.rowStart[r + 1]; i++) {
+					result.values[i] = get(m, result.rowFrom[r], result.paramTo[i]);
+				}
+			}
+		}
+		result.normalizeValues();
+		return result;
+	}
+
+	/**
+	 * Scales the rows of <code>values</code> back to distributions after
+	 * they were set cell by cell.
+	 */
+	private void normalizeValues() {
+		for (int r = 0; r < rowFrom.length; r++) {
+			normalizeRow(r);
+		}
+	}
+
+	/**
+	 * Scales row <code>r</code> to a distribution. An undefined unseen rate
+	 * becomes what the cells leave of the row, an undefined cell makes the
+	 * row uniform.
+	 */
+	private void normalizeRow(int r) {
+		int unseen = rowStart[r + 1] - 1;
+		int unseenCells = categoriesCount - (unseen - rowStart[r]);
+		double sum = 0.;
+		for (int i = rowStart[r]; i < unseen; i++) {
+			sum += values[i];
+		}
+		if (Double.isNaN(values[unseen]))
+			values[unseen] = unseenCells == 0 ? 0. : Math.max(0., 1. - sum) / unseenCells;
+		sum += unseenCells * values[unseen];
+		for (int i = rowStart[r]; i <= unseen; i++) {
+			values[i] = Double.isNaN(sum) || sum <= 0. ? 1. / categoriesCount : values[i] / sum;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Names of one kind (workers, objects or categories) of a job and their
+ * ids, given in the order the names were seen. Every name is kept once:
+ * the model refers to it by id or through {@link #canonical(String)}.
+ */
+public class SymbolTable {
+
+	public static final int NONE = -1;
+
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private final List<String> names = new ArrayList<String>();
+
+	public SymbolTable() {
+	}
+
+	public SymbolTable(List<String> names) {
+		for (String name : names)
+			intern(name);
+	}
+
+	/**
+	 * @return the id of the name, given to it if it did not have one
+	 */
+	public int intern(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			ids.put(name, id);
+			names.add(name);
+		}
+		return id;
+	}
+
+	/**
+	 * @return NONE for names without an id
+	 */
+	public int getId(String name) {
+		Integer id = ids.get(name);
+		return id == null ? NONE : id;
+	}
+
+	public String getName(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * @return the instance of the name kept by the table, so that equal
+	 *         names read from different requests are not stored twice
+	 */
+	public String canonical(String name) {
+		return names.get(intern(name));
+	}
+
+	public List<String> getNames() {
+		return Collections.unmodifiableList(names);
+	}
+
+	public int size() {
+		return names.size();
+	}
+}
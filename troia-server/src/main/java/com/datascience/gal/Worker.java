@@ -12,10 +12,10 @@ package com.datascience.gal;
 import java.lang.reflect.Type;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.datascience.core.storages.JSONUtils;
 import com.datascience.utils.Utils;
@@ -24,49 +24,207 @@ import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
 
 public class Worker {
 
 	public static final WorkerDeserializer deserializer = new WorkerDeserializer();
+	public static final ProjectWorkerSerializer projectSerializer = new ProjectWorkerSerializer();
+	// jobs with more categories give their workers sparse confusion matrices
+	public static final int SPARSE_MATRIX_CATEGORIES = 64;
+	// cluster of a worker with a matrix of its own
+	public static final int NO_CLUSTER = -1;
 
-	private final String name;
+	private String name;
 
-	// The error matrix for the worker
+	// The error matrix for the worker, code changing it directly has to
+	// call invalidateLogErrorRates()
 	public ConfusionMatrix cm;
+
+	// cluster of workers whose matrix cm is (see BatchDawidSkene), projects
+	// write the matrix once and the workers with the cluster's id
+	private int cluster = NO_CLUSTER;
 	
 	//The confusion matrix for the worker based on evaluation data
 	private ConfusionMatrix eval_cm;
 
-	// The labels that have been assigned to this object, together with the
-	// workers who
-	// assigned these labels. Serves mainly as a speedup, and intended to be
-	// used in
-	// environments with persistence and caching (especially memcache)
-	private Set<AssignedLabel> labels;
+	// The labels that have been assigned by this worker are kept by the
+	// job's label store (the objects serialize them), a worker that is
+	// not part of a job has its own
+	private transient LabelStore labelStore;
+	private transient int storeId;
+
+	// Log error rates read by the E-step: logErrorRates[to][from], by the
+	// category ids of the label store. A column is computed on its first
+	// use and the table is dropped once the matrix is updated (after an
+	// M-step or a batch of incremental changes), so it is built once per
+	// update. Read commands may fill columns concurrently; a column is
+	// published complete through the atomic array.
+	private transient volatile AtomicReferenceArray<double[]> logErrorRates;
 
 	/**
-	 * @return the labels
+	 * @return live read only view of the labels
 	 */
 	public Set<AssignedLabel> getAssignedLabels() {
-		return labels;
+		return labelStore.getLabelsOfWorker(storeId);
 	}
 
 	private Worker(String name, Collection<AssignedLabel> labels,
 				   ConfusionMatrix cm) {
 		this.name = name;
-		this.labels = new HashSet<AssignedLabel>(labels);
+		this.labelStore = new LabelStore();
+		this.storeId = labelStore.workerId(name);
+		if (labels != null) {
+			for (AssignedLabel al : labels)
+				addAssignedLabel(al);
+		}
+		this.cm = cm;
+	}
+
+	/**
+	 * Worker read from a project: its ids are the ones of the project's
+	 * label store, which is given to {@link #attach(LabelStore)}.
+	 */
+	private Worker(int storeId, ConfusionMatrix cm) {
+		this.storeId = storeId;
 		this.cm = cm;
 	}
 
 	public Worker(String name, Set<Category> categories) {
+		this(name, categories, new LabelStore());
+	}
+
+	Worker(String name, Set<Category> categories, LabelStore labelStore) {
 		this.name = name;
-		this.cm = new MultinomialConfusionMatrix(categories);
-		this.labels = new HashSet<AssignedLabel>();
+		this.cm = createMatrix(categories, labelStore);
+		this.labelStore = labelStore;
+		this.storeId = labelStore.workerId(name);
+	}
+
+	/**
+	 * @return the initial matrix of a new worker of a job
+	 */
+	static ConfusionMatrix createMatrix(Collection<Category> categories, LabelStore labelStore) {
+		return categories.size() > SPARSE_MATRIX_CATEGORIES
+				? new SparseConfusionMatrix(categories, labelStore.getCategoryNames())
+				: new DenseConfusionMatrix(categories, labelStore.getCategoryNames());
+	}
+
+	/**
+	 * @return copy of a matrix of a job's worker or cluster
+	 */
+	static ConfusionMatrix copyMatrix(ConfusionMatrix cm) {
+		if (cm instanceof SparseConfusionMatrix)
+			return ((SparseConfusionMatrix) cm).copy();
+		if (cm instanceof DenseConfusionMatrix)
+			return ((DenseConfusionMatrix) cm).copy();
+		throw new IllegalArgumentException("Cannot copy a " + cm.getClass().getSimpleName());
+	}
 
+	/**
+	 * @return the matrix with the category ids of the store
+	 */
+	static ConfusionMatrix attachMatrix(ConfusionMatrix cm, LabelStore store) {
+		// the categories of the matrix are shared by the job's workers
+		if (cm instanceof SparseConfusionMatrix)
+			return ((SparseConfusionMatrix) cm).withCategories(store.getCategoryNames());
+		if (cm instanceof DenseConfusionMatrix)
+			return ((DenseConfusionMatrix) cm).withCategories(store.getCategoryNames());
+		return cm;
+	}
+
+	/**
+	 * Reads a matrix written by a worker or a project.
+	 */
+	static ConfusionMatrix deserializeMatrix(JsonObject cm, JsonDeserializationContext context) {
+		// the map and the dense matrix are written in the same format
+		return context.deserialize(cm, cm.has("unseenOffDiagonal")
+				? JSONUtils.sparseConfusionMatrixType
+				: JSONUtils.denseConfusionMatrixType);
+	}
+
+	/**
+	 * @return cluster whose matrix the worker shares or {@link #NO_CLUSTER}
+	 */
+	public int getCluster() {
+		return cluster;
+	}
+
+	/**
+	 * Makes the worker use <code>cm</code>, the matrix of
+	 * <code>cluster</code> or, with {@link #NO_CLUSTER}, its own.
+	 */
+	void setMatrix(ConfusionMatrix cm, int cluster) {
+		this.cm = cm;
+		this.cluster = cluster;
+		invalidateLogErrorRates();
+	}
+
+	/**
+	 * Moves the labels to the job's store, if they are not there already,
+	 * and makes the worker use the store's name and ids.
+	 */
+	void attach(LabelStore store) {
+		if (store == labelStore)
+			return;
+		if (labelStore != null) {
+			for (AssignedLabel al : getAssignedLabels())
+				store.add(al);
+			storeId = store.workerId(name);
+		}
+		labelStore = store;
+		name = store.getWorkerName(storeId);
+		// the matrix of a clustered worker is set by its job
+		if (cluster == NO_CLUSTER)
+			cm = attachMatrix(cm, store);
+		invalidateLogErrorRates();
+	}
+
+	/**
+	 * @return id of the worker in the label store
+	 */
+	public int getStoreId() {
+		return storeId;
 	}
 
 	public void empty() {
 		cm.empty();
+		invalidateLogErrorRates();
+	}
+
+	/**
+	 * Logs of the error rates of labeling an object as category
+	 * <code>to</code>, indexed by the category ids of the label store:
+	 * NaN where the rate is undefined and -infinity where it is zero. The
+	 * rates are the ones <code>ds</code> uses. The array is shared until the
+	 * matrix changes and must not be modified.
+	 */
+	double[] getLogErrorRates(DawidSkene ds, int to) {
+		int K = labelStore.getCategoriesCount();
+		AtomicReferenceArray<double[]> table = logErrorRates;
+		if (table == null || table.length() != K) {
+			table = new AtomicReferenceArray<double[]>(K);
+			logErrorRates = table;
+		}
+		double[] column = table.get(to);
+		if (column == null) {
+			column = new double[K];
+			String categoryTo = labelStore.getCategoryName(to);
+			for (int from = 0; from < K; from++) {
+				column[from] = Math.log(ds.getErrorRateForWorker(this,
+						labelStore.getCategoryName(from), categoryTo));
+			}
+			table.set(to, column);
+		}
+		return column;
+	}
+
+	/**
+	 * Drops the tables of {@link #getLogErrorRates(DawidSkene, int)}.
+	 */
+	void invalidateLogErrorRates() {
+		logErrorRates = null;
 	}
 
 	/**
@@ -77,6 +235,7 @@ public class Worker {
 	 * @return
 	 */
 	public Map<String, Double> getPrior(Collection<String> categories){
+		Set<AssignedLabel> labels = getAssignedLabels();
 		int sum = labels.size();
 		HashMap<String, Double> worker_prior = new HashMap<String, Double>();
 		for (String category : categories) {
@@ -94,10 +253,17 @@ public class Worker {
 		return worker_prior;
 	}
 	
+	/**
+	 * Like changes of {@link #cm}, the caller calls
+	 * {@link #invalidateLogErrorRates()} once it is done updating.
+	 */
 	public void addError(String source, String destination, double error) {
 		cm.addError(source, destination, error);
 	}
 
+	/**
+	 * @see #addError(String, String, double)
+	 */
 	public void removeError(String source, String destination, double error) {
 		cm.removeError(source, destination, error);
 	}
@@ -111,11 +277,12 @@ public class Worker {
 			cm.normalizeLaplacean();
 			break;
 		}
+		invalidateLogErrorRates();
 	}
 
 	public void addAssignedLabel(AssignedLabel al) {
 		if (al.getWorkerName().equals(name)) {
-			labels.add(al);
+			labelStore.add(al);
 		}
 	}
 
@@ -140,7 +307,7 @@ public class Worker {
 	
 	public void computeEvalConfusionMatrix(Map<String, CorrectLabel> evalData, Collection<Category> categories) {
 		eval_cm = new MultinomialConfusionMatrix(categories, new HashMap<CategoryPair, Double>());
-		for (AssignedLabel l : labels) {
+		for (AssignedLabel l : getAssignedLabels()) {
 			String objectName = l.getObjectName();
 			CorrectLabel d = evalData.get(objectName);
 			if (d != null){
@@ -158,7 +325,7 @@ public class Worker {
 	
 	private int countGoldTests(Map<String, Datum> objects){
 		int result = 0;
-		for (AssignedLabel al : labels) {
+		for (AssignedLabel al : getAssignedLabels()) {
 			String name = al.getObjectName();
 			Datum d = objects.get(name);
 			if (d.isGold())
@@ -217,7 +384,7 @@ public class Worker {
 				return false;
 		} else if (!name.equals(other.name))
 			return false;
-		if(!this.labels.equals(other.labels)) {
+		if(!getAssignedLabels().equals(other.getAssignedLabels())) {
 			return false;
 		}
 		if (!this.cm.equals(other.cm)) {
@@ -238,15 +405,42 @@ public class Worker {
 		public Worker deserialize(JsonElement json, Type type,
 								  JsonDeserializationContext context) throws JsonParseException {
 			JsonObject jobject = (JsonObject) json;
-			String name = jobject.get("name").getAsString();
-			System.out.println(context);
-			ConfusionMatrix conf = context.deserialize(jobject.get("cm"),
-								   JSONUtils.confusionMatrixType);
-			Collection<AssignedLabel> labels = context.deserialize(
-												   jobject.get("labels"), JSONUtils.assignedLabelSetType);
-
-			return new Worker(name, labels, conf);
+			ConfusionMatrix conf = jobject.has("cm")
+					? deserializeMatrix(jobject.getAsJsonObject("cm"), context) : null;
+			Worker result;
+			if (jobject.has("id")) {
+				result = new Worker(jobject.get("id").getAsInt(), conf);
+			} else {
+				String name = jobject.get("name").getAsString();
+				// only older serialized jobs keep the labels in workers too
+				Collection<AssignedLabel> labels = context.deserialize(
+													   jobject.get("labels"), JSONUtils.assignedLabelSetType);
+				result = new Worker(name, labels, conf);
+			}
+			if (jobject.has("cluster"))
+				result.cluster = jobject.get("cluster").getAsInt();
+			return result;
 		}
 
 	}
+
+	/**
+	 * Writes a worker of a project by the ids of its label store, which
+	 * keeps the names and the labels. A clustered worker is written with
+	 * the id of its cluster, whose matrix the project writes.
+	 */
+	public static class ProjectWorkerSerializer implements JsonSerializer<Worker> {
+
+		@Override
+		public JsonElement serialize(Worker worker, Type type,
+				JsonSerializationContext context) {
+			JsonObject ret = new JsonObject();
+			ret.addProperty("id", worker.storeId);
+			if (worker.cluster == NO_CLUSTER)
+				ret.add("cm", context.serialize(worker.cm));
+			else
+				ret.addProperty("cluster", worker.cluster);
+			return ret;
+		}
+	}
 }
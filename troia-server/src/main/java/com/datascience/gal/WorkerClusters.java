@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal;
+
+/**
+ * Long-tail workers sharing the matrices of clusters, see
+ * {@link Worker#getCluster()}. The engine keeps the personal matrices
+ * first, followed by the ones of the clusters. The clusters are made and
+ * dissolved by the job (see {@link BatchDawidSkene}); here the clustered
+ * workers only move between them.
+ */
+class WorkerClusters {
+
+	private final DenseEMEngine engine;
+	private final int[] clusteredWorkers;
+	private final int personalMatricesCount;
+	private int reassignedWorkers;
+
+	WorkerClusters(DenseEMEngine engine, int[] clusteredWorkers) {
+		this.engine = engine;
+		this.clusteredWorkers = clusteredWorkers;
+		personalMatricesCount = engine.personalMatricesCount;
+	}
+
+	/**
+	 * @see DenseEMEngine#getReassignedWorkers()
+	 */
+	int getReassignedWorkers() {
+		return reassignedWorkers;
+	}
+
+	/**
+	 * Moves every clustered worker to the cluster whose matrix gives its
+	 * labels the highest likelihood, a worker stays on ties.
+	 */
+	void reassign() {
+		int[] matrixOf = engine.matrixOf;
+		int moved = 0;
+		for (int w : clusteredWorkers) {
+			int best = matrixOf[w];
+			double bestScore = getScore(w, best);
+			for (int m = personalMatricesCount; m < engine.matrices.count; m++) {
+				double score = getScore(w, m);
+				if (score > bestScore) {
+					best = m;
+					bestScore = score;
+				}
+			}
+			if (best == matrixOf[w])
+				continue;
+			matrixOf[w] = best;
+			moved++;
+			engine.unfreezeWorkerObjects(w);
+		}
+		reassignedWorkers = moved;
+		if (moved > 0) {
+			engine.groupLabelsByMatrix(engine.matrices.count);
+			engine.matrices = engine.matrices.regroup();
+			engine.matricesChanged();
+		}
+	}
+
+	/**
+	 * Log-likelihood of the labels of worker <code>w</code> given matrix
+	 * <code>m</code>, with the classes of the objects taken from the
+	 * posteriors. A row the matrix does not define (all of them for a
+	 * cluster that lost its workers) labels uniformly.
+	 */
+	private double getScore(int w, int m) {
+		int K = engine.categoriesCount;
+		EMMatrices matrices = engine.matrices;
+		double[] posteriors = engine.posteriors;
+		double score = 0.;
+		for (int i = engine.workerLabelsStart[w]; i < engine.workerLabelsStart[w + 1]; i++) {
+			int l = engine.workerLabels[i];
+			int o = engine.labelObject[l];
+			double probability = 0.;
+			for (int s = engine.slotStart[o]; s < engine.slotStart[o + 1]; s++) {
+				double evidence = matrices.get(m, engine.slotCategory[s], engine.labelCategory[l]);
+				probability += posteriors[s] * (Double.isNaN(evidence) ? 1. / K : evidence);
+			}
+			score += Math.log(probability);
+		}
+		return score;
+	}
+}
@@ -10,6 +10,7 @@ import com.datascience.gal.CategoryValue;
 import com.datascience.gal.CorrectLabel;
 import com.datascience.gal.Datum;
 import com.datascience.gal.decision.ILabelProbabilityDistributionCalculator;
+import com.datascience.utils.Utils;
 
 /**
  *
@@ -163,7 +164,7 @@ public class DatumCommands {
 			Datum datum = ParamChecking.datum(project, datumId);
 			Collection<CategoryValue> cp = new ArrayList<CategoryValue>();
 			for (Entry<String, Double> e : labelProbabilityDistributionCalculator.calculateDistribution(datum, project).entrySet()){
-				cp.add(new CategoryValue(e.getKey(), e.getValue()));
+				cp.add(new CategoryValue(e.getKey(), Utils.roundResult(e.getValue())));
 			}
 			setResult(cp);
 		}
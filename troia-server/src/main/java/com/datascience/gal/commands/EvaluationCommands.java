@@ -9,6 +9,7 @@ import com.datascience.gal.AbstractDawidSkene;
 import com.datascience.gal.DatumValue;
 import com.datascience.gal.Quality;
 import com.datascience.gal.evaluation.DataEvaluator;
+import com.datascience.utils.Utils;
 
 /**
  *
@@ -29,7 +30,7 @@ public class EvaluationCommands {
 		protected void realExecute() {
 			Collection<DatumValue> cp = new ArrayList<DatumValue>();
 			for (Entry<String, Double> e : dataEvaluator.evaluate(project).entrySet()){
-				cp.add(new DatumValue(e.getKey(), e.getValue()));
+				cp.add(new DatumValue(e.getKey(), Utils.roundResult(e.getValue())));
 			}
 			setResult(cp);
 		}
@@ -48,7 +49,7 @@ public class EvaluationCommands {
 		protected void realExecute() {
 			Collection<DatumValue> cp = new ArrayList<DatumValue>();
 			for (Entry<String, Double> e : Quality.fromCosts(project, dataEvaluator.evaluate(project)).entrySet()){
-				cp.add(new DatumValue(e.getKey(), e.getValue()));
+				cp.add(new DatumValue(e.getKey(), Utils.roundResult(e.getValue())));
 			}
 			setResult(cp);
 		}
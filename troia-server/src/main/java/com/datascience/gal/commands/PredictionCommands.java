@@ -1,34 +1,296 @@
 package com.datascience.gal.commands;
 
+import com.datascience.core.storages.ICheckpointStorage;
 import com.datascience.executor.JobCommand;
 import com.datascience.gal.*;
 import com.datascience.gal.decision.*;
+import com.datascience.gal.distributed.ShardServers;
+import com.datascience.utils.Utils;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Stopwatch;
 
 /**
  *
  * @author artur
  */
 public class PredictionCommands {
+
+	static Logger logger = Logger.getLogger(PredictionCommands.class);
 	
 	static public class Compute extends JobCommand<Object, AbstractDawidSkene> {
 
 		private int iterations;
+		private Double batchFraction;
+		private ICheckpointStorage checkpointStorage;
+		private long checkpointPeriod;
+		private boolean resume;
+		private ShardServers shardServers;
+		private Boolean distributed;
 		
 		public Compute(int iterations){
+			this(iterations, null);
+		}
+
+		/**
+		 * @param batchFraction if not null, the mini-batch fraction of this
+		 *        run only; the job's settings are not changed
+		 */
+		public Compute(int iterations, Double batchFraction){
 			super(true);
 			this.iterations = iterations;
+			this.batchFraction = batchFraction;
+		}
+
+		/**
+		 * Continues the computation of the job checkpointed in the storage
+		 * before a restart.
+		 */
+		public static Compute resume(ICheckpointStorage storage, long periodInMillis){
+			Compute compute = new Compute(0);
+			compute.setCheckpointStorage(storage, periodInMillis);
+			compute.resume = true;
+			return compute;
+		}
+
+		/**
+		 * Batch jobs are checkpointed when computation starts and then at
+		 * most once per period. The checkpoint is removed when it ends.
+		 */
+		public void setCheckpointStorage(ICheckpointStorage storage, long periodInMillis){
+			checkpointStorage = storage;
+			checkpointPeriod = periodInMillis;
 		}
 		
+		/**
+		 * @param servers shard servers of a coordinator, null if the server
+		 *        computes only in its own process
+		 * @param distributed whether the computation runs on the shard
+		 *        servers, null to decide by the number of labels of the job
+		 *        (see {@link ShardServers#isDistributedByDefault(long)})
+		 */
+		public void setShardServers(ShardServers servers, Boolean distributed){
+			shardServers = servers;
+			this.distributed = distributed;
+		}
+
+		/**
+		 * @return shard servers the computation runs on, null to run it here
+		 */
+		private ShardServers getShardServers(){
+			if (Boolean.FALSE.equals(distributed))
+				return null;
+			boolean requested = Boolean.TRUE.equals(distributed);
+			if (shardServers == null) {
+				if (requested)
+					throw new IllegalArgumentException("The server has no shard servers to compute on");
+				return null;
+			}
+			if (!(project instanceof BatchDawidSkene)) {
+				if (requested)
+					throw new IllegalArgumentException("Only batch jobs are computed on shard servers");
+				return null;
+			}
+			if (requested || shardServers.isDistributedByDefault(
+					((BatchDawidSkene) project).getNumberOfAssignedLabels()))
+				return shardServers;
+			return null;
+		}
+
+		/**
+		 * A cancelled computation stops after the iteration it is running,
+		 * leaving the job with that iteration's estimates.
+		 */
+		@Override
+		public boolean isCancellable() {
+			return true;
+		}
+
+		@Override
+		protected void realExecute() throws Exception {
+			EstimationSettings settings = project.getEstimationSettings().copy();
+			if (batchFraction != null)
+				settings.setMiniBatchFraction(batchFraction);
+			final BatchDawidSkene batch = checkpointStorage != null && project instanceof BatchDawidSkene
+					? (BatchDawidSkene) project : null;
+			if (batch == null) {
+				compute(null, settings, 0, iterations);
+				return;
+			}
+			int done = 0;
+			int total = iterations;
+			if (resume) {
+				EstimationCheckpoint checkpoint = checkpointStorage.get(jobId);
+				if (checkpoint == null) {
+					setResult("Nothing to resume");
+					return;
+				}
+				batch.restoreCheckpoint(checkpoint);
+				done = checkpoint.getIteration();
+				total = checkpoint.getMaxIterations();
+				if (checkpoint.getSettings() != null)
+					settings = checkpoint.getSettings();
+			}
+			try {
+				saveCheckpoint(batch, settings, done, total);
+				compute(batch, settings, done, total);
+			} finally {
+				try {
+					checkpointStorage.remove(jobId);
+				} catch (Exception ex) {
+					logger.error("Can't remove checkpoint of " + jobId, ex);
+				}
+			}
+		}
+
+		private void saveCheckpoint(BatchDawidSkene batch, EstimationSettings settings,
+				int done, int total) throws Exception {
+			EstimationCheckpoint checkpoint = batch.createCheckpoint(done, total);
+			checkpoint.setCommandId(getStatusId());
+			checkpoint.setSettings(settings);
+			checkpointStorage.save(jobId, checkpoint);
+		}
+
+		/**
+		 * Runs the iterations after the first done ones, reporting them as
+		 * part of all total ones.
+		 */
+		private void compute(final BatchDawidSkene batch, final EstimationSettings settings,
+				final int done, final int total) {
+			if (isCancelled()) {
+				setResult("Computation cancelled before it started");
+				return;
+			}
+			ShardServers servers = getShardServers();
+			final Stopwatch stopwatch = new Stopwatch().start();
+			final Stopwatch sinceCheckpoint = new Stopwatch().start();
+			final ComputeProgress[] last = new ComputeProgress[1];
+			project.setEstimationMonitor(new EstimationMonitor() {
+				@Override
+				public boolean iterationDone(int iteration, int maxIterations,
+						double logLikelihood, double logLikelihoodChange) {
+					last[0] = new ComputeProgress(done + iteration, total, logLikelihood,
+							logLikelihoodChange, stopwatch.elapsedTime(TimeUnit.MILLISECONDS) / 1000.);
+					reportProgress(last[0]);
+					if (batch != null && iteration < maxIterations
+							&& sinceCheckpoint.elapsedTime(TimeUnit.MILLISECONDS) >= checkpointPeriod) {
+						// a failed checkpoint must not fail the computation
+						try {
+							saveCheckpoint(batch, settings, done + iteration, total);
+						} catch (Exception ex) {
+							logger.error("Can't checkpoint " + jobId, ex);
+						}
+						sinceCheckpoint.reset().start();
+					}
+					return !isCancelled();
+				}
+			});
+			if (servers != null)
+				((BatchDawidSkene) project).setShardServers(servers);
+			try {
+				project.estimate(total - done, DawidSkene.DEFAULT_EPSILON, settings);
+			} finally {
+				project.setEstimationMonitor(null);
+				if (servers != null)
+					((BatchDawidSkene) project).setShardServers(null);
+			}
+			if (isCancelled() && last[0] != null && last[0].getIteration() < total)
+				setResult("Computation cancelled after " + last[0].getIteration() + " iterations");
+			else
+				setResult("Computation done");
+		}
+	}
+
+	/**
+	 * Progress of a running {@link Compute}, published in its status.
+	 */
+	static public class ComputeProgress {
+
+		private int iteration;
+		private int maxIterations;
+		private double logLikelihood;
+		// null after the first iteration
+		private Double logLikelihoodChange;
+		private double elapsedTime;
+
+		public ComputeProgress(int iteration, int maxIterations, double logLikelihood,
+				double logLikelihoodChange, double elapsedTime) {
+			this.iteration = iteration;
+			this.maxIterations = maxIterations;
+			this.logLikelihood = logLikelihood;
+			this.logLikelihoodChange = Double.isNaN(logLikelihoodChange) ? null : logLikelihoodChange;
+			this.elapsedTime = elapsedTime;
+		}
+
+		public int getIteration() {
+			return iteration;
+		}
+
+		public int getMaxIterations() {
+			return maxIterations;
+		}
+
+		public double getLogLikelihood() {
+			return logLikelihood;
+		}
+
+		public Double getLogLikelihoodChange() {
+			return logLikelihoodChange;
+		}
+
+		/**
+		 * @return seconds since the computation started
+		 */
+		public double getElapsedTime() {
+			return elapsedTime;
+		}
+	}
+
+	static public class GetLogLikelihoods extends JobCommand<List<Double>, AbstractDawidSkene> {
+
+		public GetLogLikelihoods(){
+			super(false);
+		}
+
 		@Override
 		protected void realExecute() {
-			project.estimate(iterations);
-			setResult("Computation done");
+			setResult(project.getLogLikelihoods());
 		}
 	}
 	
+	static public class GetActiveObjects extends JobCommand<List<Integer>, AbstractDawidSkene> {
+
+		public GetActiveObjects(){
+			super(false);
+		}
+
+		@Override
+		protected void realExecute() {
+			if (!(project instanceof BatchDawidSkene))
+				throw new IllegalArgumentException("Only batch jobs report active objects");
+			setResult(((BatchDawidSkene) project).getActiveObjects());
+		}
+	}
+
+	static public class GetLocalIterations extends JobCommand<Map<String, Long>, AbstractDawidSkene> {
+
+		public GetLocalIterations(){
+			super(false);
+		}
+
+		@Override
+		protected void realExecute() {
+			if (!(project instanceof IncrementalDawidSkene))
+				throw new IllegalArgumentException("Only incremental jobs count local iterations");
+			setResult(((IncrementalDawidSkene) project).getLocalIterationCounts());
+		}
+	}
+
 	static public class GetPredictedCategory extends JobCommand<Collection<DatumClassification>, AbstractDawidSkene> {
 		
 		private DecisionEngine decisionEngine;
@@ -63,7 +325,7 @@ public class PredictionCommands {
 		protected void realExecute() {
 			Collection<DatumValue> cp = new ArrayList<DatumValue>();
 			for (Entry<String, Double> e : decisionEngine.estimateMissclassificationCosts(project).entrySet()){
-				cp.add(new DatumValue(e.getKey(), e.getValue()));
+				cp.add(new DatumValue(e.getKey(), Utils.roundResult(e.getValue())));
 			}
 			setResult(cp);
 		}
@@ -83,7 +345,7 @@ public class PredictionCommands {
 		protected void realExecute() {
 			Collection<DatumValue> cp = new ArrayList<DatumValue>();
 			for (Entry<String, Double> e : Quality.fromCosts(project, decisionEngine.estimateMissclassificationCosts(project)).entrySet()){
-				cp.add(new DatumValue(e.getKey(), e.getValue()));
+				cp.add(new DatumValue(e.getKey(), Utils.roundResult(e.getValue())));
 			}
 			setResult(cp);
 		}
@@ -151,7 +413,7 @@ public class PredictionCommands {
 
 						WorkerQualityCalculator wqc = new WorkerEstimator(
 								LabelProbabilityDistributionCostCalculators.get(lc));
-						line.add(Quality.fromCost(project, wqc.getCost(project, w)));
+						line.add(Utils.roundResult(Quality.fromCost(project, wqc.getCost(project, w))));
 					}
 					ret.add(line);
 				}
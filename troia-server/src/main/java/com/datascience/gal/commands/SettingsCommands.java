@@ -0,0 +1,39 @@
+package com.datascience.gal.commands;
+
+import com.datascience.executor.JobCommand;
+import com.datascience.gal.AbstractDawidSkene;
+import com.datascience.gal.EstimationSettings;
+
+/**
+ * Reading and changing per job estimation settings
+ */
+public class SettingsCommands {
+
+	static public class SetSettings extends JobCommand<Object, AbstractDawidSkene> {
+
+		private EstimationSettings settings;
+
+		public SetSettings(EstimationSettings settings){
+			super(true);
+			this.settings = settings;
+		}
+
+		@Override
+		protected void realExecute() {
+			project.setEstimationSettings(settings);
+			setResult("Settings set");
+		}
+	}
+
+	static public class GetSettings extends JobCommand<EstimationSettings, AbstractDawidSkene> {
+
+		public GetSettings(){
+			super(false);
+		}
+
+		@Override
+		protected void realExecute() {
+			setResult(project.getEstimationSettings());
+		}
+	}
+}
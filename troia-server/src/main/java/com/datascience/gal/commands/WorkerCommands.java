@@ -9,6 +9,7 @@ import java.util.Map.Entry;
 import com.datascience.executor.JobCommand;
 import com.datascience.gal.*;
 import com.datascience.gal.decision.WorkerQualityCalculator;
+import com.datascience.utils.Utils;
 
 /**
  *
@@ -67,7 +68,7 @@ public class WorkerCommands {
 				result.put(w.getName(), wqc.getCost(project, w));
 			}
 			for (Entry<String, Double> e : Quality.fromCosts(project, result).entrySet()){
-				wq.add(new WorkerValue(e.getKey(), e.getValue()));
+				wq.add(new WorkerValue(e.getKey(), Utils.roundResult(e.getValue())));
 			}
 			setResult(wq);
 		}
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal.distributed;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.datascience.gal.AssignedLabel;
+import com.datascience.gal.Category;
+import com.datascience.gal.DawidSkene;
+import com.datascience.gal.Worker;
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+
+/**
+ * Estimation of a job held by this process on {@link ShardServers}, run by
+ * {@link com.datascience.gal.BatchDawidSkene} when a compute is routed to
+ * them. The worker matrices and the priors of the job are sent to a new
+ * {@link EMCoordinator}, which then runs the iterations. The shard servers
+ * keep the labels of the job between computes, so only the buckets of
+ * objects whose labels changed since the last one are sent again.
+ *
+ * The job itself (its labels included) stays in this process: what moves
+ * to the shard servers is the estimation engine with its per label arrays
+ * and the work of the iterations.
+ *
+ * A shard server that fails or times out is left out: its buckets are
+ * sent to the remaining ones, which continue from the matrices and priors
+ * of the last completed iteration. Only the order of the sums changes, so
+ * the estimates are those of an estimation without the failure. The run
+ * fails with an {@link IllegalStateException} when no shard server is
+ * left.
+ */
+public class DistributedRun {
+
+	private final ShardServers servers;
+	private final List<InetSocketAddress> available;
+	private final Collection<Category> categories;
+	private final DawidSkene ds;
+	private EMCoordinator coordinator;
+	private int iterations;
+	private boolean failed;
+
+	/**
+	 * @param categories categories of the job, their priors are fixed if
+	 *            given for all of them
+	 * @param priors priors the estimation starts from
+	 */
+	public DistributedRun(ShardServers servers, Collection<Category> categories,
+			Map<String, Double> priors, DawidSkene ds) {
+		this.servers = servers;
+		this.available = new ArrayList<InetSocketAddress>(servers.getAddresses());
+		this.categories = categories;
+		this.ds = ds;
+		coordinator = start(priors, null);
+	}
+
+	/**
+	 * @param previous coordinator whose matrices and priors the new one
+	 *            starts from, null for the ones of the job
+	 */
+	private EMCoordinator start(Map<String, Double> priors, EMCoordinator previous) {
+		while (true) {
+			if (available.isEmpty()) {
+				failed = true;
+				throw new IllegalStateException("No shard server is left to compute on");
+			}
+			try {
+				EMCoordinator result = new EMCoordinator(ds.getId(), categories, available,
+						servers.getTimeoutMillis(), servers.getSecret());
+				load(result, priors, previous);
+				result.prepare();
+				return result;
+			} catch (ShardException ex) {
+				// the coordinator closed its connections
+				drop(ex);
+			} catch (IOException ex) {
+				failed = true;
+				throw new IllegalStateException(ex);
+			}
+		}
+	}
+
+	private void load(EMCoordinator target, Map<String, Double> priors, EMCoordinator previous)
+			throws IOException {
+		long sent = target.loadLabels(Iterables.concat(Iterables.transform(ds.getWorkers(),
+				new Function<Worker, Iterable<AssignedLabel>>() {
+					@Override
+					public Iterable<AssignedLabel> apply(Worker worker) {
+						return worker.getAssignedLabels();
+					}
+				})), ds.getGoldDatums());
+		logger.info("Sent " + sent + " labels of job " + ds.getId() + " to "
+				+ available.size() + " shard servers");
+
+		List<String> categoryNames = target.getCategoryNames();
+		int K = categoryNames.size();
+		for (Worker w : ds.getWorkers()) {
+			double[] rates;
+			if (previous != null) {
+				rates = previous.getErrorRates(w.getName());
+			} else {
+				rates = new double[K * K];
+				for (int from = 0; from < K; from++) {
+					for (int to = 0; to < K; to++) {
+						rates[from * K + to] = w.getErrorRateBatch(categoryNames.get(from),
+								categoryNames.get(to));
+					}
+				}
+			}
+			target.setErrorRates(w.getName(), rates);
+		}
+		target.setPriors(previous != null ? previous.getCategoryPriors() : priors);
+	}
+
+	private void drop(ShardException ex) {
+		logger.warn("Leaving out shard server " + ex.getAddress() + ", "
+				+ (available.size() - 1) + " left", ex);
+		available.remove(ex.getAddress());
+	}
+
+	/**
+	 * @return the log-likelihood computed by the E-step
+	 */
+	public double iterate() {
+		while (true) {
+			try {
+				double result = coordinator.iterate();
+				iterations++;
+				return result;
+			} catch (ShardException ex) {
+				drop(ex);
+				coordinator = start(null, coordinator);
+			} catch (IOException ex) {
+				failed = true;
+				throw new IllegalStateException(ex);
+			}
+		}
+	}
+
+	/**
+	 * @return number of completed iterations
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return whether the run ended because no shard server was left
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public List<String> getCategoryNames() {
+		return coordinator.getCategoryNames();
+	}
+
+	public Map<String, Double> getCategoryPriors() {
+		return coordinator.getCategoryPriors();
+	}
+
+	/**
+	 * @see EMCoordinator#getErrorRates(String)
+	 */
+	public double[] getErrorRates(String workerName) {
+		return coordinator.getErrorRates(workerName);
+	}
+
+	/**
+	 * Streams the category probabilities of all the objects. If a shard
+	 * server fails meanwhile, the remaining ones compute the posteriors
+	 * again from the current matrices and all of them are streamed again.
+	 */
+	public void readObjectProbabilities(EMCoordinator.ObjectProbabilitiesHandler handler) {
+		while (true) {
+			try {
+				coordinator.readObjectProbabilities(handler);
+				return;
+			} catch (ShardException ex) {
+				drop(ex);
+				recomputePosteriors();
+			} catch (IOException ex) {
+				failed = true;
+				throw new IllegalStateException(ex);
+			}
+		}
+	}
+
+	/**
+	 * Moves the current matrices and priors to the remaining shard servers
+	 * and makes them compute the posteriors from them with an E-step. The
+	 * M-step of that iteration is dropped.
+	 */
+	private void recomputePosteriors() {
+		EMCoordinator last = coordinator;
+		while (true) {
+			coordinator = start(null, last);
+			try {
+				coordinator.iterate();
+				for (String workerName : last.getWorkerNames())
+					coordinator.setErrorRates(workerName, last.getErrorRates(workerName));
+				coordinator.setPriors(last.getCategoryPriors());
+				return;
+			} catch (ShardException ex) {
+				drop(ex);
+			} catch (IOException ex) {
+				failed = true;
+				throw new IllegalStateException(ex);
+			}
+		}
+	}
+
+	/**
+	 * Ends the jobs of the shard servers, which wait for the next one.
+	 */
+	public void close() {
+		try {
+			coordinator.close();
+		} catch (IOException ex) {
+			logger.warn("Closing the shard servers", ex);
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(DistributedRun.class);
+}
@@ -0,0 +1,690 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.datascience.gal.AssignedLabel;
+import com.datascience.gal.Category;
+import com.datascience.gal.CorrectLabel;
+import com.datascience.gal.DawidSkene;
+import com.datascience.gal.DenseEMEngine;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.math.DoubleMath;
+
+/**
+ * Runs batch EM of a nominal job whose labels are spread over several
+ * {@link ShardServer} processes. The buckets of objects (see
+ * {@link ShardProtocol}) are assigned to the shards by rendezvous hashing
+ * of their addresses, so all the labels of an object end up in the same
+ * shard and leaving out a shard moves only its buckets. The shard servers
+ * keep the labels of a job between estimations and
+ * {@link #loadLabels(Iterable, Collection)} sends only the buckets they do
+ * not hold yet. The coordinator keeps the worker matrices, the priors and
+ * a fingerprint per bucket; the labels and posteriors stay in the shards.
+ *
+ * Every iteration is the map-reduce of
+ * {@link DenseEMEngine#setShards(int)} with a shard per process. The non
+ * zero cells of the matrices of its workers and the priors are sent to
+ * each shard, which computes its posteriors and returns their sums; these
+ * are reduced into the new priors. The priors are sent back and each shard
+ * returns the non zero expected label counts of its workers, which are
+ * reduced into the new matrices. Shards compute concurrently and are
+ * always reduced in the order they were given in, so results are
+ * reproducible.
+ *
+ * A shard that fails or does not answer within the timeout makes the
+ * methods throw a {@link ShardException} and the coordinator unusable; the
+ * matrices and priors stay the ones of the last completed iteration.
+ */
+public class EMCoordinator {
+
+	private final String[] categoryNames;
+	private final Map<String, Integer> categoryIndex = new HashMap<String, Integer>();
+	private final boolean fixedPriors;
+	private double[] priors;
+
+	private final Map<String, Integer> workerIndex = new HashMap<String, Integer>();
+	private final List<String> workerNames = new ArrayList<String>();
+	// row-major K * K matrix of each worker
+	private List<double[]> matrices = new ArrayList<double[]>();
+
+	private final Shard[] shards;
+	// shard of each bucket
+	private final int[] bucketShards;
+	private boolean prepared;
+	private List<Double> logLikelihoods = new ArrayList<Double>();
+
+	private static class Shard {
+		final InetSocketAddress address;
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		// fingerprints of the buckets the shard holds
+		final Map<Integer, Long> buckets = new HashMap<Integer, Long>();
+		// workers with labels in the shard, in the order it expects them
+		int[] workers;
+
+		Shard(InetSocketAddress address, int timeoutMillis, String secret) throws IOException {
+			this.address = address;
+			socket = new Socket();
+			try {
+				socket.connect(address, timeoutMillis);
+				socket.setSoTimeout(timeoutMillis);
+				socket.setTcpNoDelay(true);
+				in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				byte[] challenge = new byte[ShardProtocol.CHALLENGE_LENGTH];
+				in.readFully(challenge);
+				out.write(ShardProtocol.respond(secret, challenge));
+			} catch (IOException ex) {
+				socket.close();
+				throw ex;
+			}
+		}
+	}
+
+	public EMCoordinator(String jobId, Collection<Category> categories,
+			List<InetSocketAddress> addresses, String secret) throws IOException {
+		this(jobId, categories, addresses, 0, secret);
+	}
+
+	/**
+	 * Connects to the shard servers and starts the job in each of them.
+	 * Priors given for all the categories are fixed, as in
+	 * {@link com.datascience.gal.AbstractDawidSkene}.
+	 *
+	 * @param jobId the shard servers keep the labels of a job under its id
+	 * @param timeoutMillis time to wait for a connection or an answer of a
+	 *            shard, 0 waits forever
+	 * @param secret the one the shard servers were started with
+	 */
+	public EMCoordinator(String jobId, Collection<Category> categories,
+			List<InetSocketAddress> addresses, int timeoutMillis, String secret)
+			throws IOException {
+		if (categories.size() < 2)
+			throw new IllegalArgumentException("There should be at least two categories");
+		if (addresses.isEmpty())
+			throw new IllegalArgumentException("There should be at least one shard");
+		if (timeoutMillis < 0)
+			throw new IllegalArgumentException("Shard timeout should not be negative");
+		ShardProtocol.checkSecret(secret);
+		int K = categories.size();
+		categoryNames = new String[K];
+		priors = new double[K];
+		int priorsCount = 0;
+		double priorsSum = 0.;
+		int c = 0;
+		for (Category category : categories) {
+			categoryNames[c] = category.getName();
+			categoryIndex.put(category.getName(), c);
+			if (category.hasPrior()) {
+				priorsCount++;
+				priorsSum += category.getPrior();
+				priors[c] = category.getPrior();
+			}
+			c++;
+		}
+		fixedPriors = priorsCount == K && DoubleMath.fuzzyEquals(1., priorsSum, 1e-6);
+		if (!fixedPriors)
+			Arrays.fill(priors, 1. / K);
+		bucketShards = assignBuckets(addresses);
+
+		shards = new Shard[addresses.size()];
+		for (int s = 0; s < shards.length; s++) {
+			try {
+				shards[s] = new Shard(addresses.get(s), timeoutMillis, secret);
+				DataOutputStream out = shards[s].out;
+				out.writeByte(ShardProtocol.INIT);
+				out.writeUTF(jobId);
+				out.writeInt(K);
+				for (String name : categoryNames) {
+					out.writeUTF(name);
+				}
+				out.flush();
+			} catch (IOException ex) {
+				closeSockets();
+				throw new ShardException(addresses.get(s), ex);
+			}
+		}
+		for (Shard shard : shards) {
+			try {
+				int count = ShardProtocol.readCount(shard.in, ShardProtocol.BUCKETS,
+						"buckets count");
+				for (int i = 0; i < count; i++) {
+					int bucket = ShardProtocol.readIndex(shard.in, ShardProtocol.BUCKETS, "bucket");
+					shard.buckets.put(bucket, shard.in.readLong());
+				}
+			} catch (IOException ex) {
+				throw failure(shard, ex);
+			}
+		}
+	}
+
+	/**
+	 * Gives each bucket to the shard with the highest hash of its address
+	 * and the bucket, so that the buckets of the other shards stay where
+	 * they are when a shard is left out.
+	 */
+	private static int[] assignBuckets(List<InetSocketAddress> addresses) {
+		HashFunction hash = Hashing.murmur3_32();
+		int[] result = new int[ShardProtocol.BUCKETS];
+		for (int b = 0; b < result.length; b++) {
+			long best = Long.MIN_VALUE;
+			for (int s = 0; s < addresses.size(); s++) {
+				InetSocketAddress address = addresses.get(s);
+				String key = address.getHostName() + ":" + address.getPort();
+				long weight = hash.newHasher().putString(key).putInt(b).hash().asInt();
+				if (weight > best) {
+					best = weight;
+					result[b] = s;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the exception to throw for a failed operation with a shard,
+	 *         after closing all the connections
+	 */
+	private ShardException failure(Shard shard, IOException ex) {
+		closeSockets();
+		return ex instanceof ShardException ? (ShardException) ex
+				: new ShardException(shard.address, ex);
+	}
+
+	private int shardOf(String objectName) {
+		return bucketShards[ShardProtocol.bucketOf(objectName)];
+	}
+
+	private int category(String name) {
+		Integer c = categoryIndex.get(name);
+		if (c == null)
+			throw new IllegalArgumentException("Invalid category: " + name);
+		return c;
+	}
+
+	/**
+	 * New workers start with the matrix a new
+	 * {@link com.datascience.gal.Worker} gets.
+	 */
+	private int worker(String name) {
+		Integer w = workerIndex.get(name);
+		if (w != null)
+			return w;
+		w = workerNames.size();
+		workerIndex.put(name, w);
+		workerNames.add(name);
+		int K = categoryNames.length;
+		double[] matrix = new double[K * K];
+		double offDiagonal = 0.1 / (K - 1);
+		for (int from = 0; from < K; from++) {
+			for (int to = 0; to < K; to++) {
+				matrix[from * K + to] = from == to ? 0.9 : offDiagonal;
+			}
+		}
+		matrices.add(matrix);
+		return w;
+	}
+
+	/**
+	 * Makes the shards hold the given labels of the job: the buckets whose
+	 * labels a shard does not hold yet (or holds other ones of) are sent
+	 * to it again and the ones it does not get anymore are dropped. The
+	 * labels are iterated twice, to fingerprint the buckets and to send the
+	 * changed ones.
+	 *
+	 * @return number of labels, gold ones included, that were sent
+	 */
+	public long loadLabels(Iterable<AssignedLabel> labels, Collection<CorrectLabel> goldLabels)
+			throws IOException {
+		int B = ShardProtocol.BUCKETS;
+		long[] fingerprints = new long[B];
+		boolean[] used = new boolean[B];
+		for (AssignedLabel al : labels) {
+			int b = ShardProtocol.bucketOf(al.getObjectName());
+			worker(al.getWorkerName());
+			fingerprints[b] += ShardProtocol.labelHash(al.getWorkerName(), al.getObjectName(),
+					category(al.getCategoryName()));
+			used[b] = true;
+		}
+		for (CorrectLabel cl : goldLabels) {
+			int b = ShardProtocol.bucketOf(cl.getObjectName());
+			fingerprints[b] += ShardProtocol.goldHash(cl.getObjectName(),
+					category(cl.getCorrectCategory()));
+			used[b] = true;
+		}
+
+		boolean[] load = new boolean[B];
+		for (int s = 0; s < shards.length; s++) {
+			Shard shard = shards[s];
+			List<Integer> kept = new ArrayList<Integer>();
+			for (int b = 0; b < B; b++) {
+				if (used[b] && bucketShards[b] == s)
+					kept.add(b);
+			}
+			try {
+				shard.out.writeByte(ShardProtocol.KEEP);
+				shard.out.writeInt(kept.size());
+				for (int b : kept) {
+					shard.out.writeInt(b);
+				}
+				for (int b : kept) {
+					Long held = shard.buckets.get(b);
+					if (held == null || held != fingerprints[b]) {
+						load[b] = true;
+						shard.out.writeByte(ShardProtocol.LOAD);
+						shard.out.writeInt(b);
+						shard.out.writeLong(fingerprints[b]);
+					}
+				}
+				shard.out.flush();
+			} catch (IOException ex) {
+				throw failure(shard, ex);
+			}
+		}
+
+		long sent = 0;
+		List<List<AssignedLabel>> batches = new ArrayList<List<AssignedLabel>>();
+		for (int s = 0; s < shards.length; s++) {
+			batches.add(new ArrayList<AssignedLabel>());
+		}
+		for (AssignedLabel al : labels) {
+			int b = ShardProtocol.bucketOf(al.getObjectName());
+			if (!load[b])
+				continue;
+			List<AssignedLabel> batch = batches.get(bucketShards[b]);
+			batch.add(al);
+			if (batch.size() == ShardProtocol.MAX_LABELS) {
+				sendLabels(shards[bucketShards[b]], batch);
+				sent += batch.size();
+				batch.clear();
+			}
+		}
+		for (int s = 0; s < shards.length; s++) {
+			sendLabels(shards[s], batches.get(s));
+			sent += batches.get(s).size();
+		}
+
+		List<List<CorrectLabel>> goldBatches = new ArrayList<List<CorrectLabel>>();
+		for (int s = 0; s < shards.length; s++) {
+			goldBatches.add(new ArrayList<CorrectLabel>());
+		}
+		for (CorrectLabel cl : goldLabels) {
+			int b = ShardProtocol.bucketOf(cl.getObjectName());
+			if (!load[b])
+				continue;
+			List<CorrectLabel> batch = goldBatches.get(bucketShards[b]);
+			batch.add(cl);
+			if (batch.size() == ShardProtocol.MAX_LABELS) {
+				sendGoldLabels(shards[bucketShards[b]], batch);
+				sent += batch.size();
+				batch.clear();
+			}
+		}
+		for (int s = 0; s < shards.length; s++) {
+			sendGoldLabels(shards[s], goldBatches.get(s));
+			sent += goldBatches.get(s).size();
+		}
+		return sent;
+	}
+
+	private void sendLabels(Shard shard, List<AssignedLabel> labels) throws IOException {
+		if (labels.isEmpty())
+			return;
+		try {
+			shard.out.writeByte(ShardProtocol.LABELS);
+			shard.out.writeInt(labels.size());
+			for (AssignedLabel al : labels) {
+				shard.out.writeUTF(al.getWorkerName());
+				shard.out.writeUTF(al.getObjectName());
+				shard.out.writeInt(category(al.getCategoryName()));
+			}
+			shard.out.flush();
+		} catch (IOException ex) {
+			throw failure(shard, ex);
+		}
+	}
+
+	private void sendGoldLabels(Shard shard, List<CorrectLabel> labels) throws IOException {
+		if (labels.isEmpty())
+			return;
+		try {
+			shard.out.writeByte(ShardProtocol.GOLD);
+			shard.out.writeInt(labels.size());
+			for (CorrectLabel cl : labels) {
+				shard.out.writeUTF(cl.getObjectName());
+				shard.out.writeInt(category(cl.getCorrectCategory()));
+			}
+			shard.out.flush();
+		} catch (IOException ex) {
+			throw failure(shard, ex);
+		}
+	}
+
+	/**
+	 * Sets the matrix the next estimation starts from for a worker, e.g.
+	 * the one of the last completed iteration of a failed coordinator.
+	 *
+	 * @param rates row-major, rows and columns in the order of
+	 *            {@link #getCategoryNames()}
+	 */
+	public void setErrorRates(String workerName, double[] rates) {
+		int K = categoryNames.length;
+		if (rates.length != K * K)
+			throw new IllegalArgumentException("There should be " + K * K + " error rates");
+		System.arraycopy(rates, 0, matrices.get(worker(workerName)), 0, K * K);
+	}
+
+	/**
+	 * @return copy of the matrix of a worker, like in
+	 *         {@link #setErrorRates(String, double[])}
+	 */
+	public double[] getErrorRates(String workerName) {
+		Integer w = workerIndex.get(workerName);
+		if (w == null)
+			throw new IllegalArgumentException("Unknown worker: " + workerName);
+		return matrices.get(w).clone();
+	}
+
+	/**
+	 * Sets the priors the next estimation starts from, unless they are
+	 * fixed.
+	 */
+	public void setPriors(Map<String, Double> priors) {
+		if (fixedPriors)
+			return;
+		for (Map.Entry<String, Double> e : priors.entrySet()) {
+			this.priors[category(e.getKey())] = e.getValue();
+		}
+	}
+
+	public List<String> getCategoryNames() {
+		return Collections.unmodifiableList(Arrays.asList(categoryNames));
+	}
+
+	public List<String> getWorkerNames() {
+		return Collections.unmodifiableList(workerNames);
+	}
+
+	public void estimate(int maxIterations) throws IOException {
+		estimate(maxIterations, DawidSkene.DEFAULT_EPSILON);
+	}
+
+	/**
+	 * Iterates with the same stop condition as
+	 * {@link com.datascience.gal.AbstractDawidSkene#estimate(int, double)}.
+	 */
+	public void estimate(int maxIterations, double epsilon) throws IOException {
+		prepare();
+		double prevLogLikelihood = Double.POSITIVE_INFINITY;
+		double currLogLikelihood = 0d;
+		int iteration = 0;
+		logLikelihoods = new ArrayList<Double>();
+		for (; iteration < maxIterations && Math.abs(currLogLikelihood -
+				prevLogLikelihood) > epsilon; iteration++) {
+			prevLogLikelihood = currLogLikelihood;
+			currLogLikelihood = iterate();
+			logLikelihoods.add(currLogLikelihood);
+		}
+		logger.info("Estimated on " + shards.length + " shards: performed " + iteration
+				+ " / " + maxIterations + " with log-likelihood difference "
+				+ Math.abs(currLogLikelihood - prevLogLikelihood));
+	}
+
+	/**
+	 * Makes the shards build their engines from the labels loaded so far.
+	 */
+	public void prepare() throws IOException {
+		for (Shard shard : shards) {
+			try {
+				shard.out.writeByte(ShardProtocol.PREPARE);
+				shard.out.flush();
+			} catch (IOException ex) {
+				throw failure(shard, ex);
+			}
+		}
+		for (Shard shard : shards) {
+			try {
+				shard.workers = new int[ShardProtocol.readCount(shard.in, workerNames.size(),
+						"workers count")];
+				for (int i = 0; i < shard.workers.length; i++) {
+					String name = shard.in.readUTF();
+					Integer w = workerIndex.get(name);
+					if (w == null)
+						throw new IOException("Shard has labels of an unknown worker: " + name);
+					shard.workers[i] = w;
+				}
+			} catch (IOException ex) {
+				throw failure(shard, ex);
+			}
+		}
+		prepared = true;
+	}
+
+	/**
+	 * One EM iteration over the shards, after {@link #prepare()}. The new
+	 * matrices and priors are kept only if all the shards answered.
+	 *
+	 * @return the log-likelihood computed by the E-step
+	 */
+	public double iterate() throws IOException {
+		if (!prepared)
+			throw new IllegalStateException("The shards were not prepared");
+		int K = categoryNames.length;
+		int KK = K * K;
+		for (Shard shard : shards) {
+			DataOutputStream out = shard.out;
+			try {
+				out.writeByte(ShardProtocol.POSTERIORS);
+				int cells = 0;
+				for (int w : shard.workers) {
+					for (double rate : matrices.get(w)) {
+						if (rate != 0.)
+							cells++;
+					}
+				}
+				out.writeInt(cells);
+				for (int j = 0; j < shard.workers.length; j++) {
+					double[] matrix = matrices.get(shard.workers[j]);
+					for (int cell = 0; cell < KK; cell++) {
+						if (matrix[cell] != 0.)
+							ShardProtocol.writeCell(out, j, cell, matrix[cell]);
+					}
+				}
+				ShardProtocol.writeDoubles(out, priors);
+				out.flush();
+			} catch (IOException ex) {
+				throw failure(shard, ex);
+			}
+		}
+		double logLikelihood = 0.;
+		double objects = 0.;
+		double[] posteriorSums = new double[K];
+		for (Shard shard : shards) {
+			try {
+				double[] sums = ShardProtocol.readDoubles(shard.in, K + 3);
+				logLikelihood += sums[0];
+				for (int c = 0; c < K; c++) {
+					posteriorSums[c] += sums[2 + c];
+				}
+				objects += sums[K + 2];
+			} catch (IOException ex) {
+				throw failure(shard, ex);
+			}
+		}
+		double[] newPriors = priors;
+		if (!fixedPriors && objects > 0) {
+			newPriors = new double[K];
+			for (int c = 0; c < K; c++) {
+				newPriors[c] = posteriorSums[c] / objects;
+			}
+		}
+
+		for (Shard shard : shards) {
+			try {
+				shard.out.writeByte(ShardProtocol.COUNTS);
+				ShardProtocol.writeDoubles(shard.out, newPriors);
+				shard.out.flush();
+			} catch (IOException ex) {
+				throw failure(shard, ex);
+			}
+		}
+		List<double[]> counts = new ArrayList<double[]>(workerNames.size());
+		for (int w = 0; w < workerNames.size(); w++) {
+			counts.add(new double[KK]);
+		}
+		for (Shard shard : shards) {
+			try {
+				int cells = ShardProtocol.readCount(shard.in, shard.workers.length * KK,
+						"label counts count");
+				for (int i = 0; i < cells; i++) {
+					int w = shard.workers[ShardProtocol.readIndex(shard.in, shard.workers.length,
+							"worker")];
+					int cell = ShardProtocol.readIndex(shard.in, KK, "matrix cell");
+					counts.get(w)[cell] += shard.in.readDouble();
+				}
+			} catch (IOException ex) {
+				throw failure(shard, ex);
+			}
+		}
+		for (double[] matrix : counts) {
+			for (int from = 0; from < K; from++) {
+				double rowDenominator = 0.;
+				for (int to = 0; to < K; to++) {
+					rowDenominator += matrix[from * K + to];
+				}
+				for (int to = 0; to < K; to++) {
+					// a worker that has not seen any object of the "from"
+					// category gets an undefined row
+					matrix[from * K + to] = rowDenominator == 0. ? Double.NaN
+							: matrix[from * K + to] / rowDenominator;
+				}
+			}
+		}
+		matrices = counts;
+		priors = newPriors;
+		return logLikelihood;
+	}
+
+	/**
+	 * @return log-likelihood after each iteration of the last estimation
+	 */
+	public List<Double> getLogLikelihoods() {
+		return new ArrayList<Double>(logLikelihoods);
+	}
+
+	public Map<String, Double> getCategoryPriors() {
+		Map<String, Double> result = new HashMap<String, Double>();
+		for (int c = 0; c < categoryNames.length; c++) {
+			result.put(categoryNames[c], priors[c]);
+		}
+		return result;
+	}
+
+	public double getErrorRate(String workerName, String from, String to) {
+		Integer w = workerIndex.get(workerName);
+		if (w == null)
+			throw new IllegalArgumentException("Unknown worker: " + workerName);
+		return matrices.get(w)[category(from) * categoryNames.length + category(to)];
+	}
+
+	public interface ObjectProbabilitiesHandler {
+		void handle(String objectName, Map<String, Double> probabilities);
+	}
+
+	/**
+	 * Streams the category probabilities of all the objects from the shards,
+	 * one shard after another.
+	 */
+	public void readObjectProbabilities(ObjectProbabilitiesHandler handler) throws IOException {
+		for (Shard shard : shards) {
+			try {
+				shard.out.writeByte(ShardProtocol.RESULTS);
+				shard.out.flush();
+				int count = shard.in.readInt();
+				for (int i = 0; i < count; i++) {
+					String objectName = shard.in.readUTF();
+					Map<String, Double> probabilities = new HashMap<String, Double>();
+					for (String category : categoryNames) {
+						probabilities.put(category, shard.in.readDouble());
+					}
+					handler.handle(objectName, probabilities);
+				}
+			} catch (IOException ex) {
+				throw failure(shard, ex);
+			}
+		}
+	}
+
+	/**
+	 * Disconnects, the shard servers wait for another coordinator.
+	 */
+	public void close() throws IOException {
+		end(ShardProtocol.CLOSE);
+	}
+
+	/**
+	 * Disconnects and stops the shard servers.
+	 */
+	public void shutdown() throws IOException {
+		end(ShardProtocol.SHUTDOWN);
+	}
+
+	/**
+	 * Disconnects without telling the shard servers, e.g. after one of them
+	 * failed; the others drop the job when they notice.
+	 */
+	public void abort() {
+		closeSockets();
+	}
+
+	private void end(byte message) throws IOException {
+		try {
+			for (Shard shard : shards) {
+				shard.out.writeByte(message);
+				shard.out.flush();
+			}
+		} finally {
+			closeSockets();
+		}
+	}
+
+	private void closeSockets() {
+		for (Shard shard : shards) {
+			if (shard == null || shard.socket.isClosed())
+				continue;
+			try {
+				shard.socket.close();
+			} catch (IOException ex) {
+				logger.warn("Closing shard connection", ex);
+			}
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(EMCoordinator.class);
+}
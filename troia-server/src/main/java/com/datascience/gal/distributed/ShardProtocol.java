@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Messages sent by an {@link EMCoordinator} to a {@link ShardServer}. Each
+ * message is a type byte followed by its fields written with
+ * {@link DataOutputStream}. Categories are sent as indexes into the list
+ * given by {@link #INIT}.
+ *
+ * A connection starts with the server sending {@link #CHALLENGE_LENGTH}
+ * random bytes, to which the coordinator answers with their HMAC keyed by
+ * the secret both of them were configured with (see
+ * {@link #respond(String, byte[])}); the server drops the connection when
+ * the answer is wrong, so only coordinators knowing the secret can load
+ * jobs or stop the server. The secret itself is never sent.
+ *
+ * Objects are hashed into {@link #BUCKETS} buckets (see
+ * {@link #bucketOf(String)}) and the coordinator assigns whole buckets to
+ * the shards. A shard server keeps the labels of the buckets of its last
+ * job after the connection ends, with the fingerprint the coordinator
+ * gave each of them (the sum of {@link #labelHash} and {@link #goldHash}
+ * over its labels), so the labels of a bucket are sent again only when
+ * they changed or the bucket moved to another shard.
+ *
+ * Worker statistics travel as sparse cells: a count followed by that many
+ * (worker, cell, value) triples, the worker being its position in the
+ * shard's {@link #PREPARE} reply and the cell <code>from * K + to</code>.
+ * Matrices are sent as their non zero cells (NaN ones included) and
+ * expected label counts as their non zero cells, so the traffic follows
+ * the (from, to) pairs the workers were seen with instead of K^2 per
+ * worker.
+ */
+final class ShardProtocol {
+
+	/**
+	 * job id, categories count, category names; reply: count, then bucket
+	 * and fingerprint of the buckets the shard holds for the job. A shard
+	 * holding another job drops it.
+	 */
+	static final byte INIT = 1;
+	/** buckets count, then the buckets of the shard; it drops the others */
+	static final byte KEEP = 2;
+	/** bucket, fingerprint; empties the bucket for the labels that follow */
+	static final byte LOAD = 3;
+	/** labels count, then worker name, object name, category index */
+	static final byte LABELS = 4;
+	/** gold labels count, then object name, category index */
+	static final byte GOLD = 5;
+	/**
+	 * ends the loading of the buckets; reply: count and names of the
+	 * workers with labels in the shard
+	 */
+	static final byte PREPARE = 6;
+	/**
+	 * non zero cells of the matrices of the shard's workers, priors; reply:
+	 * log-likelihood, computed objects, posterior sums, objects
+	 */
+	static final byte POSTERIORS = 7;
+	/** priors; reply: non zero expected label counts of the shard's workers */
+	static final byte COUNTS = 8;
+	/** reply: objects count, then object name, category probabilities */
+	static final byte RESULTS = 9;
+	/** ends the connection, the server waits for the next one */
+	static final byte CLOSE = 10;
+	/** ends the connection and stops the server */
+	static final byte SHUTDOWN = 11;
+
+	static final int BUCKETS = 1024;
+
+	/** most categories a job may have */
+	static final int MAX_CATEGORIES = 1000;
+	/** most labels (or gold labels) in one message */
+	static final int MAX_LABELS = 100000;
+
+	static final int CHALLENGE_LENGTH = 16;
+
+	private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
+
+	private ShardProtocol() {
+	}
+
+	/**
+	 * @return HMAC-SHA256 of the challenge keyed by the secret
+	 */
+	static byte[] respond(String secret, byte[] challenge) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(secret.getBytes(Charsets.UTF_8), "HmacSHA256"));
+			return mac.doFinal(challenge);
+		} catch (GeneralSecurityException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	static void checkSecret(String secret) {
+		if (secret == null || secret.isEmpty())
+			throw new IllegalArgumentException("Shard secret should not be empty");
+	}
+
+	static int bucketOf(String objectName) {
+		return (objectName.hashCode() & Integer.MAX_VALUE) % BUCKETS;
+	}
+
+	static long labelHash(String workerName, String objectName, int category) {
+		return FINGERPRINT.newHasher()
+				.putByte(LABELS)
+				.putInt(workerName.length()).putString(workerName)
+				.putInt(objectName.length()).putString(objectName)
+				.putInt(category)
+				.hash().asLong();
+	}
+
+	static long goldHash(String objectName, int category) {
+		return FINGERPRINT.newHasher()
+				.putByte(GOLD)
+				.putInt(objectName.length()).putString(objectName)
+				.putInt(category)
+				.hash().asLong();
+	}
+
+	static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+		for (double value : values) {
+			out.writeDouble(value);
+		}
+	}
+
+	static void writeCell(DataOutputStream out, int worker, int cell, double value)
+			throws IOException {
+		out.writeInt(worker);
+		out.writeInt(cell);
+		out.writeDouble(value);
+	}
+
+	/**
+	 * @return count read from the stream, checked to be in [0, max]
+	 */
+	static int readCount(DataInputStream in, int max, String what) throws IOException {
+		int count = in.readInt();
+		if (count < 0 || count > max)
+			throw new IOException("Invalid " + what + ": " + count + ", at most " + max + " expected");
+		return count;
+	}
+
+	/**
+	 * @return index read from the stream, checked to be in [0, size)
+	 */
+	static int readIndex(DataInputStream in, int size, String what) throws IOException {
+		int index = in.readInt();
+		if (index < 0 || index >= size)
+			throw new IOException("Invalid " + what + ": " + index + ", less than " + size + " expected");
+		return index;
+	}
+
+	/**
+	 * @param count known to the caller, not read from the stream
+	 */
+	static double[] readDoubles(DataInputStream in, int count) throws IOException {
+		double[] result = new double[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = in.readDouble();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,479 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.datascience.gal.AssignedLabel;
+import com.datascience.gal.BatchDawidSkene;
+import com.datascience.gal.Category;
+import com.datascience.gal.CorrectLabel;
+import com.datascience.gal.Datum;
+import com.datascience.gal.DenseEMEngine;
+import com.datascience.gal.SymbolTable;
+import com.google.common.primitives.Ints;
+
+/**
+ * Worker process of distributed EM. It holds the labels of some buckets of
+ * the objects of a job (see {@link ShardProtocol}) and runs the map steps
+ * of the iterations (see
+ * {@link DenseEMEngine#mapPosteriors(double[], double[])}) for an
+ * {@link EMCoordinator}. Connections are served one at a time. The labels
+ * of the last job stay in the server between connections, so the next
+ * estimation of the same job sends only the buckets that changed; they
+ * are dropped when another job starts. A connection that fails or stays
+ * idle for longer than the timeout is dropped with the buckets it was
+ * loading and the server waits for the next one.
+ *
+ * A troia-server started in worker mode runs one (see
+ * {@link com.datascience.service.InitializationSupport}); it can also be
+ * run alone with: ShardServer [port [timeout seconds [bind address]]],
+ * the secret shared with the coordinators being given in the SHARD_SECRET
+ * environment variable. With port 0 (the default) a free port is picked.
+ * The port is printed on the first line of the standard output. The
+ * server listens on the loopback address unless another one is given.
+ */
+public class ShardServer {
+
+	static final String SECRET_VARIABLE = "SHARD_SECRET";
+
+	private final ServerSocket serverSocket;
+	private final int timeoutMillis;
+	private final String secret;
+	private final SecureRandom random = new SecureRandom();
+
+	// the job kept between connections
+	private String jobId;
+	private String[] categoryNames;
+	private SymbolTable workerNames = new SymbolTable();
+	private SymbolTable objectNames = new SymbolTable();
+	private final Map<Integer, Bucket> buckets = new TreeMap<Integer, Bucket>();
+	// built from the buckets by PREPARE, null when they changed since
+	private BatchDawidSkene ds;
+	private DenseEMEngine engine;
+	// engine index of each of the coordinator's categories
+	private int[] categoryMap;
+	// matrices of the engine's workers in the engine's order of categories,
+	// set from the cells sent by the coordinator
+	private double[] matrices;
+
+	private static class Bucket {
+		final long fingerprint;
+		// false until the coordinator sent all the labels
+		boolean loaded;
+		// worker, object and category ids of each label
+		int[] labels = new int[0];
+		int labelsSize;
+		// object and category ids of each gold label
+		int[] goldLabels = new int[0];
+		int goldLabelsSize;
+
+		Bucket(long fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+
+		void addLabel(int worker, int object, int category) {
+			labels = Ints.ensureCapacity(labels, labelsSize + 3, labelsSize);
+			labels[labelsSize++] = worker;
+			labels[labelsSize++] = object;
+			labels[labelsSize++] = category;
+		}
+
+		void addGoldLabel(int object, int category) {
+			goldLabels = Ints.ensureCapacity(goldLabels, goldLabelsSize + 2, goldLabelsSize);
+			goldLabels[goldLabelsSize++] = object;
+			goldLabels[goldLabelsSize++] = category;
+		}
+	}
+
+	/**
+	 * Listens on the loopback address, without a timeout.
+	 */
+	public ShardServer(int port, String secret) throws IOException {
+		this(null, port, 0, secret);
+	}
+
+	/**
+	 * @param bindAddress address to listen on, null for the loopback one
+	 * @param timeoutMillis time a connection may stay idle, 0 for no limit
+	 * @param secret shared with the coordinators, see {@link ShardProtocol}
+	 */
+	public ShardServer(InetAddress bindAddress, int port, int timeoutMillis, String secret)
+			throws IOException {
+		if (timeoutMillis < 0)
+			throw new IllegalArgumentException("Shard timeout should not be negative");
+		ShardProtocol.checkSecret(secret);
+		this.timeoutMillis = timeoutMillis;
+		this.secret = secret;
+		serverSocket = new ServerSocket(port, 0,
+				bindAddress == null ? InetAddress.getByName(null) : bindAddress);
+	}
+
+	public InetAddress getAddress() {
+		return serverSocket.getInetAddress();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Serves coordinators until one of them sends
+	 * {@link ShardProtocol#SHUTDOWN} or the server is closed.
+	 */
+	public void serve() throws IOException {
+		boolean running = true;
+		while (running) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException ex) {
+				if (serverSocket.isClosed())
+					return;
+				throw ex;
+			}
+			try {
+				socket.setTcpNoDelay(true);
+				socket.setSoTimeout(timeoutMillis);
+				DataInputStream in = new DataInputStream(
+						new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(socket.getOutputStream()));
+				authenticate(in, out);
+				running = handle(in, out);
+			} catch (IOException ex) {
+				logger.warn("Dropping coordinator connection: " + ex.getMessage());
+			} catch (RuntimeException ex) {
+				logger.error("Dropping coordinator connection", ex);
+			} catch (Error ex) {
+				// e.g. out of memory, the job may be half updated
+				logger.error("Dropping coordinator connection and its job", ex);
+				dropJob();
+			} finally {
+				dropUnloadedBuckets();
+				socket.close();
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	private void authenticate(DataInputStream in, DataOutputStream out) throws IOException {
+		byte[] challenge = new byte[ShardProtocol.CHALLENGE_LENGTH];
+		random.nextBytes(challenge);
+		out.write(challenge);
+		out.flush();
+		byte[] expected = ShardProtocol.respond(secret, challenge);
+		byte[] response = new byte[expected.length];
+		in.readFully(response);
+		if (!MessageDigest.isEqual(expected, response))
+			throw new IOException("Coordinator does not know the shard secret");
+	}
+
+	/**
+	 * Only the connection that started a job may use it or stop the server.
+	 *
+	 * @return false when the server should stop
+	 */
+	private boolean handle(DataInputStream in, DataOutputStream out) throws IOException {
+		boolean owner = false;
+		while (true) {
+			byte type = in.readByte();
+			if (!owner && type != ShardProtocol.INIT && type != ShardProtocol.CLOSE)
+				throw new IOException("Message " + type + " from a connection without a job");
+			switch (type) {
+				case ShardProtocol.INIT:
+					init(in, out);
+					owner = true;
+					break;
+				case ShardProtocol.KEEP:
+					keepBuckets(in);
+					break;
+				case ShardProtocol.LOAD:
+					loadBucket(in);
+					break;
+				case ShardProtocol.LABELS:
+					addLabels(in);
+					break;
+				case ShardProtocol.GOLD:
+					addGoldLabels(in);
+					break;
+				case ShardProtocol.PREPARE:
+					prepare(out);
+					break;
+				case ShardProtocol.POSTERIORS:
+					mapPosteriors(in, out);
+					break;
+				case ShardProtocol.COUNTS:
+					mapLabelCounts(in, out);
+					break;
+				case ShardProtocol.RESULTS:
+					writeResults(out);
+					break;
+				case ShardProtocol.CLOSE:
+					return true;
+				case ShardProtocol.SHUTDOWN:
+					return false;
+				default:
+					throw new IOException("Unknown message type: " + type);
+			}
+			out.flush();
+		}
+	}
+
+	private void init(DataInputStream in, DataOutputStream out) throws IOException {
+		String id = in.readUTF();
+		int K = ShardProtocol.readCount(in, ShardProtocol.MAX_CATEGORIES, "categories count");
+		if (K < 2)
+			throw new IOException("A job should have at least two categories");
+		String[] names = new String[K];
+		for (int c = 0; c < K; c++) {
+			names[c] = in.readUTF();
+		}
+		if (!id.equals(jobId) || !Arrays.equals(names, categoryNames)) {
+			dropJob();
+			jobId = id;
+			categoryNames = names;
+		}
+		out.writeInt(buckets.size());
+		for (Map.Entry<Integer, Bucket> e : buckets.entrySet()) {
+			out.writeInt(e.getKey());
+			out.writeLong(e.getValue().fingerprint);
+		}
+	}
+
+	private void keepBuckets(DataInputStream in) throws IOException {
+		int count = ShardProtocol.readCount(in, ShardProtocol.BUCKETS, "buckets count");
+		Set<Integer> kept = new HashSet<Integer>();
+		for (int i = 0; i < count; i++) {
+			kept.add(ShardProtocol.readIndex(in, ShardProtocol.BUCKETS, "bucket"));
+		}
+		if (buckets.keySet().retainAll(kept))
+			invalidateEngine();
+	}
+
+	private void loadBucket(DataInputStream in) throws IOException {
+		int bucket = ShardProtocol.readIndex(in, ShardProtocol.BUCKETS, "bucket");
+		buckets.put(bucket, new Bucket(in.readLong()));
+		invalidateEngine();
+	}
+
+	/**
+	 * @return the bucket of the object, which should be loading
+	 */
+	private Bucket loadingBucket(String objectName) throws IOException {
+		Bucket result = buckets.get(ShardProtocol.bucketOf(objectName));
+		if (result == null || result.loaded)
+			throw new IOException("Label of an object whose bucket is not loading: " + objectName);
+		return result;
+	}
+
+	private void addLabels(DataInputStream in) throws IOException {
+		int count = ShardProtocol.readCount(in, ShardProtocol.MAX_LABELS, "labels count");
+		for (int i = 0; i < count; i++) {
+			String workerName = in.readUTF();
+			String objectName = in.readUTF();
+			int category = ShardProtocol.readIndex(in, categoryNames.length, "category");
+			loadingBucket(objectName).addLabel(workerNames.intern(workerName),
+					objectNames.intern(objectName), category);
+		}
+	}
+
+	private void addGoldLabels(DataInputStream in) throws IOException {
+		int count = ShardProtocol.readCount(in, ShardProtocol.MAX_LABELS, "gold labels count");
+		for (int i = 0; i < count; i++) {
+			String objectName = in.readUTF();
+			int category = ShardProtocol.readIndex(in, categoryNames.length, "category");
+			loadingBucket(objectName).addGoldLabel(objectNames.intern(objectName), category);
+		}
+	}
+
+	private void dropJob() {
+		jobId = null;
+		categoryNames = null;
+		workerNames = new SymbolTable();
+		objectNames = new SymbolTable();
+		buckets.clear();
+		invalidateEngine();
+	}
+
+	private void invalidateEngine() {
+		ds = null;
+		engine = null;
+		matrices = null;
+	}
+
+	/**
+	 * Drops the buckets whose labels were not all sent, e.g. when the
+	 * coordinator failed while loading them.
+	 */
+	private void dropUnloadedBuckets() {
+		Iterator<Bucket> iterator = buckets.values().iterator();
+		while (iterator.hasNext()) {
+			if (!iterator.next().loaded) {
+				iterator.remove();
+				invalidateEngine();
+			}
+		}
+	}
+
+	private void prepare(DataOutputStream out) throws IOException {
+		for (Bucket bucket : buckets.values()) {
+			bucket.loaded = true;
+		}
+		if (engine == null)
+			buildEngine();
+		String[] engineWorkers = engine.getWorkerNames();
+		out.writeInt(engineWorkers.length);
+		for (String name : engineWorkers) {
+			out.writeUTF(name);
+		}
+	}
+
+	private void buildEngine() {
+		Collection<Category> categories = new ArrayList<Category>();
+		for (String name : categoryNames) {
+			categories.add(new Category(name));
+		}
+		ds = new BatchDawidSkene(jobId, categories);
+		for (Bucket bucket : buckets.values()) {
+			for (int i = 0; i < bucket.labelsSize; i += 3) {
+				ds.addAssignedLabel(new AssignedLabel(workerNames.getName(bucket.labels[i]),
+						objectNames.getName(bucket.labels[i + 1]),
+						categoryNames[bucket.labels[i + 2]]));
+			}
+		}
+		for (Bucket bucket : buckets.values()) {
+			for (int i = 0; i < bucket.goldLabelsSize; i += 2) {
+				ds.addCorrectLabel(new CorrectLabel(objectNames.getName(bucket.goldLabels[i]),
+						categoryNames[bucket.goldLabels[i + 1]]));
+			}
+		}
+		engine = new DenseEMEngine(ds);
+		String[] engineCategories = engine.getCategoryNames();
+		categoryMap = new int[categoryNames.length];
+		for (int e = 0; e < engineCategories.length; e++) {
+			for (int c = 0; c < categoryNames.length; c++) {
+				if (categoryNames[c].equals(engineCategories[e]))
+					categoryMap[c] = e;
+			}
+		}
+		int K = categoryNames.length;
+		matrices = new double[engine.getWorkerNames().length * K * K];
+	}
+
+	private void checkPrepared() throws IOException {
+		if (engine == null)
+			throw new IOException("The shard was not prepared");
+	}
+
+	private double[] readPriors(DataInputStream in) throws IOException {
+		int K = categoryMap.length;
+		double[] priors = new double[K];
+		for (int c = 0; c < K; c++) {
+			priors[categoryMap[c]] = in.readDouble();
+		}
+		return priors;
+	}
+
+	private void mapPosteriors(DataInputStream in, DataOutputStream out) throws IOException {
+		checkPrepared();
+		int K = categoryMap.length;
+		int KK = K * K;
+		Arrays.fill(matrices, 0.);
+		int cells = ShardProtocol.readCount(in, matrices.length, "matrix cells count");
+		for (int i = 0; i < cells; i++) {
+			int w = ShardProtocol.readIndex(in, matrices.length / KK, "worker");
+			int cell = ShardProtocol.readIndex(in, KK, "matrix cell");
+			matrices[(w * K + categoryMap[cell / K]) * K + categoryMap[cell % K]] = in.readDouble();
+		}
+		double[] sums = engine.mapPosteriors(matrices, readPriors(in));
+		out.writeDouble(sums[0]);
+		out.writeDouble(sums[1]);
+		for (int c = 0; c < K; c++) {
+			out.writeDouble(sums[2 + categoryMap[c]]);
+		}
+		out.writeDouble(sums[K + 2]);
+	}
+
+	private void mapLabelCounts(DataInputStream in, DataOutputStream out) throws IOException {
+		checkPrepared();
+		int K = categoryMap.length;
+		double[] counts = engine.mapLabelCounts(readPriors(in));
+		int cells = 0;
+		for (double count : counts) {
+			if (count != 0.)
+				cells++;
+		}
+		out.writeInt(cells);
+		for (int w = 0; w < counts.length / (K * K); w++) {
+			for (int from = 0; from < K; from++) {
+				for (int to = 0; to < K; to++) {
+					double count = counts[(w * K + categoryMap[from]) * K + categoryMap[to]];
+					if (count != 0.)
+						ShardProtocol.writeCell(out, w, from * K + to, count);
+				}
+			}
+		}
+	}
+
+	private void writeResults(DataOutputStream out) throws IOException {
+		checkPrepared();
+		engine.writeBack(ds);
+		Map<String, Datum> objects = ds.getObjects();
+		out.writeInt(objects.size());
+		for (Datum d : objects.values()) {
+			out.writeUTF(d.getName());
+			for (String category : categoryNames) {
+				out.writeDouble(d.getCategoryProbability(category));
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+		int timeout = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		InetAddress bindAddress = args.length > 2 ? InetAddress.getByName(args[2]) : null;
+		ShardServer server = new ShardServer(bindAddress, port,
+				(int) TimeUnit.SECONDS.toMillis(timeout), System.getenv(SECRET_VARIABLE));
+		System.out.println(server.getPort());
+		System.out.flush();
+		logger.info("Shard server listening on " + server.getAddress() + ":" + server.getPort());
+		try {
+			server.serve();
+		} finally {
+			server.close();
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(ShardServer.class);
+}
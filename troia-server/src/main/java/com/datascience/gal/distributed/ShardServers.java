@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal.distributed;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shard servers a troia-server in coordinator mode runs batch computes on,
+ * with the settings of the connections to them and of the routing of jobs.
+ */
+public class ShardServers {
+
+	private final List<InetSocketAddress> addresses;
+	private final int timeoutMillis;
+	private final long distributedLabels;
+	private final String secret;
+
+	/**
+	 * @param timeoutMillis time to wait for a connection or an answer of a
+	 *            shard server, 0 waits forever
+	 * @param distributedLabels jobs with at least this many labels are
+	 *            computed on the shard servers unless the compute asks
+	 *            otherwise, 0 computes there only the jobs that ask for it
+	 * @param secret the one the shard servers were started with
+	 */
+	public ShardServers(List<InetSocketAddress> addresses, int timeoutMillis,
+			long distributedLabels, String secret) {
+		if (addresses.isEmpty())
+			throw new IllegalArgumentException("There should be at least one shard server");
+		if (timeoutMillis < 0)
+			throw new IllegalArgumentException("Shard timeout should not be negative");
+		if (distributedLabels < 0)
+			throw new IllegalArgumentException("Number of labels of distributed jobs should not be negative");
+		ShardProtocol.checkSecret(secret);
+		this.addresses = new ArrayList<InetSocketAddress>(addresses);
+		this.timeoutMillis = timeoutMillis;
+		this.distributedLabels = distributedLabels;
+		this.secret = secret;
+	}
+
+	/**
+	 * @param addresses comma separated host:port pairs
+	 */
+	public static List<InetSocketAddress> parseAddresses(String addresses) {
+		List<InetSocketAddress> result = new ArrayList<InetSocketAddress>();
+		for (String address : addresses.split(",")) {
+			address = address.trim();
+			if (address.isEmpty())
+				continue;
+			int colon = address.lastIndexOf(':');
+			if (colon <= 0)
+				throw new IllegalArgumentException("Shard server address should be host:port: " + address);
+			result.add(new InetSocketAddress(address.substring(0, colon),
+					Integer.parseInt(address.substring(colon + 1))));
+		}
+		return result;
+	}
+
+	public List<InetSocketAddress> getAddresses() {
+		return Collections.unmodifiableList(addresses);
+	}
+
+	public int getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	public String getSecret() {
+		return secret;
+	}
+
+	/**
+	 * @return whether a job with <code>labels</code> labels is computed on
+	 *         the shard servers when the compute does not say
+	 */
+	public boolean isDistributedByDefault(long labels) {
+		return distributedLabels > 0 && labels >= distributedLabels;
+	}
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.gal.scripts;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+
+import com.datascience.gal.AssignedLabel;
+import com.datascience.gal.BatchDawidSkene;
+import com.datascience.gal.Category;
+import com.datascience.gal.DenseEMEngine;
+import com.datascience.utils.ParallelRunner;
+
+/**
+ * Measures the M-step ({@link DenseEMEngine#rebuildWorkerConfusionMatrices()})
+ * for growing numbers of workers and threads and prints the speedup over a
+ * single thread.
+ *
+ * Usage: ParallelEMBenchmark [labels] [categories] [labelsPerObject]
+ */
+public class ParallelEMBenchmark {
+
+	private static final int[] WORKERS = {1000, 10000, 50000, 100000};
+	private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+	private static final int REPEATS = 3;
+
+	static BatchDawidSkene generate(int labels, int categoriesCount,
+			int labelsPerObject, int workers, long seed) {
+		Random random = new Random(seed);
+		Collection<Category> categories = new ArrayList<Category>();
+		for (int c = 0; c < categoriesCount; c++)
+			categories.add(new Category("c" + c));
+		BatchDawidSkene ds = new BatchDawidSkene("benchmark", categories);
+		Collection<AssignedLabel> als = new ArrayList<AssignedLabel>(labels);
+		for (int o = 0; o * labelsPerObject < labels; o++) {
+			int correct = random.nextInt(categoriesCount);
+			for (int i = 0; i < labelsPerObject; i++) {
+				int w = random.nextInt(workers);
+				int label = random.nextDouble() < 0.7 ? correct : random.nextInt(categoriesCount);
+				als.add(new AssignedLabel("w" + w, "o" + o, "c" + label));
+			}
+		}
+		ds.addAssignedLabels(als);
+		return ds;
+	}
+
+	static double timeMStep(DenseEMEngine engine) {
+		double best = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < REPEATS; i++) {
+			long start = System.nanoTime();
+			engine.rebuildWorkerConfusionMatrices();
+			best = Math.min(best, (System.nanoTime() - start) / 1e6);
+		}
+		return best;
+	}
+
+	public static void main(String[] args) {
+		int labels = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int categories = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int labelsPerObject = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		System.out.println("labels=" + labels + " categories=" + categories
+				+ " labelsPerObject=" + labelsPerObject
+				+ " cores=" + Runtime.getRuntime().availableProcessors());
+		System.out.println("workers\tthreads\tms\tspeedup");
+		for (int workers : WORKERS) {
+			BatchDawidSkene ds = generate(labels, categories, labelsPerObject, workers, 1);
+			DenseEMEngine engine = new DenseEMEngine(ds);
+			engine.updateObjectClassProbabilities();
+			double sequential = timeMStep(engine);
+			System.out.println(String.format("%d\t1\t%.1f\t1.00", workers, sequential));
+			for (int threads : THREADS) {
+				if (threads == 1)
+					continue;
+				ParallelRunner runner = new ParallelRunner(threads);
+				engine.setRunner(runner);
+				double parallel = timeMStep(engine);
+				runner.shutdown();
+				System.out.println(String.format("%d\t%d\t%.1f\t%.2f",
+						workers, threads, parallel, sequential / parallel));
+			}
+			engine.setRunner(null);
+		}
+	}
+}
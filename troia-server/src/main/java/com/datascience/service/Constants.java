@@ -15,4 +15,13 @@ public class Constants {
 	public static final String ID_GENERATOR = "ID_GENERATOR";
 	public static final String JOBS_MANAGER = "JOBS_MANAGER";
 	public static final String DOWNLOADS_PATH = "DOWNLOADS_PATH";
+	public static final String CHECKPOINTS_PATH = "CHECKPOINTS_PATH";
+	public static final String CHECKPOINT_STORAGE = "CHECKPOINT_STORAGE";
+	public static final String CHECKPOINT_PERIOD = "CHECKPOINT_PERIOD";
+	public static final String DISTRIBUTED_MODE = "DISTRIBUTED_MODE";
+	public static final String SHARD_PORT = "SHARD_PORT";
+	public static final String SHARD_ADDRESS = "SHARD_ADDRESS";
+	public static final String SHARD_SECRET = "SHARD_SECRET";
+	public static final String SHARD_SERVERS = "SHARD_SERVERS";
+	public static final String SHARD_SERVER = "SHARD_SERVER";
 }
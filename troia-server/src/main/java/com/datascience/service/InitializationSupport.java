@@ -13,9 +13,14 @@ import javax.servlet.ServletContextListener;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 
+import com.datascience.core.storages.ICheckpointStorage;
 import com.datascience.core.storages.IJobStorage;
+import com.datascience.executor.CommandStatus;
 import com.datascience.executor.CommandStatusesContainer;
 import com.datascience.executor.ProjectCommandExecutor;
+import com.datascience.gal.commands.PredictionCommands;
+import com.datascience.gal.distributed.ShardServer;
+import com.datascience.gal.distributed.ShardServers;
 
 /**
  * @author Konrad
@@ -57,6 +62,23 @@ public class InitializationSupport implements ServletContextListener {
 			CommandStatusesContainer statusesContainer = factory.loadCommandStatusesContainer(serializer);
 			scontext.setAttribute(Constants.COMMAND_STATUSES_CONTAINER, statusesContainer);
 			
+			// resumed computations are routed like the new ones
+			ShardServers shardServers = factory.loadShardServers();
+			scontext.setAttribute(Constants.SHARD_SERVERS, shardServers);
+			ShardServer shardServer = factory.loadShardServer();
+			if (shardServer != null) {
+				scontext.setAttribute(Constants.SHARD_SERVER, shardServer);
+				startShardServer(shardServer);
+			}
+			
+			ICheckpointStorage checkpointStorage = factory.loadCheckpointStorage(serializer);
+			long checkpointPeriod = factory.loadCheckpointPeriod();
+			scontext.setAttribute(Constants.CHECKPOINT_STORAGE, checkpointStorage);
+			scontext.setAttribute(Constants.CHECKPOINT_PERIOD, checkpointPeriod);
+			if (checkpointStorage != null)
+				resumeComputations(checkpointStorage, checkpointPeriod, shardServers, jobStorage,
+					executor, jobsManager, statusesContainer);
+			
 			scontext.setAttribute(Constants.DEPLOY_TIME, DateTime.now());
 			
 			scontext.setAttribute(Constants.ID_GENERATOR, factory.loadIdGenerator());
@@ -67,6 +89,54 @@ public class InitializationSupport implements ServletContextListener {
 		}
 	}
 
+	/**
+	 * Serves coordinators in a daemon thread until the context is destroyed.
+	 */
+	private void startShardServer(final ShardServer shardServer) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					shardServer.serve();
+				} catch (Exception ex) {
+					logger.error("Shard server stopped", ex);
+				}
+			}
+		}, "shard-server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Computations checkpointed before the restart continue from their
+	 * checkpoints, reporting under the status ids of the interrupted ones.
+	 */
+	private void resumeComputations(ICheckpointStorage checkpointStorage, long checkpointPeriod,
+			ShardServers shardServers, IJobStorage jobStorage, ProjectCommandExecutor executor, JobsManager jobsManager,
+			CommandStatusesContainer statusesContainer) throws Exception {
+		for (String jid : checkpointStorage.getJobIds()) {
+			if (jobStorage.get(jid) == null) {
+				logger.warn("Removing checkpoint of missing job " + jid);
+				checkpointStorage.remove(jid);
+				continue;
+			}
+			String statusId = checkpointStorage.get(jid).getCommandId();
+			if (statusId == null) {
+				statusId = statusesContainer.initNewStatus();
+			} else {
+				statusesContainer.addCommandStatus(statusId, CommandStatus.notReadyCommandStatus());
+			}
+			PredictionCommands.Compute command =
+				PredictionCommands.Compute.resume(checkpointStorage, checkpointPeriod);
+			command.setShardServers(shardServers, null);
+			command.setJobId(jid);
+			command.setJobStorage(jobStorage);
+			executor.add(new RequestExecutorCommand(statusId, command,
+				jobsManager.getLock(jid), statusesContainer));
+			logger.info("Resuming computation of " + jid + " as " + statusId);
+		}
+	}
+
 	@Override
 	public void contextDestroyed(ServletContextEvent event) {
 		logger.info("STARTED Cleaning service");
@@ -75,6 +145,15 @@ public class InitializationSupport implements ServletContextListener {
 			(IJobStorage) scontext.getAttribute(Constants.JOBS_STORAGE);
 		ProjectCommandExecutor executor =
 			(ProjectCommandExecutor) scontext.getAttribute(Constants.COMMAND_EXECUTOR);
+		ShardServer shardServer =
+			(ShardServer) scontext.getAttribute(Constants.SHARD_SERVER);
+		if (shardServer != null) {
+			try {
+				shardServer.close();
+			} catch (Exception ex) {
+				logger.error("FAILED Cleaning service - shard server", ex);
+			}
+		}
 		try {
 			jobStorage.stop();
 		} catch (Exception ex) {
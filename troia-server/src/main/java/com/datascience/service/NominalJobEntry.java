@@ -11,11 +11,13 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Response;
 
+import com.datascience.core.storages.ICheckpointStorage;
 import com.datascience.core.storages.JSONUtils;
 import com.datascience.executor.JobCommand;
 import com.datascience.gal.AbstractDawidSkene;
 import com.datascience.gal.AssignedLabel;
 import com.datascience.gal.CorrectLabel;
+import com.datascience.gal.EstimationSettings;
 import com.datascience.gal.MisclassificationCost;
 import com.datascience.gal.commands.AssignsCommands;
 import com.datascience.gal.commands.CategoriesCommands;
@@ -24,6 +26,7 @@ import com.datascience.gal.commands.DatumCommands;
 import com.datascience.gal.commands.EvaluationCommands;
 import com.datascience.gal.commands.JobCommands;
 import com.datascience.gal.commands.PredictionCommands;
+import com.datascience.gal.commands.SettingsCommands;
 import com.datascience.gal.commands.WorkerCommands;
 import com.datascience.gal.decision.ILabelProbabilityDistributionCalculator;
 import com.datascience.gal.decision.ILabelProbabilityDistributionCostCalculator;
@@ -32,6 +35,7 @@ import com.datascience.gal.decision.LabelProbabilityDistributionCalculators;
 import com.datascience.gal.decision.LabelProbabilityDistributionCostCalculators;
 import com.datascience.gal.decision.ObjectLabelDecisionAlgorithms;
 import com.datascience.gal.decision.WorkerEstimator;
+import com.datascience.gal.distributed.ShardServers;
 import com.datascience.gal.evaluation.DataEvaluator;
 import com.datascience.gal.evaluation.WorkerEvaluator;
 
@@ -156,10 +160,48 @@ public class NominalJobEntry extends JobEntryBase<AbstractDawidSkene> {
 		return buildResponseOnCommand(new WorkerCommands.GetWorkers());
 	}
 	
+	@Path("settings/")
+	@POST
+	public Response setSettings(@FormParam("settings") String sSettings){
+		EstimationSettings settings = serializer.parse(sSettings, EstimationSettings.class);
+		return buildResponseOnCommand(new SettingsCommands.SetSettings(settings));
+	}
+
+	@Path("settings/")
+	@GET
+	public Response getSettings(){
+		return buildResponseOnCommand(new SettingsCommands.GetSettings());
+	}
+
 	@Path("compute/")
 	@POST
-	public Response compute(@DefaultValue("10") @FormParam("iterations") int iterations){
-		return buildResponseOnCommand(new PredictionCommands.Compute( iterations));
+	public Response compute(@DefaultValue("10") @FormParam("iterations") int iterations,
+			@FormParam("batchFraction") Double batchFraction,
+			@FormParam("distributed") Boolean distributed){
+		PredictionCommands.Compute compute = new PredictionCommands.Compute(iterations, batchFraction);
+		compute.setShardServers((ShardServers) context.getAttribute(Constants.SHARD_SERVERS), distributed);
+		ICheckpointStorage checkpointStorage = (ICheckpointStorage) context.getAttribute(Constants.CHECKPOINT_STORAGE);
+		if (checkpointStorage != null)
+			compute.setCheckpointStorage(checkpointStorage, (Long) context.getAttribute(Constants.CHECKPOINT_PERIOD));
+		return buildResponseOnCommand(compute);
+	}
+
+	@Path("compute/logLikelihoods/")
+	@GET
+	public Response getLogLikelihoods(){
+		return buildResponseOnCommand(new PredictionCommands.GetLogLikelihoods());
+	}
+
+	@Path("compute/activeObjects/")
+	@GET
+	public Response getActiveObjects(){
+		return buildResponseOnCommand(new PredictionCommands.GetActiveObjects());
+	}
+
+	@Path("compute/localIterations/")
+	@GET
+	public Response getLocalIterations(){
+		return buildResponseOnCommand(new PredictionCommands.GetLocalIterations());
 	}
 	
 	@Path("prediction/data/")
@@ -26,11 +26,23 @@ public class RequestExecutorCommand extends SynchronizedCommand{
 		this.commandId = commandId;
 		this.command = command;
 		this.statusContainer = statusContainer;
+		command.setStatusId(commandId);
+		// progress is published as the data of the not ready status
+		command.setProgressListener(new ProjectCommand.ProgressListener() {
+			@Override
+			public void progress(Object progress) {
+				RequestExecutorCommand.this.statusContainer.addCommandStatus(
+					RequestExecutorCommand.this.commandId,
+					CommandStatus.notReadyCommandStatus(progress));
+			}
+		});
+		statusContainer.registerCommand(commandId, command);
 	}
 
 	@Override
 	public void cleanup() {
 		super.cleanup();
+		statusContainer.unregisterCommand(commandId);
 		CommandStatus status;
 		if (command.wasOk()){
 			status = CommandStatus.okCommandStatus(command.getResult(), executionTimeInSeconds);
@@ -66,7 +66,14 @@ public class ResponseBuilder {
 	}
 
 	public Response makeNotReadyResponse(){
-		Map<String, Object> init_content = initialResponseContent("NOT_READY", null);
+		return makeNotReadyResponse(null);
+	}
+
+	/**
+	 * @param progress reported by the running command, may be null
+	 */
+	public Response makeNotReadyResponse(Object progress){
+		Map<String, Object> init_content = initialResponseContent("NOT_READY", progress);
 		return buildResponse(200, init_content);
 	}
 	
@@ -83,7 +90,7 @@ public class ResponseBuilder {
 			case ERROR:
 				return makeExceptionResponse(status.getError(), status.getExecutionTime());
 			case NOT_READY:
-				return makeNotReadyResponse();
+				return makeNotReadyResponse(status.getData());
 			default:
 				throw new IllegalStateException("Unknown command status: " + status.getStatus());
 		}
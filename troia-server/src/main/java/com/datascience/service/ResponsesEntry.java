@@ -4,6 +4,7 @@ import java.util.NoSuchElementException;
 
 import javax.annotation.PostConstruct;
 import javax.servlet.ServletContext;
+import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -25,8 +26,13 @@ public class ResponsesEntry {
 
 	@PostConstruct
 	public void postConstruct(){
-		responser = (ResponseBuilder) context.getAttribute(Constants.RESPONSER);
-		statusesContainer = (CommandStatusesContainer) context.getAttribute(Constants.COMMAND_STATUSES_CONTAINER);
+		init((ResponseBuilder) context.getAttribute(Constants.RESPONSER),
+			(CommandStatusesContainer) context.getAttribute(Constants.COMMAND_STATUSES_CONTAINER));
+	}
+
+	void init(ResponseBuilder responser, CommandStatusesContainer statusesContainer){
+		this.responser = responser;
+		this.statusesContainer = statusesContainer;
 	}
 
 	@GET
@@ -38,4 +44,15 @@ public class ResponsesEntry {
 		}
 		return responser.makeStatusResponse(status);
 	}
+
+	/**
+	 * Asks a running command to stop. It still finishes normally, with the
+	 * state it had reached, so its status has to be polled as usual.
+	 */
+	@DELETE
+	@Path("/{id}/{res: .*}")
+	public Response cancel(@PathParam("id") String sid) throws Exception {
+		statusesContainer.cancelCommand(sid);
+		return responser.makeOKResponse("Cancellation requested");
+	}
 }
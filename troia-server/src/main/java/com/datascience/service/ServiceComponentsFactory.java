@@ -1,6 +1,7 @@
 package com.datascience.service;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.sql.SQLException;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
@@ -9,11 +10,15 @@ import org.apache.log4j.Logger;
 
 import com.datascience.core.storages.CachedWithRegularDumpJobStorage;
 import com.datascience.core.storages.DBJobStorage;
+import com.datascience.core.storages.FileCheckpointStorage;
+import com.datascience.core.storages.ICheckpointStorage;
 import com.datascience.core.storages.IJobStorage;
 import com.datascience.core.storages.JobStorageUsingExecutor;
 import com.datascience.executor.CommandStatusesContainer;
 import com.datascience.executor.SerializedCommandStatusesContainer;
 import com.datascience.executor.ProjectCommandExecutor;
+import com.datascience.gal.distributed.ShardServer;
+import com.datascience.gal.distributed.ShardServers;
 
 /**
  *
@@ -49,6 +54,91 @@ public class ServiceComponentsFactory {
 		return jobStorage;
 	}
 	
+	/**
+	 * @return null if computations are not checkpointed
+	 */
+	public ICheckpointStorage loadCheckpointStorage(ISerializer serializer) throws IOException {
+		String path = properties.getProperty(Constants.CHECKPOINTS_PATH);
+		if (path == null || path.trim().isEmpty())
+			return null;
+		ICheckpointStorage checkpointStorage = new FileCheckpointStorage(path, serializer);
+		logger.info("Checkpoint Storage loaded");
+		return checkpointStorage;
+	}
+
+	public long loadCheckpointPeriod(){
+		int seconds;
+		if (properties.containsKey("checkpointPeriod")) {
+			seconds = Integer.parseInt(properties.getProperty("checkpointPeriod"));
+		} else {
+			seconds = 60;
+		}
+		return TimeUnit.SECONDS.toMillis(seconds);
+	}
+	
+	/**
+	 * @return null unless the server is in coordinator mode
+	 */
+	public ShardServers loadShardServers(){
+		if (!"coordinator".equals(loadDistributedMode()))
+			return null;
+		String addresses = properties.getProperty(Constants.SHARD_SERVERS);
+		if (addresses == null)
+			throw new IllegalArgumentException("Coordinator mode needs " + Constants.SHARD_SERVERS);
+		long distributedLabels = 0;
+		if (properties.containsKey("distributedLabels"))
+			distributedLabels = Long.parseLong(properties.getProperty("distributedLabels"));
+		ShardServers shardServers = new ShardServers(ShardServers.parseAddresses(addresses),
+			loadShardTimeout(), distributedLabels, loadShardSecret());
+		logger.info("Shard servers loaded: " + shardServers.getAddresses());
+		return shardServers;
+	}
+
+	/**
+	 * @return null unless the server is in worker mode
+	 */
+	public ShardServer loadShardServer() throws IOException {
+		if (!"worker".equals(loadDistributedMode()))
+			return null;
+		String port = properties.getProperty(Constants.SHARD_PORT);
+		if (port == null)
+			throw new IllegalArgumentException("Worker mode needs " + Constants.SHARD_PORT);
+		String address = properties.getProperty(Constants.SHARD_ADDRESS);
+		InetAddress bindAddress = address == null || address.trim().isEmpty() ? null
+			: InetAddress.getByName(address.trim());
+		ShardServer shardServer = new ShardServer(bindAddress, Integer.parseInt(port.trim()),
+			loadShardTimeout(), loadShardSecret());
+		logger.info("Shard server loaded on " + shardServer.getAddress() + ":" + shardServer.getPort());
+		return shardServer;
+	}
+
+	private String loadShardSecret(){
+		String secret = properties.getProperty(Constants.SHARD_SECRET);
+		if (secret == null || secret.trim().isEmpty())
+			throw new IllegalArgumentException("Distributed mode needs " + Constants.SHARD_SECRET);
+		return secret.trim();
+	}
+
+	private String loadDistributedMode(){
+		String mode = properties.getProperty(Constants.DISTRIBUTED_MODE);
+		if (mode == null || mode.trim().isEmpty())
+			return null;
+		mode = mode.trim();
+		if (!"coordinator".equals(mode) && !"worker".equals(mode))
+			throw new IllegalArgumentException("Unknown " + Constants.DISTRIBUTED_MODE + ": " + mode);
+		return mode;
+	}
+
+	private int loadShardTimeout(){
+		int seconds;
+		if (properties.containsKey("shardTimeout")) {
+			seconds = Integer.parseInt(properties.getProperty("shardTimeout"));
+		} else {
+			seconds = 60;
+		}
+		return (int) TimeUnit.SECONDS.toMillis(seconds);
+	}
+	
 	public IRandomUniqIDGenerator loadIdGenerator(){
 		return new RandomUniqIDGenerators.PrefixAdderDecorator("RANDOM__", new RandomUniqIDGenerators.NumberAndDate());
 	}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Panagiotis G. Ipeirotis & Josh M. Attenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ ******************************************************************************/
+package com.datascience.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs a loop over an index range on a fixed pool of threads. The range is
+ * cut into chunks and each chunk is processed by exactly one thread, so a
+ * task can keep scratch buffers per chunk without any synchronization.
+ */
+public class ParallelRunner {
+
+	public interface ChunkTask {
+		/**
+		 * Processes indexes [from, to). Chunk numbers are unique within a
+		 * single {@link ParallelRunner#run} call.
+		 */
+		void run(int chunk, int from, int to);
+	}
+
+	private final int threads;
+	private final ExecutorService executor;
+
+	public ParallelRunner(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Number of threads should be positive");
+		this.threads = threads;
+		ThreadFactory tf = new ThreadFactoryBuilder()
+			.setNameFormat("emTh-%d")
+			.setDaemon(true)
+			.build();
+		executor = Executors.newFixedThreadPool(threads, tf);
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Splits [0, size) into at most <code>chunks</code> ranges of (nearly)
+	 * equal length.
+	 *
+	 * @return chunk boundaries; chunk i is [bounds[i], bounds[i + 1])
+	 */
+	public static int[] split(int size, int chunks) {
+		chunks = Math.max(1, Math.min(chunks, size));
+		int[] bounds = new int[chunks + 1];
+		for (int i = 0; i <= chunks; i++) {
+			bounds[i] = (int) ((long) size * i / chunks);
+		}
+		return bounds;
+	}
+
+	/**
+	 * Splits [0, cumulative.length - 1) into at most <code>chunks</code>
+	 * ranges carrying similar total weight. <code>cumulative</code> holds
+	 * prefix sums of the weights, starting with 0.
+	 */
+	public static int[] splitByWeight(int[] cumulative, int chunks) {
+		int size = cumulative.length - 1;
+		chunks = Math.max(1, Math.min(chunks, size));
+		long total = cumulative[size];
+		int[] bounds = new int[chunks + 1];
+		int idx = 0;
+		for (int i = 1; i < chunks; i++) {
+			long target = total * i / chunks;
+			while (idx < size && cumulative[idx] < target)
+				idx++;
+			bounds[i] = Math.max(idx, bounds[i - 1]);
+		}
+		bounds[chunks] = size;
+		return bounds;
+	}
+
+	public void run(int size, ChunkTask task) {
+		run(split(size, threads), task);
+	}
+
+	/**
+	 * Runs <code>task</code> for every chunk and waits for all of them. The
+	 * first failure is rethrown.
+	 */
+	public void run(int[] bounds, final ChunkTask task) {
+		int chunks = bounds.length - 1;
+		if (chunks == 1) {
+			task.run(0, bounds[0], bounds[1]);
+			return;
+		}
+		List<Callable<Void>> callables = new ArrayList<Callable<Void>>(chunks);
+		for (int i = 0; i < chunks; i++) {
+			final int chunk = i;
+			final int from = bounds[i];
+			final int to = bounds[i + 1];
+			callables.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					task.run(chunk, from, to);
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Void> f : executor.invokeAll(callables)) {
+				f.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for parallel tasks", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
@@ -76,6 +76,16 @@ public class Utils {
 		return bd.doubleValue();
 	}
 
+	/**
+	 * Rounds a returned probability, or a value computed from them, to 5
+	 * places. The algorithms keep them unrounded.
+	 */
+	public static Double roundResult(Double value) {
+		if (value == null || value.isNaN() || value.isInfinite())
+			return value;
+		return round(value, 5);
+	}
+
 	public static Double entropy(double[] p) {
 		double h = 0;
 		for (int i = 0; i < p.length; i++) {
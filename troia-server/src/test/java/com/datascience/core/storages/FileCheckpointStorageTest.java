@@ -0,0 +1,86 @@
+package com.datascience.core.storages;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datascience.gal.EstimationCheckpoint;
+import com.datascience.gal.EstimationSettings;
+import com.datascience.service.GSONSerializer;
+import com.google.common.io.Files;
+
+public class FileCheckpointStorageTest {
+
+	private File directory;
+	private FileCheckpointStorage storage;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDir();
+		storage = new FileCheckpointStorage(directory.getPath(), new GSONSerializer());
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+	}
+
+	private static EstimationCheckpoint checkpoint(int iteration) {
+		Map<String, Double> priors = new HashMap<String, Double>();
+		priors.put("a", 0.25);
+		priors.put("b", 0.75);
+		Map<String, double[]> errorRates = new HashMap<String, double[]>();
+		errorRates.put("worker", new double[] {0.9, 0.1, Double.NaN, 0.});
+		return new EstimationCheckpoint(iteration, 20, new String[] {"a", "b"}, priors, errorRates);
+	}
+
+	@Test
+	public void testSaveOverwritesPrevious() throws Exception {
+		String jobId = "job/with:odd chars";
+		storage.save(jobId, checkpoint(3));
+		storage.save(jobId, checkpoint(7));
+		assertEquals(Arrays.asList(jobId), storage.getJobIds());
+
+		EstimationCheckpoint restored = storage.get(jobId);
+		assertEquals(7, restored.getIteration());
+		assertEquals(20, restored.getMaxIterations());
+		assertEquals(Arrays.asList("a", "b"), restored.getCategories());
+		assertEquals(0.75, restored.getPriors().get("b"), 0.);
+		assertArrayEquals(checkpoint(7).getErrorRates().get("worker"),
+				restored.getErrorRates().get("worker"), 0.);
+	}
+
+	@Test
+	public void testCommandAndSettingsAreKept() throws Exception {
+		EstimationCheckpoint checkpoint = checkpoint(2);
+		EstimationSettings settings = new EstimationSettings();
+		settings.setMiniBatchFraction(0.25);
+		checkpoint.setCommandId("42");
+		checkpoint.setSettings(settings);
+		storage.save("job", checkpoint);
+
+		EstimationCheckpoint restored = storage.get("job");
+		assertEquals("42", restored.getCommandId());
+		assertEquals(settings, restored.getSettings());
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		storage.save("job", checkpoint(1));
+		storage.remove("job");
+		storage.remove("job");
+		assertNull(storage.get("job"));
+		assertEquals(0, storage.getJobIds().size());
+	}
+}
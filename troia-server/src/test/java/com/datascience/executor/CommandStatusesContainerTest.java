@@ -0,0 +1,143 @@
+package com.datascience.executor;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.datascience.service.RandomUniqIDGenerators;
+
+public class CommandStatusesContainerTest {
+
+	private CommandStatusesContainer container;
+
+	@Before
+	public void setUp() {
+		container = new CommandStatusesContainer(new RandomUniqIDGenerators.Numbers());
+	}
+
+	/**
+	 * Reports the number of its iterations as progress until it is cancelled.
+	 */
+	static class LoopCommand extends ProjectCommand<Integer> {
+
+		final CountDownLatch started = new CountDownLatch(1);
+
+		LoopCommand() {
+			super(false);
+		}
+
+		@Override
+		public boolean isCancellable() {
+			return true;
+		}
+
+		@Override
+		protected void prepareExecution() {
+		}
+
+		@Override
+		protected void realExecute() throws Exception {
+			started.countDown();
+			int iterations = 0;
+			while (!isCancelled()) {
+				reportProgress(iterations);
+				iterations++;
+				Thread.sleep(1);
+			}
+			setResult(iterations);
+		}
+	}
+
+	static class ConstantCommand extends ProjectCommand<String> {
+
+		ConstantCommand() {
+			super(false);
+		}
+
+		@Override
+		protected void prepareExecution() {
+		}
+
+		@Override
+		protected void realExecute() {
+			setResult("done");
+		}
+	}
+
+	@Test
+	public void testCancelQueuedCommand() {
+		String id = container.initNewStatus();
+		LoopCommand command = new LoopCommand();
+		container.registerCommand(id, command);
+		container.cancelCommand(id);
+		command.execute();
+		assertEquals(Integer.valueOf(0), command.getResult());
+	}
+
+	@Test
+	public void testCancelRunningCommand() throws InterruptedException {
+		String id = container.initNewStatus();
+		final LoopCommand command = new LoopCommand();
+		container.registerCommand(id, command);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				command.execute();
+			}
+		});
+		thread.start();
+		assertTrue(command.started.await(10, TimeUnit.SECONDS));
+		container.cancelCommand(id);
+		thread.join(10000);
+		assertFalse(thread.isAlive());
+		assertTrue(command.wasOk());
+		assertNotNull(command.getResult());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testCancelFinishedCommand() {
+		String id = container.initNewStatus();
+		LoopCommand command = new LoopCommand();
+		container.registerCommand(id, command);
+		container.cancelCommand(id);
+		command.execute();
+		container.unregisterCommand(id);
+		container.addCommandStatus(id, CommandStatus.okCommandStatus(command.getResult(), 0.));
+		container.cancelCommand(id);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testCommandThatCantBeCancelled() {
+		String id = container.initNewStatus();
+		container.registerCommand(id, new ConstantCommand());
+		container.cancelCommand(id);
+	}
+
+	@Test(expected=NoSuchElementException.class)
+	public void testCancelUnknownCommand() {
+		container.cancelCommand("unknown");
+	}
+
+	@Test
+	public void testProgressStatus() {
+		String id = container.initNewStatus();
+		CommandStatus<?> status = container.getCommandResult(id);
+		assertEquals(CommandStatus.CommandStatusType.NOT_READY, status.getStatus());
+		assertNull(status.getData());
+
+		container.addCommandStatus(id, CommandStatus.notReadyCommandStatus(7));
+		status = container.getCommandResult(id);
+		assertEquals(CommandStatus.CommandStatusType.NOT_READY, status.getStatus());
+		assertEquals(7, status.getData());
+		assertNull(status.getError());
+
+		container.addCommandStatus(id, CommandStatus.okCommandStatus("done", 1.));
+		status = container.getCommandResult(id);
+		assertEquals(CommandStatus.CommandStatusType.OK, status.getStatus());
+		assertEquals("done", status.getData());
+	}
+}
@@ -0,0 +1,106 @@
+package com.datascience.gal;
+
+import static com.datascience.gal.EMTestData.CATEGORIES;
+import static com.datascience.gal.EMTestData.categories;
+import static com.datascience.gal.EMTestData.randomLabels;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+
+import org.junit.Test;
+
+public class AcceleratedStepTest {
+
+	/**
+	 * Number of iterations after which all error rates stay within 1e-6 of
+	 * <code>fixedPoint</code>.
+	 */
+	static int iterationsToReach(DenseEMEngine engine, double[] fixedPoint, int max) {
+		for (int i = 0; i < max; i++) {
+			engine.iterate();
+			double difference = 0.;
+			for (int j = 0; j < fixedPoint.length; j++) {
+				if (!Double.isNaN(fixedPoint[j]))
+					difference = Math.max(difference, Math.abs(engine.matrices.values[j] - fixedPoint[j]));
+			}
+			if (difference < 1e-6)
+				return i + 1;
+		}
+		return max;
+	}
+
+	@Test
+	public void testAccelerationReachesSameFixedPointFaster() {
+		Collection<AssignedLabel> labels = randomLabels(11, 200, 6, 3);
+		BatchDawidSkene reference = new BatchDawidSkene("id", categories());
+		reference.addAssignedLabels(labels);
+		DenseEMEngine engine = new DenseEMEngine(reference);
+		for (int i = 0; i < 3000; i++)
+			engine.iterate();
+		double[] fixedPoint = engine.matrices.values.clone();
+
+		BatchDawidSkene plainDs = new BatchDawidSkene("id", categories());
+		plainDs.addAssignedLabels(labels);
+		int plain = iterationsToReach(new DenseEMEngine(plainDs), fixedPoint, 3000);
+		BatchDawidSkene acceleratedDs = new BatchDawidSkene("id", categories());
+		acceleratedDs.addAssignedLabels(labels);
+		DenseEMEngine accelerated = new DenseEMEngine(acceleratedDs);
+		accelerated.setAcceleration(true);
+		int fast = iterationsToReach(accelerated, fixedPoint, 3000);
+		assertTrue(plain < 3000);
+		// every rejected extrapolation costs one more pass
+		assertTrue(3 * (fast + accelerated.getRejectedExtrapolations()) < plain);
+	}
+
+	@Test
+	public void testAcceleratedEstimateKeepsDistributions() {
+		BatchDawidSkene project = new BatchDawidSkene("id", categories());
+		project.addAssignedLabels(randomLabels(5, 300, 8, 3));
+		EstimationSettings settings = new EstimationSettings();
+		settings.setAcceleration(true);
+		project.setEstimationSettings(settings);
+		project.estimate(50, -1.);
+		double priorsSum = 0.;
+		for (String from : CATEGORIES) {
+			priorsSum += project.prior(from);
+			for (Worker w : project.getWorkers()) {
+				double sum = 0.;
+				for (String to : CATEGORIES) {
+					double rate = project.getErrorRateForWorker(w, from, to);
+					assertTrue(rate >= 0.);
+					sum += rate;
+				}
+				assertEquals(1., sum, 1e-9);
+			}
+		}
+		assertEquals(1., priorsSum, 1e-9);
+	}
+
+	@Test
+	public void testAccelerationConvergesInFewerIterations() {
+		Collection<AssignedLabel> labels = randomLabels(11, 200, 6, 3);
+		BatchDawidSkene plain = new BatchDawidSkene("id", categories());
+		plain.addAssignedLabels(labels);
+		plain.estimate(3000, 1e-9);
+		BatchDawidSkene accelerated = new BatchDawidSkene("id", categories());
+		accelerated.addAssignedLabels(labels);
+		EstimationSettings settings = new EstimationSettings();
+		settings.setAcceleration(true);
+		accelerated.setEstimationSettings(settings);
+		accelerated.estimate(3000, 1e-9);
+
+		int plainIterations = plain.getLogLikelihoods().size();
+		int acceleratedIterations = accelerated.getLogLikelihoods().size();
+		assertTrue(plainIterations < 3000);
+		assertTrue(2 * acceleratedIterations < plainIterations);
+		// the priors may stop elsewhere on a flat ridge of the likelihood,
+		// the matrices at the same fixed point
+		for (Worker w : plain.getWorkers()) {
+			Worker other = accelerated.getWorker(w.getName());
+			for (String from : CATEGORIES)
+				for (String to : CATEGORIES)
+					assertEquals(w.getErrorRateBatch(from, to), other.getErrorRateBatch(from, to), 1e-6);
+		}
+	}
+}
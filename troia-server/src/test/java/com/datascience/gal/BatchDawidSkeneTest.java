@@ -1,12 +1,18 @@
 package com.datascience.gal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
 
 import com.datascience.core.storages.JSONUtils;
+import com.datascience.utils.ParallelRunner;
 import org.junit.Test;
 
 import com.datascience.gal.BatchDawidSkene.BatchDawidSkeneDeserializer;
@@ -81,4 +87,180 @@ public class BatchDawidSkeneTest {
 		}
 		
 	}
+
+	/**
+	 * Two groups of workers labeling disjoint groups of objects, so that
+	 * changes in one group do not affect the other one.
+	 */
+	private static ArrayList<Category> twoCategories() {
+		ArrayList<Category> categories = new ArrayList<Category>();
+		categories.add(new Category("a"));
+		categories.add(new Category("b"));
+		return categories;
+	}
+
+	private BatchDawidSkene createTwoGroupsProject() {
+		return createTwoGroupsProject(new BatchDawidSkene("id", twoCategories()));
+	}
+
+	private BatchDawidSkene createTwoGroupsProject(BatchDawidSkene ds) {
+		Random random = new Random(3);
+		for (String group : new String[] {"g1", "g2"}) {
+			for (int o = 0; o < 20; o++) {
+				for (int w = 0; w < 4; w++) {
+					String category = random.nextDouble() < 0.8 ? (o % 2 == 0 ? "a" : "b")
+							: (o % 2 == 0 ? "b" : "a");
+					ds.addAssignedLabel(new AssignedLabel(group + "worker" + w,
+							group + "object" + o, category));
+				}
+			}
+		}
+		return ds;
+	}
+
+	@Test
+	public final void testWarmStartKeepsUnaffectedPart() {
+		BatchDawidSkene ds = createTwoGroupsProject();
+		ds.estimate(10);
+		EstimationSettings settings = new EstimationSettings();
+		settings.setWarmStart(true);
+		settings.setWarmStartThreshold(1.);
+		ds.setEstimationSettings(settings);
+
+		Map<String, Map<String, Double>> before = new HashMap<String, Map<String, Double>>();
+		for (Datum d : ds.getObjects().values()) {
+			before.put(d.getName(), new HashMap<String, Double>(d.getCategoryProbability()));
+		}
+		double errorRate = ds.getWorker("g2worker0").getErrorRateBatch("a", "b");
+		ds.addAssignedLabel(new AssignedLabel("g1worker0", "new", "a"));
+		ds.addAssignedLabel(new AssignedLabel("g1worker1", "new", "a"));
+		ds.addAssignedLabel(new AssignedLabel("g1worker2", "new", "b"));
+		ds.estimate(10);
+
+		assertTrue(ds.isComputed());
+		assertTrue(ds.getLogLikelihoods().isEmpty());
+		Map<String, Double> probabilities = ds.getObject("new").getCategoryProbability();
+		assertEquals(1., probabilities.get("a") + probabilities.get("b"), 1e-9);
+		for (int o = 0; o < 20; o++) {
+			String objectName = "g2object" + o;
+			assertEquals(before.get(objectName), ds.getObject(objectName).getCategoryProbability());
+		}
+		assertEquals(errorRate, ds.getWorker("g2worker0").getErrorRateBatch("a", "b"), 0.);
+	}
+
+	@Test
+	public final void testWarmStartFallsBackToFullEstimation() {
+		BatchDawidSkene ds = createTwoGroupsProject();
+		ds.estimate(10);
+		EstimationSettings settings = new EstimationSettings();
+		settings.setWarmStart(true);
+		settings.setWarmStartThreshold(0.);
+		ds.setEstimationSettings(settings);
+
+		ds.addAssignedLabel(new AssignedLabel("g1worker0", "new", "b"));
+		ds.addAssignedLabel(new AssignedLabel("g1worker1", "new", "b"));
+		ds.estimate(10);
+
+		assertTrue(ds.isComputed());
+		assertFalse(ds.getLogLikelihoods().isEmpty());
+	}
+
+	@Test
+	public final void testLogErrorRatesFollowWorkerMatrix() {
+		BatchDawidSkene ds = createTwoGroupsProject();
+		ds.estimate(10);
+		Worker w = ds.getWorker("g1worker0");
+		int b = ds.labelStore.categoryId("b");
+		double[] logErrorRates = w.getLogErrorRates(ds, b);
+		assertTrue(logErrorRates == w.getLogErrorRates(ds, b));
+		for (String from : new String[] {"a", "b"}) {
+			assertEquals(Math.log(w.getErrorRateBatch(from, "b")),
+					logErrorRates[ds.labelStore.categoryId(from)], 0.);
+		}
+
+		// the table is dropped once the update is done, not per cell
+		w.addError("a", "b", 1.);
+		assertTrue(logErrorRates == w.getLogErrorRates(ds, b));
+		w.normalize(ConfusionMatrixNormalizationType.UNIFORM);
+		assertFalse(logErrorRates == w.getLogErrorRates(ds, b));
+		logErrorRates = w.getLogErrorRates(ds, b);
+		assertEquals(Math.log(w.getErrorRateBatch("a", "b")),
+				logErrorRates[ds.labelStore.categoryId("a")], 0.);
+	}
+
+	/**
+	 * Processes the first chunk of the <code>failingCall</code>-th step and
+	 * then fails, like a parallel task that throws.
+	 */
+	private static class FailingRunner extends ParallelRunner {
+
+		private final int failingCall;
+		private int calls;
+
+		FailingRunner(int failingCall) {
+			super(2);
+			this.failingCall = failingCall;
+		}
+
+		@Override
+		public void run(int[] bounds, ChunkTask task) {
+			if (++calls == failingCall) {
+				task.run(0, bounds[0], bounds[1]);
+				throw new IllegalStateException("Task failed");
+			}
+			super.run(bounds, task);
+		}
+	}
+
+	@Test
+	public final void testFailedIterationKeepsEstimates() {
+		final boolean[] failing = new boolean[1];
+		BatchDawidSkene ds = createTwoGroupsProject(new BatchDawidSkene("id", twoCategories()) {
+			@Override
+			ParallelRunner createRunner(int threads) {
+				// the E-step of the second iteration fails
+				return failing[0] ? new FailingRunner(3) : super.createRunner(threads);
+			}
+		});
+		EstimationSettings settings = new EstimationSettings();
+		settings.setThreads(2);
+		ds.setEstimationSettings(settings);
+		ds.estimate(3, 0.);
+		Map<String, Map<String, Double>> before = new HashMap<String, Map<String, Double>>();
+		for (Datum d : ds.getObjects().values()) {
+			before.put(d.getName(), new HashMap<String, Double>(d.getCategoryProbability()));
+		}
+		double errorRate = ds.getWorker("g1worker0").getErrorRateBatch("a", "b");
+
+		failing[0] = true;
+		try {
+			ds.estimate(5, 0.);
+			fail("The failed step should fail the estimation");
+		} catch (IllegalStateException ex) {
+			assertEquals("Task failed", ex.getMessage());
+		}
+		for (Datum d : ds.getObjects().values()) {
+			assertEquals(before.get(d.getName()), d.getCategoryProbability());
+		}
+		assertEquals(errorRate, ds.getWorker("g1worker0").getErrorRateBatch("a", "b"), 0.);
+	}
+
+	@Test
+	public final void testCancelledEstimationIsNotComputed() {
+		BatchDawidSkene ds = createTwoGroupsProject();
+		ds.setEstimationMonitor(new EstimationMonitor() {
+			@Override
+			public boolean iterationDone(int iteration, int maxIterations,
+					double logLikelihood, double logLikelihoodChange) {
+				return iteration < 2;
+			}
+		});
+		ds.estimate(10, 0.);
+		assertEquals(2, ds.getLogLikelihoods().size());
+		assertFalse(ds.isComputed());
+
+		// stopping after the last iteration is not a cancel
+		ds.estimate(2, 0.);
+		assertTrue(ds.isComputed());
+	}
 }
@@ -213,7 +213,23 @@ public class DatumTest {
 	 */
 	@Test
 	public final void testGetEntropy() {
-		assertTrue("test does not cover this method",true);
+		Set<Category> categories = new HashSet<Category>();
+		categories.add(new Category("a"));
+		categories.add(new Category("b"));
+		Datum datum = new Datum("name", categories);
+		assertEquals(Math.log(2), datum.getEntropy(), TestDataManager.DELTA_DOUBLE);
+
+		datum.setCategoryProbability("a", 1.);
+		datum.setCategoryProbability("b", 0.);
+		assertEquals(0., datum.getEntropy(), TestDataManager.DELTA_DOUBLE);
+
+		datum.setCategoryProbability("a", 0.5);
+		datum.setCategoryProbability("b", 0.5);
+		datum.setGold(true);
+		datum.setCorrectCategory("a");
+		assertEquals(0., datum.getEntropy(), TestDataManager.DELTA_DOUBLE);
+		datum.setGold(false);
+		assertEquals(Math.log(2), datum.getEntropy(), TestDataManager.DELTA_DOUBLE);
 	}
 
 	/**
@@ -0,0 +1,91 @@
+package com.datascience.gal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datascience.core.storages.JSONUtils;
+
+public class DenseConfusionMatrixTest {
+
+	private static final String[] CATEGORIES = EMTestData.CATEGORIES;
+
+	private DenseConfusionMatrix dense;
+	private MultinomialConfusionMatrix multinomial;
+
+	@Before
+	public void setUp() {
+		dense = new DenseConfusionMatrix(EMTestData.categories());
+		multinomial = new MultinomialConfusionMatrix(EMTestData.categories());
+	}
+
+	private void assertSameRates(ConfusionMatrix expected, ConfusionMatrix actual) {
+		assertEquals(expected.getCategories(), actual.getCategories());
+		for (String from : CATEGORIES)
+			for (String to : CATEGORIES)
+				assertEquals(expected.getErrorRateBatch(from, to),
+						actual.getErrorRateBatch(from, to), 1e-12);
+	}
+
+	@Test
+	public void testMatchesMapImplementation() {
+		assertSameRates(multinomial, dense);
+		dense.empty();
+		multinomial.empty();
+		for (int i = 0; i < 20; i++) {
+			String from = CATEGORIES[i % CATEGORIES.length];
+			String to = CATEGORIES[i * 7 % CATEGORIES.length];
+			dense.addError(from, to, 0.1 * i);
+			multinomial.addError(from, to, 0.1 * i);
+		}
+		dense.removeError(CATEGORIES[0], CATEGORIES[0], 0.5);
+		multinomial.removeError(CATEGORIES[0], CATEGORIES[0], 0.5);
+		assertEquals(multinomial.getIncrementalErrorRate(CATEGORIES[1], CATEGORIES[1]),
+				dense.getIncrementalErrorRate(CATEGORIES[1], CATEGORIES[1]), 1e-12);
+		dense.normalize();
+		multinomial.normalize();
+		assertSameRates(multinomial, dense);
+	}
+
+	@Test
+	public void testRowsWithoutErrorsAreUnknown() {
+		dense.empty();
+		dense.addError(CATEGORIES[0], CATEGORIES[1], 2.);
+		dense.normalize();
+		assertEquals(1., dense.getErrorRateBatch(CATEGORIES[0], CATEGORIES[1]), 0.);
+		assertTrue(Double.isNaN(dense.getErrorRateBatch(CATEGORIES[1], CATEGORIES[1])));
+	}
+
+	@Test
+	public void testUnknownCategoryIsAdded() {
+		dense.addError(CATEGORIES[0], "unknown", 1.);
+		assertEquals(CATEGORIES.length + 1, dense.getCategories().size());
+		assertEquals(1., dense.getErrorRateBatch(CATEGORIES[0], "unknown"), 0.);
+		assertEquals(0.9, dense.getErrorRateBatch(CATEGORIES[2], CATEGORIES[2]), 1e-12);
+	}
+
+	@Test
+	public void testJsonCompatibleWithMapImplementation() {
+		JSONUtils json = new JSONUtils();
+		MultinomialConfusionMatrix empty = new MultinomialConfusionMatrix(
+				EMTestData.categories(), new HashMap<CategoryPair, Double>());
+		empty.addError(CATEGORIES[1], CATEGORIES[2], 3.);
+
+		DenseConfusionMatrix read = json.gson.fromJson(json.gson.toJson(empty),
+				JSONUtils.denseConfusionMatrixType);
+		assertSameRates(empty, read);
+		assertEquals(empty.getIncrementalErrorRate(CATEGORIES[1], CATEGORIES[2]),
+				read.getIncrementalErrorRate(CATEGORIES[1], CATEGORIES[2]), 0.);
+
+		dense.addError(CATEGORIES[0], CATEGORIES[2], 1.);
+		MultinomialConfusionMatrix written = json.gson.fromJson(json.gson.toJson(dense),
+				JSONUtils.confusionMatrixType);
+		assertSameRates(dense, written);
+		assertEquals(dense, json.gson.fromJson(json.gson.toJson(dense),
+				JSONUtils.denseConfusionMatrixType));
+	}
+}
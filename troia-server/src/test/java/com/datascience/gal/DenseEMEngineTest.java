@@ -0,0 +1,244 @@
+package com.datascience.gal;
+
+import static com.datascience.gal.EMTestData.CATEGORIES;
+import static com.datascience.gal.EMTestData.assertSameResults;
+import static com.datascience.gal.EMTestData.smallJob;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datascience.utils.ParallelRunner;
+
+public class DenseEMEngineTest {
+
+	private BatchDawidSkene ds;
+
+	@Before
+	public void setUp() {
+		ds = smallJob(null);
+	}
+
+	@Test
+	public void testObjectClassProbabilitiesMatchMapImplementation() {
+		DenseEMEngine engine = new DenseEMEngine(ds);
+		double[] out = new double[CATEGORIES.length];
+		for (int o = 0; o < engine.datums.length; o++) {
+			String name = engine.datums[o].getName();
+			Map<String, Double> expected = ds.getObjectClassProbabilities(name);
+			assertTrue(engine.computeObjectClassProbabilities(o, -1, out));
+			for (int c = 0; c < CATEGORIES.length; c++) {
+				assertEquals(expected.get(engine.categoryNames[c]), out[c], 1e-12);
+			}
+		}
+	}
+
+	@Test
+	public void testWorkerMatricesMatchMapImplementation() {
+		DenseEMEngine engine = new DenseEMEngine(ds);
+		engine.rebuildWorkerConfusionMatrices();
+		int K = CATEGORIES.length;
+		for (int w = 0; w < engine.workers.length; w++) {
+			Worker worker = engine.workers[w];
+			MultinomialConfusionMatrix expected = new MultinomialConfusionMatrix(
+					ds.getCategories().values(), new HashMap<CategoryPair, Double>());
+			for (AssignedLabel al : worker.getAssignedLabels()) {
+				Map<String, Double> probabilities = ds.getObjectClassProbabilities(
+						al.getObjectName(), worker.getName());
+				if (probabilities == null)
+					continue;
+				for (String source : probabilities.keySet())
+					expected.addError(source, al.getCategoryName(), probabilities.get(source));
+			}
+			expected.normalize();
+			for (int from = 0; from < K; from++) {
+				for (int to = 0; to < K; to++) {
+					assertEquals(expected.getErrorRateBatch(engine.categoryNames[from], engine.categoryNames[to]),
+							engine.matrices.get(w, from, to), 1e-12);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testEstimateWritesBackResults() {
+		ds.estimate(20);
+		assertTrue(ds.isComputed());
+		Datum gold = ds.getObject("object0");
+		assertEquals(1., gold.getCategoryProbability("a"), 0.);
+		double priorSum = 0.;
+		for (Category c : ds.getCategories().values())
+			priorSum += c.getPrior();
+		assertEquals(1., priorSum, 1e-4);
+		for (Datum d : ds.getObjects().values()) {
+			double sum = 0.;
+			for (String c : CATEGORIES)
+				sum += d.getCategoryProbability(c);
+			assertEquals(1., sum, 1e-4);
+		}
+		Worker best = ds.getWorker("worker7");
+		Worker worst = ds.getWorker("worker0");
+		assertTrue(best.getErrorRateBatch("a", "a") > worst.getErrorRateBatch("a", "a"));
+	}
+
+	@Test
+	public void testParallelEstimateGivesSameResults() {
+		EstimationSettings settings = new EstimationSettings();
+		settings.setThreads(4);
+		BatchDawidSkene parallel = smallJob(settings);
+
+		ds.estimate(10);
+		parallel.estimate(10);
+		assertSameResults(ds, parallel);
+	}
+
+	@Test
+	public void testMonitorStopsEstimation() {
+		final List<Integer> reported = new ArrayList<Integer>();
+		ds.setEstimationMonitor(new EstimationMonitor() {
+			@Override
+			public boolean iterationDone(int iteration, int maxIterations,
+					double logLikelihood, double logLikelihoodChange) {
+				assertEquals(10, maxIterations);
+				assertEquals(iteration == 1, Double.isNaN(logLikelihoodChange));
+				reported.add(iteration);
+				return iteration < 3;
+			}
+		});
+		ds.estimate(10, 0.);
+		assertEquals(Arrays.asList(1, 2, 3), reported);
+		assertEquals(3, ds.getLogLikelihoods().size());
+		// the estimates of the stopped run are kept, but are not final
+		assertFalse(ds.isComputed());
+
+		BatchDawidSkene expected = smallJob(null);
+		expected.estimate(3, 0.);
+		assertSameResults(expected, ds);
+	}
+
+	@Test
+	public void testResumedEstimateMatchesUninterrupted() {
+		final EstimationCheckpoint[] checkpoint = new EstimationCheckpoint[1];
+		ds.setEstimationMonitor(new EstimationMonitor() {
+			@Override
+			public boolean iterationDone(int iteration, int maxIterations,
+					double logLikelihood, double logLikelihoodChange) {
+				if (iteration == 4)
+					checkpoint[0] = ds.createCheckpoint(iteration, maxIterations);
+				return true;
+			}
+		});
+		ds.estimate(10, 0.);
+		assertEquals(4, checkpoint[0].getIteration());
+		assertEquals(6, checkpoint[0].getRemainingIterations());
+
+		BatchDawidSkene resumed = smallJob(null);
+		resumed.restoreCheckpoint(checkpoint[0]);
+		resumed.estimate(checkpoint[0].getRemainingIterations(), 0.);
+		assertSameResults(ds, resumed);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCheckpointOfOtherCategoriesIsRejected() {
+		BatchDawidSkene other = new BatchDawidSkene("other", Arrays.asList(new Category("a"), new Category("d")));
+		ds.restoreCheckpoint(other.createCheckpoint(0, 10));
+	}
+
+	@Test
+	public void testLeaveOneOutMatchesRecomputation() {
+		DenseEMEngine engine = new DenseEMEngine(ds);
+		engine.iterate();
+		int K = CATEGORIES.length;
+		// zero and undefined error rates have to be taken out correctly too
+		engine.matrices.values[((DenseEMMatrices) engine.matrices).index(0, 0, 0)] = 0.;
+		engine.matrices.values[((DenseEMMatrices) engine.matrices).index(1, 0, 1)] = Double.NaN;
+		engine.updateLeaveOneOutCache();
+		double[] expected = new double[K];
+		double[] actual = new double[K];
+		for (int l = 0; l < engine.labelObject.length; l++) {
+			boolean defined = engine.computeObjectClassProbabilities(
+					engine.labelObject[l], engine.labelWorker[l], expected);
+			assertEquals(defined, engine.computeLeaveOneOut(l, actual));
+			if (!defined)
+				continue;
+			for (int c = 0; c < K; c++)
+				assertEquals(expected[c], actual[c], 1e-12);
+		}
+	}
+
+	@Test
+	public void testEStepLogLikelihoodMatchesFullPass() {
+		DenseEMEngine engine = new DenseEMEngine(ds);
+		engine.iterate();
+		engine.updateObjectClassProbabilities();
+		double expected = engine.getLogLikelihood();
+		assertEquals(expected, engine.getEStepLogLikelihood(), Math.abs(expected) * 1e-12);
+
+		DenseEMEngine parallel = new DenseEMEngine(ds);
+		parallel.setRunner(new ParallelRunner(3));
+		try {
+			parallel.iterate();
+			parallel.updateObjectClassProbabilities();
+			assertEquals(expected, parallel.getEStepLogLikelihood(), Math.abs(expected) * 1e-12);
+		} finally {
+			parallel.shutdown();
+		}
+	}
+
+	@Test
+	public void testEstimateRecordsLogLikelihoods() {
+		// a negative epsilon never stops the iterations early
+		ds.estimate(4, -1.);
+		assertEquals(4, ds.getLogLikelihoods().size());
+		ds.estimate(2, -1.);
+		assertEquals(2, ds.getLogLikelihoods().size());
+	}
+
+	@Test
+	public void testEStepFillsLeaveOneOutCache() {
+		DenseEMEngine engine = new DenseEMEngine(ds);
+		engine.iterate();
+		engine.updateObjectClassProbabilities();
+		double[] logEvidence = engine.logEvidence.clone();
+		int[] zeroFactors = engine.zeroFactors.clone();
+		engine.updateLeaveOneOutCache();
+		for (int o = 0; o < engine.datums.length; o++) {
+			if (engine.goldCategory[o] >= 0)
+				continue;
+			for (int c = 0; c < CATEGORIES.length; c++) {
+				int i = o * CATEGORIES.length + c;
+				assertEquals(engine.logEvidence[i], logEvidence[i], 0.);
+				assertEquals(engine.zeroFactors[i], zeroFactors[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testSmallErrorRatesDoNotUnderflow() {
+		DenseEMEngine engine = new DenseEMEngine(ds);
+		int K = CATEGORIES.length;
+		// the product of four such rates is below Double.MIN_VALUE
+		double[] values = engine.matrices.values;
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (i % K == 0 ? 2e-100 : 1e-100);
+		}
+		double[] out = new double[K];
+		for (int o = 1; o < engine.datums.length; o++) {
+			assertTrue(engine.computeObjectClassProbabilities(o, -1, out));
+			double sum = 0.;
+			for (int c = 0; c < K; c++) {
+				assertFalse(Double.isNaN(out[c]));
+				sum += out[c];
+			}
+			assertEquals(1., sum, 1e-12);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.datascience.gal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Random jobs shared by the tests of the EM engine and its strategies.
+ */
+public class EMTestData {
+
+	public static final String[] CATEGORIES = {"a", "b", "c"};
+
+	public static Collection<Category> categories() {
+		Collection<Category> categories = new ArrayList<Category>();
+		for (String c : CATEGORIES)
+			categories.add(new Category(c));
+		return categories;
+	}
+
+	/**
+	 * Workers label correctly with a worker dependent probability and pick a
+	 * random category otherwise.
+	 */
+	public static Collection<AssignedLabel> randomLabels(long seed, int objects, int workers, int labelsPerObject) {
+		return randomLabels(seed, objects, workers, labelsPerObject, new HashMap<String, String>());
+	}
+
+	/**
+	 * @param correct filled with the correct category of every object
+	 */
+	static Collection<AssignedLabel> randomLabels(long seed, int objects, int workers, int labelsPerObject,
+			Map<String, String> correct) {
+		Random random = new Random(seed);
+		Collection<AssignedLabel> labels = new ArrayList<AssignedLabel>();
+		for (int o = 0; o < objects; o++) {
+			String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+			correct.put("object" + o, category);
+			int first = random.nextInt(workers);
+			for (int i = 0; i < labelsPerObject; i++) {
+				int w = (first + i) % workers;
+				double quality = 0.4 + 0.5 * w / workers;
+				String label = random.nextDouble() < quality ? category
+						: CATEGORIES[random.nextInt(CATEGORIES.length)];
+				labels.add(new AssignedLabel("worker" + w, "object" + o, label));
+			}
+		}
+		return labels;
+	}
+
+	/**
+	 * 60 objects labeled by 8 workers, 4 labels each; object0 is gold.
+	 */
+	static BatchDawidSkene smallJob(EstimationSettings settings) {
+		BatchDawidSkene result = new BatchDawidSkene("id", categories());
+		result.addAssignedLabels(randomLabels(7, 60, 8, 4));
+		result.addCorrectLabel(new CorrectLabel("object0", "a"));
+		if (settings != null)
+			result.setEstimationSettings(settings);
+		return result;
+	}
+
+	static String mostLikely(Datum d) {
+		String result = null;
+		for (String c : CATEGORIES) {
+			if (result == null || d.getCategoryProbability(c) > d.getCategoryProbability(result))
+				result = c;
+		}
+		return result;
+	}
+
+	static int correctClasses(BatchDawidSkene ds, Map<String, String> correct) {
+		int result = 0;
+		for (Datum d : ds.getObjects().values()) {
+			if (mostLikely(d).equals(correct.get(d.getName())))
+				result++;
+		}
+		return result;
+	}
+
+	static void assertSameResults(BatchDawidSkene expected, BatchDawidSkene actual) {
+		assertSameResults(expected, actual, 0.);
+	}
+
+	static void assertSameResults(BatchDawidSkene expected, BatchDawidSkene actual, double delta) {
+		for (Datum d : expected.getObjects().values()) {
+			Datum other = actual.getObject(d.getName());
+			for (String c : CATEGORIES)
+				assertEquals(d.getCategoryProbability(c), other.getCategoryProbability(c), delta);
+		}
+		for (Worker w : expected.getWorkers()) {
+			Worker other = actual.getWorker(w.getName());
+			for (String from : CATEGORIES)
+				for (String to : CATEGORIES)
+					assertEquals(w.getErrorRateBatch(from, to), other.getErrorRateBatch(from, to), delta);
+		}
+	}
+}
@@ -646,4 +646,109 @@ public class IncrementalDawidSkeneTest {
 		assertEquals(ds.getNumberOfObjects(),1);
 	}
 
+	private List<AssignedLabel> labelsForBatch(boolean repeatObjects) {
+		String[] categoryNames = {"category1", "category2"};
+		List<AssignedLabel> labels = new ArrayList<AssignedLabel>();
+		for (int w = 0; w < 4; w++) {
+			for (int o = 0; o < 20; o++) {
+				if (!repeatObjects && w != o % 4)
+					continue;
+				labels.add(new AssignedLabel("worker" + w, "object" + o,
+						categoryNames[(o + (w == 3 ? 1 : 0)) % 2]));
+			}
+		}
+		return labels;
+	}
+
+	private IncrementalDawidSkene createForBatch() {
+		ArrayList<Category> categories = new ArrayList<Category>();
+		categories.add(new Category("category1"));
+		categories.add(new Category("category2"));
+		return new IncrementalDawidSkene("id", categories, IncrementalDSMethod.UPDATEWORKERS);
+	}
+
+	/**
+	 * Test method for {@link com.datascience.gal.IncrementalDawidSkene#addAssignedLabels(java.util.Collection)}.
+	 */
+	@Test
+	public final void testAddAssignedLabelsMatchesSingleLabelsForDistinctObjects() {
+		IncrementalDawidSkene batched = createForBatch();
+		IncrementalDawidSkene single = createForBatch();
+		List<AssignedLabel> labels = labelsForBatch(false);
+		batched.addAssignedLabels(labels);
+		for (AssignedLabel al : labels)
+			single.addAssignedLabel(al);
+		for (String objectName : single.getObjects().keySet()) {
+			assertTrue(compareHashMaps(single.getObjectClassProbabilities(objectName, null),
+					batched.getObjectClassProbabilities(objectName, null)));
+		}
+		assertTrue(compareHashMaps(single.getCategoryPriors(), batched.getCategoryPriors()));
+	}
+
+	/**
+	 * Test method for {@link com.datascience.gal.IncrementalDawidSkene#addAssignedLabels(java.util.Collection)}.
+	 */
+	@Test
+	public final void testAddAssignedLabelsUpdatesEveryObjectOnce() {
+		IncrementalDawidSkene ds = createForBatch();
+		ds.addAssignedLabels(labelsForBatch(true));
+		assertEquals(20, ds.getNumberOfObjects());
+		assertEquals(4, ds.getWorkers().size());
+		double priors = 0.;
+		for (double prior : ds.getCategoryPriors().values())
+			priors += prior;
+		assertEquals(1., priors, TestDataManager.DELTA_DOUBLE);
+		for (Datum d : ds.getObjects().values())
+			assertEquals(4, d.getAssignedLabels().size());
+	}
+
+	@Test
+	public final void testAddAssignedLabelsValidatesBeforeAdding() {
+		IncrementalDawidSkene ds = createForBatch();
+		List<AssignedLabel> labels = labelsForBatch(false);
+		labels.add(new AssignedLabel("worker", "object", "wrongLabel"));
+		try {
+			ds.addAssignedLabels(labels);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(0, ds.getNumberOfObjects());
+	}
+
+	private IncrementalDawidSkene createIterateLocal(double tolerance) {
+		ArrayList<Category> categories = new ArrayList<Category>();
+		categories.add(new Category("category1"));
+		categories.add(new Category("category2"));
+		IncrementalDawidSkene ds = new IncrementalDawidSkene("id", categories,
+				IncrementalDSMethod.ITERATELOCAL);
+		EstimationSettings settings = new EstimationSettings();
+		settings.setLocalIterationTolerance(tolerance);
+		ds.setEstimationSettings(settings);
+		return ds;
+	}
+
+	@Test
+	public final void testLocalIterationsDefaultToCap() {
+		IncrementalDawidSkene ds = createIterateLocal(0.);
+		for (AssignedLabel al : labelsForBatch(true))
+			ds.addAssignedLabel(al);
+		Map<String, Long> counts = ds.getLocalIterationCounts();
+		assertEquals(80L, (long) counts.get("updates"));
+		assertEquals(5 * 80L, (long) counts.get("iterations"));
+	}
+
+	@Test
+	public final void testLocalIterationsStopWhenPosteriorSettles() {
+		IncrementalDawidSkene ds = createIterateLocal(1e-3);
+		for (AssignedLabel al : labelsForBatch(true))
+			ds.addAssignedLabel(al);
+		Map<String, Long> counts = ds.getLocalIterationCounts();
+		assertEquals(80L, (long) counts.get("updates"));
+		assertTrue(counts.get("iterations") < 5 * 80L);
+		double priors = 0.;
+		for (double prior : ds.getCategoryPriors().values())
+			priors += prior;
+		assertEquals(1., priors, TestDataManager.DELTA_DOUBLE);
+	}
+
 }
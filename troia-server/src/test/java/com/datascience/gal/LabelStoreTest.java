@@ -0,0 +1,205 @@
+package com.datascience.gal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datascience.core.storages.JSONUtils;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+public class LabelStoreTest {
+
+	private LabelStore store;
+
+	@Before
+	public void setUp() {
+		store = new LabelStore();
+		store.add(new AssignedLabel("w1", "o1", "a"));
+		store.add(new AssignedLabel("w2", "o1", "b"));
+		store.add(new AssignedLabel("w1", "o2", "b"));
+	}
+
+	@Test
+	public void testWorkerLabelsObjectOnce() {
+		assertFalse(store.add(new AssignedLabel("w2", "o1", "a")));
+		assertEquals(3, store.size());
+		assertEquals("b", store.get(1).getCategoryName());
+	}
+
+	@Test
+	public void testViews() {
+		int o1 = store.objectId("o1");
+		int w1 = store.workerId("w1");
+		assertEquals(new HashSet<AssignedLabel>(Arrays.asList(
+				new AssignedLabel("w1", "o1", "a"), new AssignedLabel("w2", "o1", "b"))),
+				store.getLabelsOfObject(o1));
+		assertTrue(store.getLabelsOfWorker(w1).contains(new AssignedLabel("w1", "o2", "b")));
+		assertFalse(store.getLabelsOfWorker(w1).contains(new AssignedLabel("w2", "o1", "b")));
+
+		// views follow the store
+		store.add(new AssignedLabel("w1", "o3", "a"));
+		assertEquals(3, store.getLabelsOfWorker(w1).size());
+	}
+
+	@Test
+	public void testIndexes() {
+		assertArrayEquals(new int[] {0, 2, 3}, store.getObjectOffsets());
+		assertArrayEquals(new int[] {0, 1, 2}, store.getObjectLabels());
+		assertArrayEquals(new int[] {0, 2, 3}, store.getWorkerOffsets());
+		assertArrayEquals(new int[] {0, 2, 1}, store.getWorkerLabels());
+
+		// rebuilt after a change
+		store.add(new AssignedLabel("w2", "o2", "a"));
+		assertArrayEquals(new int[] {0, 2, 4}, store.getObjectOffsets());
+		assertArrayEquals(new int[] {0, 1, 2, 3}, store.getObjectLabels());
+		assertArrayEquals(new int[] {0, 2, 1, 3}, store.getWorkerLabels());
+	}
+
+	@Test
+	public void testJobKeepsLabelsOnceThroughSerialization() {
+		BatchDawidSkene ds = new BatchDawidSkene("id", EMTestData.categories());
+		ds.addAssignedLabels(EMTestData.randomLabels(3, 20, 5, 3));
+		JSONUtils json = new JSONUtils();
+		BatchDawidSkene restored = (BatchDawidSkene) json.gson.fromJson(
+				json.gson.toJson(ds), JSONUtils.dawidSkeneType);
+		assertEquals(ds.labelStore.size(), restored.labelStore.size());
+		for (Worker w : ds.getWorkers())
+			assertEquals(w.getAssignedLabels(), restored.getWorker(w.getName()).getAssignedLabels());
+		for (Datum d : ds.getObjects().values())
+			assertEquals(d.getAssignedLabels(), restored.getObject(d.getName()).getAssignedLabels());
+	}
+
+	@Test
+	public void testProjectWritesEveryNameOnce() {
+		BatchDawidSkene ds = new BatchDawidSkene("id", EMTestData.categories());
+		ds.addAssignedLabels(EMTestData.randomLabels(3, 20, 5, 3));
+		JSONUtils json = new JSONUtils();
+		JsonObject tree = json.gson.toJsonTree(ds).getAsJsonObject();
+		assertTrue(tree.has("labelStore"));
+		// objects and workers are written by the ids of the label store
+		for (JsonElement e : tree.getAsJsonArray("objects")) {
+			assertFalse(e.getAsJsonObject().has("labels"));
+			assertFalse(e.getAsJsonObject().has("name"));
+			assertTrue(e.getAsJsonObject().has("id"));
+		}
+		for (JsonElement e : tree.getAsJsonArray("workers")) {
+			assertFalse(e.getAsJsonObject().has("name"));
+			assertFalse(e.getAsJsonObject().getAsJsonObject("cm").has("categories"));
+		}
+		// outside of projects objects still come with their names and labels
+		JsonObject object = json.gson.toJsonTree(ds.getObject("object0")).getAsJsonObject();
+		assertTrue(object.has("labels"));
+		assertEquals("object0", object.get("name").getAsString());
+
+		BatchDawidSkene restored = (BatchDawidSkene) json.gson.fromJson(tree, JSONUtils.dawidSkeneType);
+		for (Datum d : restored.getObjects().values()) {
+			int id = restored.labelStore.getObjectNames().getId(d.getName());
+			assertSame(restored.labelStore.getObjectName(id), d.getName());
+		}
+	}
+
+	private static void assertSameModel(BatchDawidSkene expected, BatchDawidSkene actual) {
+		assertEquals(expected.getObjects().keySet(), actual.getObjects().keySet());
+		for (Datum d : expected.getObjects().values()) {
+			Datum read = actual.getObject(d.getName());
+			assertEquals(d.isGold(), read.isGold());
+			assertEquals(d.getCorrectCategory(), read.getCorrectCategory());
+			assertEquals(d.getCategoryProbability(), read.getCategoryProbability());
+		}
+		assertEquals(expected.getObjectsWithNoLabels().keySet(),
+				actual.getObjectsWithNoLabels().keySet());
+		assertEquals(expected.getNumberOfWorkers(), actual.getNumberOfWorkers());
+		for (Worker w : expected.getWorkers()) {
+			Worker read = actual.getWorker(w.getName());
+			assertEquals(w.cm, read.cm);
+			assertEquals(w.getAssignedLabels(), read.getAssignedLabels());
+		}
+	}
+
+	private static void assertRoundTrip(BatchDawidSkene ds) {
+		JSONUtils json = new JSONUtils();
+		BatchDawidSkene restored = (BatchDawidSkene) json.gson.fromJson(
+				json.gson.toJson(ds), JSONUtils.dawidSkeneType);
+		assertSameModel(ds, restored);
+		SymbolTable categories = restored.labelStore.getCategoryNames();
+		for (Worker w : ds.getWorkers()) {
+			Worker read = restored.getWorker(w.getName());
+			for (String from : categories.getNames())
+				for (String to : categories.getNames())
+					assertEquals(w.getErrorRateBatch(from, to), read.getErrorRateBatch(from, to), 0.);
+		}
+	}
+
+	@Test
+	public void testProjectKeepsModelById() {
+		BatchDawidSkene ds = new BatchDawidSkene("id", EMTestData.categories());
+		ds.addAssignedLabels(EMTestData.randomLabels(3, 20, 5, 3));
+		ds.addCorrectLabel(new CorrectLabel("object1", EMTestData.CATEGORIES[2]));
+		ds.addObjects(Arrays.asList("unlabeled"));
+		ds.estimate(3);
+		assertRoundTrip(ds);
+	}
+
+	@Test
+	public void testProjectKeepsSparseMatricesById() {
+		Collection<Category> categories = new ArrayList<Category>();
+		for (int c = 0; c <= Worker.SPARSE_MATRIX_CATEGORIES; c++)
+			categories.add(new Category("c" + c));
+		BatchDawidSkene ds = new BatchDawidSkene("id", categories);
+		for (int o = 0; o < 30; o++) {
+			for (int w = 0; w < 4; w++)
+				ds.addAssignedLabel(new AssignedLabel("w" + w, "o" + o, "c" + ((o + w / 3) % 10)));
+		}
+		ds.estimate(3);
+		assertTrue(ds.getWorker("w0").cm instanceof SparseConfusionMatrix);
+		assertRoundTrip(ds);
+	}
+
+	@Test
+	public void testDenseMatricesShareJobCategories() {
+		BatchDawidSkene ds = new BatchDawidSkene("id", EMTestData.categories());
+		ds.addAssignedLabels(EMTestData.randomLabels(3, 20, 5, 3));
+		DenseConfusionMatrix cm = (DenseConfusionMatrix) ds.getWorker("worker0").cm;
+		for (String category : EMTestData.CATEGORIES)
+			assertEquals(ds.labelStore.categoryId(category), cm.getCategoryIndex(category));
+	}
+
+	@Test
+	public void testOlderProjectsKeepLabelsInObjects() {
+		BatchDawidSkene ds = new BatchDawidSkene("id", EMTestData.categories());
+		ds.addAssignedLabels(EMTestData.randomLabels(3, 20, 5, 3));
+		ds.estimate(2);
+		JSONUtils json = new JSONUtils();
+		JsonObject tree = json.gson.toJsonTree(ds).getAsJsonObject();
+		// older projects wrote the objects and workers by name
+		tree.remove("labelStore");
+		JsonObject objects = new JsonObject();
+		for (Datum d : ds.getObjects().values())
+			objects.add(d.getName(), json.gson.toJsonTree(d));
+		tree.add("objects", objects);
+		tree.add("objectsWithNoLabels", new JsonObject());
+		JsonObject workers = new JsonObject();
+		for (Worker w : ds.getWorkers()) {
+			JsonObject worker = new JsonObject();
+			worker.addProperty("name", w.getName());
+			worker.add("cm", json.gson.toJsonTree(w.cm));
+			workers.add(w.getName(), worker);
+		}
+		tree.add("workers", workers);
+
+		BatchDawidSkene restored = (BatchDawidSkene) json.gson.fromJson(tree, JSONUtils.dawidSkeneType);
+		assertEquals(ds.labelStore.size(), restored.labelStore.size());
+		assertSameModel(ds, restored);
+	}
+}
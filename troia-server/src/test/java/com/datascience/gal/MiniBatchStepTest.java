@@ -0,0 +1,106 @@
+package com.datascience.gal;
+
+import static com.datascience.gal.EMTestData.CATEGORIES;
+import static com.datascience.gal.EMTestData.categories;
+import static com.datascience.gal.EMTestData.mostLikely;
+import static com.datascience.gal.EMTestData.randomLabels;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MiniBatchStepTest {
+
+	@Test
+	public void testMiniBatchEstimate() {
+		BatchDawidSkene miniBatch = new BatchDawidSkene("id", categories());
+		miniBatch.addAssignedLabels(randomLabels(7, 300, 8, 4));
+		EstimationSettings settings = new EstimationSettings();
+		settings.setMiniBatchFraction(0.2);
+		miniBatch.setEstimationSettings(settings);
+		miniBatch.estimate(40, -1.);
+		BatchDawidSkene full = new BatchDawidSkene("id", categories());
+		full.addAssignedLabels(randomLabels(7, 300, 8, 4));
+		full.estimate(40);
+
+		List<Double> logLikelihoods = miniBatch.getLogLikelihoods();
+		assertEquals(40, logLikelihoods.size());
+		assertTrue(logLikelihoods.get(39) < 0.);
+		int same = 0;
+		for (Datum d : full.getObjects().values()) {
+			Datum other = miniBatch.getObject(d.getName());
+			double sum = 0.;
+			for (String c : CATEGORIES)
+				sum += other.getCategoryProbability(c);
+			assertEquals(1., sum, 1e-9);
+			if (mostLikely(d).equals(mostLikely(other)))
+				same++;
+		}
+		assertTrue(same > 0.9 * full.getObjects().size());
+	}
+
+	@Test
+	public void testMiniBatchOfOneRunKeepsJobSettings() {
+		BatchDawidSkene job = new BatchDawidSkene("id", categories());
+		job.addAssignedLabels(randomLabels(7, 300, 8, 4));
+		EstimationSettings settings = job.getEstimationSettings().copy();
+		settings.setMiniBatchFraction(0.2);
+		job.estimate(10, -1., settings);
+		assertEquals(1., job.getEstimationSettings().getMiniBatchFraction(), 0.);
+
+		BatchDawidSkene configured = new BatchDawidSkene("id", categories());
+		configured.addAssignedLabels(randomLabels(7, 300, 8, 4));
+		configured.setEstimationSettings(settings);
+		configured.estimate(10, -1.);
+		assertEquals(configured.getLogLikelihoods(), job.getLogLikelihoods());
+	}
+
+	@Test
+	public void testBatchesComputeFractionOfObjects() {
+		BatchDawidSkene job = new BatchDawidSkene("id", categories());
+		job.addAssignedLabels(randomLabels(7, 300, 8, 4));
+		DenseEMEngine engine = new DenseEMEngine(job);
+		engine.setMiniBatch(0.2, 1L);
+		assertTrue(Double.isNaN(engine.getHeldOutLogLikelihood()));
+		engine.iterate();
+		// 15 objects are held out
+		assertEquals(57, engine.getActiveObjects());
+		assertTrue(engine.getHeldOutLogLikelihood() < 0.);
+	}
+
+	/**
+	 * @return number of objects whose posteriors differ in the two arrays
+	 */
+	private static int changedObjects(DenseEMEngine engine, double[] before) {
+		int result = 0;
+		for (int o = 0; o < engine.datums.length; o++) {
+			int from = engine.slotStart[o];
+			int to = engine.slotStart[o + 1];
+			if (!Arrays.equals(Arrays.copyOfRange(before, from, to),
+					Arrays.copyOfRange(engine.posteriors, from, to)))
+				result++;
+		}
+		return result;
+	}
+
+	@Test
+	public void testStepUpdatesOnlyItsBatch() {
+		BatchDawidSkene job = new BatchDawidSkene("id", categories());
+		job.addAssignedLabels(randomLabels(7, 300, 8, 4));
+		DenseEMEngine engine = new DenseEMEngine(job);
+		engine.setMiniBatch(0.2, 1L);
+		double[] initial = engine.posteriors.clone();
+		engine.iterate();
+		for (int i = 0; i < 5; i++) {
+			double[] before = engine.posteriors.clone();
+			engine.iterate();
+			// the objects outside the batch keep their posteriors
+			assertEquals(engine.getActiveObjects(), changedObjects(engine, before));
+		}
+		// the held out objects never get into a batch
+		assertTrue(changedObjects(engine, initial) <= 300 - 15);
+	}
+}
@@ -0,0 +1,85 @@
+package com.datascience.gal;
+
+import static com.datascience.gal.EMTestData.CATEGORIES;
+import static com.datascience.gal.EMTestData.categories;
+import static com.datascience.gal.EMTestData.randomLabels;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ObjectFreezerTest {
+
+	@Test
+	public void testFreezingSkipsConvergedObjects() {
+		// many workers with few labels each, so that a worker's matrix
+		// settles independently of most objects
+		Collection<AssignedLabel> labels = randomLabels(5, 300, 40, 3);
+		BatchDawidSkene full = new BatchDawidSkene("id", categories());
+		full.addAssignedLabels(labels);
+		full.estimate(60, -1.);
+		BatchDawidSkene freezing = new BatchDawidSkene("id", categories());
+		freezing.addAssignedLabels(labels);
+		EstimationSettings settings = new EstimationSettings();
+		settings.setFreezeTolerance(1e-4);
+		freezing.setEstimationSettings(settings);
+		freezing.estimate(60, -1.);
+
+		List<Integer> activeObjects = freezing.getActiveObjects();
+		assertEquals(60, activeObjects.size());
+		assertEquals(300, (int) activeObjects.get(0));
+		assertTrue(activeObjects.get(59) < 100);
+		for (Datum d : full.getObjects().values()) {
+			Datum other = freezing.getObject(d.getName());
+			for (String c : CATEGORIES)
+				assertEquals(d.getCategoryProbability(c), other.getCategoryProbability(c), 1e-2);
+		}
+	}
+
+	@Test
+	public void testChangedPriorUnfreezesEverything() {
+		BatchDawidSkene job = EMTestData.smallJob(null);
+		DenseEMEngine engine = new DenseEMEngine(job);
+		ObjectFreezer freezer = new ObjectFreezer(engine, 1e-3);
+		for (int o = 0; o < engine.datums.length; o++)
+			freezer.computed(o, 0., 0.);
+		freezer.priorsUpdated(engine.priors.clone());
+		assertTrue(freezer.isFrozen(0));
+		double[] previous = engine.priors.clone();
+		previous[1] += 0.01;
+		freezer.priorsUpdated(previous);
+		for (int o = 0; o < engine.datums.length; o++)
+			assertFalse(freezer.isFrozen(o));
+	}
+
+	@Test
+	public void testEStepLeavesFrozenPosteriors() {
+		BatchDawidSkene job = new BatchDawidSkene("id", categories());
+		job.addAssignedLabels(randomLabels(5, 300, 40, 3));
+		DenseEMEngine engine = new DenseEMEngine(job);
+		engine.setFreezing(1e-4);
+		for (int i = 0; i < 60; i++)
+			engine.iterate();
+		double[] before = engine.posteriors.clone();
+		engine.updateObjectClassProbabilities();
+
+		int skipped = engine.datums.length - engine.getActiveObjects();
+		assertTrue(skipped > 0);
+		// the skipped objects keep their posteriors bit for bit
+		int unchanged = 0;
+		for (int o = 0; o < engine.datums.length; o++) {
+			int from = engine.slotStart[o];
+			int to = engine.slotStart[o + 1];
+			if (Arrays.equals(Arrays.copyOfRange(before, from, to),
+					Arrays.copyOfRange(engine.posteriors, from, to)))
+				unchanged++;
+		}
+		assertTrue(unchanged >= skipped);
+		assertTrue(unchanged < engine.datums.length);
+	}
+}
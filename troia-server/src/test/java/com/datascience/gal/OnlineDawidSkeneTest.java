@@ -0,0 +1,89 @@
+package com.datascience.gal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datascience.core.storages.JSONUtils;
+
+public class OnlineDawidSkeneTest {
+
+	private static final int OBJECTS = 200;
+	private static final int WORKERS = 10;
+
+	private ArrayList<Category> categories;
+	private OnlineDawidSkene ds;
+
+	@Before
+	public void setUp() {
+		categories = new ArrayList<Category>();
+		categories.add(new Category("a"));
+		categories.add(new Category("b"));
+		ds = new OnlineDawidSkene("id", categories);
+		// objects with an even index are "a", workers are right 80% of
+		// the time apart from worker0 which always answers "b"
+		Random random = new Random(7);
+		for (int o = 0; o < OBJECTS; o++) {
+			String correct = o % 2 == 0 ? "a" : "b";
+			String wrong = o % 2 == 0 ? "b" : "a";
+			for (int l = 0; l < 5; l++) {
+				int w = random.nextInt(WORKERS);
+				String category = w == 0 ? "b" : (random.nextDouble() < 0.8 ? correct : wrong);
+				ds.addAssignedLabel(new AssignedLabel("worker" + w, "object" + o, category));
+			}
+		}
+	}
+
+	@Test
+	public void testPredictionsWithoutCompute() {
+		int correct = 0;
+		for (int o = 0; o < OBJECTS; o++) {
+			Map<String, Double> probabilities = ds.getObject("object" + o).getCategoryProbability();
+			assertEquals(1., probabilities.get("a") + probabilities.get("b"), 1e-9);
+			String predicted = probabilities.get("a") > probabilities.get("b") ? "a" : "b";
+			if (predicted.equals(o % 2 == 0 ? "a" : "b"))
+				correct++;
+		}
+		assertTrue(correct > 0.85 * OBJECTS);
+		Worker spammer = ds.getWorker("worker0");
+		assertTrue(ds.getErrorRateForWorker(spammer, "a", "b") > 0.5);
+	}
+
+	@Test
+	public void testStatisticsRowsStayNormalized() {
+		for (Worker w : ds.getWorkers()) {
+			for (String from : new String[] {"a", "b"}) {
+				double sum = 0.;
+				for (String to : new String[] {"a", "b"})
+					sum += ds.getErrorRateForWorker(w, from, to);
+				assertEquals(1., sum, 1e-9);
+			}
+		}
+		Map<String, Double> priors = ds.getCategoryPriors();
+		assertEquals(1., priors.get("a") + priors.get("b"), 1e-9);
+	}
+
+	@Test
+	public void testSerialization() {
+		String json = JSONUtils.getOldGson().toJson(ds);
+		DawidSkene deserialized = JSONUtils.getOldGson().fromJson(json, DawidSkene.class);
+		assertTrue(deserialized instanceof OnlineDawidSkene);
+		OnlineDawidSkene online = (OnlineDawidSkene) deserialized;
+		assertEquals(ds.getStepExponent(), online.getStepExponent(), 0.);
+		assertEquals(ds.getObject("object1").getCategoryProbability(),
+				online.getObject("object1").getCategoryProbability());
+		assertEquals(ds.getErrorRateForWorker(ds.getWorker("worker1"), "a", "a"),
+				online.getErrorRateForWorker(online.getWorker("worker1"), "a", "a"), 1e-12);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testStepExponentOutOfRange() {
+		new OnlineDawidSkene("id", categories, 0.4);
+	}
+}
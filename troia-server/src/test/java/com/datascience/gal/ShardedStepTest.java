@@ -0,0 +1,82 @@
+package com.datascience.gal;
+
+import static com.datascience.gal.EMTestData.assertSameResults;
+import static com.datascience.gal.EMTestData.smallJob;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.datascience.utils.ParallelRunner;
+
+public class ShardedStepTest {
+
+	private static BatchDawidSkene createSharded(int shards, int threads) {
+		EstimationSettings settings = new EstimationSettings();
+		settings.setShards(shards);
+		settings.setThreads(threads);
+		return smallJob(settings);
+	}
+
+	@Test
+	public void testShardedEstimateMatchesUnsharded() {
+		BatchDawidSkene plain = smallJob(null);
+		BatchDawidSkene sharded = createSharded(5, 1);
+		plain.estimate(10);
+		sharded.estimate(10);
+		// only the order of the sums differs
+		assertSameResults(plain, sharded, 1e-12);
+	}
+
+	@Test
+	public void testShardedEstimateDoesNotDependOnThreads() {
+		BatchDawidSkene sequential = createSharded(5, 1);
+		BatchDawidSkene parallel = createSharded(5, 3);
+		sequential.estimate(10);
+		parallel.estimate(10);
+		assertSameResults(sequential, parallel);
+		assertEquals(sequential.getLogLikelihoods(), parallel.getLogLikelihoods());
+	}
+
+	/**
+	 * Runs the tasks and records the ranges they were given.
+	 */
+	private static class RecordingRunner extends ParallelRunner {
+
+		final List<int[]> calls = new ArrayList<int[]>();
+
+		RecordingRunner(int threads) {
+			super(threads);
+		}
+
+		@Override
+		public void run(int[] bounds, ChunkTask task) {
+			calls.add(bounds.clone());
+			super.run(bounds, task);
+		}
+	}
+
+	@Test
+	public void testMapsOverShardsWhateverTheThreads() {
+		BatchDawidSkene job = smallJob(null);
+		DenseEMEngine engine = new DenseEMEngine(job);
+		RecordingRunner runner = new RecordingRunner(3);
+		engine.setRunner(runner);
+		engine.setShards(5);
+		engine.iterate();
+		engine.iterate();
+
+		// a map of the posteriors and one of the counts per iteration, each
+		// over the same 5 shards covering all the objects
+		assertEquals(4, runner.calls.size());
+		int[] shards = ParallelRunner.split(engine.datums.length, 5);
+		for (int[] bounds : runner.calls) {
+			assertEquals(6, bounds.length);
+			for (int i = 0; i < bounds.length; i++)
+				assertEquals(shards[i], bounds[i]);
+		}
+		runner.shutdown();
+	}
+}
@@ -0,0 +1,133 @@
+package com.datascience.gal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datascience.core.storages.JSONUtils;
+
+public class SparseConfusionMatrixTest {
+
+	private static final String[] CATEGORIES = EMTestData.CATEGORIES;
+
+	private SparseConfusionMatrix sparse;
+	private MultinomialConfusionMatrix multinomial;
+
+	@Before
+	public void setUp() {
+		sparse = new SparseConfusionMatrix(EMTestData.categories());
+		multinomial = new MultinomialConfusionMatrix(EMTestData.categories());
+	}
+
+	private static void assertSameRates(ConfusionMatrix expected, ConfusionMatrix actual) {
+		assertEquals(expected.getCategories(), actual.getCategories());
+		for (String from : expected.getCategories())
+			for (String to : expected.getCategories())
+				assertEquals(expected.getErrorRateBatch(from, to),
+						actual.getErrorRateBatch(from, to), 1e-12);
+	}
+
+	private void addErrors() {
+		for (int i = 0; i < 10; i++) {
+			String from = CATEGORIES[i % 2];
+			String to = CATEGORIES[i * 7 % CATEGORIES.length];
+			sparse.addError(from, to, 0.1 * i);
+			multinomial.addError(from, to, 0.1 * i);
+		}
+		sparse.removeError(CATEGORIES[0], CATEGORIES[0], 0.5);
+		multinomial.removeError(CATEGORIES[0], CATEGORIES[0], 0.5);
+	}
+
+	@Test
+	public void testMatchesMapImplementation() {
+		assertSameRates(multinomial, sparse);
+		sparse.empty();
+		multinomial.empty();
+		addErrors();
+		assertSameRates(multinomial, sparse);
+		assertEquals(multinomial.getIncrementalErrorRate(CATEGORIES[1], CATEGORIES[1]),
+				sparse.getIncrementalErrorRate(CATEGORIES[1], CATEGORIES[1]), 1e-12);
+		sparse.normalize();
+		multinomial.normalize();
+		// the row of the category without errors is NaN in both
+		assertSameRates(multinomial, sparse);
+	}
+
+	@Test
+	public void testErrorsAddedToInitialMatrix() {
+		addErrors();
+		assertEquals(multinomial.getIncrementalErrorRate(CATEGORIES[0], CATEGORIES[1]),
+				sparse.getIncrementalErrorRate(CATEGORIES[0], CATEGORIES[1]), 1e-12);
+		sparse.normalizeLaplacean();
+		multinomial.normalizeLaplacean();
+		assertSameRates(multinomial, sparse);
+	}
+
+	@Test
+	public void testCellsFollowObservedPairs() {
+		List<Category> categories = new ArrayList<Category>();
+		for (int c = 0; c < 500; c++)
+			categories.add(new Category("c" + c));
+		SparseConfusionMatrix matrix = new SparseConfusionMatrix(categories);
+		assertEquals(0, matrix.getStoredCellsCount());
+		assertEquals(0.1 / 499, matrix.getErrorRateBatch("c3", "c4"), 1e-15);
+		assertEquals(0.9, matrix.getErrorRateBatch("c3", "c3"), 0.);
+
+		matrix.empty();
+		matrix.addError("c1", "c2", 1.);
+		matrix.addError("c1", "c1", 3.);
+		matrix.addError("c7", "c2", 2.);
+		matrix.normalize();
+		assertEquals(3, matrix.getStoredCellsCount());
+		assertEquals(0.25, matrix.getErrorRateBatch("c1", "c2"), 0.);
+		assertEquals(0., matrix.getErrorRateBatch("c1", "c3"), 0.);
+		assertEquals(1., matrix.getErrorRateBatch("c7", "c2"), 0.);
+		assertTrue(Double.isNaN(matrix.getErrorRateBatch("c3", "c3")));
+	}
+
+	@Test
+	public void testJsonRoundTrip() {
+		JSONUtils json = new JSONUtils();
+		addErrors();
+		SparseConfusionMatrix read = json.gson.fromJson(json.gson.toJson(sparse),
+				JSONUtils.sparseConfusionMatrixType);
+		assertEquals(sparse, read);
+		sparse.normalize();
+		read = json.gson.fromJson(json.gson.toJson(sparse), JSONUtils.sparseConfusionMatrixType);
+		assertEquals(sparse, read);
+	}
+
+	@Test
+	public void testChosenForManyCategories() {
+		Collection<Category> categories = new ArrayList<Category>();
+		for (int c = 0; c <= Worker.SPARSE_MATRIX_CATEGORIES; c++)
+			categories.add(new Category("c" + c));
+		BatchDawidSkene ds = new BatchDawidSkene("id", categories);
+		for (int o = 0; o < 20; o++) {
+			for (int w = 0; w < 3; w++)
+				ds.addAssignedLabel(new AssignedLabel("w" + w, "o" + o, "c" + ((o + w) % 4)));
+		}
+		ds.estimate(5, 0.);
+		Worker worker = ds.getWorker("w0");
+		assertTrue(worker.cm instanceof SparseConfusionMatrix);
+		// only the rows of the four categories the objects were labeled
+		// with are kept, each with cells for these categories; the other
+		// rows are uniform
+		assertTrue(((SparseConfusionMatrix) worker.cm).getStoredCellsCount() <= 4 * 4);
+		assertEquals(1. / categories.size(), worker.getErrorRateBatch("c10", "c10"), 1e-12);
+
+		JSONUtils json = new JSONUtils();
+		BatchDawidSkene restored = (BatchDawidSkene) json.gson.fromJson(
+				json.gson.toJson(ds), JSONUtils.dawidSkeneType);
+		Worker read = restored.getWorker("w0");
+		assertTrue(read.cm instanceof SparseConfusionMatrix);
+		for (int c = 0; c < 4; c++)
+			assertEquals(worker.getErrorRateBatch("c0", "c" + c), read.getErrorRateBatch("c0", "c" + c), 0.);
+	}
+}
@@ -0,0 +1,120 @@
+package com.datascience.gal;
+
+import static com.datascience.gal.EMTestData.CATEGORIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SparseEMMatricesTest {
+
+	private static final int OBJECTS = 60;
+	private static final int WORKERS = 8;
+
+	/**
+	 * The labels use only the test categories, the others are never seen.
+	 */
+	private static BatchDawidSkene job(int categories, Map<String, String> correct) {
+		Collection<Category> all = EMTestData.categories();
+		for (int c = CATEGORIES.length; c < categories; c++)
+			all.add(new Category("unseen" + c));
+		BatchDawidSkene result = new BatchDawidSkene("id", all);
+		result.addAssignedLabels(EMTestData.randomLabels(7, OBJECTS, WORKERS, 4, correct));
+		return result;
+	}
+
+	@Test
+	public void testStorageFollowsObservedPairs() {
+		DenseEMEngine small = new DenseEMEngine(job(100, new HashMap<String, String>()));
+		DenseEMEngine large = new DenseEMEngine(job(1000, new HashMap<String, String>()));
+		assertTrue(small.matrices instanceof SparseEMMatrices);
+		assertTrue(large.matrices instanceof SparseEMMatrices);
+
+		// a row per seen category with a cell per seen category and the
+		// unseen one, whatever the number of categories
+		int K = CATEGORIES.length;
+		assertEquals(small.matrices.size(), large.matrices.size());
+		assertTrue(large.matrices.size() <= WORKERS * K * (K + 1));
+		assertEquals(small.matrices.getRowsCount(), large.matrices.getRowsCount());
+		assertEquals(small.posteriors.length, large.posteriors.length);
+		assertTrue(large.posteriors.length <= OBJECTS * K);
+
+		for (int i = 0; i < 5; i++) {
+			small.iterate();
+			large.iterate();
+		}
+		assertEquals(small.matrices.size(), large.matrices.size());
+		for (int w = 0; w < WORKERS; w++) {
+			for (int r = large.matrices.getMatrixRowsStart(w); r < large.matrices.getMatrixRowsStart(w + 1); r++) {
+				double sum = 0.;
+				for (int i = large.matrices.getRowStart(r); i < large.matrices.getRowStart(r + 1); i++)
+					sum += large.matrices.values[i] * large.matrices.getMultiplicity(i);
+				assertEquals(1., sum, 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testEstimatesMatchFewCategories() {
+		Map<String, String> correct = new HashMap<String, String>();
+		BatchDawidSkene dense = job(CATEGORIES.length, correct);
+		BatchDawidSkene sparse = job(1000, correct);
+		dense.estimate(10, 0.);
+		sparse.estimate(10, 0.);
+
+		assertTrue(EMTestData.correctClasses(sparse, correct) >= EMTestData.correctClasses(dense, correct) - 2);
+		for (Datum d : sparse.getObjects().values())
+			assertEquals(0., d.getCategoryProbability("unseen10"), 0.);
+		for (Worker w : sparse.getWorkers()) {
+			assertTrue(w.cm instanceof SparseConfusionMatrix);
+			assertTrue(((SparseConfusionMatrix) w.cm).getStoredCellsCount() <= CATEGORIES.length * CATEGORIES.length);
+			double unseen = w.getErrorRateBatch("a", "unseen10");
+			assertTrue(unseen > 0. && unseen < w.getErrorRateBatch("a", "a"));
+			assertEquals(1. / 1000, w.getErrorRateBatch("unseen10", "unseen10"), 1e-12);
+		}
+	}
+
+	@Test
+	public void testStrategiesKeepRowsNormalized() {
+		for (int strategy = 0; strategy < 3; strategy++) {
+			BatchDawidSkene job = job(1000, new HashMap<String, String>());
+			if (strategy == 0) {
+				job.getEstimationSettings().setWorkerClusters(2);
+				job.getEstimationSettings().setPersonalMatrixLabels(40);
+				job.estimate(1);
+			}
+			DenseEMEngine engine = new DenseEMEngine(job, job.getWorkerClusters());
+			if (strategy == 0)
+				assertTrue(engine.getMatricesCount() < WORKERS);
+			else if (strategy == 1)
+				engine.setAcceleration(true);
+			else
+				engine.setFreezing(1e-3);
+			DenseEMEngine plain = new DenseEMEngine(job, job.getWorkerClusters());
+			for (int i = 0; i < 15; i++) {
+				engine.iterate();
+				plain.iterate();
+			}
+			EMMatrices matrices = engine.matrices;
+			if (strategy == 1) {
+				// the extrapolations moved the rates away from plain EM
+				assertFalse(Arrays.equals(plain.matrices.values, matrices.values));
+			} else if (strategy == 2) {
+				assertTrue(engine.getActiveObjects() < plain.getActiveObjects());
+			}
+			assertTrue(matrices.size() <= WORKERS * CATEGORIES.length * (CATEGORIES.length + 1));
+			for (int r = 0; r < matrices.getRowsCount(); r++) {
+				double sum = 0.;
+				for (int i = matrices.getRowStart(r); i < matrices.getRowStart(r + 1); i++)
+					sum += matrices.values[i] * matrices.getMultiplicity(i);
+				assertEquals(1., sum, 1e-9);
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.datascience.gal;
+
+import static com.datascience.gal.EMTestData.CATEGORIES;
+import static com.datascience.gal.EMTestData.assertSameResults;
+import static com.datascience.gal.EMTestData.categories;
+import static com.datascience.gal.EMTestData.correctClasses;
+import static com.datascience.gal.EMTestData.randomLabels;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.datascience.core.storages.JSONUtils;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class WorkerClustersTest {
+
+	private static BatchDawidSkene withExpert() {
+		BatchDawidSkene result = new BatchDawidSkene("id", categories());
+		result.addAssignedLabels(randomLabels(7, 60, 8, 4));
+		for (int o = 0; o < 60; o++)
+			result.addAssignedLabel(new AssignedLabel("expert", "object" + o, CATEGORIES[o % CATEGORIES.length]));
+		return result;
+	}
+
+	private static BatchDawidSkene clusteredWithExpert(int clusters) {
+		BatchDawidSkene result = withExpert();
+		EstimationSettings settings = new EstimationSettings();
+		settings.setWorkerClusters(clusters);
+		settings.setPersonalMatrixLabels(40);
+		result.setEstimationSettings(settings);
+		return result;
+	}
+
+	@Test
+	public void testClusteredWorkersShareMatrices() {
+		BatchDawidSkene clustered = clusteredWithExpert(2);
+		clustered.estimate(10);
+		assertEquals(2, clustered.getWorkerClusters().size());
+		// only the expert's and the clusters' matrices are estimated
+		assertEquals(3, new DenseEMEngine(clustered, clustered.getWorkerClusters()).getMatricesCount());
+
+		for (Worker worker : clustered.getWorkers()) {
+			if (worker.getName().equals("expert")) {
+				assertEquals(Worker.NO_CLUSTER, worker.getCluster());
+				continue;
+			}
+			assertSame(clustered.getWorkerClusters().get(worker.getCluster()), worker.cm);
+		}
+		for (Datum d : clustered.getObjects().values()) {
+			double sum = 0.;
+			for (String c : CATEGORIES)
+				sum += d.getCategoryProbability(c);
+			assertEquals(1., sum, 1e-9);
+		}
+	}
+
+	@Test
+	public void testNoClustersKeepsResults() {
+		BatchDawidSkene clustered = withExpert();
+		EstimationSettings settings = new EstimationSettings();
+		settings.setWorkerClusters(0);
+		clustered.setEstimationSettings(settings);
+		clustered.estimate(20);
+		BatchDawidSkene plain = withExpert();
+		plain.estimate(20);
+		assertSameResults(plain, clustered);
+	}
+
+	@Test
+	public void testClustersHelpLongTailWorkers() {
+		Map<String, String> correct = new HashMap<String, String>();
+		BatchDawidSkene clustered = new BatchDawidSkene("id", categories());
+		clustered.addAssignedLabels(randomLabels(7, 300, 40, 4, correct));
+		EstimationSettings settings = new EstimationSettings();
+		settings.setWorkerClusters(4);
+		settings.setPersonalMatrixLabels(40);
+		clustered.setEstimationSettings(settings);
+		clustered.estimate(20);
+		assertEquals(settings, clustered.getEstimationSettings().copy());
+		BatchDawidSkene plain = new BatchDawidSkene("id", categories());
+		plain.addAssignedLabels(randomLabels(7, 300, 40, 4));
+		plain.estimate(20);
+		// about 30 labels per worker are too few for a matrix of its own
+		assertTrue(correctClasses(clustered, correct) > correctClasses(plain, correct));
+	}
+
+	@Test
+	public void testProjectsWriteClusterIds() {
+		BatchDawidSkene clustered = clusteredWithExpert(2);
+		clustered.estimate(10);
+		JSONUtils json = new JSONUtils();
+		String written = json.gson.toJson(clustered);
+		JsonArray workers = new JsonParser().parse(written).getAsJsonObject()
+				.getAsJsonArray("workers");
+		int withMatrix = 0;
+		for (JsonElement worker : workers) {
+			if (((JsonObject) worker).has("cm"))
+				withMatrix++;
+		}
+		// the expert's matrix and the clusters' ones are written once
+		assertEquals(1, withMatrix);
+
+		BatchDawidSkene read = (BatchDawidSkene) json.gson.fromJson(written, JSONUtils.dawidSkeneType);
+		assertEquals(2, read.getWorkerClusters().size());
+		for (Worker worker : read.getWorkers()) {
+			Worker original = clustered.getWorker(worker.getName());
+			assertEquals(original.getCluster(), worker.getCluster());
+			if (worker.getCluster() != Worker.NO_CLUSTER)
+				assertSame(read.getWorkerClusters().get(worker.getCluster()), worker.cm);
+			for (String from : CATEGORIES)
+				for (String to : CATEGORIES)
+					assertEquals(original.getErrorRateBatch(from, to), worker.getErrorRateBatch(from, to), 1e-12);
+		}
+		read.estimate(5);
+		clustered.estimate(5);
+		assertSameResults(clustered, read);
+	}
+
+	@Test
+	public void testWorkerWithEnoughLabelsLeavesCluster() {
+		BatchDawidSkene clustered = clusteredWithExpert(2);
+		clustered.estimate(10);
+		Worker worker = clustered.getWorker("worker0");
+		int cluster = worker.getCluster();
+		assertTrue(cluster != Worker.NO_CLUSTER);
+		ConfusionMatrix shared = worker.cm;
+		for (int o = 0; worker.getAssignedLabels().size() < 40; o++)
+			clustered.addAssignedLabel(new AssignedLabel("worker0", "extra" + o, CATEGORIES[o % CATEGORIES.length]));
+
+		// starts from the cluster's matrix, without changing the cluster
+		assertEquals(Worker.NO_CLUSTER, worker.getCluster());
+		assertNotSame(shared, worker.cm);
+		assertSame(shared, clustered.getWorkerClusters().get(cluster));
+		for (String from : CATEGORIES)
+			for (String to : CATEGORIES)
+				assertEquals(shared.getErrorRateBatch(from, to), worker.getErrorRateBatch(from, to), 0.);
+		clustered.estimate(10);
+		assertEquals(Worker.NO_CLUSTER, worker.getCluster());
+	}
+
+	@Test
+	public void testCheckpointKeepsClusters() {
+		BatchDawidSkene clustered = clusteredWithExpert(2);
+		clustered.estimate(10);
+		EstimationCheckpoint checkpoint = clustered.createCheckpoint(10, 20);
+		assertEquals(2, checkpoint.getClusterErrorRates().size());
+		assertEquals(1, checkpoint.getErrorRates().size());
+
+		BatchDawidSkene restored = clusteredWithExpert(2);
+		restored.restoreCheckpoint(checkpoint);
+		for (Worker worker : restored.getWorkers()) {
+			Worker original = clustered.getWorker(worker.getName());
+			assertEquals(original.getCluster(), worker.getCluster());
+			for (String from : CATEGORIES)
+				for (String to : CATEGORIES)
+					assertEquals(original.getErrorRateBatch(from, to), worker.getErrorRateBatch(from, to), 1e-12);
+		}
+	}
+
+	@Test
+	public void testNoClustersGivesWorkersTheirMatrices() {
+		BatchDawidSkene clustered = clusteredWithExpert(2);
+		clustered.estimate(10);
+		clustered.getEstimationSettings().setWorkerClusters(0);
+		clustered.estimate(10);
+		assertTrue(clustered.getWorkerClusters().isEmpty());
+		for (Worker worker : clustered.getWorkers())
+			assertEquals(Worker.NO_CLUSTER, worker.getCluster());
+		assertFalse(clustered.getWorker("worker0").cm == clustered.getWorker("worker1").cm);
+	}
+}
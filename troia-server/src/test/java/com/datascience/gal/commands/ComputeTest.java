@@ -0,0 +1,123 @@
+package com.datascience.gal.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datascience.core.Job;
+import com.datascience.core.storages.ICheckpointStorage;
+import com.datascience.core.storages.MemoryJobStorage;
+import com.datascience.executor.ProjectCommand;
+import com.datascience.gal.BatchDawidSkene;
+import com.datascience.gal.EMTestData;
+import com.datascience.gal.EstimationCheckpoint;
+import com.datascience.gal.EstimationSettings;
+
+public class ComputeTest {
+
+	private BatchDawidSkene ds;
+	private MemoryJobStorage jobStorage;
+	private RecordingCheckpointStorage checkpointStorage;
+
+	/**
+	 * Keeps the checkpoints in memory and records every saved one.
+	 */
+	static class RecordingCheckpointStorage implements ICheckpointStorage {
+
+		final Map<String, EstimationCheckpoint> checkpoints = new HashMap<String, EstimationCheckpoint>();
+		final List<EstimationCheckpoint> saved = new ArrayList<EstimationCheckpoint>();
+
+		@Override
+		public EstimationCheckpoint get(String jobId) {
+			return checkpoints.get(jobId);
+		}
+
+		@Override
+		public void save(String jobId, EstimationCheckpoint checkpoint) {
+			checkpoints.put(jobId, checkpoint);
+			saved.add(checkpoint);
+		}
+
+		@Override
+		public void remove(String jobId) {
+			checkpoints.remove(jobId);
+		}
+
+		@Override
+		public Collection<String> getJobIds() {
+			return checkpoints.keySet();
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		ds = new BatchDawidSkene("job", EMTestData.categories());
+		ds.addAssignedLabels(EMTestData.randomLabels(7, 200, 8, 4));
+		jobStorage = new MemoryJobStorage();
+		jobStorage.add(new Job<BatchDawidSkene>(ds, "job"));
+		checkpointStorage = new RecordingCheckpointStorage();
+	}
+
+	private void execute(PredictionCommands.Compute compute, String statusId) {
+		compute.setJobId("job");
+		compute.setJobStorage(jobStorage);
+		compute.setStatusId(statusId);
+		compute.execute();
+		assertTrue(compute.wasOk());
+	}
+
+	@Test
+	public void testBatchFractionOfOneRun() {
+		PredictionCommands.Compute compute = new PredictionCommands.Compute(5, 0.2);
+		compute.setCheckpointStorage(checkpointStorage, 0);
+		execute(compute, "7");
+
+		assertEquals(1., ds.getEstimationSettings().getMiniBatchFraction(), 0.);
+		assertTrue(checkpointStorage.saved.size() > 1);
+		for (EstimationCheckpoint checkpoint : checkpointStorage.saved) {
+			assertEquals("7", checkpoint.getCommandId());
+			assertEquals(0.2, checkpoint.getSettings().getMiniBatchFraction(), 0.);
+		}
+		assertNull(checkpointStorage.get("job"));
+	}
+
+	@Test
+	public void testResumeKeepsStatusAndSettings() {
+		EstimationSettings settings = new EstimationSettings();
+		settings.setMiniBatchFraction(0.2);
+		EstimationCheckpoint interrupted = ds.createCheckpoint(2, 6);
+		interrupted.setCommandId("7");
+		interrupted.setSettings(settings);
+		checkpointStorage.save("job", interrupted);
+		checkpointStorage.saved.clear();
+
+		PredictionCommands.Compute compute = PredictionCommands.Compute.resume(checkpointStorage, 0);
+		final List<Integer> iterations = new ArrayList<Integer>();
+		compute.setProgressListener(new ProjectCommand.ProgressListener() {
+			@Override
+			public void progress(Object progress) {
+				iterations.add(((PredictionCommands.ComputeProgress) progress).getIteration());
+			}
+		});
+		execute(compute, "7");
+
+		assertEquals(3, (int) iterations.get(0));
+		assertEquals(6, (int) iterations.get(iterations.size() - 1));
+		for (EstimationCheckpoint checkpoint : checkpointStorage.saved) {
+			assertEquals("7", checkpoint.getCommandId());
+			assertEquals(settings, checkpoint.getSettings());
+			assertEquals(6, checkpoint.getMaxIterations());
+		}
+		assertEquals(new EstimationSettings(), ds.getEstimationSettings());
+		assertNull(checkpointStorage.get("job"));
+	}
+}
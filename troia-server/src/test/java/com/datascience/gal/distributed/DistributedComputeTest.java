@@ -0,0 +1,218 @@
+package com.datascience.gal.distributed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datascience.core.Job;
+import com.datascience.core.storages.MemoryJobStorage;
+import com.datascience.gal.BatchDawidSkene;
+import com.datascience.gal.CorrectLabel;
+import com.datascience.gal.Datum;
+import com.datascience.gal.EMTestData;
+import com.datascience.gal.EstimationMonitor;
+import com.datascience.gal.Worker;
+import com.datascience.gal.commands.PredictionCommands;
+
+public class DistributedComputeTest {
+
+	private static final String[] CATEGORIES = EMTestData.CATEGORIES;
+	private static final int TIMEOUT_MILLIS = 2000;
+	private static final String SECRET = "secret";
+
+	private final List<Process> processes = new ArrayList<Process>();
+	private final List<ServerSocket> silent = new ArrayList<ServerSocket>();
+
+	private static BatchDawidSkene job() {
+		BatchDawidSkene result = new BatchDawidSkene("job", EMTestData.categories());
+		result.addAssignedLabels(EMTestData.randomLabels(7, 200, 8, 4));
+		result.addCorrectLabel(new CorrectLabel("object0", "a"));
+		return result;
+	}
+
+	@Before
+	public void setUp() {
+		processes.clear();
+		silent.clear();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (Process process : processes)
+			process.destroy();
+		for (ServerSocket socket : silent)
+			socket.close();
+	}
+
+	/**
+	 * Starts shard servers in their own JVMs.
+	 */
+	private List<InetSocketAddress> startProcesses(int count) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		for (int i = 0; i < count; i++) {
+			ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+					System.getProperty("java.class.path"), ShardServer.class.getName(), "0", "60");
+			builder.environment().put(ShardServer.SECRET_VARIABLE, SECRET);
+			Process process = builder.start();
+			processes.add(process);
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(process.getInputStream()));
+			addresses.add(new InetSocketAddress("localhost", Integer.parseInt(reader.readLine().trim())));
+		}
+		return addresses;
+	}
+
+	/**
+	 * @return address that accepts connections but never answers
+	 */
+	private InetSocketAddress startSilent() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		silent.add(socket);
+		return new InetSocketAddress("localhost", socket.getLocalPort());
+	}
+
+	private static InetSocketAddress deadAddress() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		return new InetSocketAddress("localhost", port);
+	}
+
+	private static void assertSameEstimates(BatchDawidSkene expected, BatchDawidSkene actual) {
+		// only the order of the sums differs
+		double delta = 1e-9;
+		for (String c : CATEGORIES)
+			assertEquals(expected.prior(c), actual.prior(c), delta);
+		for (Worker w : expected.getWorkers()) {
+			Worker other = actual.getWorker(w.getName());
+			for (String from : CATEGORIES)
+				for (String to : CATEGORIES)
+					assertEquals(w.getErrorRateBatch(from, to), other.getErrorRateBatch(from, to), delta);
+		}
+		for (Datum d : expected.getObjects().values()) {
+			Datum other = actual.getObject(d.getName());
+			for (String c : CATEGORIES)
+				assertEquals(d.getCategoryProbability(c), other.getCategoryProbability(c), delta);
+		}
+		List<Double> expectedLikelihoods = expected.getLogLikelihoods();
+		List<Double> actualLikelihoods = actual.getLogLikelihoods();
+		assertEquals(expectedLikelihoods.size(), actualLikelihoods.size());
+		for (int i = 0; i < expectedLikelihoods.size(); i++)
+			assertEquals(expectedLikelihoods.get(i), actualLikelihoods.get(i), delta);
+	}
+
+	private static BatchDawidSkene localEstimate() {
+		BatchDawidSkene result = job();
+		result.estimate(10, 0.);
+		return result;
+	}
+
+	private static BatchDawidSkene distributedEstimate(List<InetSocketAddress> addresses) {
+		BatchDawidSkene result = job();
+		result.setShardServers(new ShardServers(addresses, TIMEOUT_MILLIS, 0, SECRET));
+		try {
+			result.estimate(10, 0.);
+		} finally {
+			result.setShardServers(null);
+		}
+		return result;
+	}
+
+	private static boolean compute(BatchDawidSkene ds, ShardServers servers, Boolean distributed) {
+		MemoryJobStorage jobStorage = new MemoryJobStorage();
+		try {
+			jobStorage.add(new Job<BatchDawidSkene>(ds, "job"));
+		} catch (Exception ex) {
+			throw new IllegalStateException(ex);
+		}
+		PredictionCommands.Compute compute = new PredictionCommands.Compute(10);
+		compute.setShardServers(servers, distributed);
+		compute.setJobId("job");
+		compute.setJobStorage(jobStorage);
+		compute.setStatusId("1");
+		compute.execute();
+		return compute.wasOk();
+	}
+
+	@Test
+	public void testSeparateProcesses() throws IOException {
+		assertSameEstimates(localEstimate(), distributedEstimate(startProcesses(2)));
+	}
+
+	@Test
+	public void testShardServerKilledDuringEstimation() throws IOException {
+		List<InetSocketAddress> addresses = startProcesses(3);
+		BatchDawidSkene ds = job();
+		ds.setShardServers(new ShardServers(addresses, TIMEOUT_MILLIS, 0, SECRET));
+		ds.setEstimationMonitor(new EstimationMonitor() {
+			@Override
+			public boolean iterationDone(int iteration, int maxIterations,
+					double logLikelihood, double logLikelihoodChange) {
+				if (iteration == 4)
+					processes.get(1).destroy();
+				return true;
+			}
+		});
+		ds.estimate(10, 0.);
+		assertSameEstimates(localEstimate(), ds);
+	}
+
+	@Test
+	public void testUnreachableAndSilentShardServers() throws IOException {
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		addresses.add(deadAddress());
+		addresses.add(startSilent());
+		addresses.addAll(startProcesses(1));
+		assertSameEstimates(localEstimate(), distributedEstimate(addresses));
+	}
+
+	@Test
+	public void testNoShardServerLeft() throws IOException {
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		addresses.add(deadAddress());
+		addresses.add(startSilent());
+		BatchDawidSkene ds = job();
+		assertFalse(compute(ds, new ShardServers(addresses, TIMEOUT_MILLIS, 0, SECRET), true));
+		// the job keeps its estimates
+		assertSameEstimates(job(), ds);
+	}
+
+	@Test
+	public void testRouting() throws IOException {
+		List<InetSocketAddress> unreachable = new ArrayList<InetSocketAddress>();
+		unreachable.add(deadAddress());
+		int labels = job().getNumberOfAssignedLabels();
+
+		// small jobs and the ones asking for it are computed locally
+		BatchDawidSkene small = job();
+		assertTrue(compute(small, new ShardServers(unreachable, TIMEOUT_MILLIS, labels + 1, SECRET), null));
+		BatchDawidSkene local = job();
+		assertTrue(compute(local, new ShardServers(unreachable, TIMEOUT_MILLIS, 1, SECRET), false));
+		assertSameEstimates(small, local);
+		assertFalse(compute(job(), null, true));
+
+		// large jobs and the ones asking for it go to the shard servers
+		List<InetSocketAddress> addresses = startProcesses(2);
+		BatchDawidSkene large = job();
+		assertTrue(compute(large, new ShardServers(addresses, TIMEOUT_MILLIS, labels, SECRET), null));
+		assertSameEstimates(local, large);
+		BatchDawidSkene requested = job();
+		assertTrue(compute(requested, new ShardServers(addresses, TIMEOUT_MILLIS, 0, SECRET), true));
+		assertSameEstimates(local, requested);
+		assertFalse(compute(job(), new ShardServers(unreachable, TIMEOUT_MILLIS, 1, SECRET), null));
+	}
+}
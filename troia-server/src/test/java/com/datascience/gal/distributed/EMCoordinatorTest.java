@@ -0,0 +1,338 @@
+package com.datascience.gal.distributed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datascience.gal.AssignedLabel;
+import com.datascience.gal.BatchDawidSkene;
+import com.datascience.gal.CorrectLabel;
+import com.datascience.gal.Datum;
+import com.datascience.gal.EMTestData;
+import com.datascience.gal.Worker;
+
+public class EMCoordinatorTest {
+
+	private static final String[] CATEGORIES = EMTestData.CATEGORIES;
+	private static final String SECRET = "secret";
+
+	private BatchDawidSkene ds;
+
+	@Before
+	public void setUp() {
+		ds = new BatchDawidSkene("id", EMTestData.categories());
+		ds.addAssignedLabels(EMTestData.randomLabels(7, 60, 8, 4));
+		ds.addCorrectLabel(new CorrectLabel("object0", "a"));
+		ds.estimate(10, 0.);
+	}
+
+	private static List<InetSocketAddress> startInThreads(int count) throws IOException {
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		for (int i = 0; i < count; i++) {
+			final ShardServer server = new ShardServer(0, SECRET);
+			addresses.add(new InetSocketAddress("localhost", server.getPort()));
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						server.serve();
+						server.close();
+					} catch (IOException ex) {
+						throw new IllegalStateException(ex);
+					}
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return addresses;
+	}
+
+	private static long load(EMCoordinator coordinator, Collection<AssignedLabel> labels)
+			throws IOException {
+		return coordinator.loadLabels(labels, Arrays.asList(new CorrectLabel("object0", "a")));
+	}
+
+	private EMCoordinator estimate(String jobId, List<InetSocketAddress> addresses)
+			throws IOException {
+		EMCoordinator coordinator = new EMCoordinator(jobId, EMTestData.categories(), addresses, SECRET);
+		load(coordinator, EMTestData.randomLabels(7, 60, 8, 4));
+		coordinator.estimate(10, 0.);
+		return coordinator;
+	}
+
+	private void assertSameAsSingleProcess(EMCoordinator coordinator) throws IOException {
+		// only the order of the sums differs
+		double delta = 1e-9;
+		for (String c : CATEGORIES)
+			assertEquals(ds.prior(c), coordinator.getCategoryPriors().get(c), delta);
+		for (Worker w : ds.getWorkers()) {
+			for (String from : CATEGORIES)
+				for (String to : CATEGORIES)
+					assertEquals(w.getErrorRateBatch(from, to),
+							coordinator.getErrorRate(w.getName(), from, to), delta);
+		}
+		final Map<String, Map<String, Double>> results = new HashMap<String, Map<String, Double>>();
+		coordinator.readObjectProbabilities(new EMCoordinator.ObjectProbabilitiesHandler() {
+			@Override
+			public void handle(String objectName, Map<String, Double> probabilities) {
+				results.put(objectName, probabilities);
+			}
+		});
+		assertEquals(ds.getObjects().size(), results.size());
+		for (Datum d : ds.getObjects().values()) {
+			for (String c : CATEGORIES)
+				assertEquals(d.getCategoryProbability(c), results.get(d.getName()).get(c), delta);
+		}
+		List<Double> expected = ds.getLogLikelihoods();
+		List<Double> actual = coordinator.getLogLikelihoods();
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertEquals(expected.get(i), actual.get(i), delta);
+	}
+
+	@Test
+	public void testMatchesSingleProcessEstimate() throws IOException {
+		EMCoordinator coordinator = estimate("id", startInThreads(3));
+		try {
+			assertSameAsSingleProcess(coordinator);
+		} finally {
+			coordinator.shutdown();
+		}
+	}
+
+	@Test
+	public void testShardServersServeAnotherJob() throws IOException {
+		List<InetSocketAddress> addresses = startInThreads(2);
+		estimate("other", addresses).close();
+		EMCoordinator coordinator = estimate("id", addresses);
+		try {
+			assertSameAsSingleProcess(coordinator);
+		} finally {
+			coordinator.shutdown();
+		}
+	}
+
+	@Test
+	public void testShardServersKeepLabelsOfJob() throws IOException {
+		List<InetSocketAddress> addresses = startInThreads(2);
+		Collection<AssignedLabel> labels = EMTestData.randomLabels(7, 60, 8, 4);
+		EMCoordinator first = new EMCoordinator("id", EMTestData.categories(), addresses, SECRET);
+		assertEquals(labels.size() + 1, load(first, labels));
+		first.prepare();
+		first.close();
+
+		EMCoordinator coordinator = new EMCoordinator("id", EMTestData.categories(), addresses, SECRET);
+		try {
+			assertEquals(0, load(coordinator, labels));
+			coordinator.estimate(10, 0.);
+			assertSameAsSingleProcess(coordinator);
+		} finally {
+			coordinator.close();
+		}
+
+		// a new label makes only the bucket of its object move
+		List<AssignedLabel> changed = new ArrayList<AssignedLabel>(labels);
+		changed.add(new AssignedLabel("newWorker", "object1", "a"));
+		coordinator = new EMCoordinator("id", EMTestData.categories(), addresses, SECRET);
+		try {
+			long sent = load(coordinator, changed);
+			assertTrue(sent > 1);
+			assertTrue(sent < labels.size() / 10);
+		} finally {
+			coordinator.shutdown();
+		}
+	}
+
+	@Test
+	public void testLeftOutShardMovesOnlyItsBuckets() throws IOException {
+		List<InetSocketAddress> addresses = startInThreads(3);
+		Collection<AssignedLabel> labels = EMTestData.randomLabels(7, 60, 8, 4);
+		EMCoordinator coordinator = new EMCoordinator("id", EMTestData.categories(), addresses, SECRET);
+		load(coordinator, labels);
+		coordinator.prepare();
+		coordinator.close();
+
+		List<InetSocketAddress> remaining = addresses.subList(0, 2);
+		coordinator = new EMCoordinator("id", EMTestData.categories(), remaining, SECRET);
+		try {
+			long sent = load(coordinator, labels);
+			assertTrue(sent > 0);
+			assertTrue(sent < labels.size() / 2);
+			coordinator.estimate(10, 0.);
+			assertSameAsSingleProcess(coordinator);
+		} finally {
+			coordinator.shutdown();
+		}
+	}
+
+	@Test
+	public void testCoordinatorsWithoutSecretAreRejected() throws IOException {
+		List<InetSocketAddress> addresses = startInThreads(1);
+		try {
+			new EMCoordinator("id", EMTestData.categories(), addresses, "wrong");
+			fail("A coordinator with another secret should be rejected");
+		} catch (ShardException ex) {
+			// expected
+		}
+		EMCoordinator coordinator = estimate("id", addresses);
+		try {
+			assertSameAsSingleProcess(coordinator);
+		} finally {
+			coordinator.shutdown();
+		}
+	}
+
+	/**
+	 * @return connection that answered the challenge of the shard server
+	 */
+	private static Socket connect(InetSocketAddress address) throws IOException {
+		Socket socket = new Socket(address.getAddress(), address.getPort());
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		byte[] challenge = new byte[ShardProtocol.CHALLENGE_LENGTH];
+		in.readFully(challenge);
+		socket.getOutputStream().write(ShardProtocol.respond(SECRET, challenge));
+		return socket;
+	}
+
+	/**
+	 * Sends the message and checks that the server drops the connection
+	 * after the replies to its valid part.
+	 */
+	private static void assertDropped(InetSocketAddress address, byte[] message)
+			throws IOException {
+		Socket socket = connect(address);
+		try {
+			socket.setSoTimeout(5000);
+			socket.getOutputStream().write(message);
+			socket.getOutputStream().flush();
+			while (socket.getInputStream().read() != -1) {
+				// replies to the valid messages
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static DataOutputStream init(ByteArrayOutputStream bytes, int categories)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(ShardProtocol.INIT);
+		out.writeUTF("id");
+		out.writeInt(categories);
+		for (int c = 0; c < Math.min(categories, CATEGORIES.length); c++)
+			out.writeUTF(CATEGORIES[c]);
+		return out;
+	}
+
+	@Test
+	public void testShutdownOnlyFromConnectionWithJob() throws IOException {
+		List<InetSocketAddress> addresses = startInThreads(1);
+		assertDropped(addresses.get(0), new byte[] { ShardProtocol.SHUTDOWN });
+		EMCoordinator coordinator = estimate("id", addresses);
+		try {
+			assertSameAsSingleProcess(coordinator);
+		} finally {
+			coordinator.shutdown();
+		}
+	}
+
+	@Test
+	public void testMalformedMessagesDropOnlyTheirConnection() throws IOException {
+		List<InetSocketAddress> addresses = startInThreads(1);
+		InetSocketAddress address = addresses.get(0);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		init(bytes, Integer.MAX_VALUE);
+		assertDropped(address, bytes.toByteArray());
+
+		bytes = new ByteArrayOutputStream();
+		DataOutputStream out = init(bytes, CATEGORIES.length);
+		out.writeByte(ShardProtocol.KEEP);
+		out.writeInt(-1);
+		assertDropped(address, bytes.toByteArray());
+
+		bytes = new ByteArrayOutputStream();
+		out = init(bytes, CATEGORIES.length);
+		out.writeByte(ShardProtocol.LOAD);
+		out.writeInt(0);
+		out.writeLong(0L);
+		out.writeByte(ShardProtocol.LABELS);
+		out.writeInt(ShardProtocol.MAX_LABELS + 1);
+		assertDropped(address, bytes.toByteArray());
+
+		bytes = new ByteArrayOutputStream();
+		out = init(bytes, CATEGORIES.length);
+		out.writeByte(ShardProtocol.PREPARE);
+		out.writeByte(ShardProtocol.POSTERIORS);
+		out.writeInt(Integer.MAX_VALUE);
+		assertDropped(address, bytes.toByteArray());
+
+		EMCoordinator coordinator = estimate("id", addresses);
+		try {
+			assertSameAsSingleProcess(coordinator);
+		} finally {
+			coordinator.shutdown();
+		}
+	}
+
+	@Test
+	public void testListensOnLoopbackByDefault() throws IOException {
+		ShardServer server = new ShardServer(0, SECRET);
+		try {
+			assertTrue(server.getAddress().isLoopbackAddress());
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testSeparateProcesses() throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<Process> processes = new ArrayList<Process>();
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		try {
+			for (int i = 0; i < 2; i++) {
+				ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+						System.getProperty("java.class.path"), ShardServer.class.getName());
+				builder.environment().put(ShardServer.SECRET_VARIABLE, SECRET);
+				Process process = builder.start();
+				processes.add(process);
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(process.getInputStream()));
+				int port = Integer.parseInt(reader.readLine().trim());
+				addresses.add(new InetSocketAddress("localhost", port));
+			}
+			EMCoordinator coordinator = estimate("id", addresses);
+			try {
+				assertSameAsSingleProcess(coordinator);
+			} finally {
+				coordinator.shutdown();
+			}
+			for (Process process : processes)
+				assertEquals(0, process.waitFor());
+		} finally {
+			for (Process process : processes)
+				process.destroy();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.datascience.service;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.datascience.executor.CommandStatusesContainer;
+import com.datascience.executor.NotSafeRWLock;
+import com.datascience.executor.ProjectCommand;
+import com.datascience.executor.ProjectCommandExecutor;
+import com.datascience.executor.SerializedCommandStatusesContainer;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class ResponsesEntryTest {
+
+	private ProjectCommandExecutor executor;
+	private CommandStatusesContainer statusesContainer;
+	private NotSafeRWLock lock;
+	private ResponsesEntry entry;
+
+	@Before
+	public void setUp() {
+		ISerializer serializer = new GSONSerializer();
+		executor = new ProjectCommandExecutor();
+		statusesContainer = new SerializedCommandStatusesContainer(
+				new RandomUniqIDGenerators.Numbers(), serializer);
+		lock = new NotSafeRWLock();
+		entry = new ResponsesEntry();
+		entry.init(new ResponseBuilder(serializer), statusesContainer);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		executor.stop();
+	}
+
+	/**
+	 * Modifies the job and reports the number of its iterations as progress
+	 * until it is cancelled.
+	 */
+	static class LoopCommand extends ProjectCommand<Integer> {
+
+		final CountDownLatch started = new CountDownLatch(1);
+
+		LoopCommand() {
+			super(true);
+		}
+
+		@Override
+		public boolean isCancellable() {
+			return true;
+		}
+
+		@Override
+		protected void prepareExecution() {
+		}
+
+		@Override
+		protected void realExecute() throws Exception {
+			started.countDown();
+			int iterations = 0;
+			while (!isCancelled()) {
+				reportProgress(iterations);
+				iterations++;
+				Thread.sleep(1);
+			}
+			setResult(iterations);
+		}
+	}
+
+	private String submit(ProjectCommand<?> command) {
+		RequestExecutorCommand rec = new RequestExecutorCommand(
+				statusesContainer.initNewStatus(), command, lock, statusesContainer);
+		executor.add(rec);
+		return rec.commandId;
+	}
+
+	private JsonObject get(String id) throws Exception {
+		return content(entry.getResponse(id));
+	}
+
+	private static JsonObject content(Response response) {
+		assertEquals(200, response.getStatus());
+		return new JsonParser().parse((String) response.getEntity()).getAsJsonObject();
+	}
+
+	private JsonObject waitForResult(String id) throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			JsonObject status = get(id);
+			if (!status.get("status").getAsString().equals("NOT_READY"))
+				return status;
+			Thread.sleep(10);
+		}
+		throw new AssertionError("Command " + id + " did not finish");
+	}
+
+	@Test
+	public void testCancelRunningAndQueuedCommands() throws Exception {
+		LoopCommand running = new LoopCommand();
+		String runningId = submit(running);
+		assertTrue(running.started.await(10, TimeUnit.SECONDS));
+		// waits for the lock held by the running command
+		LoopCommand queued = new LoopCommand();
+		String queuedId = submit(queued);
+
+		JsonObject status = get(queuedId);
+		assertEquals("NOT_READY", status.get("status").getAsString());
+		assertFalse(status.has("result"));
+		for (int i = 0; i < 1000 && !get(runningId).has("result"); i++)
+			Thread.sleep(10);
+		status = get(runningId);
+		assertEquals("NOT_READY", status.get("status").getAsString());
+		assertTrue(status.get("result").getAsInt() >= 0);
+
+		assertEquals("OK", content(entry.cancel(queuedId)).get("status").getAsString());
+		assertEquals("OK", content(entry.cancel(runningId)).get("status").getAsString());
+
+		status = waitForResult(runningId);
+		assertEquals("OK", status.get("status").getAsString());
+		assertTrue(status.get("result").getAsInt() > 0);
+		status = waitForResult(queuedId);
+		assertEquals("OK", status.get("status").getAsString());
+		assertEquals(0, status.get("result").getAsInt());
+	}
+
+	@Test
+	public void testCancelFinishedCommand() throws Exception {
+		LoopCommand command = new LoopCommand();
+		String id = submit(command);
+		assertTrue(command.started.await(10, TimeUnit.SECONDS));
+		entry.cancel(id);
+		waitForResult(id);
+		try {
+			entry.cancel(id);
+			fail("Finished command cancelled");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+	}
+
+	@Test(expected=NoSuchElementException.class)
+	public void testCancelUnknownCommand() throws Exception {
+		entry.cancel("unknown");
+	}
+}